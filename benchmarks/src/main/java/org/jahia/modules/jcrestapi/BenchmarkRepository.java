@@ -0,0 +1,148 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.jahia.modules.json.jcr.SessionAccess;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Calendar;
+
+/**
+ * The state shared by the suites: a {@link NoLoggingTransientRepository}, configured like the one of the functional
+ * tests, in which a tree of {@code nt:unstructured} nodes is created under {@link #ROOT}.
+ *
+ * <p>Each node of the tree has {@link #FAN_OUT} children, down to {@link #DEPTH} levels, and {@link #PROPERTIES}
+ * string properties, a long, a date and a reference to {@link #TARGET}, so that every kind of property representation
+ * is exercised. The session is bound to the thread running the benchmark, as {@link API} does for a request.</p>
+ */
+@State(Scope.Thread)
+public class BenchmarkRepository {
+    public static final String ROOT = "benchmark";
+    public static final String TARGET = "target";
+    public static final int FAN_OUT = 5;
+    public static final int DEPTH = 3;
+    public static final int PROPERTIES = 10;
+    public static final String WORKSPACE = "default";
+    public static final String LANGUAGE = "en";
+
+    private NoLoggingTransientRepository repository;
+    private File location;
+    private Session session;
+    private Node root;
+
+    @Setup(Level.Trial)
+    public void startRepository() throws IOException, RepositoryException {
+        location = Files.createTempDirectory("jcrestapi-benchmark-dir_").toFile();
+        final InputStream configStream = BenchmarkRepository.class.getResourceAsStream("/repository.xml");
+        try {
+            repository = new NoLoggingTransientRepository(RepositoryConfig.create(configStream, location.getAbsolutePath()));
+        } finally {
+            configStream.close();
+        }
+
+        session = repository.login();
+        final Node target = session.getRootNode().addNode(TARGET, "nt:unstructured");
+        target.addMixin("mix:referenceable");
+        root = session.getRootNode().addNode(ROOT, "nt:unstructured");
+        populate(root, target, DEPTH);
+        session.save();
+    }
+
+    private static void populate(Node node, Node target, int depth) throws RepositoryException {
+        for (int i = 0; i < PROPERTIES; i++) {
+            node.setProperty("property" + i, "value of property " + i + " of " + node.getName());
+        }
+        node.setProperty("count", (long) depth);
+        node.setProperty("date", Calendar.getInstance());
+        node.setProperty("reference", target);
+
+        if (depth > 0) {
+            for (int i = 0; i < FAN_OUT; i++) {
+                populate(node.addNode("child" + i, "nt:unstructured"), target, depth - 1);
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void bindSession() {
+        // iterations may run on different threads
+        SessionAccess.setCurrentSession(session, WORKSPACE, LANGUAGE);
+        URIUtils.setBaseURI("http://localhost:8080/modules");
+    }
+
+    @TearDown(Level.Trial)
+    public void stopRepository() throws IOException {
+        if (session != null) {
+            session.logout();
+        }
+        if (repository != null) {
+            repository.shutdown();
+        }
+        FileUtils.deleteDirectory(location);
+    }
+
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * @return the root of the seeded tree
+     */
+    public Node getRoot() {
+        return root;
+    }
+}
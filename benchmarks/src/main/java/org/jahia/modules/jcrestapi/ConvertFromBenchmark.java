@@ -0,0 +1,118 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.accessors.NodeElementAccessor;
+import org.jahia.modules.json.JSONItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading the body of a request creating or updating a node, with {@code children} children each with as many
+ * properties as the nodes of the seeded tree, from a string and from a stream.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConvertFromBenchmark {
+
+    @Param({"0", "5", "25"})
+    public int children;
+
+    private final NodeElementAccessor accessor = new NodeElementAccessor();
+    private String body;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder builder = new StringBuilder("{");
+        appendNode(builder, "node");
+        builder.append(", \"children\": {");
+        for (int i = 0; i < children; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("\"child").append(i).append("\": {");
+            appendNode(builder, "child" + i);
+            builder.append('}');
+        }
+        body = builder.append("}}").toString();
+        bytes = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendNode(StringBuilder builder, String name) {
+        builder.append("\"name\": \"").append(name).append("\", \"type\": \"nt:unstructured\", \"properties\": {");
+        for (int i = 0; i < BenchmarkRepository.PROPERTIES; i++) {
+            builder.append("\"property").append(i).append("\": {\"value\": \"value of property ").append(i)
+                    .append(" of ").append(name).append("\"}, ");
+        }
+        builder.append("\"count\": {\"value\": \"42\"}}");
+    }
+
+    @Benchmark
+    public JSONItem convertFromString() throws Exception {
+        return accessor.convertFrom(body);
+    }
+
+    @Benchmark
+    public JSONItem convertFromStream() throws Exception {
+        return accessor.convertFrom(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the filter of a request from its {@code childrenNodeTypes} parameter with
+ * {@link Utils#getFilter(javax.ws.rs.core.UriInfo)}, and applying it, as well as a bare
+ * {@link Utils.ChildrenNodeTypeFilter}, to the children of the root of the seeded tree.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    @Param({"", "nt:unstructured", "nt:folder,nt:unstructured,mix:referenceable"})
+    public String childrenNodeTypes;
+
+    private QueryParametersUriInfo context;
+    private Filter filter;
+    private Filter childrenNodeTypeFilter;
+    private List<Node> children;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkRepository repository) throws RepositoryException {
+        context = new QueryParametersUriInfo();
+        if (!childrenNodeTypes.isEmpty()) {
+            context.add(API.CHILDREN_NODETYPE_FILTER, childrenNodeTypes);
+        }
+        filter = Utils.getFilter(context);
+        childrenNodeTypeFilter = new Utils.ChildrenNodeTypeFilter(new HashSet<String>(Arrays.asList(childrenNodeTypes.split(","))));
+
+        children = new ArrayList<Node>();
+        for (NodeIterator nodes = repository.getRoot().getNodes(); nodes.hasNext(); ) {
+            children.add(nodes.nextNode());
+        }
+    }
+
+    @Benchmark
+    public Filter getFilter() {
+        return Utils.getFilter(context);
+    }
+
+    @Benchmark
+    public int acceptChildren() {
+        return accept(filter);
+    }
+
+    @Benchmark
+    public int acceptChildrenByNodeType() {
+        return accept(childrenNodeTypeFilter);
+    }
+
+    private int accept(Filter filter) {
+        int accepted = 0;
+        for (Node child : children) {
+            if (filter.acceptChild(child)) {
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+}
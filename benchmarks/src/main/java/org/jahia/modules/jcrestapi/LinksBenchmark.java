@@ -0,0 +1,110 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.json.JSONNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jcr.RepositoryException;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what {@link APIDecorator} costs when building a representation, where links only capture their arguments,
+ * and when writing it, where they are expanded, by comparing requests with and without {@code noLinks}. The
+ * difference in allocations per operation reported by the GC profiler is what links cost per node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LinksBenchmark {
+
+    @Param({"false", "true"})
+    public boolean noLinks;
+
+    @Param({"false", "true"})
+    public boolean resolveReferences;
+
+    private APIObjectFactory factory;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<String, String>();
+        if (noLinks) {
+            queryParameters.putSingle(API.NO_LINKS, "");
+        }
+        if (resolveReferences) {
+            queryParameters.putSingle(API.RESOLVE_REFERENCES, "");
+        }
+        factory = RequestOptions.from(queryParameters).getFactory();
+    }
+
+    @Benchmark
+    public JSONNode<APIDecorator> decorateNode(BenchmarkRepository repository) throws RepositoryException {
+        return factory.createNode(repository.getRoot(), API.NODE_FILTER, 1);
+    }
+
+    @Benchmark
+    public long decorateAndWriteNode(BenchmarkRepository repository) throws RepositoryException, IOException {
+        return SerializationBenchmark.write(factory.createNode(repository.getRoot(), API.NODE_FILTER, 1));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.query.Query;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a prepared query and its parameters into a statement, with positional and named parameters, by
+ * interpolating them with {@link PreparedQuery#getQuery(List)} and {@link PreparedQuery#getQuery(Map)}, and by binding
+ * them to a query created in the seeded repository, as the query endpoint does. The placeholders only stand where
+ * JCR-SQL2 accepts bind variables, so that the queries don't fall back to interpolation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PreparedQueryBenchmark {
+    private PreparedQuery positional;
+    private PreparedQuery named;
+    private List<Object> positionalParameters;
+    private Map<String, Object> namedParameters;
+
+    @Setup
+    public void setUp() {
+        positional = new PreparedQuery();
+        positional.setName("positional");
+        positional.setSource("select * from [nt:unstructured] as n where n.[property0] like ? and n.[count] >= ? "
+                + "and n.[jcr:title] <> 'it''s ?' and n.[property1] <> ?");
+        positionalParameters = Arrays.<Object>asList("value of property 0%", 1L, "none");
+
+        named = new PreparedQuery();
+        named.setName("named");
+        named.setSource("select * from [nt:unstructured] as n where n.[property0] like :value and n.[count] >= :count "
+                + "and n.[jcr:title] <> 'it''s :value' and n.[property1] <> :other");
+        namedParameters = new HashMap<String, Object>();
+        namedParameters.put("value", "value of property 0%");
+        namedParameters.put("count", 1L);
+        namedParameters.put("other", "none");
+    }
+
+    @Benchmark
+    public String interpolatePositional() {
+        return positional.getQuery(positionalParameters);
+    }
+
+    @Benchmark
+    public String interpolateNamed() {
+        return named.getQuery(namedParameters);
+    }
+
+    @Benchmark
+    public Query bindPositional(BenchmarkRepository repository) throws RepositoryException {
+        return positional.createQuery(repository.getSession(), positionalParameters);
+    }
+
+    @Benchmark
+    public Query bindNamed(BenchmarkRepository repository) throws RepositoryException {
+        return named.createQuery(repository.getSession(), namedParameters);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.PathSegment;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import java.net.URI;
+import java.util.List;
+
+/**
+ * A {@link UriInfo} only providing query parameters, so that measuring the code reading them doesn't measure a mock.
+ */
+class QueryParametersUriInfo implements UriInfo {
+    private final MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<String, String>();
+
+    QueryParametersUriInfo add(String name, String value) {
+        queryParameters.add(name, value);
+        return this;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getQueryParameters(boolean decode) {
+        return queryParameters;
+    }
+
+    @Override
+    public String getPath() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getPath(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<PathSegment> getPathSegments() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<PathSegment> getPathSegments(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI getRequestUri() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UriBuilder getRequestUriBuilder() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI getAbsolutePath() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UriBuilder getAbsolutePathBuilder() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI getBaseUri() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public UriBuilder getBaseUriBuilder() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getPathParameters() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getPathParameters(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> getMatchedURIs() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<String> getMatchedURIs(boolean decode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<Object> getMatchedResources() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI resolve(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public URI relativize(URI uri) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.BenchmarkRepository;
+import org.jahia.modules.jcrestapi.PropertyDefinitionIndex;
+import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.json.Names;
+import org.jahia.modules.json.jcr.SessionAccess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.jcr.Item;
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares, for the root of the seeded tree and each of its properties, the links {@link APIDecorator} used to build,
+ * URIs concatenated into a {@link HashMap} for every item, with the link records it now builds, templates and their
+ * arguments kept in a {@link LinkMap} and only expanded when written. With {@code expand}, every link is also read as
+ * the JSON writer does, so that both the cost of building a representation whose links are ignored and the cost of
+ * writing them are measured. {@code gc.alloc.rate.norm} is then the number of bytes allocated per node.
+ *
+ * <p>Both variants compute the path of the type link in the same way, so that only the links themselves are
+ * compared.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LinkRecordsBenchmark {
+
+    @Param({"false", "true"})
+    public boolean expand;
+
+    private final List<Item> items = new ArrayList<Item>();
+
+    @Setup(Level.Trial)
+    public void collectItems(BenchmarkRepository repository) throws RepositoryException {
+        final Node root = repository.getRoot();
+        items.add(root);
+        final PropertyIterator properties = root.getProperties();
+        while (properties.hasNext()) {
+            items.add(properties.nextProperty());
+        }
+    }
+
+    @Benchmark
+    public void concatenatedURIs(Blackhole blackhole) throws RepositoryException {
+        for (Item item : items) {
+            // what initFrom did before links were records
+            final Map<String, JSONLink> links = new HashMap<String, JSONLink>(7);
+            final String uri = URIUtils.getURIFor(item);
+            put(links, JSONLink.createLink(API.ABSOLUTE, URIUtils.getAbsoluteURI(uri)));
+            put(links, JSONLink.createLink(API.SELF, uri));
+            put(links, JSONLink.createLink(API.TYPE, URIUtils.getTypeURI(getTypeChildPath(item))));
+
+            Node parent;
+            try {
+                parent = item.getParent();
+            } catch (ItemNotFoundException e) {
+                parent = (Node) item;
+            }
+            put(links, JSONLink.createLink(API.PARENT, URIUtils.getIdURI(parent.getIdentifier())));
+            put(links, JSONLink.createLink(API.PATH, URIUtils.getURIFor(item, true)));
+
+            consume(links, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void linkRecords(Blackhole blackhole) throws RepositoryException {
+        for (Item item : items) {
+            // what initFrom does now
+            final SessionAccess.SessionInfo currentSession = SessionAccess.getCurrentSession();
+            final String workspace = currentSession.workspace;
+            final String language = currentSession.language;
+            final LinkMap links = new LinkMap();
+
+            final JSONLink self;
+            final String parentId;
+            if (item instanceof Node) {
+                final Node node = (Node) item;
+                final String id = node.getIdentifier();
+                self = JSONLink.createLink(API.SELF, LinkTemplate.NODE, workspace, language, id);
+                links.add(JSONLink.createLink(API.PATH, LinkTemplate.NODE_BY_PATH, workspace, language, node.getPath()));
+
+                String nodeParentId;
+                try {
+                    nodeParentId = node.getParent().getIdentifier();
+                } catch (ItemNotFoundException e) {
+                    nodeParentId = id;
+                }
+                parentId = nodeParentId;
+            } else {
+                final Node parent = item.getParent();
+                parentId = parent.getIdentifier();
+                final String name = item.getName();
+                self = JSONLink.createLink(API.SELF, LinkTemplate.PROPERTY, workspace, language, parentId, name);
+                links.add(JSONLink.createLink(API.PATH, LinkTemplate.PROPERTY_BY_PATH, workspace, language, parent.getPath(), name));
+            }
+            links.add(JSONLink.createAbsoluteLink(API.ABSOLUTE, self));
+            links.add(self);
+            links.add(JSONLink.createLink(API.TYPE, LinkTemplate.TYPE, workspace, language, getTypeChildPath(item)));
+            links.add(JSONLink.createLink(API.PARENT, LinkTemplate.NODE, workspace, language, parentId));
+
+            consume(links, blackhole);
+        }
+    }
+
+    private static void put(Map<String, JSONLink> links, JSONLink link) {
+        links.put(link.getRel(), link);
+    }
+
+    private void consume(Map<String, JSONLink> links, Blackhole blackhole) {
+        if (expand) {
+            for (JSONLink link : links.values()) {
+                blackhole.consume(link.getURIAsString());
+            }
+        } else {
+            blackhole.consume(links);
+        }
+    }
+
+    private static String getTypeChildPath(Item item) throws RepositoryException {
+        if (item instanceof Node) {
+            return Names.escape(((Node) item).getPrimaryNodeType().getName());
+        } else {
+            final NodeType declaringNodeType = ((Property) item).getDefinition().getDeclaringNodeType();
+            final String parentName = Names.escape(declaringNodeType.getName());
+            final PropertyDefinitionIndex definitions = PropertyDefinitionIndex.getInstance();
+            if (definitions.getDeclaredCount(declaringNodeType) == 1) {
+                return URIUtils.getChildURI(parentName, APIDecorator.JCR_PROPERTY_DEFINITION, false);
+            } else {
+                final int index = definitions.getDeclaredPosition(declaringNodeType, item.getName());
+                return URIUtils.getChildURI(parentName, Names.escape(APIDecorator.JCR_PROPERTY_DEFINITION, index), false);
+            }
+        }
+    }
+}
@@ -43,13 +43,26 @@
  */
 package org.jahia.modules.jcrestapi;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.jahia.modules.jcrestapi.accessors.*;
 import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.jahia.modules.jcrestapi.json.APINode;
 import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.jcrestapi.json.FieldSelection;
+import org.jahia.modules.jcrestapi.json.JSONBatch;
+import org.jahia.modules.jcrestapi.json.JSONBatchResults;
+import org.jahia.modules.jcrestapi.json.JSONCount;
+import org.jahia.modules.jcrestapi.json.JSONMetrics;
+import org.jahia.modules.jcrestapi.json.JSONNodeList;
 import org.jahia.modules.jcrestapi.json.JSONQuery;
+import org.jahia.modules.jcrestapi.json.JSONQueryStatistics;
+import org.jahia.modules.jcrestapi.json.JSONSelection;
 import org.jahia.modules.jcrestapi.json.JSONVersion;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.jcrestapi.links.ReferenceResolver;
 import org.jahia.modules.json.*;
 import org.jahia.modules.json.jcr.SessionAccess;
+import org.jahia.services.content.JCRNodeWrapper;
 import org.jahia.services.content.JCRSessionFactory;
 import org.jahia.utils.LanguageCodeConverters;
 import org.osgi.service.component.annotations.Component;
@@ -57,14 +70,24 @@ import org.osgi.service.component.annotations.Component;
 import javax.inject.Inject;
 import javax.jcr.*;
 import javax.jcr.query.Query;
-import javax.jcr.query.QueryManager;
 import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+import javax.jcr.query.qom.Ordering;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
 import javax.ws.rs.*;
+import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * The main entry point to the JCR RESTful API.
@@ -98,32 +121,19 @@ public class API {
 
     public static final String INCLUDE_FULL_CHILDREN = "includeFullChildren";
     public static final String RESOLVE_REFERENCES = "resolveReferences";
+    public static final String EMBEDDED_REFERENCES = "embedded";
     public static final String NO_LINKS = "noLinks";
     public static final String CHILDREN_NODETYPE_FILTER = "childrenNodeTypes";
+    public static final String STREAM = "stream";
+    public static final String FLUSH_EVERY = "flushEvery";
+    public static final String FIELDS = "fields";
+    public static final String SAVE_EVERY = "saveEvery";
+    public static final String CREATED_NODES_HEADER = "X-Created-Nodes";
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
 
-    private static final ThreadLocal<Boolean> resolveReferences = new ThreadLocal<Boolean>() {
-
-        @Override
-        protected Boolean initialValue() {
-            return false;
-        }
-    };
-
-    private static final ThreadLocal<Boolean> outputLinks = new ThreadLocal<Boolean>() {
-
-        @Override
-        protected Boolean initialValue() {
-            return true;
-        }
-    };
-
-    private static final ThreadLocal<Boolean> includeFullChildren = new ThreadLocal<Boolean>() {
-
-        @Override
-        protected Boolean initialValue() {
-            return false;
-        }
-    };
+    private static final String ADMINISTRATION_PERMISSION = "administrationAccess";
+    private static final int COUNT_BATCH_SIZE = 100;
 
     protected static final Map<String, ElementAccessor> ACCESSORS = new HashMap<String, ElementAccessor>(7);
 
@@ -134,8 +144,6 @@ public class API {
     private static final String JCRESTAPI_COMMIT_BRANCH = "jcrestapi.commit.branch";
     static final String JCRESTAPI_PROPERTIES = "jcrestapi.properties";
 
-    private static boolean queryDisabled;
-    static final Set<String> excludedNodeTypes;
     public static final Filter NODE_FILTER;
 
     static {
@@ -159,14 +167,11 @@ public class API {
         ACCESSORS.put(JSONConstants.VERSIONS, new VersionElementAccessor());
         ACCESSORS.put("", new NodeElementAccessor());
 
-        final SpringBeansAccess access = SpringBeansAccess.getInstance();
-        queryDisabled = access.isQueryDisabled();
-        excludedNodeTypes = Collections.unmodifiableSet(access.getNodeTypesToSkip());
         NODE_FILTER = new Filter.DefaultFilter() {
             @Override
             public boolean acceptChild(Node child) {
                 try {
-                    return !excludedNodeTypes.contains(child.getPrimaryNodeType().getName()) && SpringBeansAccess.getInstance().hasPermission("jcrestapi.child",child);
+                    return !isExcluded(child) && SpringBeansAccess.getInstance().hasPermission("jcrestapi.child",child);
                 } catch (RepositoryException e) {
                     throw new RuntimeException("Couldn't access primary node type of " + child, e);
                 }
@@ -200,16 +205,25 @@ public class API {
 
     @Inject
     private Repository repository;
+    @Context
+    private ContainerRequestContext requestContext;
+    private RequestOptions options;
     protected String workspace;
     protected String language;
+    protected Request request;
 
     public API() {
     }
 
     public API(String workspace, String language, Repository repository, UriInfo context) {
+        this(workspace, language, repository, context, null);
+    }
+
+    public API(String workspace, String language, Repository repository, UriInfo context, Request request) {
         this.workspace = workspace;
         this.language = language;
         this.repository = repository;
+        this.request = request;
         if (context != null) {
             URIUtils.setBaseURI(context.getBaseUri().toASCIIString());
         }
@@ -220,37 +234,97 @@ public class API {
     }
 
     /**
-     * Specifies whether the API should resolve node references in properties when generating the node representations. This status is only valid for the current Thread.
-     * @param newResolveReferences <code>true</code> if the API should resolve the references in properties, <code>false</code> otherwise
-     * @return the status of reference resolving as it was before this method was called
+     * Retrieves the options of the request this resource answers, as parsed by {@link RequestOptionsFilter}.
+     *
+     * @param context provides the query parameters of the request, parsed here if the filter didn't
+     * @return the options of the request
+     */
+    protected RequestOptions getOptions(UriInfo context) {
+        if (options == null) {
+            options = RequestOptions.of(requestContext, context);
+        }
+        return options;
+    }
+
+    /**
+     * Hands the options of the request over to the given sub-resource, which the container doesn't inject.
+     */
+    private <T extends API> T withOptions(T resource, UriInfo context) {
+        resource.options = getOptions(context);
+        return resource;
+    }
+
+    /**
+     * Runs the given task on the executor of the given pool, see {@link ResourceExecutors}.
+     *
+     * @param pool the pool of the operation the task performs
+     * @param task the work answering the request
+     * @return what the task returns or, when execution is asynchronous, a {@link java.util.concurrent.CompletionStage}
+     * completed with it, which the container waits for before answering
      */
+    protected Object execute(ResourceExecutors.Pool pool, Callable<?> task) {
+        if (options == null && requestContext != null) {
+            // the request context is only available from the thread of the container
+            options = RequestOptions.of(requestContext, requestContext.getUriInfo());
+        }
+        return ResourceExecutors.getInstance().execute(pool, task);
+    }
+
+    /**
+     * @deprecated rendering options are no longer bound to the current Thread but parsed once per request, see
+     * {@link RequestOptions}: this method has no effect
+     * @return the default status of reference resolving
+     */
+    @Deprecated
     public static boolean setResolveReferences(boolean newResolveReferences) {
-        return setThreadLocalFlag(resolveReferences, newResolveReferences);
+        return shouldResolveReferences();
     }
 
     /**
-     * Specifies whether the API should generate HATEOAS links in the node representations. This status is only valid for the current Thread.
-     * @param newOutputLinks <code>true</code> if the API should output HATEOAS links, <code>false</code> otherwise
-     * @return the status of links generation as it was before this method was called
+     * @deprecated rendering options are no longer bound to the current Thread but parsed once per request, see
+     * {@link RequestOptions}: this method has no effect
+     * @return the default status of links generation
      */
+    @Deprecated
     public static boolean setOutputLinks(boolean newOutputLinks) {
-        return setThreadLocalFlag(outputLinks, newOutputLinks);
+        return shouldOutputLinks();
     }
 
     /**
-     * Specifies whether the API should include full children when generating the node representations. This status is only valid for the current Thread.
-     *
-     * @param newIncludeFullChildren <code>true</code> if the API should generate a complete representation of children, <code>false</code> otherwise
-     * @return the status of the children generation as it was before this method was called
+     * @deprecated rendering options are no longer bound to the current Thread but parsed once per request, see
+     * {@link RequestOptions}: this method has no effect
+     * @return the default status of the children generation
      */
+    @Deprecated
     public static boolean setIncludeFullChildren(boolean newIncludeFullChildren) {
-        return setThreadLocalFlag(includeFullChildren, newIncludeFullChildren);
+        return shouldIncludeFullChildren();
+    }
+
+    /**
+     * @deprecated use {@link RequestOptions#isResolveReferences()} with the options of the request
+     * @return the default status of reference resolving, see {@link RequestOptions#DEFAULT}
+     */
+    @Deprecated
+    public static boolean shouldResolveReferences() {
+        return RequestOptions.DEFAULT.isResolveReferences();
+    }
+
+    /**
+     * @deprecated use {@link RequestOptions#isOutputLinks()} with the options of the request
+     * @return the default status of links generation, see {@link RequestOptions#DEFAULT}
+     */
+    @Deprecated
+    public static boolean shouldOutputLinks() {
+        return RequestOptions.DEFAULT.isOutputLinks();
     }
 
-    private static boolean setThreadLocalFlag(ThreadLocal<Boolean> local, boolean newValue) {
-        boolean old = local.get();
-        local.set(newValue);
-        return old;
+    /**
+     * @deprecated use {@link RequestOptions#isIncludeFullChildren()} with the options of the request
+     * @return the default status of the children generation, see {@link RequestOptions#DEFAULT}
+     */
+    @Deprecated
+    public static boolean shouldIncludeFullChildren() {
+        return RequestOptions.DEFAULT.isIncludeFullChildren();
     }
 
     /**
@@ -273,93 +347,375 @@ public class API {
         return JSON_VERSION;
     }
 
+    /**
+     * Returns the latencies, status codes and in-flight requests of the API's endpoints, along with the counters of
+     * its caches. Only administrators may retrieve them.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONMetrics metrics() {
+        Session session = null;
+        try {
+            session = getSession(null, null);
+            checkIsAdministrator(session);
+            return new JSONMetrics(APIMetrics.getInstance());
+        } catch (Exception e) {
+            throw new APIException(e);
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Returns the statistics {@link SlowQueryLog} keeps about the most costly queries. Only administrators may retrieve
+     * them.
+     */
+    @GET
+    @Path("/metrics/queries")
+    @Produces(MediaType.APPLICATION_JSON)
+    public JSONQueryStatistics queryStatistics() {
+        Session session = null;
+        try {
+            session = getSession(null, null);
+            checkIsAdministrator(session);
+            return new JSONQueryStatistics(SlowQueryLog.getInstance());
+        } catch (Exception e) {
+            throw new APIException(e);
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Checks that the user the given session belongs to administers the platform.
+     *
+     * @throws AccessDeniedException if the user doesn't
+     */
+    private static void checkIsAdministrator(Session session) throws RepositoryException {
+        final Node root = session.getRootNode();
+        final boolean administrator;
+        if (root instanceof JCRNodeWrapper) {
+            administrator = ((JCRNodeWrapper) root).hasPermission(ADMINISTRATION_PERMISSION);
+        } else {
+            final AccessControlManager accessControlManager = session.getAccessControlManager();
+            administrator = accessControlManager.hasPrivileges(root.getPath(),
+                    new Privilege[]{accessControlManager.privilegeFromName(Privilege.JCR_ALL)});
+        }
+        if (!administrator) {
+            throw new AccessDeniedException("Only administrators may access this resource");
+        }
+    }
+
     @POST
     @Path("/{workspace}/{language}/query")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object query(@PathParam("workspace") String workspace, @PathParam("language") String language, JSONQuery jsonQuery, @Context UriInfo context) {
+    public Object query(@PathParam("workspace") final String workspace, @PathParam("language") final String language, final JSONQuery jsonQuery, @Context final UriInfo context) {
 
         if (jsonQuery != null) {
 
-            Session session = null;
-
-            final String statement;
+            final PreparedQuery preparedQuery;
             if (jsonQuery.getQueryName() != null) {
-                PreparedQuery q = PreparedQueriesRegistry.getInstance().getQuery(jsonQuery.getQueryName());
-                if (q == null) {
-                    return Response.status(Response.Status.NOT_FOUND);
-                }
-                if (jsonQuery.getParameters() != null) {
-                    statement = q.getQuery(jsonQuery.getParameters());
-                } else if (jsonQuery.getNamedParameters() != null) {
-                    statement = q.getQuery(jsonQuery.getNamedParameters());
-                } else {
-                    statement = q.getSource();
+                preparedQuery = PreparedQueriesRegistry.getInstance().getQuery(jsonQuery.getQueryName());
+                if (preparedQuery == null) {
+                    return Response.status(Response.Status.NOT_FOUND).build();
                 }
             } else {
                 if (!API.isQueryDisabled()) {
-                    statement = jsonQuery.getQuery();
+                    preparedQuery = null;
                 } else {
                     APIExceptionMapper.LOGGER.debug("Query endpoint is disabled. Attempted query: " + jsonQuery);
                     return Response.status(Response.Status.NOT_FOUND).build();
                 }
             }
 
-            try {
+            final QueryCreator queryCreator = new QueryCreator(jsonQuery.getLimit(), jsonQuery.getOffset(), jsonQuery.getCursor()) {
+                @Override
+                protected Query createQuery(Session session) throws RepositoryException {
+                    if (preparedQuery == null) {
+                        return session.getWorkspace().getQueryManager().createQuery(jsonQuery.getQuery(), Query.JCR_SQL2);
+                    } else if (jsonQuery.getParameters() != null) {
+                        return preparedQuery.createQuery(session, jsonQuery.getParameters());
+                    } else if (jsonQuery.getNamedParameters() != null) {
+                        return preparedQuery.createQuery(session, jsonQuery.getNamedParameters());
+                    } else {
+                        return preparedQuery.createQuery(session);
+                    }
+                }
 
-                resolveReferences.set(Utils.getFlagValueFrom(context, RESOLVE_REFERENCES));
-                outputLinks.set(!Utils.getFlagValueFrom(context, NO_LINKS));
-                includeFullChildren.set(Utils.getFlagValueFrom(context, INCLUDE_FULL_CHILDREN));
+                @Override
+                protected void bindValues(Session session, Query query) throws RepositoryException {
+                    if (preparedQuery != null) {
+                        if (jsonQuery.getParameters() != null) {
+                            preparedQuery.bindValues(session, query, jsonQuery.getParameters());
+                        } else if (jsonQuery.getNamedParameters() != null) {
+                            preparedQuery.bindValues(session, query, jsonQuery.getNamedParameters());
+                        }
+                    }
+                }
 
-                session = getSession(workspace, language);
-                final QueryManager queryManager = session.getWorkspace().getQueryManager();
-                final Query query = queryManager.createQuery(statement, Query.JCR_SQL2);
-                if (jsonQuery.getLimit() > 0) {
-                    query.setLimit(jsonQuery.getLimit());
+                @Override
+                protected String getPreparedQueryName() {
+                    return preparedQuery != null ? preparedQuery.getName() : null;
                 }
 
-                if (jsonQuery.getOffset() > 0) {
-                    query.setOffset(jsonQuery.getOffset());
+                @Override
+                protected String getStatementKey() {
+                    final StringBuilder key = new StringBuilder();
+                    if (preparedQuery == null) {
+                        key.append("sql2:").append(jsonQuery.getQuery());
+                    } else {
+                        key.append("prepared:").append(preparedQuery.getName()).append(':').append(preparedQuery.getSource());
+                        if (jsonQuery.getParameters() != null) {
+                            key.append("|params:").append(jsonQuery.getParameters());
+                        } else if (jsonQuery.getNamedParameters() != null) {
+                            key.append("|params:").append(new TreeMap<>(jsonQuery.getNamedParameters()));
+                        }
+                    }
+                    return key.toString();
                 }
+            };
+
+            return execute(ResourceExecutors.Pool.QUERY, new Callable<Object>() {
+                @Override
+                public Object call() {
+                    if (jsonQuery.isCountOnly()) {
+                        return Response.ok(new JSONCount(performCount(workspace, language, context, queryCreator))).build();
+                    }
+                    return performQuery(workspace, language, context, 1, queryCreator);
+                }
+            });
+        } else {
+            return Response.ok().build();
+        }
+    }
+
+    /**
+     * Performs the given operations, in order, in one session that is saved once they all succeeded, or every
+     * {@code saveEvery} operations when the batch asks for it. Each operation addresses a node by identifier or by path
+     * and behaves the way the same request sent to the nodes or paths endpoints would, moves included.
+     *
+     * <p>The batch stops at the first operation that fails: the changes made since the last save are discarded, and the
+     * operations following it are not performed. The response lists the result of each performed operation, the
+     * failed one included, along with how many operations were saved.</p>
+     *
+     * @param workspace the JCR workspace that we want to access
+     * @param language  the language code in which we want to retrieve the data
+     * @param batch     the operations to perform
+     * @param context   a UriInfo instance, automatically injected, providing context about the request URI
+     * @return a Response ready to be sent to the client
+     */
+    @POST
+    @Path("/{workspace}/{language}/batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+    public Object batch(@PathParam("workspace") final String workspace, @PathParam("language") final String language, final JSONBatch batch, @Context final UriInfo context) {
+        if (batch == null || batch.getOperations() == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Missing operations").build();
+        }
+        return execute(ResourceExecutors.Pool.WRITE, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return performBatch(workspace, language, batch, context);
+            }
+        });
+    }
+
+    /**
+     * Runs the query the given creator builds and answers with the nodes it found, in the order the query returned them.
+     *
+     * <p>By default, the representations of all the accepted nodes are built before the response is sent. When the
+     * {@link #STREAM} flag is passed, the nodes are instead written one by one as the response is sent, see
+     * {@link NodeStreamingOutput}: memory use then no longer depends on how many nodes the query found. The
+     * {@link #FLUSH_EVERY} parameter additionally asks for the response to be flushed every given number of nodes.</p>
+     *
+     * <p>The found nodes are looked up in the {@link QueryResultCache} first, using the key the creator provides.</p>
+     *
+     * <p>When the query is limited and ordered, the response comes with a {@link #NEXT_CURSOR_HEADER} header, unless
+     * this page is the last one or the nodes are streamed. Passing the cursor along with the same query then retrieves
+     * the next page, see {@link KeysetCursor}.</p>
+     *
+     * @param workspace    the JCR workspace that we want to access
+     * @param language     the language code in which we want to retrieve the data
+     * @param context      a UriInfo instance, automatically injected, providing context about the request URI
+     * @param depth        the depth at which each found node is rendered
+     * @param queryCreator builds the query to run once the session is available
+     * @return a Response ready to be sent to the client
+     */
+    protected Response performQuery(String workspace, String language, UriInfo context, int depth, QueryCreator queryCreator) {
+
+        Session session = null;
+        boolean streamed = false;
+        final PermissionDecisionCache.RequestScope previousScope = PermissionDecisionCache.getInstance().beginRequest();
+
+        try {
 
-                final QueryResult queryResult = query.execute();
+            queryCreator.getCursor();
+            session = getSession(workspace, language);
+            final SlowQueryLog.Execution execution = queryCreator.startExecution(session);
+            final NodeIterator found = QueryResultCache.getInstance().getNodes(session, queryCreator);
+            final KeysetCursor.Page page = queryCreator.paginate(session, found);
+            final NodeIterator nodes = execution.measure(page != null ? page : found);
+            final RequestOptions parsed = getOptions(context);
+            final ReferenceResolver resolver = ReferenceResolver.from(session, parsed);
+            final RequestOptions options = parsed.withReferenceResolver(resolver);
+            final Filter filter = options.getFilter();
+            final FieldSelection fields = options.getFields();
+
+            if (options.isStream()) {
+                final StreamingOutput output = new NodeStreamingOutput(this, SessionAccess.getCurrentSession(), nodes, execution, filter, depth,
+                        fields, options);
+                // from now on, the output is in charge of the session
+                streamed = true;
+                return Response.ok(output).build();
+            }
 
-                final NodeIterator nodes = queryResult.getNodes();
-                final List<JSONNode> result = new LinkedList<>();
-                final Filter filter = Utils.getFilter(context);
+            final APIObjectFactory factory = options.getFactory();
+
+            final List<JSONNode<APIDecorator>> result = new LinkedList<>();
+            final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.SERIALIZATION);
+            try {
                 while (nodes.hasNext()) {
                     final Node resultNode = nodes.nextNode();
                     if (filter.acceptChild(resultNode)) {
-                        JSONNode node = getFactory().createNode(resultNode, filter, 1);
+                        JSONNode<APIDecorator> node = factory.createNode(resultNode, filter, depth, fields);
                         result.add(node);
                     }
                 }
-
-                return Response.ok(result).build();
-            } catch (Exception e) {
-                throw new APIException(e);
             } finally {
-                resolveReferences.set(false);
-                outputLinks.set(true);
-                includeFullChildren.set(false);
+                RequestTimings.end(previous);
+            }
+            execution.accepted(result.size());
+            SlowQueryLog.getInstance().finish(execution);
+
+            final Response.ResponseBuilder builder = Response.ok(resolver != null && resolver.isEmbedded() ?
+                    new JSONNodeList(result, resolver.resolvePending()) : result);
+            final KeysetCursor nextCursor = page != null ? page.getNextCursor() : null;
+            if (nextCursor != null) {
+                builder.header(NEXT_CURSOR_HEADER, nextCursor.encode());
+            }
+            return builder.build();
+        } catch (Exception e) {
+            throw new APIException(e);
+        } finally {
+            // a streamed output remembers decisions in its own scope, since it may be written by another thread
+            PermissionDecisionCache.getInstance().endRequest(previousScope);
+            if (!streamed) {
                 closeSession(session);
             }
-        } else {
-            return Response.ok().build();
         }
     }
 
+    /**
+     * Counts the nodes the query the given creator builds finds, with the same filtering as
+     * {@link #performQuery(String, String, UriInfo, int, QueryCreator)} but without building their representations.
+     *
+     * <p>When nothing needs to be filtered out, the repository counts the matching rows by itself, without the nodes
+     * being loaded. Otherwise, the found nodes are loaded to be checked against the filter of the request. Since
+     * permissions depend on the path and type of each node, this is always the case when a permission service is set,
+     * as it is within a Jahia platform: there, the fast path only applies to tests and embedded repositories.</p>
+     *
+     * @param workspace    the JCR workspace that we want to access
+     * @param language     the language code in which we want to retrieve the data
+     * @param context      a UriInfo instance, automatically injected, providing context about the request URI
+     * @param queryCreator builds the query to run once the session is available
+     * @return the number of nodes that would be returned by the query
+     */
+    protected long performCount(String workspace, String language, UriInfo context, QueryCreator queryCreator) {
+
+        Session session = null;
+        final PermissionDecisionCache.RequestScope previousScope = PermissionDecisionCache.getInstance().beginRequest();
+
+        try {
+
+            final KeysetCursor cursor = queryCreator.getCursor();
+            session = getSession(workspace, language);
+            final Filter filter = getOptions(context).getFilter();
+
+            final SlowQueryLog.Execution execution = queryCreator.startExecution(session);
+
+            if (filter == NODE_FILTER && cursor == null && APIConfiguration.get().getNodeTypesToSkip().isEmpty() && !SpringBeansAccess.getInstance().isPermissionCheckEnabled()) {
+                final RowIterator rows = queryCreator.execute(session).getRows();
+                final long start = System.nanoTime();
+                long count = rows.getSize();
+                if (count < 0) {
+                    // the repository doesn't know the size upfront, rows are still cheaper to go through than nodes
+                    count = 0;
+                    while (rows.hasNext()) {
+                        rows.nextRow();
+                        count++;
+                    }
+                }
+                execution.materialized(count, System.nanoTime() - start);
+                SlowQueryLog.getInstance().finish(execution);
+                return count;
+            }
+
+            final NodeIterator found = QueryResultCache.getInstance().getNodes(session, queryCreator);
+            final NodeIterator nodes = execution.measure(cursor != null ? queryCreator.paginate(session, found) : found);
+            long count = 0;
+            if (filter == NODE_FILTER) {
+                count = countAccepted(nodes);
+            } else {
+                while (nodes.hasNext()) {
+                    if (filter.acceptChild(nodes.nextNode())) {
+                        count++;
+                    }
+                }
+            }
+            execution.accepted(count);
+            SlowQueryLog.getInstance().finish(execution);
+            return count;
+        } catch (Exception e) {
+            throw new APIException(e);
+        } finally {
+            PermissionDecisionCache.getInstance().endRequest(previousScope);
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Counts the given nodes {@link #NODE_FILTER} accepts, checking their permissions a batch at a time.
+     */
+    private static long countAccepted(NodeIterator nodes) throws RepositoryException {
+        final List<Node> batch = new ArrayList<Node>(COUNT_BATCH_SIZE);
+        long count = 0;
+        while (nodes.hasNext()) {
+            final Node node = nodes.nextNode();
+            if (!isExcluded(node)) {
+                batch.add(node);
+                if (batch.size() == COUNT_BATCH_SIZE) {
+                    count += countPermitted(batch);
+                    batch.clear();
+                }
+            }
+        }
+        return count + countPermitted(batch);
+    }
+
+    private static long countPermitted(List<Node> nodes) throws RepositoryException {
+        long count = 0;
+        for (boolean permitted : SpringBeansAccess.getInstance().hasPermissions("jcrestapi.child", nodes)) {
+            if (permitted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      * Retrieves the sub-resources in charge of handling requests accessing resources by their identifiers.
      *
      * @param workspace the JCR workspace that we want to access
      * @param language  the language code in which we want to retrieve the data
      * @param context   a UriInfo instance, automatically injected, providing context about the request URI
+     * @param request   the request, automatically injected, used to evaluate its preconditions
      * @return a Nodes instance configured to access JCR data from the specified workspace and language
      */
     @Path("/{workspace}/{language}/" + Nodes.MAPPING)
-    public Nodes getNodes(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context) {
-        return new Nodes(workspace, language, repository, context);
+    public Nodes getNodes(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context, @Context Request request) {
+        return withOptions(new Nodes(workspace, language, repository, context, request), context);
     }
 
     /**
@@ -368,12 +724,13 @@ public class API {
      * @param workspace the JCR workspace that we want to access
      * @param language  the language code in which we want to retrieve the data
      * @param context   a UriInfo instance, automatically injected, providing context about the request URI
+     * @param request   the request, automatically injected, used to evaluate its preconditions
      * @return a Types instance configured to access JCR data from the specified workspace and language
      * @deprecated Use query endpoint instead
      */
     @Path("/{workspace}/{language}/" + Types.MAPPING)
-    public Types getByType(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context) {
-        return new Types(workspace, language, repository, context);
+    public Types getByType(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context, @Context Request request) {
+        return withOptions(new Types(workspace, language, repository, context, request), context);
     }
 
     /**
@@ -382,11 +739,26 @@ public class API {
      * @param workspace the JCR workspace that we want to access
      * @param language  the language code in which we want to retrieve the data
      * @param context   a UriInfo instance, automatically injected, providing context about the request URI
+     * @param request   the request, automatically injected, used to evaluate its preconditions
      * @return a Types instance configured to access JCR data from the specified workspace and language
      */
     @Path("/{workspace}/{language}/" + Paths.MAPPING)
-    public Paths getByPath(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context) {
-        return new Paths(workspace, language, repository, context);
+    public Paths getByPath(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context, @Context Request request) {
+        return withOptions(new Paths(workspace, language, repository, context, request), context);
+    }
+
+    /**
+     * Retrieves the sub-resources in charge of handling files uploaded in several chunks.
+     *
+     * @param workspace the JCR workspace that we want to access
+     * @param language  the language code in which we want to retrieve the data
+     * @param context   a UriInfo instance, automatically injected, providing context about the request URI
+     * @param request   the request, automatically injected
+     * @return an Uploads instance configured to upload files to the specified workspace and language
+     */
+    @Path("/{workspace}/{language}/" + Uploads.MAPPING)
+    public Uploads getUploads(@PathParam("workspace") String workspace, @PathParam("language") String language, @Context UriInfo context, @Context Request request) {
+        return withOptions(new Uploads(workspace, language, repository, context, request), context);
     }
 
     protected Response perform(String workspace, String language, String idOrPath, String subElementType, String subElement, UriInfo context,
@@ -437,12 +809,55 @@ public class API {
      * @throws RepositoryException   if the node's primary type or path cannot be read
      */
     void checkNodeIsInScope(Node node, String operation) throws RepositoryException {
-        if (excludedNodeTypes.contains(node.getPrimaryNodeType().getName())
+        if (isExcluded(node)
                 || !SpringBeansAccess.getInstance().hasPermission("jcrestapi." + operation, node)) {
             throw new PathNotFoundException(node.getPath());
         }
     }
 
+    /**
+     * Checks that the node a rename lands the node under is exposed by the API, when that is not the node's own
+     * parent.
+     *
+     * <p>The new name resolves the way a JCR path resolves, as a <em>relative path</em> rather than a name, so
+     * {@code ../sibling/name} lands the node under another parent and {@code .} lands it beside its own parent. The
+     * destination is therefore resolved here through the same path {@link Session#move} builds, with {@code /..}
+     * appended so that JCR answers with the node that gains the child. The node checked is the node the move
+     * reaches, whatever shape the name takes, and containment is deliberately not enforced: moving a node under
+     * another parent is what such a name is for.
+     *
+     * <p>A name that keeps the node under its own parent reaches no node the request has not already answered for,
+     * so it is left alone. A name that resolves to no node, or to no node at all above the root, is left to JCR,
+     * which reports it the same way as before.
+     *
+     * @param node    the node the request resolved to
+     * @param newName the name the node takes, resolved relative to that node's parent
+     * @throws PathNotFoundException if the node the rename lands the node under is not exposed by the API
+     * @throws RepositoryException   if that node cannot be read
+     */
+    void checkDestinationIsInScope(Node node, String newName) throws RepositoryException {
+        final Node sourceParent = node.getParent();
+        final Node destinationParent = node.getSession().getNode(getDestinationPath(node, newName) + "/..");
+        if (!destinationParent.isSame(sourceParent)) {
+            checkNodeIsInScope(destinationParent, MOVE);
+        }
+    }
+
+    /**
+     * Builds the path a rename moves the node to. The new name resolves relative to the node's parent, so it is joined
+     * to that parent's path. The root node's path is the separator on its own, so joining a name to it directly leaves
+     * an empty segment in the path, and JCR refuses such a path.
+     *
+     * @param node    the node the request resolved to
+     * @param newName the name the node takes, resolved relative to that node's parent
+     * @return the absolute path the node moves to
+     * @throws RepositoryException if the node's parent cannot be read
+     */
+    static String getDestinationPath(Node node, String newName) throws RepositoryException {
+        final String parentPath = node.getParent().getPath();
+        return ("/".equals(parentPath) ? "" : parentPath) + "/" + newName;
+    }
+
     /**
      * Performs a batch delete of all specified sub-element types identified by the given list of sub-elements. Note that this method could actually
      * be extended to include other types of batch operations.
@@ -479,8 +894,8 @@ public class API {
 
             final ElementAccessor accessor = ACCESSORS.get(subElementType);
             if (accessor != null) {
-                final Response response = accessor.perform(node, subElements, DELETE, null, context);
-                session.save();
+                final Response response = accessor.perform(node, subElements, DELETE, null, context, getOptions(context));
+                save(session);
                 return response;
             } else {
                 return null;
@@ -492,26 +907,152 @@ public class API {
         }
     }
 
+    /**
+     * Performs the operations of the given batch in one session, see {@link #batch(String, String, JSONBatch, UriInfo)}.
+     */
+    protected Response performBatch(String workspace, String language, JSONBatch batch, UriInfo context) {
+
+        Session session = null;
+
+        final RequestOptions parsed = getOptions(context);
+        final int saveEvery = Math.max(0, batch.getSaveEvery());
+        final JSONBatchResults results = new JSONBatchResults();
+        final PermissionDecisionCache.RequestScope previousScope = PermissionDecisionCache.getInstance().beginRequest();
+
+        try {
+
+            session = getSession(workspace, language);
+            final ReferenceResolver resolver = ReferenceResolver.from(session, parsed);
+            final RequestOptions options = parsed.withReferenceResolver(resolver);
+
+            boolean failed = false;
+            for (JSONBatch.Operation operation : batch.getOperations()) {
+                final JSONBatchResults.Result result = performBatchOperation(session, operation, context, options);
+                results.add(result);
+
+                if (result.getStatus() >= Response.Status.BAD_REQUEST.getStatusCode()) {
+                    // discard what this batch changed since it was last saved
+                    session.refresh(false);
+                    failed = true;
+                    break;
+                }
+
+                if (resolver != null && resolver.isEmbedded()) {
+                    embedReferences(result.getEntity(), resolver);
+                }
+
+                if (saveEvery > 0 && results.getResults().size() % saveEvery == 0) {
+                    save(session);
+                    results.markSaved();
+                }
+            }
+
+            if (!failed) {
+                save(session);
+                results.markSaved();
+            }
+
+            return Response.ok(results).build();
+        } catch (Exception e) {
+            throw new APIException(e);
+        } finally {
+            PermissionDecisionCache.getInstance().endRequest(previousScope);
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Performs one operation of a batch, answering with the status and entity the same request would have been answered
+     * with on its own. Failures are reported the way {@link APIExceptionMapper} reports them rather than thrown, so that
+     * the batch can report the operations performed before.
+     */
+    private JSONBatchResults.Result performBatchOperation(Session session, JSONBatch.Operation operation, UriInfo context, RequestOptions options) {
+        final String operationName = operation.getOperation();
+        final NodeAccessor nodeAccessor = operation.getId() != null ? NodeAccessor.BY_ID : NodeAccessor.BY_PATH;
+        final String idOrPath = operation.getId() != null ? operation.getId() : operation.getPath();
+        final String subElementType = operation.getSubElementType() != null ? operation.getSubElementType() : "";
+        final String subElement = operation.getSubElement() != null ? operation.getSubElement() : "";
+
+        try {
+            if (idOrPath == null) {
+                throw new IllegalArgumentException("An operation must specify either an id or a path");
+            }
+            final ElementsProcessor processor = new ElementsProcessor(idOrPath, subElementType, subElement);
+            final Node node = nodeAccessor.getNode(processor.getIdOrPath(), session);
+
+            if (MOVE.equals(operationName)) {
+                if (!Utils.exists(operation.getNewName())) {
+                    throw new IllegalArgumentException("A move must specify the name the node takes");
+                }
+                checkNodeIsInScope(node, MOVE);
+                checkDestinationIsInScope(node, operation.getNewName());
+                session.move(node.getPath(), getDestinationPath(node, operation.getNewName()));
+                return new JSONBatchResults.Result(Response.Status.SEE_OTHER.getStatusCode(),
+                        URIUtils.addModulesContextTo(URIUtils.getIdURI(node.getIdentifier()), context), null);
+            }
+
+            if (!READ.equals(operationName) && !CREATE_OR_UPDATE.equals(operationName) && !DELETE.equals(operationName)) {
+                throw new IllegalArgumentException("Unknown operation: " + operationName);
+            }
+
+            final ElementAccessor accessor = ACCESSORS.get(processor.getSubElementType());
+            if (accessor == null) {
+                throw new IllegalArgumentException("Unknown sub-element type: " + processor.getSubElementType());
+            }
+
+            checkNodeIsInScope(node, operationName);
+            if (DELETE.equals(operationName) && JSONConstants.CHILDREN.equals(processor.getSubElementType())) {
+                checkChildIsInScope(node, processor.getSubElement());
+            }
+
+            final JSONItem data;
+            try {
+                data = operation.getData() != null ? accessor.convertFrom(operation.getData()) : null;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid data: " + e.getMessage(), e);
+            }
+
+            @SuppressWarnings("unchecked")
+            final Response response = accessor.perform(node, processor.getSubElement(), operationName, data, context, options);
+            return new JSONBatchResults.Result(response.getStatus(), null, response.getEntity());
+        } catch (Exception e) {
+            final Response error = new APIExceptionMapper().toResponse(new APIException(e, operationName, nodeAccessor.getType(),
+                    idOrPath, subElementType, Collections.singletonList(subElement), operation.getData()));
+            return new JSONBatchResults.Result(error.getStatus(), null, error.getEntity());
+        }
+    }
+
     protected Response perform(String workspace, String language, String idOrPath, String subElementType, String subElement, UriInfo context,
                                String operation, JSONItem data, NodeAccessor nodeAccessor) {
         return perform(workspace, language, context, operation, data, nodeAccessor, new ElementsProcessor(idOrPath, subElementType, subElement));
     }
 
-    protected Response perform(String workspace, String language, UriInfo context, String operation, JSONItem data, NodeAccessor nodeAccessor, ElementsProcessor processor) {
+    /**
+     * Performs the given operation on the node the given processor resolves to.
+     *
+     * @param data the data to create or update the node with: either an already bound {@link JSONItem}, or an
+     *             {@link InputStream} that the accessor reads as it applies it, {@code null} for other operations
+     */
+    protected Response perform(String workspace, String language, UriInfo context, String operation, Object data, NodeAccessor nodeAccessor, ElementsProcessor processor) {
 
         Session session = null;
+        ChunkedSave chunks = null;
 
-        resolveReferences.set(Utils.getFlagValueFrom(context, RESOLVE_REFERENCES));
-        outputLinks.set(!Utils.getFlagValueFrom(context, NO_LINKS));
-        includeFullChildren.set(Utils.getFlagValueFrom(context, INCLUDE_FULL_CHILDREN));
-
+        final RequestOptions parsed = getOptions(context);
         final String idOrPath = processor.getIdOrPath();
         final String subElementType = processor.getSubElementType();
         final String subElement = processor.getSubElement();
+        final PermissionDecisionCache.RequestScope previousScope = PermissionDecisionCache.getInstance().beginRequest();
 
         try {
 
             session = getSession(workspace, language);
+            final ReferenceResolver resolver = ReferenceResolver.from(session, parsed);
+            final int saveEvery = CREATE_OR_UPDATE.equals(operation) ? parsed.getSaveEvery() : 0;
+            if (saveEvery > 0) {
+                chunks = new ChunkedSave(session, saveEvery);
+            }
+            final RequestOptions options = parsed.withReferenceResolver(resolver).withChunkedSave(chunks);
 
             final Node node = nodeAccessor.getNode(idOrPath, session);
             checkNodeIsInScope(node, operation);
@@ -521,23 +1062,101 @@ public class API {
 
             final ElementAccessor accessor = ACCESSORS.get(subElementType);
             if (accessor != null) {
-                final Response response = accessor.perform(node, subElement, operation, data, context);
-                session.save();
+                // a client with a still valid tag is answered without the representation being built
+                final boolean conditional = READ.equals(operation) && request != null;
+                final EntityTag tag = conditional ?
+                        EntityTags.compute(node, subElementType, subElement, context, options, workspace, language) : null;
+                if (tag != null) {
+                    final Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+                    if (notModified != null) {
+                        return notModified.build();
+                    }
+                }
+
+                final Response response = data instanceof InputStream ?
+                        createOrUpdateFrom((InputStream) data, accessor, node, subElement, context, options) :
+                        accessor.perform(node, subElement, operation, (JSONItem) data, context, options);
+                save(session);
+                if (resolver != null && resolver.isEmbedded()) {
+                    embedReferences(response.getEntity(), resolver);
+                }
+                if (chunks != null) {
+                    chunks.allSaved();
+                    return Response.fromResponse(response).header(CREATED_NODES_HEADER, chunks.getCreated()).build();
+                }
+                if (conditional && response.getEntity() != null && response.getStatus() == Response.Status.OK.getStatusCode()) {
+                    if (tag != null) {
+                        return Response.fromResponse(response).tag(tag).build();
+                    }
+                    // the representation reaches further than the cheap validator does: digest it, however deep
+                    final EntityTag digest = EntityTags.compute(response.getEntity());
+                    final Response.ResponseBuilder notModified = request.evaluatePreconditions(digest);
+                    return notModified != null ? notModified.build() : Response.fromResponse(response).tag(digest).build();
+                }
                 return response;
             } else {
                 return null;
             }
         } catch (Exception e) {
-            throw new APIException(e, operation, nodeAccessor.getType(), idOrPath, subElementType, Collections.singletonList(subElement), data);
+            // a body that was read as it was applied is not reported back
+            final APIException.JSONError error = new APIException.JSONError(e, operation, nodeAccessor.getType(), idOrPath, subElementType,
+                    Collections.singletonList(subElement), data instanceof InputStream ? null : data);
+            if (chunks != null && (chunks.getSaved() > 0 || chunks.getFailedPath() != null)) {
+                // the nodes saved so far stay in the repository, tell the client where to resume
+                error.setProgress(chunks);
+            }
+            throw new APIException(e, error);
         } finally {
-            resolveReferences.set(false);
-            outputLinks.set(true);
-            includeFullChildren.set(false);
+            PermissionDecisionCache.getInstance().endRequest(previousScope);
             closeSession(session);
         }
     }
 
+    /**
+     * Creates or updates the specified sub-element from the request body, reporting a body that is not valid JSON as a
+     * bad request.
+     */
+    private static Response createOrUpdateFrom(InputStream body, ElementAccessor accessor, Node node, String subElement, UriInfo context,
+                                               RequestOptions options) throws RepositoryException, IOException {
+        try {
+            return accessor.createOrUpdate(node, subElement, body, context, options);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid JSON body: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the nodes referenced from anywhere in the specified representation to its {@code _embedded} section.
+     */
+    @SuppressWarnings("unchecked")
+    private static void embedReferences(Object entity, ReferenceResolver resolver) throws RepositoryException {
+        final APIDecorator decorator;
+        if (entity instanceof JSONItem) {
+            decorator = ((JSONItem<?, APIDecorator>) entity).getDecorator();
+        } else if (entity instanceof JSONSubElementContainer) {
+            decorator = ((JSONSubElementContainer<APIDecorator>) entity).getDecorator();
+        } else if (entity instanceof JSONSelection) {
+            decorator = ((JSONSelection) entity).getDecorator();
+        } else {
+            decorator = null;
+        }
+
+        final Map<String, APINode> embedded = resolver.resolvePending();
+        if (decorator != null && !embedded.isEmpty()) {
+            decorator.setEmbedded(embedded);
+        }
+    }
+
     protected Session getSession(String workspace, String language) throws RepositoryException {
+        final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.SESSION);
+        try {
+            return openSession(workspace, language);
+        } finally {
+            RequestTimings.end(previous);
+        }
+    }
+
+    private Session openSession(String workspace, String language) throws RepositoryException {
 
         if (!Utils.exists(workspace)) {
             workspace = "default";
@@ -565,6 +1184,18 @@ public class API {
         return session;
     }
 
+    /**
+     * Saves the given session, accounting for it in the {@link RequestTimings} of the current request.
+     */
+    protected static void save(Session session) throws RepositoryException {
+        final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.SAVE);
+        try {
+            session.save();
+        } finally {
+            RequestTimings.end(previous);
+        }
+    }
+
     protected void closeSession(Session session) {
 
         if (session != null && session.isLive()) {
@@ -575,16 +1206,160 @@ public class API {
         SessionAccess.closeCurrentSession();
     }
 
-    public static boolean shouldResolveReferences() {
-        return resolveReferences.get();
-    }
+    /**
+     * Builds the query a query-based endpoint runs, once the session it runs in is available, and applies the
+     * requested page to it: either through its limit and offset or, when a {@link KeysetCursor} is provided, by
+     * restricting it to the nodes following the cursor.
+     */
+    protected abstract static class QueryCreator {
+        private final int limit;
+        private final int offset;
+        private final String cursorToken;
+        private KeysetCursor cursor;
+        private SlowQueryLog.Execution execution;
+
+        /**
+         * @param limit  the maximum number of nodes to find, if positive
+         * @param offset the number of nodes to skip, if positive
+         * @param cursor the cursor returned with the previous page, if any
+         */
+        protected QueryCreator(int limit, int offset, String cursor) {
+            this.limit = limit;
+            this.offset = offset;
+            this.cursorToken = Utils.exists(cursor) ? cursor : null;
+        }
 
-    public static boolean shouldOutputLinks() {
-        return outputLinks.get();
-    }
+        /**
+         * Builds the query, without limit nor offset.
+         */
+        protected abstract Query createQuery(Session session) throws RepositoryException;
+
+        /**
+         * Names the prepared query the built query comes from, for {@link SlowQueryLog}.
+         *
+         * @return the name of the prepared query, {@code null} if the query isn't a prepared one
+         */
+        protected String getPreparedQueryName() {
+            return null;
+        }
 
-    public static boolean shouldIncludeFullChildren() {
-        return includeFullChildren.get();
+        int getLimit() {
+            return limit;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+
+        /**
+         * Binds the values of the query again, on the copy {@link KeysetCursor#restrict(Session, Query)} creates of
+         * the query. Creators binding values must override this method.
+         */
+        protected void bindValues(Session session, Query query) throws RepositoryException {
+        }
+
+        /**
+         * Identifies the statement of the built query and its parameters: two creators with the same statement key
+         * must build queries finding the same nodes when run in the same workspace and language by the same user.
+         */
+        protected abstract String getStatementKey();
+
+        /**
+         * Identifies the query this creator builds, including the requested page, for {@link QueryResultCache}.
+         *
+         * @return a key identifying the built query
+         */
+        String getKey() {
+            return getStatementKey() + "|limit:" + limit + "|offset:" + offset + (cursorToken != null ? "|cursor:" + cursorToken : "");
+        }
+
+        /**
+         * Identifies the statement of the built query whatever the requested page, for {@link SlowQueryLog}: only the
+         * pages following a cursor are restricted by an additional constraint.
+         *
+         * @return a key identifying the statement, {@code null} if the creator provides no statement key
+         */
+        String getFingerprintKey() {
+            final String statementKey = getStatementKey();
+            return statementKey != null && cursorToken != null ? statementKey + "|cursor" : statementKey;
+        }
+
+        KeysetCursor getCursor() {
+            if (cursor == null && cursorToken != null) {
+                if (offset > 0) {
+                    throw new IllegalArgumentException("A cursor cannot be combined with an offset");
+                }
+                cursor = KeysetCursor.parse(cursorToken);
+            }
+            return cursor;
+        }
+
+        /**
+         * Starts measuring the run of the query in the given session for {@link SlowQueryLog}.
+         *
+         * @return the run to measure the reading of the found nodes with
+         */
+        SlowQueryLog.Execution startExecution(Session session) {
+            execution = SlowQueryLog.getInstance().start(this, session);
+            return execution;
+        }
+
+        /**
+         * Builds the query, applying the requested page to it, and executes it.
+         */
+        QueryResult execute(Session session) throws RepositoryException {
+            return execute(create(session));
+        }
+
+        /**
+         * Executes the given query, built by {@link #create(Session)}.
+         */
+        QueryResult execute(Query query) throws RepositoryException {
+            final long start = System.nanoTime();
+            final QueryResult result = query.execute();
+            if (execution != null) {
+                execution.executed(query.getStatement(), System.nanoTime() - start);
+            }
+            return result;
+        }
+
+        Query create(Session session) throws RepositoryException {
+            Query query = createQuery(session);
+
+            final KeysetCursor cursor = getCursor();
+            if (cursor != null) {
+                query = cursor.restrict(session, query);
+                bindValues(session, query);
+                if (limit > 0) {
+                    // the nodes already returned with the last value of the previous page are found again
+                    query.setLimit(limit + cursor.getTies());
+                }
+            } else {
+                if (limit > 0) {
+                    query.setLimit(limit);
+                }
+                if (offset > 0) {
+                    query.setOffset(offset);
+                }
+            }
+            return query;
+        }
+
+        /**
+         * Wraps the found nodes so that the cursor to the next page can be computed, when the query is paged and
+         * ordered. The query is built again for that purpose when its nodes came from {@link QueryResultCache}.
+         *
+         * @return the page of nodes or {@code null} if the query doesn't support cursors
+         */
+        KeysetCursor.Page paginate(Session session, NodeIterator nodes) throws RepositoryException {
+            final KeysetCursor cursor = getCursor();
+            if (limit <= 0 && cursor == null) {
+                return null;
+            }
+
+            final Ordering ordering = KeysetCursor.getKeyOrdering(createQuery(session));
+            return ordering != null ? new KeysetCursor.Page(nodes, ordering, cursor, limit) : null;
+        }
     }
 
     protected interface NodeAccessor {
@@ -598,7 +1373,12 @@ public class API {
 
             @Override
             public Node getNode(String idOrPath, Session session) throws RepositoryException {
-                return idOrPath.isEmpty() ? session.getRootNode() : session.getNodeByIdentifier(idOrPath);
+                final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.LOOKUP);
+                try {
+                    return idOrPath.isEmpty() ? session.getRootNode() : session.getNodeByIdentifier(idOrPath);
+                } finally {
+                    RequestTimings.end(previous);
+                }
             }
 
             @Override
@@ -612,7 +1392,12 @@ public class API {
 
             @Override
             public Node getNode(String idOrPath, Session session) throws RepositoryException {
-                return idOrPath.isEmpty() ? session.getRootNode() : session.getNode(idOrPath);
+                final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.LOOKUP);
+                try {
+                    return idOrPath.isEmpty() ? session.getRootNode() : session.getNode(idOrPath);
+                } finally {
+                    RequestTimings.end(previous);
+                }
             }
 
             @Override
@@ -667,10 +1452,17 @@ public class API {
     }
 
     public static boolean isQueryDisabled() {
-        return queryDisabled;
+        return APIConfiguration.get().isQueryDisabled();
     }
 
     static void setQueryDisabled(boolean queryDisabled) {
-        API.queryDisabled = queryDisabled;
+        APIConfigurationService.getInstance().setPlatformSetting(APIConfiguration.QUERY_DISABLED, String.valueOf(queryDisabled));
+    }
+
+    /**
+     * Retrieves whether the given node is of one of the node types the API skips.
+     */
+    static boolean isExcluded(Node node) throws RepositoryException {
+        return APIConfiguration.get().getNodeTypesToSkip().contains(node.getPrimaryNodeType().getName());
     }
 }
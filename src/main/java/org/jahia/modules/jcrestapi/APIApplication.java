@@ -66,7 +66,9 @@ public class APIApplication extends ResourceConfig {
     }
 
     APIApplication(final Class<? extends Factory<Repository>> repositoryFactoryClass) {
-        super(API.class, APIExceptionMapper.class, JacksonJaxbJsonProvider.class, HeadersResponseFilter.class, MultiPartFeature.class);
+        super(API.class, APIExceptionMapper.class, JacksonJaxbJsonProvider.class, HeadersResponseFilter.class, MultiPartFeature.class,
+                MetricsFilter.Timer.class, MetricsFilter.class, ServerTimingFilter.class, ServerTimingFilter.Cleanup.class,
+                RequestOptionsFilter.class, ResourceExecutors.StreamedEntities.class);
         register(new AbstractBinder() {
             @Override
             protected void configure() {
@@ -0,0 +1,419 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings of the module, as an immutable snapshot.
+ *
+ * <p>Code needing a setting reads it from {@link #get()}, which only costs a volatile read, so that settings can be read
+ * on every request. {@link APIConfigurationService} builds a new snapshot whenever the settings change and swaps it in,
+ * so a request reading several settings from the same snapshot sees consistent values.</p>
+ *
+ * <p>A snapshot is built from a map of settings, see {@link #parse(Map, APIConfiguration)}. A missing or invalid setting
+ * keeps the value it has in the fallback snapshot, {@link #DEFAULTS} being the one of last resort.</p>
+ */
+public final class APIConfiguration {
+    private static final Logger logger = LoggerFactory.getLogger(APIConfiguration.class);
+
+    public static final String DEPRECATION_WARNING_DISABLED = "deprecation.warning.disabled";
+    public static final String DEPRECATION_WARNING_LOG_AGAIN_THRESHOLD = "deprecation.warning.logAgainThreshold.hour";
+    public static final String QUERY_DISABLED = "query.disabled";
+    public static final String NODE_TYPES_TO_SKIP = "query.nodeTypesToSkip";
+    public static final String RESTRICTED_PROPERTIES = "restrictedProperties";
+    public static final String RESTRICTED_MIXINS = "restrictedMixins";
+    public static final String RESTRICTED_NODE_TYPES = "restrictedNodeTypes";
+    public static final String QUERY_CACHE_MAX_ENTRIES = "queryCache.maxEntries";
+    public static final String QUERY_CACHE_MAX_ENTRY_SIZE = "queryCache.maxEntrySize";
+    public static final String PERMISSION_CACHE_TTL = "permissionCache.ttl";
+    public static final String PERMISSION_CACHE_MAX_ENTRIES = "permissionCache.maxEntries";
+    public static final String PERMISSION_CACHE_SHARE_BETWEEN_SIBLINGS = "permissionCache.shareBetweenSiblings";
+    public static final String UPLOADS_EXPIRY = "uploads.expiry";
+    public static final String UPLOADS_MAX_UPLOADS = "uploads.maxUploads";
+    public static final String SLOW_QUERY_THRESHOLD = "slowQuery.threshold.ms";
+    public static final String SLOW_QUERY_TOP = "slowQuery.top";
+    public static final String SERVER_TIMING_ENABLED = "serverTiming.enabled";
+    public static final String ASYNC_EXECUTION = "execution.async";
+    public static final String EXECUTOR_RETRY_AFTER = "execution.retryAfter.s";
+    /**
+     * The settings of each executor of {@link ResourceExecutors}, keyed by {@link #getExecutorKey(ResourceExecutors.Pool, String)}.
+     */
+    public static final String EXECUTOR_THREADS = "threads";
+    public static final String EXECUTOR_QUEUE_SIZE = "queueSize";
+    public static final String EXECUTOR_TIMEOUT = "timeout.ms";
+
+    /**
+     * The settings used when none is configured.
+     */
+    public static final APIConfiguration DEFAULTS = new APIConfiguration();
+
+    private static volatile APIConfiguration current = DEFAULTS;
+
+    private final boolean deprecationWarningDisabled;
+    private final long deprecationWarningLogAgainThreshold;
+    private final boolean queryDisabled;
+    private final Set<String> nodeTypesToSkip;
+    private final Set<String> restrictedProperties;
+    private final Set<String> restrictedMixins;
+    private final Set<String> restrictedNodeTypes;
+    private final int queryCacheMaxEntries;
+    private final int queryCacheMaxEntrySize;
+    private final long permissionCacheTtl;
+    private final int permissionCacheMaxEntries;
+    private final boolean permissionCacheShareBetweenSiblings;
+    private final long uploadsExpiry;
+    private final int uploadsMaxUploads;
+    private final long slowQueryThreshold;
+    private final int slowQueryTop;
+    private final boolean serverTimingEnabled;
+    private final boolean asyncExecution;
+    private final long executorRetryAfter;
+    private final Map<ResourceExecutors.Pool, ExecutorSettings> executors;
+
+    private APIConfiguration() {
+        deprecationWarningDisabled = false;
+        deprecationWarningLogAgainThreshold = TimeUnit.HOURS.toMillis(24);
+        queryDisabled = true;
+        nodeTypesToSkip = Collections.emptySet();
+        restrictedProperties = Collections.emptySet();
+        restrictedMixins = Collections.emptySet();
+        restrictedNodeTypes = Collections.emptySet();
+        queryCacheMaxEntries = 0;
+        queryCacheMaxEntrySize = 1000;
+        permissionCacheTtl = 0;
+        permissionCacheMaxEntries = 10000;
+        permissionCacheShareBetweenSiblings = false;
+        uploadsExpiry = TimeUnit.DAYS.toMillis(1);
+        uploadsMaxUploads = 100;
+        slowQueryThreshold = 1000;
+        slowQueryTop = 20;
+        serverTimingEnabled = false;
+        asyncExecution = false;
+        executorRetryAfter = 5;
+        final Map<ResourceExecutors.Pool, ExecutorSettings> executors = new EnumMap<ResourceExecutors.Pool, ExecutorSettings>(ResourceExecutors.Pool.class);
+        for (ResourceExecutors.Pool pool : ResourceExecutors.Pool.values()) {
+            executors.put(pool, new ExecutorSettings(pool.getDefaultThreads(), pool.getDefaultQueueSize(), pool.getDefaultTimeout()));
+        }
+        this.executors = Collections.unmodifiableMap(executors);
+    }
+
+    private APIConfiguration(Map<String, ?> settings, APIConfiguration fallback) {
+        deprecationWarningDisabled = getBoolean(settings, DEPRECATION_WARNING_DISABLED, fallback.deprecationWarningDisabled);
+        deprecationWarningLogAgainThreshold = TimeUnit.HOURS.toMillis(getLong(settings, DEPRECATION_WARNING_LOG_AGAIN_THRESHOLD,
+                TimeUnit.MILLISECONDS.toHours(fallback.deprecationWarningLogAgainThreshold)));
+        queryDisabled = getBoolean(settings, QUERY_DISABLED, fallback.queryDisabled);
+        nodeTypesToSkip = getSet(settings, NODE_TYPES_TO_SKIP, fallback.nodeTypesToSkip);
+        restrictedProperties = getSet(settings, RESTRICTED_PROPERTIES, fallback.restrictedProperties);
+        restrictedMixins = getSet(settings, RESTRICTED_MIXINS, fallback.restrictedMixins);
+        restrictedNodeTypes = getSet(settings, RESTRICTED_NODE_TYPES, fallback.restrictedNodeTypes);
+        queryCacheMaxEntries = (int) getLong(settings, QUERY_CACHE_MAX_ENTRIES, fallback.queryCacheMaxEntries);
+        queryCacheMaxEntrySize = (int) getLong(settings, QUERY_CACHE_MAX_ENTRY_SIZE, fallback.queryCacheMaxEntrySize);
+        permissionCacheTtl = getLong(settings, PERMISSION_CACHE_TTL, fallback.permissionCacheTtl);
+        permissionCacheMaxEntries = (int) getLong(settings, PERMISSION_CACHE_MAX_ENTRIES, fallback.permissionCacheMaxEntries);
+        permissionCacheShareBetweenSiblings = getBoolean(settings, PERMISSION_CACHE_SHARE_BETWEEN_SIBLINGS, fallback.permissionCacheShareBetweenSiblings);
+        uploadsExpiry = getLong(settings, UPLOADS_EXPIRY, fallback.uploadsExpiry);
+        uploadsMaxUploads = (int) getLong(settings, UPLOADS_MAX_UPLOADS, fallback.uploadsMaxUploads);
+        slowQueryThreshold = getLong(settings, SLOW_QUERY_THRESHOLD, fallback.slowQueryThreshold);
+        slowQueryTop = (int) getLong(settings, SLOW_QUERY_TOP, fallback.slowQueryTop);
+        serverTimingEnabled = getBoolean(settings, SERVER_TIMING_ENABLED, fallback.serverTimingEnabled);
+        asyncExecution = getBoolean(settings, ASYNC_EXECUTION, fallback.asyncExecution);
+        executorRetryAfter = getLong(settings, EXECUTOR_RETRY_AFTER, fallback.executorRetryAfter);
+        final Map<ResourceExecutors.Pool, ExecutorSettings> executors = new EnumMap<ResourceExecutors.Pool, ExecutorSettings>(ResourceExecutors.Pool.class);
+        for (ResourceExecutors.Pool pool : ResourceExecutors.Pool.values()) {
+            final ExecutorSettings previous = fallback.executors.get(pool);
+            executors.put(pool, new ExecutorSettings(
+                    (int) getLong(settings, getExecutorKey(pool, EXECUTOR_THREADS), previous.threads),
+                    (int) getLong(settings, getExecutorKey(pool, EXECUTOR_QUEUE_SIZE), previous.queueSize),
+                    getLong(settings, getExecutorKey(pool, EXECUTOR_TIMEOUT), previous.timeout)));
+        }
+        this.executors = Collections.unmodifiableMap(executors);
+    }
+
+    /**
+     * @return the settings currently in effect
+     */
+    public static APIConfiguration get() {
+        return current;
+    }
+
+    /**
+     * Puts the given settings in effect.
+     *
+     * @return the settings previously in effect
+     */
+    static APIConfiguration set(APIConfiguration configuration) {
+        final APIConfiguration previous = current;
+        current = configuration;
+        return previous;
+    }
+
+    /**
+     * Builds a snapshot from the given settings.
+     *
+     * @param settings the settings, keyed by the constants of this class, values being parsed from their string form
+     * @param fallback the snapshot providing the missing and invalid settings
+     * @return the snapshot
+     */
+    public static APIConfiguration parse(Map<String, ?> settings, APIConfiguration fallback) {
+        return new APIConfiguration(settings != null ? settings : Collections.<String, Object>emptyMap(), fallback);
+    }
+
+    /**
+     * @return the key of the given setting of the executor of the given pool, such as {@code execution.read.threads}
+     */
+    public static String getExecutorKey(ResourceExecutors.Pool pool, String setting) {
+        return "execution." + pool.getName() + "." + setting;
+    }
+
+    private static boolean getBoolean(Map<String, ?> settings, String key, boolean fallback) {
+        final Object value = settings.get(key);
+        if (value == null || !Utils.exists(value.toString().trim())) {
+            return fallback;
+        }
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+
+    private static long getLong(Map<String, ?> settings, String key, long fallback) {
+        final Object value = settings.get(key);
+        if (value == null || !Utils.exists(value.toString().trim())) {
+            return fallback;
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            logger.error("Invalid number format for " + key + ", keeping " + fallback, e);
+            return fallback;
+        }
+    }
+
+    /**
+     * A set setting is only left to its fallback when missing: an empty value configures an empty set.
+     */
+    private static Set<String> getSet(Map<String, ?> settings, String key, Set<String> fallback) {
+        if (!settings.containsKey(key)) {
+            return fallback;
+        }
+        final Object value = settings.get(key);
+        return Collections.unmodifiableSet(Utils.split(value != null ? value.toString() : null));
+    }
+
+    public boolean isDeprecationWarningDisabled() {
+        return deprecationWarningDisabled;
+    }
+
+    /**
+     * @return the time, in milliseconds, after which a warning is logged again for an endpoint of the deprecated API
+     */
+    public long getDeprecationWarningLogAgainThreshold() {
+        return deprecationWarningLogAgainThreshold;
+    }
+
+    public boolean isQueryDisabled() {
+        return queryDisabled;
+    }
+
+    /**
+     * @return the node types which nodes are neither output nor queryable
+     */
+    public Set<String> getNodeTypesToSkip() {
+        return nodeTypesToSkip;
+    }
+
+    public Set<String> getRestrictedProperties() {
+        return restrictedProperties;
+    }
+
+    public Set<String> getRestrictedMixins() {
+        return restrictedMixins;
+    }
+
+    public Set<String> getRestrictedNodeTypes() {
+        return restrictedNodeTypes;
+    }
+
+    /**
+     * @return the maximum number of entries of the {@link QueryResultCache}, which is disabled if not positive
+     */
+    public int getQueryCacheMaxEntries() {
+        return queryCacheMaxEntries;
+    }
+
+    public int getQueryCacheMaxEntrySize() {
+        return queryCacheMaxEntrySize;
+    }
+
+    /**
+     * @return how long, in milliseconds, the {@link PermissionDecisionCache} shares decisions between requests, not at
+     * all if not positive
+     */
+    public long getPermissionCacheTtl() {
+        return permissionCacheTtl;
+    }
+
+    public int getPermissionCacheMaxEntries() {
+        return permissionCacheMaxEntries;
+    }
+
+    public boolean isPermissionCacheShareBetweenSiblings() {
+        return permissionCacheShareBetweenSiblings;
+    }
+
+    /**
+     * @return how long, in milliseconds, an inactive {@link ResumableUploads resumable upload} is kept
+     */
+    public long getUploadsExpiry() {
+        return uploadsExpiry;
+    }
+
+    public int getUploadsMaxUploads() {
+        return uploadsMaxUploads;
+    }
+
+    /**
+     * @return the time, in milliseconds, from which {@link SlowQueryLog} logs a query, negative if it doesn't
+     */
+    public long getSlowQueryThreshold() {
+        return slowQueryThreshold;
+    }
+
+    public int getSlowQueryTop() {
+        return slowQueryTop;
+    }
+
+    /**
+     * @return whether responses carry the {@code Server-Timing} header of {@link ServerTimingFilter}
+     */
+    public boolean isServerTimingEnabled() {
+        return serverTimingEnabled;
+    }
+
+    /**
+     * @return whether the resources run their work on the executors of {@link ResourceExecutors} rather than on the
+     * threads of the servlet container
+     */
+    public boolean isAsyncExecution() {
+        return asyncExecution;
+    }
+
+    /**
+     * @return the number of seconds after which a client whose request was shed or timed out is asked to try again
+     */
+    public long getExecutorRetryAfter() {
+        return executorRetryAfter;
+    }
+
+    public int getExecutorThreads(ResourceExecutors.Pool pool) {
+        return executors.get(pool).threads;
+    }
+
+    public int getExecutorQueueSize(ResourceExecutors.Pool pool) {
+        return executors.get(pool).queueSize;
+    }
+
+    /**
+     * @return the time, in milliseconds, after which a request of the given pool still waiting for a thread is answered
+     * as unavailable, never if not positive
+     */
+    public long getExecutorTimeout(ResourceExecutors.Pool pool) {
+        return executors.get(pool).timeout;
+    }
+
+    /**
+     * @return the settings of this snapshot, keyed like the ones it was built from
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> settings = new LinkedHashMap<String, Object>();
+        settings.put(DEPRECATION_WARNING_DISABLED, deprecationWarningDisabled);
+        settings.put(DEPRECATION_WARNING_LOG_AGAIN_THRESHOLD, TimeUnit.MILLISECONDS.toHours(deprecationWarningLogAgainThreshold));
+        settings.put(QUERY_DISABLED, queryDisabled);
+        settings.put(NODE_TYPES_TO_SKIP, nodeTypesToSkip);
+        settings.put(RESTRICTED_PROPERTIES, restrictedProperties);
+        settings.put(RESTRICTED_MIXINS, restrictedMixins);
+        settings.put(RESTRICTED_NODE_TYPES, restrictedNodeTypes);
+        settings.put(QUERY_CACHE_MAX_ENTRIES, queryCacheMaxEntries);
+        settings.put(QUERY_CACHE_MAX_ENTRY_SIZE, queryCacheMaxEntrySize);
+        settings.put(PERMISSION_CACHE_TTL, permissionCacheTtl);
+        settings.put(PERMISSION_CACHE_MAX_ENTRIES, permissionCacheMaxEntries);
+        settings.put(PERMISSION_CACHE_SHARE_BETWEEN_SIBLINGS, permissionCacheShareBetweenSiblings);
+        settings.put(UPLOADS_EXPIRY, uploadsExpiry);
+        settings.put(UPLOADS_MAX_UPLOADS, uploadsMaxUploads);
+        settings.put(SLOW_QUERY_THRESHOLD, slowQueryThreshold);
+        settings.put(SLOW_QUERY_TOP, slowQueryTop);
+        settings.put(SERVER_TIMING_ENABLED, serverTimingEnabled);
+        settings.put(ASYNC_EXECUTION, asyncExecution);
+        settings.put(EXECUTOR_RETRY_AFTER, executorRetryAfter);
+        for (Map.Entry<ResourceExecutors.Pool, ExecutorSettings> entry : executors.entrySet()) {
+            settings.put(getExecutorKey(entry.getKey(), EXECUTOR_THREADS), entry.getValue().threads);
+            settings.put(getExecutorKey(entry.getKey(), EXECUTOR_QUEUE_SIZE), entry.getValue().queueSize);
+            settings.put(getExecutorKey(entry.getKey(), EXECUTOR_TIMEOUT), entry.getValue().timeout);
+        }
+        return settings;
+    }
+
+    @Override
+    public String toString() {
+        return "APIConfiguration" + toMap();
+    }
+
+    private static final class ExecutorSettings {
+        private final int threads;
+        private final int queueSize;
+        private final long timeout;
+
+        private ExecutorSettings(int threads, int queueSize, long timeout) {
+            this.threads = threads;
+            this.queueSize = queueSize;
+            this.timeout = timeout;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.osgi.service.cm.ManagedService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds the {@link APIConfiguration} snapshot in effect, and builds it again whenever the settings change.
+ *
+ * <p>Settings come from two sources. The platform settings are the ones of {@code jahia.properties}, passed by the
+ * Spring context of the module, see {@link #setPlatformSettings(Map)}. The module settings are the ones of the
+ * {@code org.jahia.modules.jcrestapi} configuration, which this service receives as a {@link ManagedService}, when the
+ * module starts and whenever the configuration is modified. A module setting takes precedence over the platform
+ * setting with the same key, and a setting set by neither keeps its default value, so the module picks up a new
+ * configuration without restarting.</p>
+ *
+ * <p>Snapshots are built under a lock, since settings seldom change, then swapped in, so that readers never wait.</p>
+ */
+public final class APIConfigurationService implements ManagedService {
+    private static final Logger logger = LoggerFactory.getLogger(APIConfigurationService.class);
+    private static final APIConfigurationService INSTANCE = new APIConfigurationService();
+
+    public static final String PID = "org.jahia.modules.jcrestapi";
+
+    private final Map<String, Object> platformSettings = new HashMap<String, Object>();
+    private Map<String, Object> moduleSettings = Collections.emptyMap();
+
+    private APIConfigurationService() {
+    }
+
+    public static APIConfigurationService getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the platform settings, replacing the previous ones.
+     *
+     * @param settings the settings, keyed like {@link APIConfiguration}'s
+     */
+    public synchronized void setPlatformSettings(Map<String, String> settings) {
+        platformSettings.clear();
+        if (settings != null) {
+            platformSettings.putAll(settings);
+        }
+        refresh();
+    }
+
+    /**
+     * Sets one platform setting, keeping the others.
+     *
+     * @param key   the key of the setting, one of {@link APIConfiguration}'s
+     * @param value the value of the setting
+     */
+    public synchronized void setPlatformSetting(String key, String value) {
+        platformSettings.put(key, value);
+        refresh();
+    }
+
+    @Override
+    public synchronized void updated(Dictionary<String, ?> properties) {
+        if (properties == null) {
+            // the configuration was deleted
+            moduleSettings = Collections.emptyMap();
+        } else {
+            final Map<String, Object> settings = new HashMap<String, Object>(properties.size());
+            for (Enumeration<String> keys = properties.keys(); keys.hasMoreElements(); ) {
+                final String key = keys.nextElement();
+                settings.put(key, properties.get(key));
+            }
+            moduleSettings = settings;
+        }
+        refresh();
+    }
+
+    private void refresh() {
+        final Map<String, Object> settings = new HashMap<String, Object>(platformSettings);
+        settings.putAll(moduleSettings);
+
+        final APIConfiguration current = APIConfiguration.parse(settings, APIConfiguration.DEFAULTS);
+        final APIConfiguration previous = APIConfiguration.set(current);
+
+        QueryResultCache.getInstance().reconfigured(current);
+        PermissionDecisionCache.getInstance().reconfigured(previous, current);
+        ResourceExecutors.getInstance().reconfigured(current);
+        logger.debug("Configured with {}", current);
+    }
+}
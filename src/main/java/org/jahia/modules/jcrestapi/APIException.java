@@ -89,6 +89,8 @@ public class APIException extends WebApplicationException {
         private final List<String> subElements;
         @XmlElement
         private final Object data;
+        @XmlElement
+        private Object progress;
 
         public JSONError(Throwable throwable, String operation, String nodeAccess, String idOrPath, String subElementType, List<String> subElements, Object data) {
             this.exception = throwable.getClass().getName();
@@ -105,5 +107,14 @@ public class APIException extends WebApplicationException {
         public JSONError(Throwable throwable) {
             this(throwable, null, null, null, null, null, null);
         }
+
+        /**
+         * Reports how far the failed operation went before failing, when part of what it did was already saved.
+         *
+         * @param progress the progress to report
+         */
+        public void setProgress(Object progress) {
+            this.progress = progress;
+        }
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures the requests the API answers: their latency, their status codes and how many are being answered, per
+ * resource method and per operation ({@link API#READ}, {@link API#CREATE_OR_UPDATE}, {@link API#DELETE},
+ * {@link API#MOVE} or {@link API#UPLOAD}).
+ *
+ * <p>{@link MetricsFilter} records into it, and the {@code /metrics} endpoint reports it. Recording doesn't lock: the
+ * endpoint a request is counted under is looked up in a concurrent map, then only atomic counters are updated.</p>
+ */
+public class APIMetrics {
+    private static final APIMetrics INSTANCE = new APIMetrics();
+
+    /**
+     * The resource method under which requests Jersey couldn't match to any are counted.
+     */
+    static final String UNMATCHED = "unmatched";
+
+    public static APIMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<Method, Endpoint> endpointsByMethod = new ConcurrentHashMap<Method, Endpoint>();
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private final ConcurrentHashMap<String, Endpoint> operations = new ConcurrentHashMap<String, Endpoint>();
+    private final Endpoint all = new Endpoint(null);
+    private final long since = System.currentTimeMillis();
+
+    private APIMetrics() {
+    }
+
+    /**
+     * Counts a request starting to be answered by the given resource method.
+     *
+     * @param method    the resource method, {@code null} if the request matched none
+     * @param operation the operation the request performs
+     * @return the endpoint to pass to {@link #ended(Endpoint, int, long)} once the request is answered
+     */
+    Endpoint started(Method method, String operation) {
+        Endpoint endpoint = method != null ? endpointsByMethod.get(method) : endpoints.get(UNMATCHED);
+        if (endpoint == null) {
+            final String name = method != null ? method.getDeclaringClass().getSimpleName() + "." + method.getName() : UNMATCHED;
+            endpoint = getOrCreate(endpoints, name, getOrCreate(operations, operation, null));
+            if (method != null) {
+                endpointsByMethod.putIfAbsent(method, endpoint);
+            }
+        }
+
+        endpoint.started();
+        endpoint.operation.started();
+        all.started();
+        return endpoint;
+    }
+
+    /**
+     * Counts a request the given endpoint answered.
+     *
+     * @param endpoint the endpoint {@link #started(Method, String)} returned
+     * @param status   the status code of the response
+     * @param nanos    how long the request took to answer, in nanoseconds
+     */
+    void ended(Endpoint endpoint, int status, long nanos) {
+        endpoint.ended(status, nanos);
+        endpoint.operation.ended(status, nanos);
+        all.ended(status, nanos);
+    }
+
+    private Endpoint getOrCreate(ConcurrentHashMap<String, Endpoint> map, String name, Endpoint operation) {
+        Endpoint endpoint = map.get(name);
+        if (endpoint == null) {
+            endpoint = new Endpoint(operation);
+            final Endpoint existing = map.putIfAbsent(name, endpoint);
+            if (existing != null) {
+                endpoint = existing;
+            }
+        }
+        return endpoint;
+    }
+
+    /**
+     * @return the requests answered by each resource method, sorted by method
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        return new TreeMap<String, Endpoint>(endpoints);
+    }
+
+    /**
+     * @return the requests answered for each operation, sorted by operation
+     */
+    public Map<String, Endpoint> getOperations() {
+        return new TreeMap<String, Endpoint>(operations);
+    }
+
+    /**
+     * @return all the requests the API answered
+     */
+    public Endpoint getAll() {
+        return all;
+    }
+
+    /**
+     * @return when measuring started, in milliseconds since the epoch
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * The requests answered by a resource method, or for an operation.
+     */
+    public static final class Endpoint {
+        private final Endpoint operation;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // indexed by status code minus 100, codes out of the 100-599 range being counted at the nearest bound
+        private final AtomicLongArray statuses = new AtomicLongArray(500);
+
+        private Endpoint(Endpoint operation) {
+            this.operation = operation;
+        }
+
+        private void started() {
+            inFlight.incrementAndGet();
+        }
+
+        private void ended(int status, long nanos) {
+            inFlight.decrementAndGet();
+            latencies.recordNanos(nanos);
+            statuses.incrementAndGet(Math.min(Math.max(status, 100), 599) - 100);
+        }
+
+        public LatencyHistogram getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * @return how many requests are being answered
+         */
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return how many responses were sent with each status code, sorted by code, leaving out codes never sent
+         */
+        public Map<Integer, Long> getStatuses() {
+            final Map<Integer, Long> result = new TreeMap<Integer, Long>();
+            for (int i = 0; i < statuses.length(); i++) {
+                final long count = statuses.get(i);
+                if (count > 0) {
+                    result.put(i + 100, count);
+                }
+            }
+            return result;
+        }
+    }
+}
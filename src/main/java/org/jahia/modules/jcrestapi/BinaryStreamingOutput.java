@@ -0,0 +1,152 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes a range of a binary property to the response, a fixed-size buffer at a time, so that sending a binary does
+ * not depend on its size.
+ *
+ * <p>When the repository hands the binary out as a file stream, the range is transferred from the file's channel
+ * starting at its position, with {@link FileChannel#transferTo}, so that the bytes before it are never read. Otherwise,
+ * the stream of the binary is skipped to the start of the range, then copied: the data store skips the bytes of the
+ * files it keeps binaries in without reading them.</p>
+ *
+ * <p>As with {@link NodeStreamingOutput}, the output owns the session the binary was read from, and closes it once the
+ * range has been written, or writing it failed.</p>
+ */
+class BinaryStreamingOutput implements StreamingOutput {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final API api;
+    private final Session session;
+    private final Binary binary;
+    private final long start;
+    private final long length;
+
+    /**
+     * @param api     the resource that opened the session, which knows how to close it
+     * @param session the session the binary was read from
+     * @param binary  the binary to write
+     * @param start   the offset of the first byte to write
+     * @param length  how many bytes to write
+     */
+    BinaryStreamingOutput(API api, Session session, Binary binary, long start, long length) {
+        this.api = api;
+        this.session = session;
+        this.binary = binary;
+        this.start = start;
+        this.length = length;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try (InputStream stream = binary.getStream()) {
+            if (stream instanceof FileInputStream) {
+                transfer(((FileInputStream) stream).getChannel(), output);
+            } else {
+                copy(stream, output);
+            }
+        } catch (RepositoryException e) {
+            throw new APIException(e);
+        } finally {
+            binary.dispose();
+            api.closeSession(session);
+        }
+    }
+
+    private void transfer(FileChannel channel, OutputStream output) throws IOException {
+        final WritableByteChannel target = Channels.newChannel(output);
+        long position = start;
+        long remaining = length;
+        while (remaining > 0) {
+            final long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new EOFException("The binary ended " + remaining + " bytes before the requested range");
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private void copy(InputStream stream, OutputStream output) throws IOException {
+        long toSkip = start;
+        while (toSkip > 0) {
+            final long skipped = stream.skip(toSkip);
+            if (skipped <= 0) {
+                // skip may give up before the end, read a byte to tell whether it did
+                if (stream.read() < 0) {
+                    throw new EOFException("The binary ended before the requested range");
+                }
+                toSkip--;
+            } else {
+                toSkip -= skipped;
+            }
+        }
+
+        final byte[] buffer = new byte[(int) Math.min(BUFFER_SIZE, Math.max(length, 1))];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("The binary ended " + remaining + " bytes before the requested range");
+            }
+            output.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+/**
+ * The single range of bytes a {@code Range} request header asks for, resolved against the size of the binary it
+ * applies to.
+ *
+ * <p>Only single {@code bytes} ranges are supported: a header asking for several ranges, or using another unit, is
+ * ignored, and the whole binary is sent, as the HTTP specification allows.</p>
+ */
+final class ByteRange {
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * The range returned for a syntactically valid header that no byte of the binary satisfies.
+     */
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, 0);
+
+    private final long start;
+    private final long length;
+
+    private ByteRange(long start, long length) {
+        this.start = start;
+        this.length = length;
+    }
+
+    /**
+     * Parses the given {@code Range} header.
+     *
+     * @param header the value of the header, may be {@code null}
+     * @param size   the size of the binary, in bytes
+     * @return the requested range, {@link #UNSATISFIABLE} if it starts past the end of the binary, or {@code null} if
+     * the header is absent or not supported, in which case the whole binary is sent
+     */
+    static ByteRange parse(String header, long size) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        final String spec = header.substring(BYTES_UNIT.length()).trim();
+        if (spec.indexOf(',') >= 0) {
+            return null;
+        }
+
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // suffix range: the last given number of bytes
+                if (last.isEmpty()) {
+                    return null;
+                }
+                final long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                final long length = Math.min(suffix, size);
+                return new ByteRange(size - length, length);
+            }
+
+            final long start = Long.parseLong(first);
+            final long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, end - start + 1);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    long getStart() {
+        return start;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @param size the size of the binary, in bytes
+     * @return the value of the {@code Content-Range} header answering this range
+     */
+    String toContentRange(long size) {
+        if (this == UNSATISFIABLE) {
+            return "bytes */" + size;
+        }
+        return "bytes " + start + "-" + (start + length - 1) + "/" + size;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import org.jahia.modules.json.JSONConstants;
+import org.jahia.modules.json.JSONNode;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Computes the strong entity tags validating the representations of nodes and of their sub-elements, so that clients
+ * polling a resource can be answered with {@code 304 Not Modified} instead of receiving the same body again.
+ *
+ * <p>Whenever possible, the tag is computed before the representation is built, from what it is made of: the
+ * identifier, path, {@code jcr:lastModified} date and mixins of the node and of its direct children, the options and
+ * fields of the request, its language and the user performing it. A client sending a tag that is still valid is then
+ * answered without the representation being built at all.</p>
+ *
+ * <p>This cheap validator cannot cover representations reaching further than the direct children of the node:
+ * descendants rendered with {@code includeFullChildren}, resolved references and versions, nor nodes without a
+ * {@code jcr:lastModified} date. The tag of these representations is rather a digest of their JSON serialization,
+ * computed once they are built, so that it changes whenever any part of them does, however deep. The serialization is
+ * digested as it is produced, without being buffered, but the representation still has to be built for a client to
+ * be answered with {@code 304 Not Modified}.</p>
+ */
+final class EntityTags {
+    private static final String LAST_MODIFIED = "jcr:lastModified";
+    private static final char SEPARATOR = '\n';
+    private static final ObjectWriter WRITER = new JacksonJaxbJsonProvider()
+            .locateMapper(JSONNode.class, MediaType.APPLICATION_JSON_TYPE).writer();
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private EntityTags() {
+    }
+
+    /**
+     * Computes the entity tag of the representation of the given node or of one of its sub-elements, before it is built.
+     *
+     * @param node           the node
+     * @param subElementType the type of the requested sub-element, empty for the node itself
+     * @param subElement     the requested sub-element, if any
+     * @param context        provides the query parameters of the request
+     * @param options        the options of the request
+     * @param workspace      the workspace of the request
+     * @param language       the language of the request
+     * @return the entity tag or {@code null} if it can only be computed from the built representation, see
+     * {@link #compute(Object)}
+     * @throws RepositoryException if the node or its children cannot be read
+     */
+    static EntityTag compute(Node node, String subElementType, String subElement, UriInfo context, RequestOptions options,
+                             String workspace, String language) throws RepositoryException {
+        if (options.isIncludeFullChildren() || options.isResolveReferences() || JSONConstants.VERSIONS.equals(subElementType)) {
+            return null;
+        }
+
+        final StringBuilder data = new StringBuilder(512);
+        data.append(API.API_VERSION).append(SEPARATOR)
+                .append(workspace).append(SEPARATOR)
+                .append(language).append(SEPARATOR)
+                .append(node.getSession().getUserID()).append(SEPARATOR)
+                .append(subElementType).append(SEPARATOR)
+                .append(subElement).append(SEPARATOR)
+                .append(options.isOutputLinks()).append(SEPARATOR)
+                .append(context.getQueryParameters().get(API.FIELDS)).append(SEPARATOR)
+                .append(context.getQueryParameters().get(API.CHILDREN_NODETYPE_FILTER)).append(SEPARATOR);
+
+        if (!appendState(node, data)) {
+            return null;
+        }
+        if (subElementType.isEmpty() || JSONConstants.CHILDREN.equals(subElementType)) {
+            final NodeIterator children = node.getNodes();
+            while (children.hasNext()) {
+                if (!appendState(children.nextNode(), data)) {
+                    return null;
+                }
+            }
+        }
+        return new EntityTag(digest(data));
+    }
+
+    /**
+     * Computes the entity tag of the specified representation, once it is built.
+     *
+     * @param representation the representation of a node or of one of its sub-elements, as it is sent to the client
+     * @return the entity tag of the representation
+     * @throws IOException if the representation cannot be serialized
+     */
+    static EntityTag compute(Object representation) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (OutputStream output = new DigestOutputStream(DISCARD, digest)) {
+            WRITER.writeValue(output, representation);
+        }
+        return new EntityTag(encode(digest.digest()));
+    }
+
+    /**
+     * Computes the entity tag of the given binary property, which does not depend on the request: every user allowed to
+     * read the binary reads the same bytes. The tag is strong, so that clients can resume a download with
+     * {@code If-Range}.
+     *
+     * @param property  the binary property
+     * @param size      the size of the binary, in bytes
+     * @param workspace the workspace of the request
+     * @return the entity tag or {@code null} if the node holding the property has no {@code jcr:lastModified} date
+     * @throws RepositoryException if the node cannot be read
+     */
+    static EntityTag computeForBinary(Property property, long size, String workspace) throws RepositoryException {
+        final StringBuilder data = new StringBuilder(128);
+        data.append(workspace).append(SEPARATOR)
+                .append(property.getName()).append(SEPARATOR)
+                .append(size).append(SEPARATOR);
+
+        return appendState(property.getParent(), data) ? new EntityTag(digest(data)) : null;
+    }
+
+    private static boolean appendState(Node node, StringBuilder data) throws RepositoryException {
+        if (!node.hasProperty(LAST_MODIFIED)) {
+            return false;
+        }
+
+        final Property lastModified = node.getProperty(LAST_MODIFIED);
+        data.append(node.getIdentifier()).append(SEPARATOR)
+                .append(node.getPath()).append(SEPARATOR)
+                .append(lastModified.getString()).append(SEPARATOR);
+        for (NodeType mixin : node.getMixinNodeTypes()) {
+            data.append(mixin.getName()).append(' ');
+        }
+        data.append(SEPARATOR);
+        return true;
+    }
+
+    private static String digest(CharSequence data) {
+        return encode(newDigest().digest(data.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(byte[] hash) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+    }
+}
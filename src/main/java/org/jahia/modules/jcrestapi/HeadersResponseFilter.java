@@ -60,11 +60,19 @@ public class HeadersResponseFilter implements ContainerResponseFilter {
             IOException {
         final MultivaluedMap<String, Object> headers = responseContext.getHeaders();
         headers.add("Access-Control-Allow-Origin", "*");
-        headers.add("Access-Control-Allow-Headers", "origin, content-type, accept, authorization");
+        headers.add("Access-Control-Allow-Headers", "origin, content-type, accept, authorization, if-none-match, if-match");
         headers.add("Access-Control-Allow-Credentials", "true");
         headers.add("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, HEAD");
+        final String exposedHeaders = HttpHeaders.ETAG + ", " + API.NEXT_CURSOR_HEADER + ", " + API.TOTAL_COUNT_HEADER;
+        if (APIConfiguration.get().isServerTimingEnabled()) {
+            // the timings are only shared with other origins when they are reported at all
+            headers.add("Access-Control-Expose-Headers", exposedHeaders + ", " + ServerTimingFilter.SERVER_TIMING_HEADER);
+            headers.add("Timing-Allow-Origin", "*");
+        } else {
+            headers.add("Access-Control-Expose-Headers", exposedHeaders);
+        }
 
-        // tell the client to not cache the responses
+        // tell the client to not use the responses without revalidating them, using their ETag when they have one
         headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
         headers.add("Pragma", "no-cache"); // for HTTP 1.0
     }
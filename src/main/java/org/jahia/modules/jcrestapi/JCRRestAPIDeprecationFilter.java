@@ -1,8 +1,5 @@
 package org.jahia.modules.jcrestapi;
 
-import org.jahia.osgi.BundleUtils;
-import org.osgi.service.cm.Configuration;
-import org.osgi.service.cm.ConfigurationAdmin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,7 +16,6 @@ import java.io.IOException;
 import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 /**
  * A filter that logs deprecation warnings for deprecated REST API endpoints.
@@ -30,7 +26,6 @@ public class JCRRestAPIDeprecationFilter implements ContainerResponseFilter {
 
     private static final Logger logger = LoggerFactory.getLogger(JCRRestAPIDeprecationFilter.class);
     private static final Map<String, Long> loggedPaths = new ConcurrentHashMap<>();
-    private static final long DEFAULT_LOG_AGAIN_THRESHOLD = TimeUnit.HOURS.toMillis(24); // default re-log every 24 hours
 
     @Context
     private UriInfo uriInfo;
@@ -43,28 +38,12 @@ public class JCRRestAPIDeprecationFilter implements ContainerResponseFilter {
         // Always send deprecation header:
         responseContext.getHeaders().add("Deprecation", true);
 
-        // Load the config, aware that the implementation is a bit dirty and not OSGi compliant,
-        // but it's ok, remember that we are in deprecated code.
-        ConfigurationAdmin configAdmin = BundleUtils.getOsgiService(ConfigurationAdmin.class, null);
-        long logAgainThreshold = DEFAULT_LOG_AGAIN_THRESHOLD;
-        if (configAdmin != null) {
-            Configuration configuration = configAdmin.getConfiguration("org.jahia.modules.jcrestapi");
-            if (configuration.getProperties() != null) {
-                if (Boolean.parseBoolean((String) configuration.getProperties().get("deprecation.warning.disabled"))) {
-                    // deprecation warning is disabled
-                    return;
-                }
-
-                String logAgainThresholdStr = (String) configuration.getProperties().get("deprecation.warning.logAgainThreshold.hour");
-                if (logAgainThresholdStr != null) {
-                    try {
-                        logAgainThreshold = TimeUnit.HOURS.toMillis(Long.parseLong(logAgainThresholdStr));
-                    } catch (NumberFormatException e) {
-                        logger.error("Invalid number format for deprecation.warning.logAgainThreshold.hour, fallback to 24", e);
-                    }
-                }
-            }
+        final APIConfiguration configuration = APIConfiguration.get();
+        if (configuration.isDeprecationWarningDisabled()) {
+            // deprecation warning is disabled
+            return;
         }
+        final long logAgainThreshold = configuration.getDeprecationWarningLogAgainThreshold();
 
         // Use java method name as cache key, useful to identify the final endpoint easily
         String cacheKey = resourceInfo.getResourceMethod().getName();
@@ -0,0 +1,387 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.*;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.NoSuchElementException;
+
+/**
+ * An opaque continuation token allowing a client to retrieve the page following the one it received from an ordered
+ * query, without the repository having to go through all the earlier pages as it does with an offset.
+ *
+ * <p>A cursor records the value the first ordering of the query had for the last node of the page, the identifier of
+ * that node and how many nodes with that same value were already returned. The next page is then retrieved by
+ * constraining the query to the nodes ordered at or after that value, see {@link #restrict(Session, Query)}, and
+ * skipping the nodes with that value that were already returned, see {@link Page}. The cost of a page therefore only
+ * depends on its size and on how many nodes share the recorded value, not on how deep the page is.</p>
+ *
+ * <p>Only queries built as query object models can be restricted, and the value of their first ordering is read from
+ * the found nodes, so this ordering must be on a property, the name or the local name of the node, possibly lower- or
+ * upper-cased.</p>
+ */
+public final class KeysetCursor {
+    private static final char SEPARATOR = ':';
+
+    private final int type;
+    private final String value;
+    private final String identifier;
+    private final int ties;
+
+    private KeysetCursor(int type, String value, String identifier, int ties) {
+        this.type = type;
+        this.value = value;
+        this.identifier = identifier;
+        this.ties = ties;
+    }
+
+    /**
+     * Decodes a cursor previously returned to a client.
+     *
+     * @param token the cursor, as returned by {@link #encode()}, or {@code null}
+     * @return the decoded cursor or {@code null} if no token was given
+     * @throws IllegalArgumentException if the token is not a valid cursor
+     */
+    public static KeysetCursor parse(String token) {
+        if (!Utils.exists(token)) {
+            return null;
+        }
+
+        try {
+            final String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            final int first = decoded.indexOf(SEPARATOR);
+            final int second = decoded.indexOf(SEPARATOR, first + 1);
+            final int third = decoded.indexOf(SEPARATOR, second + 1);
+            if (first < 0 || second < 0 || third < 0) {
+                throw new IllegalArgumentException("Invalid cursor '" + token + "'");
+            }
+
+            final int type = Integer.parseInt(decoded.substring(0, first));
+            final int ties = Integer.parseInt(decoded.substring(first + 1, second));
+            final String identifier = decoded.substring(second + 1, third);
+            final String value = type == PropertyType.UNDEFINED ? null : decoded.substring(third + 1);
+            if (ties < 1) {
+                throw new IllegalArgumentException("Invalid cursor '" + token + "'");
+            }
+            return new KeysetCursor(type, value, identifier, ties);
+        } catch (IllegalArgumentException e) {
+            // also catches the NumberFormatException and the Base64 decoding errors
+            throw new IllegalArgumentException("Invalid cursor '" + token + "'", e);
+        }
+    }
+
+    /**
+     * Encodes this cursor as an opaque token, safe to be used as a URI query parameter.
+     *
+     * @return the token to hand over to the client
+     */
+    public String encode() {
+        final String decoded = String.valueOf(type) + SEPARATOR + ties + SEPARATOR + identifier + SEPARATOR + (value == null ? "" : value);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int getTies() {
+        return ties;
+    }
+
+    /**
+     * Retrieves the first ordering of the specified query, which cursors are based on.
+     *
+     * @param query the query
+     * @return the first ordering of the query or {@code null} if the query is not an ordered query object model or if
+     * its first ordering is not supported
+     */
+    static Ordering getKeyOrdering(Query query) {
+        if (query instanceof QueryObjectModel) {
+            final Ordering[] orderings = ((QueryObjectModel) query).getOrderings();
+            if (orderings != null && orderings.length > 0 && isSupported(orderings[0].getOperand())) {
+                return orderings[0];
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSupported(DynamicOperand operand) {
+        if (operand instanceof LowerCase) {
+            return isSupported(((LowerCase) operand).getOperand());
+        } else if (operand instanceof UpperCase) {
+            return isSupported(((UpperCase) operand).getOperand());
+        }
+        return operand instanceof PropertyValue || operand instanceof NodeLocalName || operand instanceof NodeName;
+    }
+
+    /**
+     * Creates a copy of the specified query only finding the nodes ordered at or after the value recorded in this
+     * cursor. The copy has neither limit nor offset, and values bound to the specified query must be bound again.
+     *
+     * @param session the session in which the query runs
+     * @param query   the query to restrict
+     * @return the restricted query
+     * @throws RepositoryException      if the restricted query cannot be created
+     * @throws IllegalArgumentException if the query is not an ordered query object model
+     */
+    QueryObjectModel restrict(Session session, Query query) throws RepositoryException {
+        final Ordering ordering = getKeyOrdering(query);
+        if (ordering == null) {
+            throw new IllegalArgumentException("A cursor can only be used with a query ordered on a property or on the name of the nodes");
+        }
+
+        final QueryObjectModel model = (QueryObjectModel) query;
+        final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
+        final DynamicOperand operand = ordering.getOperand();
+        final boolean descending = QueryObjectModelConstants.JCR_ORDER_DESCENDING.equals(ordering.getOrder());
+
+        Constraint keyConstraint = null;
+        if (value != null) {
+            keyConstraint = qomFactory.comparison(operand,
+                    descending ? QueryObjectModelConstants.JCR_OPERATOR_LESS_THAN_OR_EQUAL_TO : QueryObjectModelConstants.JCR_OPERATOR_GREATER_THAN_OR_EQUAL_TO,
+                    qomFactory.literal(session.getValueFactory().createValue(value, type)));
+        } else if (descending && operand instanceof PropertyValue) {
+            // nodes without the property come last when descending
+            final PropertyValue propertyValue = (PropertyValue) operand;
+            keyConstraint = qomFactory.not(qomFactory.propertyExistence(propertyValue.getSelectorName(), propertyValue.getPropertyName()));
+        }
+        // nodes without the property come first when ascending, so they all need to be considered again
+
+        Constraint constraint = model.getConstraint();
+        if (keyConstraint != null) {
+            constraint = constraint == null ? keyConstraint : qomFactory.and(constraint, keyConstraint);
+        }
+        return qomFactory.createQuery(model.getSource(), constraint, model.getOrderings(), model.getColumns());
+    }
+
+    /**
+     * Reads the value the specified ordering operand has for the specified node.
+     *
+     * @return the value or {@code null} if the node doesn't have the ordering property
+     */
+    private static Value readKey(Node node, DynamicOperand operand) throws RepositoryException {
+        final ValueFactory valueFactory = node.getSession().getValueFactory();
+        if (operand instanceof PropertyValue) {
+            final String propertyName = ((PropertyValue) operand).getPropertyName();
+            if (!node.hasProperty(propertyName)) {
+                return null;
+            }
+            final Property property = node.getProperty(propertyName);
+            if (property.isMultiple()) {
+                throw new IllegalArgumentException("A cursor cannot be used with a query ordered on multi-valued property " + propertyName);
+            }
+            return property.getValue();
+        } else if (operand instanceof NodeLocalName) {
+            final String name = node.getName();
+            return valueFactory.createValue(name.substring(name.indexOf(':') + 1), PropertyType.STRING);
+        } else if (operand instanceof NodeName) {
+            return valueFactory.createValue(node.getName(), PropertyType.NAME);
+        } else if (operand instanceof LowerCase) {
+            final Value value = readKey(node, ((LowerCase) operand).getOperand());
+            return value == null ? null : valueFactory.createValue(value.getString().toLowerCase(), PropertyType.STRING);
+        } else if (operand instanceof UpperCase) {
+            final Value value = readKey(node, ((UpperCase) operand).getOperand());
+            return value == null ? null : valueFactory.createValue(value.getString().toUpperCase(), PropertyType.STRING);
+        } else {
+            throw new IllegalArgumentException("A cursor cannot be used with a query ordered on " + operand);
+        }
+    }
+
+    /**
+     * Iterates over the nodes of a page: skips the nodes the previous page already returned, if any, and records the
+     * ordering value of the returned nodes so that the cursor to the next page can be computed.
+     */
+    static final class Page implements NodeIterator {
+        private final NodeIterator nodes;
+        private final DynamicOperand operand;
+        private final KeysetCursor previous;
+        private final int limit;
+
+        private boolean skipped;
+        private Node next;
+        private long position;
+
+        // the last returned node, and its ordering value along with how many returned nodes had that value
+        private Node last;
+        private boolean unsupported;
+        private int lastType;
+        private String lastValue;
+        private int lastTies;
+
+        /**
+         * @param nodes    the nodes the query found
+         * @param ordering the first ordering of the query
+         * @param previous the cursor the query was restricted with, if any
+         * @param limit    the size of a page
+         */
+        Page(NodeIterator nodes, Ordering ordering, KeysetCursor previous, int limit) {
+            this.nodes = nodes;
+            this.operand = ordering.getOperand();
+            this.previous = previous;
+            this.limit = limit;
+            this.skipped = previous == null;
+        }
+
+        /**
+         * Computes the cursor to the page following this one, once all its nodes have been iterated over.
+         *
+         * @return the cursor to the next page or {@code null} if this page is the last one
+         */
+        KeysetCursor getNextCursor() {
+            if (position < limit || last == null || unsupported) {
+                return null;
+            }
+
+            try {
+                return new KeysetCursor(lastType, lastValue, last.getIdentifier(), lastTies);
+            } catch (RepositoryException e) {
+                throw new APIException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (limit > 0 && position >= limit) {
+                // the query may find a few more nodes when some of the nodes to skip were removed
+                return false;
+            }
+
+            try {
+                if (!skipped) {
+                    skipped = true;
+                    skip();
+                } else if (nodes.hasNext()) {
+                    next = nodes.nextNode();
+                }
+            } catch (RepositoryException e) {
+                throw new APIException(e);
+            }
+            return next != null;
+        }
+
+        /**
+         * Skips the nodes having the value recorded in the previous cursor that were already returned, stopping early
+         * if the last returned node is met, e.g. because some of those nodes were removed meanwhile. The skipped nodes
+         * still count as returned with that value for the next cursor.
+         */
+        private void skip() throws RepositoryException {
+            lastType = previous.type;
+            lastValue = previous.value;
+            lastTies = 0;
+            int toSkip = previous.ties;
+            while (nodes.hasNext()) {
+                final Node node = nodes.nextNode();
+                if (toSkip == 0 || !isLastValue(readKey(node, operand))) {
+                    next = node;
+                    return;
+                }
+                lastTies++;
+                toSkip = node.getIdentifier().equals(previous.identifier) ? 0 : toSkip - 1;
+            }
+        }
+
+        @Override
+        public Node nextNode() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final Node node = next;
+            next = null;
+            try {
+                if (!unsupported) {
+                    final Value value = readKey(node, operand);
+                    if ((last != null || previous != null) && isLastValue(value)) {
+                        lastTies++;
+                    } else {
+                        lastType = value == null ? PropertyType.UNDEFINED : value.getType();
+                        lastValue = value == null ? null : value.getString();
+                        lastTies = 1;
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // e.g. a multi-valued ordering property: this page is still returned, just without a next cursor
+                unsupported = true;
+            } catch (RepositoryException e) {
+                throw new APIException(e);
+            }
+            last = node;
+            position++;
+            return node;
+        }
+
+        private boolean isLastValue(Value value) throws RepositoryException {
+            return value == null ? lastValue == null : value.getString().equals(lastValue);
+        }
+
+        @Override
+        public Object next() {
+            return nextNode();
+        }
+
+        @Override
+        public void skip(long skipNum) {
+            for (long i = 0; i < skipNum; i++) {
+                nextNode();
+            }
+        }
+
+        @Override
+        public long getSize() {
+            return -1;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
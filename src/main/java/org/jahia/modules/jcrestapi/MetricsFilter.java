@@ -0,0 +1,137 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.annotation.Priority;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+/**
+ * Records each request the API answers into {@link APIMetrics}.
+ *
+ * <p>{@link Timer} notes when a request arrives, before Jersey matches it to a resource method. This filter then
+ * counts the request as in flight for the matched method, and records its latency and status code once the response
+ * is ready. A streamed response is measured up to the point its entity starts being written. Requests no resource
+ * method matched are recorded under {@link APIMetrics#UNMATCHED}.</p>
+ */
+@Provider
+@Priority(Priorities.AUTHENTICATION)
+public class MetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+    private static final String START = MetricsFilter.class.getName() + ".start";
+    private static final String ENDPOINT = MetricsFilter.class.getName() + ".endpoint";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        final Method method = resourceInfo.getResourceMethod();
+        requestContext.setProperty(ENDPOINT, APIMetrics.getInstance().started(method, getOperation(method, requestContext.getMethod())));
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        final Object start = requestContext.getProperty(START);
+        if (start == null) {
+            // the request didn't reach Timer, there's nothing to measure it against
+            return;
+        }
+
+        final APIMetrics metrics = APIMetrics.getInstance();
+        APIMetrics.Endpoint endpoint = (APIMetrics.Endpoint) requestContext.getProperty(ENDPOINT);
+        if (endpoint == null) {
+            endpoint = metrics.started(null, APIMetrics.UNMATCHED);
+        }
+        metrics.ended(endpoint, responseContext.getStatus(), System.nanoTime() - (Long) start);
+    }
+
+    /**
+     * Determines which operation a request performs, from the resource method answering it, or, for the methods
+     * answering several operations, from its HTTP method.
+     */
+    static String getOperation(Method method, String httpMethod) {
+        if (method == null) {
+            return APIMetrics.UNMATCHED;
+        }
+
+        final String name = method.getName();
+        if (Uploads.class.equals(method.getDeclaringClass()) || "upload".equals(name)) {
+            return API.UPLOAD;
+        }
+        if ("renameNode".equals(name)) {
+            return API.MOVE;
+        }
+        if ("query".equals(name) || HttpMethod.GET.equals(httpMethod) || HttpMethod.HEAD.equals(httpMethod)
+                || HttpMethod.OPTIONS.equals(httpMethod)) {
+            return API.READ;
+        }
+        if (HttpMethod.DELETE.equals(httpMethod)) {
+            return API.DELETE;
+        }
+        return API.CREATE_OR_UPDATE;
+    }
+
+    /**
+     * Notes when a request arrives, before it is matched to a resource method, so that its latency includes matching.
+     */
+    @Provider
+    @PreMatching
+    @Priority(Priorities.AUTHENTICATION)
+    public static class Timer implements ContainerRequestFilter {
+        @Override
+        public void filter(ContainerRequestContext requestContext) throws IOException {
+            requestContext.setProperty(START, System.nanoTime());
+        }
+    }
+}
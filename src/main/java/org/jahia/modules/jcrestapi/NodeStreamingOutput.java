@@ -0,0 +1,175 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
+import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.jcrestapi.json.FieldSelection;
+import org.jahia.modules.jcrestapi.json.JSONNodeList;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.jcrestapi.links.ReferenceResolver;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.JSONNode;
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the nodes a query found as a JSON array, one node at a time, instead of building the whole list before the
+ * response is sent. When references are embedded, the array is the {@code nodes} member of an object whose
+ * {@code _embedded} member, written last, holds the referenced nodes.
+ *
+ * <p>Each node the filter accepts is turned into its representation and written right away, so only one node
+ * representation is alive at any time and the first bytes leave as soon as the first node is written. The output owns
+ * the session the query ran in: the resource method hands it over once the query has executed, and the session is
+ * closed once the array has been written, or writing it failed.</p>
+ *
+ * <p>The response status is sent before the first node is written, so an error met while iterating can only abort
+ * the response: the client gets a truncated array.</p>
+ */
+class NodeStreamingOutput implements StreamingOutput {
+    private static final ObjectMapper MAPPER = new JacksonJaxbJsonProvider().locateMapper(JSONNode.class, MediaType.APPLICATION_JSON_TYPE);
+    // flushing is decided here, every flushEvery nodes, rather than after each node
+    private static final ObjectWriter WRITER = MAPPER.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final API api;
+    private final SessionAccess.SessionInfo sessionInfo;
+    private final NodeIterator nodes;
+    private final SlowQueryLog.Execution execution;
+    private final Filter filter;
+    private final int depth;
+    private final FieldSelection fields;
+    private final RequestOptions options;
+
+    /**
+     * @param api                 the resource that opened the session, which knows how to close it
+     * @param sessionInfo         the session the query ran in, with its workspace and language
+     * @param nodes               the nodes the query found
+     * @param execution           the run of the query, measured while its nodes are read
+     * @param filter              the filter deciding which of these nodes are output
+     * @param depth               the depth at which each node is rendered
+     * @param fields              the sub-elements included in the node representations, {@code null} for all
+     * @param options             the options of the request, deciding how the node representations are built and
+     *                            how often the response is flushed, bound to the resolver of the referenced nodes
+     */
+    NodeStreamingOutput(API api, SessionAccess.SessionInfo sessionInfo, NodeIterator nodes, SlowQueryLog.Execution execution,
+                        Filter filter, int depth, FieldSelection fields, RequestOptions options) {
+        this.api = api;
+        this.sessionInfo = sessionInfo;
+        this.nodes = nodes;
+        this.execution = execution;
+        this.filter = filter;
+        this.depth = depth;
+        this.fields = fields;
+        this.options = options;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        // the response might be written by another thread than the one which ran the query
+        SessionAccess.setCurrentSession(sessionInfo.session, sessionInfo.workspace, sessionInfo.language);
+        final PermissionDecisionCache.RequestScope previousScope = PermissionDecisionCache.getInstance().beginRequest();
+
+        final JsonGenerator generator = MAPPER.getFactory().createGenerator(output, JsonEncoding.UTF8);
+        // the container closes the entity stream, not us
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try {
+            final APIObjectFactory factory = options.getFactory();
+            final ReferenceResolver resolver = options.getReferenceResolver();
+            final int flushEvery = options.getFlushEvery();
+            final boolean embedded = resolver != null && resolver.isEmbedded();
+            if (embedded) {
+                generator.writeStartObject();
+                generator.writeFieldName(JSONNodeList.NODES);
+            }
+            generator.writeStartArray();
+            int written = 0;
+            while (nodes.hasNext()) {
+                final Node resultNode = nodes.nextNode();
+                if (filter.acceptChild(resultNode)) {
+                    final JSONNode<APIDecorator> representation;
+                    final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.SERIALIZATION);
+                    try {
+                        representation = factory.createNode(resultNode, filter, depth, fields);
+                    } finally {
+                        RequestTimings.end(previous);
+                    }
+                    RequestTimings.countRepresentation(representation);
+                    WRITER.writeValue(generator, representation);
+                    written++;
+                    if (flushEvery > 0 && written % flushEvery == 0) {
+                        generator.flush();
+                    }
+                }
+            }
+            generator.writeEndArray();
+            execution.accepted(written);
+            SlowQueryLog.getInstance().finish(execution);
+            if (embedded) {
+                // referenced nodes are only known once all the nodes have been written
+                generator.writeFieldName(JSONNodeList.EMBEDDED);
+                WRITER.writeValue(generator, resolver.resolvePending());
+                generator.writeEndObject();
+            }
+        } catch (RepositoryException e) {
+            throw new APIException(e);
+        } finally {
+            generator.close();
+            PermissionDecisionCache.getInstance().endRequest(previousScope);
+            api.closeSession(sessionInfo.session);
+        }
+    }
+}
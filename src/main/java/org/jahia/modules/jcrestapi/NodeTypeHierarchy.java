@@ -0,0 +1,185 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers whether nodes are of given node types without walking the node type hierarchy for each node.
+ *
+ * <p>The types a node is of only depend on its primary type and mixins. For each combination of those, the closure of
+ * all their supertypes is computed once and kept, so that checking a node against any number of types only takes the
+ * lookup of its combination, then one hash lookup per type. This matches what {@link Node#isNodeType(String)} answers:
+ * a node is of a type if its primary type or one of its mixins is that type or one of its subtypes.</p>
+ *
+ * <p>The closures are dropped when node types are registered, which {@link NodeTypeCacheInvalidator} signals through
+ * {@link #invalidate()}. Node types not able to list their supertypes are not cached: their nodes are asked directly.</p>
+ */
+public final class NodeTypeHierarchy {
+    private static final NodeTypeHierarchy INSTANCE = new NodeTypeHierarchy();
+    // combinations of primary type and mixins in use are few, this only guards against unbounded growth
+    private static final int MAX_ENTRIES = 10000;
+
+    public static NodeTypeHierarchy getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, Entry> closures = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private NodeTypeHierarchy() {
+    }
+
+    /**
+     * Retrieves whether the given node is of the given node type, see {@link Node#isNodeType(String)}.
+     */
+    public boolean isNodeType(Node node, String nodeTypeName) throws RepositoryException {
+        final Set<String> closure = getClosure(node);
+        return closure != null ? closure.contains(nodeTypeName) : node.isNodeType(nodeTypeName);
+    }
+
+    /**
+     * Retrieves whether the given node is of any of the given node types, see {@link Node#isNodeType(String)}.
+     */
+    public boolean isAnyNodeType(Node node, Collection<String> nodeTypeNames) throws RepositoryException {
+        final Set<String> closure = getClosure(node);
+        for (String nodeTypeName : nodeTypeNames) {
+            if (closure != null ? closure.contains(nodeTypeName) : node.isNodeType(nodeTypeName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops all the computed closures, to be called when node types are registered or unregistered.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        closures.clear();
+    }
+
+    private Set<String> getClosure(Node node) throws RepositoryException {
+        final NodeType primaryType = node.getPrimaryNodeType();
+        final NodeType[] mixins = node.getMixinNodeTypes();
+        if (primaryType == null || mixins == null) {
+            return null;
+        }
+
+        final String signature = getSignature(primaryType, mixins);
+        final long currentGeneration = generation.get();
+        final Entry entry = closures.get(signature);
+        if (entry != null && entry.generation == currentGeneration) {
+            return entry.closure;
+        }
+
+        final Set<String> closure = new HashSet<String>();
+        if (!addWithSupertypes(primaryType, closure)) {
+            return null;
+        }
+        for (NodeType mixin : mixins) {
+            if (!addWithSupertypes(mixin, closure)) {
+                return null;
+            }
+        }
+
+        if (closures.size() >= MAX_ENTRIES) {
+            closures.clear();
+        }
+        // the generation is the one from before the closure was computed, so that a registration made meanwhile drops it
+        final Set<String> result = Collections.unmodifiableSet(closure);
+        closures.put(signature, new Entry(currentGeneration, result));
+        return result;
+    }
+
+    private static String getSignature(NodeType primaryType, NodeType[] mixins) {
+        final String primaryTypeName = primaryType.getName();
+        if (mixins.length == 0) {
+            return primaryTypeName;
+        }
+
+        // mixins come in the order they were added, which doesn't change which types the node is of
+        final String[] mixinNames = new String[mixins.length];
+        for (int i = 0; i < mixins.length; i++) {
+            mixinNames[i] = mixins[i].getName();
+        }
+        Arrays.sort(mixinNames);
+
+        final StringBuilder signature = new StringBuilder(primaryTypeName);
+        for (String mixinName : mixinNames) {
+            signature.append('|').append(mixinName);
+        }
+        return signature.toString();
+    }
+
+    private static boolean addWithSupertypes(NodeType nodeType, Set<String> closure) {
+        // getSupertypes returns all the supertypes, not only the declared ones
+        final NodeType[] supertypes = nodeType.getSupertypes();
+        final String name = nodeType.getName();
+        if (supertypes == null || name == null) {
+            return false;
+        }
+
+        closure.add(name);
+        for (NodeType supertype : supertypes) {
+            closure.add(supertype.getName());
+        }
+        return true;
+    }
+
+    private static final class Entry {
+        private final long generation;
+        private final Set<String> closure;
+
+        private Entry(long generation, Set<String> closure) {
+            this.generation = generation;
+            this.closure = closure;
+        }
+    }
+}
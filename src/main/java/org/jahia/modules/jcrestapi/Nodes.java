@@ -49,15 +49,16 @@ import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.JSONProperty;
 
 import javax.jcr.Node;
-import javax.jcr.PathNotFoundException;
 import javax.jcr.Repository;
-import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * @author Christophe Laprun
@@ -71,13 +72,22 @@ public class Nodes extends API {
         super(workspace, language, repository, context);
     }
 
+    public Nodes(String workspace, String language, Repository repository, UriInfo context, Request request) {
+        super(workspace, language, repository, context, request);
+    }
+
     @GET
     @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
     /**
      * Needed to get URI without trailing / to work :(
      */
-    public Object getRootNode(@Context UriInfo context) {
-        return perform(workspace, language, "", "", "", context, READ, null);
+    public Object getRootNode(@Context final UriInfo context) {
+        return execute(ResourceExecutors.Pool.READ, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return perform(workspace, language, "", "", "", context, READ, null);
+            }
+        });
     }
 
     @GET
@@ -87,11 +97,16 @@ public class Nodes extends API {
             "|" + JSONConstants.PROPERTIES +
             "|" + JSONConstants.VERSIONS +
             "))?}{subElement: .*}")
-    public Object getNodeById(@PathParam("id") String id,
-                              @PathParam("subElementType") String subElementType,
-                              @PathParam("subElement") String subElement,
-                              @Context UriInfo context) {
-        return perform(workspace, language, id, subElementType, subElement, context, READ, null);
+    public Object getNodeById(@PathParam("id") final String id,
+                              @PathParam("subElementType") final String subElementType,
+                              @PathParam("subElement") final String subElement,
+                              @Context final UriInfo context) {
+        return execute(ResourceExecutors.Pool.READ, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return perform(workspace, language, id, subElementType, subElement, context, READ, null);
+            }
+        });
     }
 
     @PUT
@@ -108,7 +123,7 @@ public class Nodes extends API {
                                           JSONNode childData,
                                           @Context UriInfo context) {
         ElementsProcessor processor = new ElementsProcessor(id, subElementType, subElement);
-        return perform(workspace, language, context, CREATE_OR_UPDATE, childData, NodeAccessor.BY_ID, processor);
+        return performOn(ResourceExecutors.Pool.WRITE, context, CREATE_OR_UPDATE, childData, processor);
     }
 
     @POST
@@ -116,10 +131,10 @@ public class Nodes extends API {
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
     public Object createAutomaticallyNamedChildOrProperty(@PathParam("id") String id,
-                                          JSONNode childData,
-                                          @Context UriInfo context) {
+                                                          JSONNode childData,
+                                                          @Context UriInfo context) {
         ElementsProcessor processor = new ElementsProcessor(id, JSONConstants.CHILDREN, null);
-        return perform(workspace, language, context, CREATE_OR_UPDATE, childData, NodeAccessor.BY_ID, processor);
+        return performOn(ResourceExecutors.Pool.WRITE, context, CREATE_OR_UPDATE, childData, processor);
     }
 
     @PUT
@@ -131,7 +146,7 @@ public class Nodes extends API {
                                          JSONProperty childData,
                                          @Context UriInfo context) {
         ElementsProcessor processor = new ElementsProcessor(id, JSONConstants.PROPERTIES, subElement);
-        return perform(workspace, language, context, CREATE_OR_UPDATE, childData, NodeAccessor.BY_ID, processor);
+        return performOn(ResourceExecutors.Pool.WRITE, context, CREATE_OR_UPDATE, childData, processor);
     }
 
     @GET
@@ -141,7 +156,7 @@ public class Nodes extends API {
                               @PathParam("subElement") String subElement,
                               @Context UriInfo context) {
         ElementsProcessor processor = new ElementsProcessor(id, JSONConstants.PROPERTIES, subElement);
-        return perform(workspace, language, context, READ, null, NodeAccessor.BY_ID, processor);
+        return performOn(ResourceExecutors.Pool.READ, context, READ, null, processor);
     }
 
     @DELETE
@@ -151,7 +166,7 @@ public class Nodes extends API {
                                  @PathParam("subElement") String subElement,
                                  @Context UriInfo context) {
         ElementsProcessor processor = new ElementsProcessor(id, JSONConstants.PROPERTIES, subElement);
-        return perform(workspace, language, context, DELETE, null, NodeAccessor.BY_ID, processor);
+        return performOn(ResourceExecutors.Pool.WRITE, context, DELETE, null, processor);
     }
 
     @DELETE
@@ -161,15 +176,33 @@ public class Nodes extends API {
             "|" + JSONConstants.VERSIONS +
             "))?}{subElement: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Object deleteNode(@PathParam("id") String id,
-                             @PathParam("subElementType") String subElementType,
-                             @PathParam("subElement") String subElement,
-                             List<String> subElementsToDelete,
-                             @Context UriInfo context) {
-        if (subElementsToDelete != null) {
-            return performBatchDelete(workspace, language, id, subElementType, subElementsToDelete, context, NodeAccessor.BY_ID);
-        }
-        return perform(workspace, language, id, subElementType, subElement, context, DELETE, null);
+    public Object deleteNode(@PathParam("id") final String id,
+                             @PathParam("subElementType") final String subElementType,
+                             @PathParam("subElement") final String subElement,
+                             final List<String> subElementsToDelete,
+                             @Context final UriInfo context) {
+        return execute(ResourceExecutors.Pool.WRITE, new Callable<Object>() {
+            @Override
+            public Object call() {
+                if (subElementsToDelete != null) {
+                    return performBatchDelete(workspace, language, id, subElementType, subElementsToDelete, context, NodeAccessor.BY_ID);
+                }
+                return perform(workspace, language, id, subElementType, subElement, context, DELETE, null);
+            }
+        });
+    }
+
+    /**
+     * Performs the given operation on the node with the given identifier on the executor of the given pool.
+     */
+    private Object performOn(ResourceExecutors.Pool pool, final UriInfo context, final String operation,
+                             final Object data, final ElementsProcessor processor) {
+        return execute(pool, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return perform(workspace, language, context, operation, data, NodeAccessor.BY_ID, processor);
+            }
+        });
     }
 
     /**
@@ -186,9 +219,18 @@ public class Nodes extends API {
      */
     @POST
     @Path("/{id}/moveto/{newName}")
-    public Object renameNode(@PathParam("id") String id,
-                             @PathParam("newName") String newName,
-                             @Context UriInfo context) {
+    public Object renameNode(@PathParam("id") final String id,
+                             @PathParam("newName") final String newName,
+                             @Context final UriInfo context) {
+        return execute(ResourceExecutors.Pool.WRITE, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return rename(id, newName, context);
+            }
+        });
+    }
+
+    private Response rename(String id, String newName, UriInfo context) {
         Session session = null;
         try {
             session = getSession(workspace, language);
@@ -196,7 +238,7 @@ public class Nodes extends API {
             checkNodeIsInScope(node, MOVE);
             checkDestinationIsInScope(node, newName);
             session.move(node.getPath(), getDestinationPath(node, newName));
-            session.save();
+            save(session);
             return ElementAccessor.getSeeOtherResponse(URIUtils.getIdURI(id), context);
         } catch (Exception e) {
             throw new APIException(e);
@@ -204,47 +246,4 @@ public class Nodes extends API {
             closeSession(session);
         }
     }
-
-    /**
-     * Checks that the node a rename lands the node under is exposed by the API, when that is not the node's own
-     * parent.
-     *
-     * <p>The new name resolves the way a JCR path resolves, as a <em>relative path</em> rather than a name, so
-     * {@code ../sibling/name} lands the node under another parent and {@code .} lands it beside its own parent. The
-     * destination is therefore resolved here through the same path {@link Session#move} builds, with {@code /..}
-     * appended so that JCR answers with the node that gains the child. The node checked is the node the move
-     * reaches, whatever shape the name takes, and containment is deliberately not enforced: moving a node under
-     * another parent is what such a name is for.
-     *
-     * <p>A name that keeps the node under its own parent reaches no node the request has not already answered for,
-     * so it is left alone. A name that resolves to no node, or to no node at all above the root, is left to JCR,
-     * which reports it the same way as before.
-     *
-     * @param node    the node the request resolved to
-     * @param newName the name the node takes, resolved relative to that node's parent
-     * @throws PathNotFoundException if the node the rename lands the node under is not exposed by the API
-     * @throws RepositoryException   if that node cannot be read
-     */
-    private void checkDestinationIsInScope(Node node, String newName) throws RepositoryException {
-        final Node sourceParent = node.getParent();
-        final Node destinationParent = node.getSession().getNode(getDestinationPath(node, newName) + "/..");
-        if (!destinationParent.isSame(sourceParent)) {
-            checkNodeIsInScope(destinationParent, MOVE);
-        }
-    }
-
-    /**
-     * Builds the path a rename moves the node to. The new name resolves relative to the node's parent, so it is joined
-     * to that parent's path. The root node's path is the separator on its own, so joining a name to it directly leaves
-     * an empty segment in the path, and JCR refuses such a path.
-     *
-     * @param node    the node the request resolved to
-     * @param newName the name the node takes, resolved relative to that node's parent
-     * @return the absolute path the node moves to
-     * @throws RepositoryException if the node's parent cannot be read
-     */
-    private static String getDestinationPath(Node node, String newName) throws RepositoryException {
-        final String parentPath = node.getParent().getPath();
-        return ("/".equals(parentPath) ? "" : parentPath) + "/" + newName;
-    }
 }
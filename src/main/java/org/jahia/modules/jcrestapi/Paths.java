@@ -52,7 +52,6 @@ import org.jahia.api.Constants;
 import org.jahia.modules.jcrestapi.accessors.ElementAccessor;
 import org.jahia.modules.jcrestapi.json.APINode;
 import org.jahia.modules.json.Filter;
-import org.jahia.modules.json.JSONItem;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.settings.SettingsBean;
 
@@ -62,9 +61,14 @@ import javax.ws.rs.core.*;
 import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * @author Christophe Laprun
@@ -73,6 +77,12 @@ import java.util.List;
 public class Paths extends API {
 
     static final String MAPPING = "paths";
+    static final String BINARY = "binary";
+
+    private static final String RANGE_HEADER = "Range";
+    private static final String IF_RANGE_HEADER = "If-Range";
+    private static final String CONTENT_RANGE_HEADER = "Content-Range";
+    private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
 
     /**
      * Records how many segments in API.API_PATH/{workspace}/{language}/Paths.MAPPING must be ignored to get actual path
@@ -83,6 +93,23 @@ public class Paths extends API {
         super(workspace, language, repository, context);
     }
 
+    public Paths(String workspace, String language, Repository repository, UriInfo context, Request request) {
+        super(workspace, language, repository, context, request);
+    }
+
+    /**
+     * Performs the given operation on the node the path of the request leads to on the executor of the given pool.
+     */
+    private Object performByPath(ResourceExecutors.Pool pool, final UriInfo context, final String operation,
+                                 final Object data) {
+        return execute(pool, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return performByPath(context, operation, data);
+            }
+        });
+    }
+
     private Object performByPath(UriInfo context, String operation, Object data) {
 
         // only consider useful segments
@@ -95,28 +122,20 @@ public class Paths extends API {
             if (accessor != null) {
                 String nodePath = computePathUpTo(usefulSegments, index);
                 String subElement = getSubElement(usefulSegments, index);
-                JSONItem<?, ?> converted;
-                if (data != null) {
-                    if (data instanceof String) {
-                        String dataAsString = (String) data;
-                        try {
-                            converted = accessor.convertFrom(dataAsString);
-                        } catch (Exception e) {
-                            throw new APIException(e.getCause(), operation, NodeAccessor.BY_PATH.getType(), nodePath, subElementType, Collections.singletonList(subElement), data);
-                        }
-                    } else if (data instanceof List) {
-                        @SuppressWarnings("unchecked") List<String> dataAsList = (List<String>) data;
-                        return performBatchDelete(workspace, language, nodePath, subElementType, dataAsList, context,
-                                NodeAccessor.BY_PATH);
-                    } else {
-                        throw new APIException(new IllegalArgumentException("Unknown payload type"), operation,
-                                NodeAccessor.BY_PATH.getType(), nodePath,
-                                subElementType, Collections.singletonList(subElement), data);
-                    }
-                } else {
-                    converted = null;
+                if (data instanceof InputStream) {
+                    // read by the accessor as it applies it, rather than bound first
+                    return perform(workspace, language, context, operation, data, NodeAccessor.BY_PATH,
+                            new ElementsProcessor(nodePath, subElementType, subElement));
+                } else if (data instanceof List) {
+                    @SuppressWarnings("unchecked") List<String> dataAsList = (List<String>) data;
+                    return performBatchDelete(workspace, language, nodePath, subElementType, dataAsList, context,
+                            NodeAccessor.BY_PATH);
+                } else if (data != null) {
+                    throw new APIException(new IllegalArgumentException("Unknown payload type"), operation,
+                            NodeAccessor.BY_PATH.getType(), nodePath,
+                            subElementType, Collections.singletonList(subElement), data);
                 }
-                return perform(workspace, language, nodePath, subElementType, subElement, context, operation, converted, NodeAccessor.BY_PATH);
+                return perform(workspace, language, nodePath, subElementType, subElement, context, operation, null, NodeAccessor.BY_PATH);
             }
             index++;
         }
@@ -130,32 +149,168 @@ public class Paths extends API {
     @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
     public Object get(@PathParam("path") String path,
                       @Context UriInfo context) {
-        return performByPath(context, READ, null);
+        return performByPath(ResourceExecutors.Pool.READ, context, READ, null);
+    }
+
+    /**
+     * Sends the binary data of the file the path leads to, or of its {@code jcr:content} node, so that files uploaded
+     * through {@link #upload} can be downloaded back. A single {@code Range} is supported, along with {@code If-Range},
+     * so that clients can seek into a binary or resume a download; the binary is streamed, see
+     * {@link BinaryStreamingOutput}.
+     *
+     * <p>A path ending with a sub-element type followed by {@code binary}, such as {@code properties/binary}, names
+     * that sub-element rather than the binary data, and is answered as such. Likewise, when the node before
+     * {@code binary} has neither binary data nor a {@code jcr:content} node, the path names a child node called
+     * {@code binary}, which is answered with its representation.</p>
+     *
+     * @param range   the {@code Range} header of the request, if any
+     * @param ifRange the {@code If-Range} header of the request, if any
+     * @param context a UriInfo instance, automatically injected, providing context about the request URI
+     * @return a Response ready to be sent to the client
+     */
+    @GET
+    @Path("/{path: .*}/" + BINARY)
+    @Produces(MediaType.WILDCARD)
+    public Object getBinary(@HeaderParam(RANGE_HEADER) final String range,
+                            @HeaderParam(IF_RANGE_HEADER) final String ifRange,
+                            @Context final UriInfo context) {
+        return execute(ResourceExecutors.Pool.READ, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return readBinary(range, ifRange, context);
+            }
+        });
+    }
+
+    private Object readBinary(String range, String ifRange, UriInfo context) {
+
+        final List<PathSegment> usefulSegments = getUsefulSegments(context);
+        final int binaryIndex = usefulSegments.size() - 1;
+        if (binaryIndex > 0 && ACCESSORS.containsKey(usefulSegments.get(binaryIndex - 1).getPath())) {
+            return performByPath(context, READ, null);
+        }
+
+        final ElementsProcessor processor = new ElementsProcessor(computePathUpTo(usefulSegments, binaryIndex), "", "");
+        final String idOrPath = processor.getIdOrPath();
+        Session session = null;
+        boolean streamed = false;
+        try {
+            session = getSession(workspace, language);
+            final Node node = NodeAccessor.BY_PATH.getNode(idOrPath, session);
+            if (!node.hasProperty(Constants.JCR_DATA) && !node.hasNode(Constants.JCR_CONTENT)) {
+                // not a file: binary is the name of a child node
+                closeSession(session);
+                session = null;
+                return performByPath(context, READ, null);
+            }
+            checkNodeIsInScope(node, READ);
+
+            final Node content = node.hasProperty(Constants.JCR_DATA) || !node.hasNode(Constants.JCR_CONTENT) ?
+                    node : node.getNode(Constants.JCR_CONTENT);
+            if (!content.hasProperty(Constants.JCR_DATA)) {
+                throw new PathNotFoundException(node.getPath() + " has no binary data");
+            }
+
+            final Property data = content.getProperty(Constants.JCR_DATA);
+            final Binary binary = data.getBinary();
+            final long size = binary.getSize();
+            final EntityTag tag = EntityTags.computeForBinary(data, size, workspace);
+            final Date lastModified = content.hasProperty(Constants.JCR_LASTMODIFIED) ?
+                    content.getProperty(Constants.JCR_LASTMODIFIED).getDate().getTime() : null;
+
+            if (request != null && tag != null) {
+                final Response.ResponseBuilder notModified = lastModified != null ?
+                        request.evaluatePreconditions(lastModified, tag) : request.evaluatePreconditions(tag);
+                if (notModified != null) {
+                    binary.dispose();
+                    return notModified.build();
+                }
+            }
+
+            final ByteRange byteRange = isRangeApplicable(ifRange, tag, lastModified) ? ByteRange.parse(range, size) : null;
+            if (byteRange == ByteRange.UNSATISFIABLE) {
+                binary.dispose();
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(CONTENT_RANGE_HEADER, byteRange.toContentRange(size))
+                        .build();
+            }
+
+            final long start = byteRange != null ? byteRange.getStart() : 0;
+            final long length = byteRange != null ? byteRange.getLength() : size;
+            final String mimeType = content.hasProperty(Constants.JCR_MIMETYPE) ?
+                    content.getProperty(Constants.JCR_MIMETYPE).getString() : MediaType.APPLICATION_OCTET_STREAM;
+
+            final Response.ResponseBuilder builder = byteRange != null ?
+                    Response.status(Response.Status.PARTIAL_CONTENT).header(CONTENT_RANGE_HEADER, byteRange.toContentRange(size)) :
+                    Response.ok();
+            builder.entity(new BinaryStreamingOutput(this, session, binary, start, length))
+                    .type(mimeType)
+                    .header(HttpHeaders.CONTENT_LENGTH, length)
+                    .header(ACCEPT_RANGES_HEADER, "bytes")
+                    .tag(tag)
+                    .lastModified(lastModified);
+            // from now on, the output is in charge of the session
+            streamed = true;
+            return builder.build();
+        } catch (Exception e) {
+            throw new APIException(e, READ, NodeAccessor.BY_PATH.getType(), idOrPath, BINARY, null, null);
+        } finally {
+            if (!streamed) {
+                closeSession(session);
+            }
+        }
+    }
+
+    /**
+     * Whether the {@code Range} header of a request applies, given its {@code If-Range} header: the range is only sent
+     * if the binary has not changed since the client got the part it already has, otherwise the whole binary is.
+     */
+    private static boolean isRangeApplicable(String ifRange, EntityTag tag, Date lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        final String validator = ifRange.trim();
+        if (validator.startsWith("\"") || validator.startsWith("W/")) {
+            // only a strong tag validates a range
+            return tag != null && !validator.startsWith("W/") && validator.equals(tag.toString());
+        }
+
+        if (lastModified == null) {
+            return false;
+        }
+        try {
+            final long date = ZonedDateTime.parse(validator, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            // HTTP dates have a one-second precision
+            return date / 1000 == lastModified.getTime() / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 
     @PUT
     @Path("/{path: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object createOrUpdate(String childDataAsJSON,
+    public Object createOrUpdate(InputStream childData,
                                  @Context UriInfo context) {
-        return performByPath(context, CREATE_OR_UPDATE, childDataAsJSON);
+        return performByPath(ResourceExecutors.Pool.WRITE, context, CREATE_OR_UPDATE, childData);
     }
 
     @POST
     @Path("/{path: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object createOrUpdateChildNode(String childData,
+    public Object createOrUpdateChildNode(InputStream childData,
                                           @Context UriInfo context) {
-        return performByPath(context, CREATE_OR_UPDATE, childData);
+        return performByPath(ResourceExecutors.Pool.WRITE, context, CREATE_OR_UPDATE, childData);
     }
 
     @DELETE
     @Path("/{path: .*}")
     @Consumes(MediaType.APPLICATION_JSON)
     public Object delete(List<String> subElementsToDelete, @Context UriInfo context) {
-        return performByPath(context, DELETE, subElementsToDelete);
+        return performByPath(ResourceExecutors.Pool.WRITE, context, DELETE, subElementsToDelete);
     }
 
     private List<PathSegment> getUsefulSegments(UriInfo context) {
@@ -197,9 +352,17 @@ public class Paths extends API {
     @Consumes(MediaType.MULTIPART_FORM_DATA)
     @Produces(MediaType.TEXT_PLAIN)
     public Object upload(@PathParam("path") String path,
-                         @FormDataParam("file") FormDataBodyPart part,
-                         @Context UriInfo context) {
+                         @FormDataParam("file") final FormDataBodyPart part,
+                         @Context final UriInfo context) {
+        return execute(ResourceExecutors.Pool.UPLOAD, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return storeUpload(part, context);
+            }
+        });
+    }
 
+    private Object storeUpload(FormDataBodyPart part, UriInfo context) {
         final List<PathSegment> usefulSegments = getUsefulSegments(context);
         final ElementsProcessor processor = new ElementsProcessor(computePathUpTo(usefulSegments, usefulSegments.size()), "", "");
         Session session = null;
@@ -225,10 +388,7 @@ public class Paths extends API {
                     // if we didn't get a file name for some reason, create one
                     fileName = node.getName() + System.currentTimeMillis();
                 } else {
-                    if (StringUtils.containsAny(fileName, "%/:[]*|\t\r\n")) {
-                        throw new IllegalArgumentException("The file name " + fileName + " contains illegal characters");
-                    }
-                    fileName = JCRContentUtils.escapeLocalNodeName(fileName);
+                    fileName = toFileNodeName(fileName);
                     // check if we've already have a child with the same name, in which case we want to update
                     // todo: support same name siblings?
                     isUpdate = node.hasNode(fileName);
@@ -238,26 +398,6 @@ public class Paths extends API {
                     throw new IllegalArgumentException("The file " + fileName + " exceeds its maximum permitted size of " + maxFileSize + " bytes");
                 }
 
-                Node childNode;
-                Node contentNode;
-                if (isUpdate) {
-                    // retrieve the existing node
-                    childNode = node.getNode(fileName);
-
-                    // check that we're dealing with a jnt:file node
-                    if (!childNode.isNodeType(Constants.NT_FILE)) {
-                        throw new IllegalArgumentException(fileName + " already exists and is not a " + Constants.NT_FILE + " node!");
-                    } else {
-                        contentNode = childNode.getNode(Constants.JCR_CONTENT);
-                    }
-                } else {
-                    // create the node
-                    childNode = node.addNode(fileName, Constants.JAHIANT_FILE);
-
-                    // actual content is in a jcr:content child node
-                    contentNode = childNode.addNode(Constants.JCR_CONTENT, Constants.JAHIANT_RESOURCE);
-                }
-
                 InputStream stream = new BufferedInputStream(part.getEntityAs(InputStream.class));
 
                 if (maxFileSize > 0) {
@@ -273,11 +413,9 @@ public class Paths extends API {
                     };
                 }
 
-                Binary binary = session.getValueFactory().createBinary(stream);
-                contentNode.setProperty(Constants.JCR_DATA, binary);
-                contentNode.setProperty(Constants.JCR_MIMETYPE, part.getMediaType().toString());
+                final Node childNode = storeFile(node, fileName, stream, part.getMediaType().toString());
 
-                session.save();
+                save(session);
 
                 final APINode apiNode = getFactory().createAPINode(childNode, Filter.OUTPUT_ALL, false, false, true);
                 // since IE attempts to download the return JSON, we state that we produce plain/text and return a String representation of the JSONNode instead
@@ -294,6 +432,60 @@ public class Paths extends API {
         }
     }
 
+    /**
+     * Checks the name of an uploaded file and escapes it, so that it can be used as the name of the file node.
+     *
+     * @param fileName the name the client gave the file
+     * @return the name of the file node
+     * @throws IllegalArgumentException if the name contains characters that cannot be escaped
+     */
+    static String toFileNodeName(String fileName) {
+        if (StringUtils.containsAny(fileName, "%/:[]*|\t\r\n")) {
+            throw new IllegalArgumentException("The file name " + fileName + " contains illegal characters");
+        }
+        return JCRContentUtils.escapeLocalNodeName(fileName);
+    }
+
+    /**
+     * Stores the given data as the content of the file node with the given name under the given folder, creating that
+     * node and its {@code jcr:content} child unless they already exist. The session is not saved.
+     *
+     * @param folder   the folder the file is uploaded to
+     * @param fileName the name of the file node, as returned by {@link #toFileNodeName(String)}
+     * @param stream   the data of the file
+     * @param mimeType the mime type of the file
+     * @return the file node
+     * @throws IllegalArgumentException if a node with the same name exists and is not a file
+     * @throws RepositoryException      if the file cannot be stored
+     */
+    static Node storeFile(Node folder, String fileName, InputStream stream, String mimeType) throws RepositoryException {
+        Node childNode;
+        Node contentNode;
+        // todo: support same name siblings?
+        if (folder.hasNode(fileName)) {
+            // retrieve the existing node
+            childNode = folder.getNode(fileName);
+
+            // check that we're dealing with a jnt:file node
+            if (!childNode.isNodeType(Constants.NT_FILE)) {
+                throw new IllegalArgumentException(fileName + " already exists and is not a " + Constants.NT_FILE + " node!");
+            } else {
+                contentNode = childNode.getNode(Constants.JCR_CONTENT);
+            }
+        } else {
+            // create the node
+            childNode = folder.addNode(fileName, Constants.JAHIANT_FILE);
+
+            // actual content is in a jcr:content child node
+            contentNode = childNode.addNode(Constants.JCR_CONTENT, Constants.JAHIANT_RESOURCE);
+        }
+
+        Binary binary = folder.getSession().getValueFactory().createBinary(stream);
+        contentNode.setProperty(Constants.JCR_DATA, binary);
+        contentNode.setProperty(Constants.JCR_MIMETYPE, mimeType);
+        return childNode;
+    }
+
     private static String computePathUpTo(List<PathSegment> segments, int index) {
         StringBuilder path = new StringBuilder(30 * index);
         for (int i = 0; i < index; i++) {
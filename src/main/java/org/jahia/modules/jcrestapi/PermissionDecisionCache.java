@@ -0,0 +1,416 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.services.securityfilter.PermissionService;
+import org.jahia.services.securityfilter.ScopeDefinition;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the decisions the {@link PermissionService} made, so that rendering a tree of nodes doesn't ask it the same
+ * question over and over.
+ *
+ * <p>A decision is identified by the API it was made for, the API scopes granted to the request, which depend on its
+ * token and origin, the user, the workspace, the node's primary type and its scope path. The scope path is the node's path, unless {@code shareBetweenSiblings} is set: nodes without their own ACL
+ * then share the decisions made for any of their siblings of the same type, their parent path being used instead. Only
+ * enable it when the configured API scopes don't single out nodes by name, since the permission service is then no
+ * longer asked about each node.</p>
+ *
+ * <p>Decisions are kept in two tiers. The request tier lives as long as the request the API is answering, between
+ * {@link #beginRequest()} and {@link #endRequest(RequestScope)}, and is only seen by the thread answering it. The
+ * shared tier keeps decisions for {@code ttl} milliseconds, and at most {@code maxEntries} of them, the least recently
+ * used being evicted first, across requests. It is invalidated per workspace by {@link PermissionDecisionCacheInvalidator} when ACLs change. A {@code ttl} of
+ * {@code 0}, the default, disables the shared tier. These settings are read from {@link APIConfiguration}.</p>
+ */
+public class PermissionDecisionCache {
+    private static final PermissionDecisionCache INSTANCE = new PermissionDecisionCache();
+    private static final String ACL = "j:acl";
+
+    public static PermissionDecisionCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final ThreadLocal<RequestScope> requestScope = new ThreadLocal<RequestScope>();
+    private final Map<Key, Decision> shared = new LinkedHashMap<Key, Decision>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Decision> eldest) {
+            if (size() > getMaxEntries()) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong decisions = new AtomicLong();
+    private final AtomicLong requestHits = new AtomicLong();
+    private final AtomicLong sharedHits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private PermissionDecisionCache() {
+    }
+
+    /**
+     * Applies the settings of the given configuration, which just replaced the previous one.
+     */
+    void reconfigured(APIConfiguration previous, APIConfiguration current) {
+        final int maxEntries = current.getPermissionCacheMaxEntries();
+        synchronized (shared) {
+            if (current.getPermissionCacheTtl() <= 0) {
+                shared.clear();
+            } else {
+                // evict the decisions exceeding a lowered maximum now rather than one at a time as new ones are made
+                for (Iterator<Key> keys = shared.keySet().iterator(); shared.size() > maxEntries && keys.hasNext(); ) {
+                    keys.next();
+                    keys.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+        if (previous.isPermissionCacheShareBetweenSiblings() != current.isPermissionCacheShareBetweenSiblings()) {
+            // decisions were made for other scopes
+            clear();
+        }
+    }
+
+    public long getTtl() {
+        return APIConfiguration.get().getPermissionCacheTtl();
+    }
+
+    public int getMaxEntries() {
+        return APIConfiguration.get().getPermissionCacheMaxEntries();
+    }
+
+    public boolean isShareBetweenSiblings() {
+        return APIConfiguration.get().isPermissionCacheShareBetweenSiblings();
+    }
+
+    public boolean isSharedTierEnabled() {
+        return getTtl() > 0;
+    }
+
+    /**
+     * Starts remembering decisions for the request the current thread is answering.
+     *
+     * @return the scope that was active before, to be passed to {@link #endRequest(RequestScope)}
+     */
+    RequestScope beginRequest() {
+        final RequestScope previous = requestScope.get();
+        requestScope.set(new RequestScope());
+        return previous;
+    }
+
+    /**
+     * Forgets the decisions made for the request the current thread was answering.
+     *
+     * @param previous the scope {@link #beginRequest()} returned
+     */
+    void endRequest(RequestScope previous) {
+        if (previous != null) {
+            requestScope.set(previous);
+        } else {
+            requestScope.remove();
+        }
+    }
+
+    /**
+     * Asks the given permission service whether the given API may be used on the given node, unless the same question
+     * has already been answered.
+     */
+    boolean hasPermission(PermissionService permissionService, String api, Node node) throws RepositoryException {
+        final RequestScope scope = requestScope.get();
+        final Key key = getKey(api, getScopes(permissionService, scope), node);
+        if (scope != null) {
+            final Boolean decision = scope.decisions.get(key);
+            if (decision != null) {
+                requestHits.incrementAndGet();
+                return decision;
+            }
+        }
+
+        final boolean decision = getSharedDecision(permissionService, key, api, node);
+        if (scope != null) {
+            scope.decisions.put(key, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Asks whether the given API may be used on each of the given nodes, typically the children of a node, asking the
+     * permission service only once for all the nodes sharing a decision.
+     *
+     * @return the decision for each node, in the order of the given nodes
+     */
+    boolean[] hasPermissions(PermissionService permissionService, String api, List<Node> nodes) throws RepositoryException {
+        final boolean[] result = new boolean[nodes.size()];
+        final Map<Key, Boolean> decided = new HashMap<Key, Boolean>();
+        final String scopes = getScopes(permissionService, requestScope.get());
+        for (int i = 0; i < result.length; i++) {
+            final Node node = nodes.get(i);
+            final Key key = getKey(api, scopes, node);
+            Boolean decision = decided.get(key);
+            if (decision == null) {
+                decision = hasPermission(permissionService, api, node);
+                decided.put(key, decision);
+            } else {
+                requestHits.incrementAndGet();
+            }
+            result[i] = decision;
+        }
+        return result;
+    }
+
+    private boolean getSharedDecision(PermissionService permissionService, Key key, String api, Node node) throws RepositoryException {
+        final APIConfiguration configuration = APIConfiguration.get();
+        final long ttl = configuration.getPermissionCacheTtl();
+        if (ttl <= 0) {
+            decisions.incrementAndGet();
+            return permissionService.hasPermission(api, node);
+        }
+
+        final long generation = getGeneration(key.workspace).get();
+        final long now = System.currentTimeMillis();
+        synchronized (shared) {
+            final Decision decision = shared.get(key);
+            if (decision != null) {
+                if (decision.generation == generation && decision.expiresAt > now) {
+                    sharedHits.incrementAndGet();
+                    return decision.permitted;
+                }
+                shared.remove(key);
+            }
+        }
+
+        decisions.incrementAndGet();
+        final boolean permitted = permissionService.hasPermission(api, node);
+        synchronized (shared) {
+            // the generation is the one from before the decision was made, so that an ACL change made meanwhile invalidates it
+            shared.put(key, new Decision(permitted, generation, now + ttl));
+        }
+        return permitted;
+    }
+
+    /**
+     * Retrieves the names of the API scopes granted to the request the current thread is answering, once per request
+     * when a request tier is active.
+     */
+    private static String getScopes(PermissionService permissionService, RequestScope scope) {
+        if (scope != null && scope.scopes != null) {
+            return scope.scopes;
+        }
+
+        final Collection<ScopeDefinition> definitions = permissionService.getCurrentScopes();
+        final String scopes;
+        if (definitions == null || definitions.isEmpty()) {
+            scopes = "";
+        } else {
+            final SortedSet<String> names = new TreeSet<String>();
+            for (ScopeDefinition definition : definitions) {
+                names.add(definition.getScopeName());
+            }
+            scopes = names.toString();
+        }
+
+        if (scope != null) {
+            scope.scopes = scopes;
+        }
+        return scopes;
+    }
+
+    private Key getKey(String api, String scopes, Node node) throws RepositoryException {
+        final String path = node.getPath();
+        final String scopePath;
+        if (isShareBetweenSiblings() && !"/".equals(path) && !node.hasNode(ACL)) {
+            scopePath = path.substring(0, path.lastIndexOf('/') + 1);
+        } else {
+            scopePath = path;
+        }
+        return new Key(api, scopes, node.getSession().getUserID(), node.getSession().getWorkspace().getName(),
+                node.getPrimaryNodeType().getName(), scopePath);
+    }
+
+    /**
+     * Invalidates the shared decisions made in the given workspace.
+     *
+     * @param workspace the workspace in which ACLs changed
+     */
+    public void invalidate(String workspace) {
+        getGeneration(workspace).incrementAndGet();
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Invalidates all the shared decisions.
+     */
+    public void clear() {
+        synchronized (shared) {
+            shared.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    private AtomicLong getGeneration(String workspace) {
+        AtomicLong generation = generations.get(workspace);
+        if (generation == null) {
+            generation = new AtomicLong();
+            final AtomicLong existing = generations.putIfAbsent(workspace, generation);
+            if (existing != null) {
+                generation = existing;
+            }
+        }
+        return generation;
+    }
+
+    public int getSize() {
+        synchronized (shared) {
+            return shared.size();
+        }
+    }
+
+    /**
+     * @return how many decisions the permission service was asked for
+     */
+    public long getDecisions() {
+        return decisions.get();
+    }
+
+    public long getRequestHits() {
+        return requestHits.get();
+    }
+
+    public long getSharedHits() {
+        return sharedHits.get();
+    }
+
+    /**
+     * @return how many decisions were taken from either tier instead of asking the permission service
+     */
+    public long getDecisionsSaved() {
+        return getRequestHits() + getSharedHits();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PermissionDecisionCache{" +
+                "size=" + getSize() +
+                ", ttl=" + getTtl() +
+                ", decisions=" + getDecisions() +
+                ", requestHits=" + getRequestHits() +
+                ", sharedHits=" + getSharedHits() +
+                ", evictions=" + getEvictions() +
+                ", invalidations=" + getInvalidations() +
+                '}';
+    }
+
+    /**
+     * The decisions made while answering a request.
+     */
+    static final class RequestScope {
+        private final Map<Key, Boolean> decisions = new HashMap<Key, Boolean>();
+        private String scopes;
+    }
+
+    private static final class Decision {
+        private final boolean permitted;
+        private final long generation;
+        private final long expiresAt;
+
+        private Decision(boolean permitted, long generation, long expiresAt) {
+            this.permitted = permitted;
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Key {
+        private final String api;
+        private final String scopes;
+        private final String user;
+        private final String workspace;
+        private final String type;
+        private final String path;
+        private final int hashCode;
+
+        private Key(String api, String scopes, String user, String workspace, String type, String path) {
+            this.api = api;
+            this.scopes = scopes;
+            this.user = user;
+            this.workspace = workspace;
+            this.type = type;
+            this.path = path;
+            this.hashCode = Arrays.hashCode(new Object[]{api, scopes, user, workspace, type, path});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return hashCode == key.hashCode && path.equals(key.path) && api.equals(key.api) && type.equals(key.type)
+                    && scopes.equals(key.scopes) && workspace.equals(key.workspace) && Objects.equals(user, key.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexes the property definitions of node types by property name, so that finding the definition of a property
+ * doesn't scan all the definitions of its node type each time.
+ *
+ * <p>For each node type, the index maps the name of each property it defines, itself or through its supertypes, to the
+ * first such definition, and the name of each property it declares to the position of that declaration. An index is
+ * built the first time a node type is looked up, and rebuilt if the node type instance changed since, or once node
+ * types were registered, which {@link NodeTypeCacheInvalidator} signals through {@link #invalidate()}. A name not
+ * found in an index also rebuilds it if the node type now has a different number of definitions.</p>
+ */
+public final class PropertyDefinitionIndex {
+    private static final PropertyDefinitionIndex INSTANCE = new PropertyDefinitionIndex();
+
+    public static PropertyDefinitionIndex getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, TypeIndex> indexes = new ConcurrentHashMap<String, TypeIndex>();
+    private final AtomicLong generation = new AtomicLong();
+
+    private PropertyDefinitionIndex() {
+    }
+
+    /**
+     * Retrieves the first definition of the given node type, as returned by {@link NodeType#getPropertyDefinitions()},
+     * which name is the given one.
+     *
+     * @return the definition or {@code null} if the node type defines no property with that name, residual definitions
+     * not being considered
+     */
+    public PropertyDefinition getDefinition(NodeType nodeType, String propertyName) {
+        final TypeIndex index = getIndex(nodeType);
+        final PropertyDefinition definition = index.definitions.get(propertyName);
+        if (definition == null && index.isStale()) {
+            return rebuild(nodeType).definitions.get(propertyName);
+        }
+        return definition;
+    }
+
+    /**
+     * Retrieves the position, starting at {@code 1} like JCR indexes, of the first declaration of the given property
+     * among the ones of the given node type, as returned by {@link NodeType#getDeclaredPropertyDefinitions()}.
+     *
+     * @return the position or {@code 1} if the node type doesn't declare the property
+     */
+    public int getDeclaredPosition(NodeType nodeType, String propertyName) {
+        TypeIndex index = getIndex(nodeType);
+        Integer position = index.declaredPositions.get(propertyName);
+        if (position == null && index.isStale()) {
+            position = rebuild(nodeType).declaredPositions.get(propertyName);
+        }
+        return position != null ? position : 1;
+    }
+
+    /**
+     * Retrieves how many property definitions the given node type declares.
+     */
+    public int getDeclaredCount(NodeType nodeType) {
+        return getIndex(nodeType).declaredCount;
+    }
+
+    /**
+     * Drops all the indexes, to be called when node types are registered or unregistered.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        indexes.clear();
+    }
+
+    private TypeIndex getIndex(NodeType nodeType) {
+        final String name = nodeType.getName();
+        final long currentGeneration = generation.get();
+        final TypeIndex index = name != null ? indexes.get(name) : null;
+        if (index != null && index.generation == currentGeneration && index.nodeType == nodeType) {
+            return index;
+        }
+
+        return rebuild(nodeType);
+    }
+
+    private TypeIndex rebuild(NodeType nodeType) {
+        // the generation is the one from before the index was built, so that a registration made meanwhile drops it
+        final TypeIndex built = new TypeIndex(nodeType, generation.get());
+        final String name = nodeType.getName();
+        if (name != null) {
+            indexes.put(name, built);
+        }
+        return built;
+    }
+
+    private static final class TypeIndex {
+        private final NodeType nodeType;
+        private final long generation;
+        private final Map<String, PropertyDefinition> definitions;
+        private final Map<String, Integer> declaredPositions;
+        private final int declaredCount;
+        private final int count;
+
+        private TypeIndex(NodeType nodeType, long generation) {
+            this.nodeType = nodeType;
+            this.generation = generation;
+
+            final PropertyDefinition[] all = nodeType.getPropertyDefinitions();
+            count = all != null ? all.length : 0;
+            definitions = new HashMap<String, PropertyDefinition>(all != null ? all.length * 2 : 0);
+            if (all != null) {
+                for (PropertyDefinition definition : all) {
+                    if (!definitions.containsKey(definition.getName())) {
+                        definitions.put(definition.getName(), definition);
+                    }
+                }
+            }
+
+            final PropertyDefinition[] declared = nodeType.getDeclaredPropertyDefinitions();
+            declaredCount = declared != null ? declared.length : 0;
+            declaredPositions = new HashMap<String, Integer>(declaredCount * 2);
+            for (int i = 0; i < declaredCount; i++) {
+                final String propertyName = declared[i].getName();
+                if (!declaredPositions.containsKey(propertyName)) {
+                    declaredPositions.put(propertyName, i + 1); // JCR indexes start at 1
+                }
+            }
+        }
+
+        /**
+         * Whether definitions were added to the node type since this index was built. Only checked when a name is not
+         * found, since properties matching residual definitions are not found either.
+         */
+        private boolean isStale() {
+            final PropertyDefinition[] all = nodeType.getPropertyDefinitions();
+            final PropertyDefinition[] declared = nodeType.getDeclaredPropertyDefinitions();
+            return (all != null ? all.length : 0) != count || (declared != null ? declared.length : 0) != declaredCount;
+        }
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.json.jcr.SessionAccess;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.qom.And;
+import javax.jcr.query.qom.ChildNode;
+import javax.jcr.query.qom.Constraint;
+import javax.jcr.query.qom.DescendantNode;
+import javax.jcr.query.qom.QueryObjectModel;
+import javax.jcr.query.qom.SameNode;
+import javax.jcr.query.qom.Selector;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the identifiers of the nodes recently run queries found, so that the same query run again by the same user finds
+ * them without going through the index.
+ *
+ * <p>An entry is identified by the query, as described by {@link API.QueryCreator#getKey()}, the workspace and language
+ * of the session and the user the session belongs to, since what a query finds depends on what the user may read. Only
+ * identifiers are kept: nodes belong to the session that loaded them, so a hit loads them again from the session of the
+ * request, and the filters of the request apply to them as usual.</p>
+ *
+ * <p>The cache holds at most {@code maxEntries} entries, each of at most {@code maxEntrySize} identifiers, and evicts
+ * the least recently used entry first. A query finding more nodes than an entry may hold is not cached. A
+ * {@code maxEntries} of {@code 0}, the default, disables the cache. These settings are read from
+ * {@link APIConfiguration}.</p>
+ *
+ * <p>Each entry records the paths its query is restricted to, when the repository represents the query as a query object
+ * model with a single selector whose constraint requires its nodes to be under, children of or the same as given paths.
+ * {@link QueryResultCacheInvalidator} calls {@link #invalidate(String, Collection)} with the paths that changed in a
+ * workspace, which only drops the entries whose paths are related to a changed one, along with the entries whose query
+ * isn't restricted to paths. A query still running when content changes in its workspace is not cached.</p>
+ */
+public class QueryResultCache {
+    private final static QueryResultCache INSTANCE = new QueryResultCache();
+
+    public static QueryResultCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final Map<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            if (size() > getMaxEntries()) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    };
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private QueryResultCache() {
+    }
+
+    /**
+     * Applies the settings of the given configuration, which just replaced the previous one.
+     */
+    void reconfigured(APIConfiguration current) {
+        final int maxEntries = current.getQueryCacheMaxEntries();
+        synchronized (entries) {
+            if (maxEntries <= 0) {
+                entries.clear();
+            } else {
+                // evict the entries exceeding a lowered maximum now rather than one at a time as new ones are added
+                for (Iterator<Key> keys = entries.keySet().iterator(); entries.size() > maxEntries && keys.hasNext(); ) {
+                    keys.next();
+                    keys.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public int getMaxEntries() {
+        return APIConfiguration.get().getQueryCacheMaxEntries();
+    }
+
+    public int getMaxEntrySize() {
+        return APIConfiguration.get().getQueryCacheMaxEntrySize();
+    }
+
+    public boolean isEnabled() {
+        return getMaxEntries() > 0;
+    }
+
+    /**
+     * Retrieves the nodes the query the given creator builds finds, from the cache if possible.
+     *
+     * @param session      the session of the request, in which the query runs and the nodes are loaded
+     * @param queryCreator builds the query to run on a miss
+     * @return the nodes the query finds, in the order the query returned them
+     * @throws RepositoryException if the query cannot be run
+     */
+    NodeIterator getNodes(Session session, API.QueryCreator queryCreator) throws RepositoryException {
+        if (!isEnabled()) {
+            return queryCreator.execute(session).getNodes();
+        }
+
+        final String workspace = session.getWorkspace().getName();
+        final long generation = getGeneration(workspace).get();
+        final SessionAccess.SessionInfo sessionInfo = SessionAccess.getCurrentSession();
+        final Key key = new Key(workspace, sessionInfo != null ? sessionInfo.language : null, session.getUserID(), queryCreator.getKey());
+
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return new IdentifierNodeIterator(session, entry.identifiers, null);
+        }
+
+        misses.incrementAndGet();
+        final Query query = queryCreator.create(session);
+        final NodeIterator found = queryCreator.execute(query).getNodes();
+        final int maxSize = getMaxEntrySize();
+        final List<String> identifiers = new ArrayList<String>();
+        while (found.hasNext()) {
+            if (identifiers.size() == maxSize) {
+                // too many nodes to be cached: hand over what has been read so far, followed by what remains
+                return new IdentifierNodeIterator(session, identifiers, found);
+            }
+            identifiers.add(found.nextNode().getIdentifier());
+        }
+
+        // the generation is the one from before the query ran: a change made meanwhile may not be in the found nodes
+        final Entry created = new Entry(getScope(query), Collections.unmodifiableList(identifiers));
+        synchronized (entries) {
+            if (getGeneration(workspace).get() == generation) {
+                entries.put(key, created);
+            }
+        }
+        return new IdentifierNodeIterator(session, identifiers, null);
+    }
+
+    /**
+     * Invalidates all the entries of the given workspace.
+     *
+     * @param workspace the workspace in which content changed
+     */
+    public void invalidate(String workspace) {
+        invalidate(workspace, null);
+    }
+
+    /**
+     * Invalidates the entries of the given workspace that the given changes may affect: the entries whose query is
+     * restricted to paths related to a changed one, as well as the entries whose query isn't restricted to paths.
+     *
+     * @param workspace the workspace in which content changed
+     * @param paths     the paths of the nodes and properties that changed, {@code null} to invalidate all the entries
+     *                  of the workspace
+     */
+    public void invalidate(String workspace, Collection<String> paths) {
+        getGeneration(workspace).incrementAndGet();
+        synchronized (entries) {
+            for (Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<Key, Entry> entry = it.next();
+                if (entry.getKey().workspace.equals(workspace) && (paths == null || entry.getValue().isAffectedBy(paths))) {
+                    it.remove();
+                }
+            }
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * Invalidates all the entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    private AtomicLong getGeneration(String workspace) {
+        AtomicLong generation = generations.get(workspace);
+        if (generation == null) {
+            generation = new AtomicLong();
+            final AtomicLong existing = generations.putIfAbsent(workspace, generation);
+            if (existing != null) {
+                generation = existing;
+            }
+        }
+        return generation;
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryResultCache{" +
+                "size=" + getSize() +
+                ", maxEntries=" + getMaxEntries() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                ", invalidations=" + getInvalidations() +
+                '}';
+    }
+
+    /**
+     * Retrieves the paths the given query is restricted to: all the nodes it finds are under, children of or the same as
+     * each of these paths.
+     *
+     * @return the paths or {@code null} if the query isn't known to be restricted to paths
+     */
+    static String[] getScope(Query query) {
+        if (!(query instanceof QueryObjectModel) || !(((QueryObjectModel) query).getSource() instanceof Selector)) {
+            // the constraints on the selectors of a join don't restrict where the nodes of the other selectors are
+            return null;
+        }
+
+        final List<String> paths = new ArrayList<String>();
+        addScope(((QueryObjectModel) query).getConstraint(), paths);
+        return paths.isEmpty() ? null : paths.toArray(new String[paths.size()]);
+    }
+
+    private static void addScope(Constraint constraint, List<String> paths) {
+        // only the constraints all the found nodes satisfy restrict them: those combined with and
+        if (constraint instanceof And) {
+            addScope(((And) constraint).getConstraint1(), paths);
+            addScope(((And) constraint).getConstraint2(), paths);
+        } else if (constraint instanceof DescendantNode) {
+            paths.add(((DescendantNode) constraint).getAncestorPath());
+        } else if (constraint instanceof ChildNode) {
+            paths.add(((ChildNode) constraint).getParentPath());
+        } else if (constraint instanceof SameNode) {
+            paths.add(((SameNode) constraint).getPath());
+        }
+    }
+
+    /**
+     * Whether one of the given paths is the same as or an ancestor of the other.
+     */
+    static boolean isRelated(String path, String other) {
+        return isSameOrAncestor(path, other) || isSameOrAncestor(other, path);
+    }
+
+    private static boolean isSameOrAncestor(String ancestor, String path) {
+        return path.equals(ancestor) || path.startsWith(ancestor.endsWith("/") ? ancestor : ancestor + "/");
+    }
+
+    private static final class Entry {
+        private final String[] scope;
+        private final List<String> identifiers;
+
+        private Entry(String[] scope, List<String> identifiers) {
+            this.scope = scope;
+            this.identifiers = identifiers;
+        }
+
+        /**
+         * Whether the change of one of the given paths may affect the found nodes: a change affects them when it is
+         * related to each of the paths the query is restricted to, the found nodes being under all of them.
+         */
+        private boolean isAffectedBy(Collection<String> paths) {
+            if (scope == null) {
+                return true;
+            }
+
+            for (String path : paths) {
+                boolean related = true;
+                for (int i = 0; related && i < scope.length; i++) {
+                    related = isRelated(path, scope[i]);
+                }
+                if (related) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Key {
+        private final String workspace;
+        private final String language;
+        private final String user;
+        private final String query;
+        private final int hashCode;
+
+        private Key(String workspace, String language, String user, String query) {
+            this.workspace = workspace;
+            this.language = language;
+            this.user = user;
+            this.query = query;
+            this.hashCode = Arrays.hashCode(new Object[]{workspace, language, user, query});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            Key key = (Key) o;
+
+            return hashCode == key.hashCode && query.equals(key.query) && workspace.equals(key.workspace)
+                    && Objects.equals(language, key.language) && Objects.equals(user, key.user);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Iterates over the nodes identified by a list of identifiers, loading each node from the session only when it is
+     * reached, then over the nodes of an optional iterator. A node removed since its identifier was recorded is skipped.
+     */
+    static final class IdentifierNodeIterator implements NodeIterator {
+        private final Session session;
+        private final List<String> identifiers;
+        private final NodeIterator rest;
+        private int index;
+        private long position;
+        private Node next;
+
+        IdentifierNodeIterator(Session session, List<String> identifiers, NodeIterator rest) {
+            this.session = session;
+            this.identifiers = identifiers;
+            this.rest = rest;
+        }
+
+        @Override
+        public Node nextNode() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Node node = next;
+            next = null;
+            position++;
+            return node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && index < identifiers.size()) {
+                try {
+                    next = session.getNodeByIdentifier(identifiers.get(index++));
+                } catch (ItemNotFoundException e) {
+                    // removed since it was found, skip it
+                } catch (RepositoryException e) {
+                    throw new APIException(e);
+                }
+            }
+            if (next == null && rest != null && rest.hasNext()) {
+                next = rest.nextNode();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Object next() {
+            return nextNode();
+        }
+
+        @Override
+        public void skip(long skipNum) {
+            for (long i = 0; i < skipNum; i++) {
+                nextNode();
+            }
+        }
+
+        @Override
+        public long getSize() {
+            return rest == null ? identifiers.size() : -1;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
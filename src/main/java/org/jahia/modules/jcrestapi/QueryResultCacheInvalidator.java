@@ -0,0 +1,108 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.services.content.DefaultEventListener;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Invalidates the entries {@link QueryResultCache} holds for a workspace when content changes in that workspace, passing
+ * it the changed paths so that only the entries of queries those paths may affect are dropped. One listener is
+ * registered per workspace. The {@code path} and {@code nodeTypes} properties restrict the changes the listener is
+ * notified of, for installations where queries only ever target part of the content.
+ */
+public class QueryResultCacheInvalidator extends DefaultEventListener {
+
+    private String path = "/";
+    private String[] nodeTypes;
+
+    @Override
+    public int getEventTypes() {
+        return Event.NODE_ADDED | Event.NODE_REMOVED | Event.NODE_MOVED
+                | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = Utils.exists(path) ? path.trim() : "/";
+    }
+
+    @Override
+    public String[] getNodeTypes() {
+        return nodeTypes;
+    }
+
+    public void setNodeTypes(String nodeTypes) {
+        this.nodeTypes = Utils.exists(nodeTypes) ? Utils.split(nodeTypes).toArray(new String[0]) : null;
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        final QueryResultCache cache = QueryResultCache.getInstance();
+        if (!cache.isEnabled() || !events.hasNext()) {
+            return;
+        }
+
+        final Set<String> paths = new HashSet<String>();
+        try {
+            while (events.hasNext()) {
+                paths.add(events.nextEvent().getPath());
+            }
+        } catch (RepositoryException e) {
+            // without knowing what changed, consider that everything did
+            cache.invalidate(getWorkspace());
+            return;
+        }
+        cache.invalidate(getWorkspace(), paths);
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.accessors.ChunkedSave;
+import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.jcrestapi.json.FieldSelection;
+import org.jahia.modules.jcrestapi.links.ReferenceResolver;
+import org.jahia.modules.json.Filter;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * The rendering options a request asks for with its query parameters, parsed once when the request comes in, see
+ * {@link RequestOptionsFilter}, then passed along to whatever builds the response.
+ *
+ * <p>Options are immutable, so that a response can be built, or written, by another thread than the one which parsed
+ * them. Once the session of the request is open, the operation building the response binds its options to the
+ * {@link ReferenceResolver} of the request, see {@link #withReferenceResolver(ReferenceResolver)}, and, when it creates
+ * nodes in chunks, to its {@link ChunkedSave}, see {@link #withChunkedSave(ChunkedSave)}, so that they reach the
+ * decorators of the representations, and the accessors, along with the options rather than through the thread.</p>
+ */
+public final class RequestOptions {
+    /**
+     * The name of the request property holding the options of the request.
+     */
+    public static final String PROPERTY = RequestOptions.class.getName();
+
+    /**
+     * The options of a request without query parameters, also used to build representations outside of a request.
+     */
+    public static final RequestOptions DEFAULT = new RequestOptions(new MultivaluedHashMap<String, String>());
+
+    private final boolean resolveReferences;
+    private final boolean embeddedReferences;
+    private final boolean outputLinks;
+    private final boolean includeFullChildren;
+    private final boolean stream;
+    private final Filter filter;
+    private final FieldSelection fields;
+    private final int flushEvery;
+    private final int saveEvery;
+    private final ReferenceResolver referenceResolver;
+    private final ChunkedSave chunkedSave;
+
+    private RequestOptions(MultivaluedMap<String, String> queryParameters) {
+        resolveReferences = Utils.getFlagValueFrom(queryParameters, API.RESOLVE_REFERENCES);
+        embeddedReferences = resolveReferences && API.EMBEDDED_REFERENCES.equals(queryParameters.getFirst(API.RESOLVE_REFERENCES));
+        outputLinks = !Utils.getFlagValueFrom(queryParameters, API.NO_LINKS);
+        includeFullChildren = Utils.getFlagValueFrom(queryParameters, API.INCLUDE_FULL_CHILDREN);
+        stream = Utils.getFlagValueFrom(queryParameters, API.STREAM);
+        filter = Utils.getFilter(queryParameters);
+        fields = FieldSelection.parse(queryParameters.getFirst(API.FIELDS));
+        flushEvery = Utils.getIntValueFrom(queryParameters, API.FLUSH_EVERY, 0);
+        saveEvery = Utils.getIntValueFrom(queryParameters, API.SAVE_EVERY, 0);
+        referenceResolver = null;
+        chunkedSave = null;
+    }
+
+    private RequestOptions(RequestOptions options, ReferenceResolver referenceResolver, ChunkedSave chunkedSave) {
+        resolveReferences = options.resolveReferences;
+        embeddedReferences = options.embeddedReferences;
+        outputLinks = options.outputLinks;
+        includeFullChildren = options.includeFullChildren;
+        stream = options.stream;
+        filter = options.filter;
+        fields = options.fields;
+        flushEvery = options.flushEvery;
+        saveEvery = options.saveEvery;
+        this.referenceResolver = referenceResolver;
+        this.chunkedSave = chunkedSave;
+    }
+
+    /**
+     * Parses the options of a request.
+     *
+     * @param queryParameters the query parameters of the request, may be {@code null}
+     * @return the options of the request
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    public static RequestOptions from(MultivaluedMap<String, String> queryParameters) {
+        return queryParameters == null || queryParameters.isEmpty() ? DEFAULT : new RequestOptions(queryParameters);
+    }
+
+    /**
+     * Parses the options of a request.
+     *
+     * @param context provides the query parameters of the request
+     * @return the options of the request
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    public static RequestOptions from(UriInfo context) {
+        return from(context.getQueryParameters());
+    }
+
+    /**
+     * Retrieves the options {@link RequestOptionsFilter} parsed for the given request, parsing them if it didn't.
+     *
+     * @param requestContext the request, may be {@code null} when the resource was not created by the container
+     * @param context        provides the query parameters of the request
+     * @return the options of the request
+     */
+    public static RequestOptions of(ContainerRequestContext requestContext, UriInfo context) {
+        final Object options = requestContext != null ? requestContext.getProperty(PROPERTY) : null;
+        return options instanceof RequestOptions ? (RequestOptions) options : from(context);
+    }
+
+    public boolean isResolveReferences() {
+        return resolveReferences;
+    }
+
+    /**
+     * @return whether the referenced nodes are embedded in the response rather than in each referencing property, see
+     * {@link org.jahia.modules.jcrestapi.links.ReferenceResolver}
+     */
+    public boolean isEmbeddedReferences() {
+        return embeddedReferences;
+    }
+
+    public boolean isOutputLinks() {
+        return outputLinks;
+    }
+
+    public boolean isIncludeFullChildren() {
+        return includeFullChildren;
+    }
+
+    public boolean isStream() {
+        return stream;
+    }
+
+    /**
+     * @return the filter deciding which children are output, see {@link API#CHILDREN_NODETYPE_FILTER}
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the sub-elements included in node representations or {@code null} to include them all
+     */
+    public FieldSelection getFields() {
+        return fields;
+    }
+
+    /**
+     * @return how many nodes to write between two flushes of a streamed response, {@code 0} to only flush once done,
+     * see {@link API#FLUSH_EVERY}
+     */
+    public int getFlushEvery() {
+        return flushEvery;
+    }
+
+    /**
+     * @return how many created children to save at once, {@code 0} to save them along with the rest of the request,
+     * see {@link API#SAVE_EVERY}
+     */
+    public int getSaveEvery() {
+        return saveEvery;
+    }
+
+    /**
+     * @return the resolver of the nodes referenced by the output properties, {@code null} if references are not
+     * resolved or the options are not bound to a request yet
+     */
+    public ReferenceResolver getReferenceResolver() {
+        return referenceResolver;
+    }
+
+    /**
+     * Binds these options to the resolver of the references of the request they were parsed for.
+     *
+     * @param referenceResolver the resolver, {@code null} if references are not resolved
+     * @return options building representations with the given resolver
+     */
+    public RequestOptions withReferenceResolver(ReferenceResolver referenceResolver) {
+        return referenceResolver == this.referenceResolver ? this : new RequestOptions(this, referenceResolver, chunkedSave);
+    }
+
+    /**
+     * @return how the nodes the request creates recursively are saved, {@code null} if they are saved along with the
+     * rest of the request or the options are not bound to a request yet
+     */
+    public ChunkedSave getChunkedSave() {
+        return chunkedSave;
+    }
+
+    /**
+     * Binds these options to how the nodes the request they were parsed for creates recursively are saved.
+     *
+     * @param chunkedSave the chunked save, {@code null} if these nodes are saved along with the rest of the request
+     * @return options applying representations with the given chunked save
+     */
+    public RequestOptions withChunkedSave(ChunkedSave chunkedSave) {
+        return chunkedSave == this.chunkedSave ? this : new RequestOptions(this, referenceResolver, chunkedSave);
+    }
+
+    /**
+     * Retrieves the depth at which nodes are rendered, one more than the given one when full children are included.
+     */
+    public int getDepth(int defaultDepth) {
+        return includeFullChildren ? defaultDepth + 1 : defaultDepth;
+    }
+
+    /**
+     * @return the factory building representations according to these options
+     */
+    public APIObjectFactory getFactory() {
+        return APIObjectFactory.getInstance(this);
+    }
+
+    @Override
+    public String toString() {
+        return "RequestOptions{" +
+                "resolveReferences=" + resolveReferences +
+                ", embeddedReferences=" + embeddedReferences +
+                ", outputLinks=" + outputLinks +
+                ", includeFullChildren=" + includeFullChildren +
+                ", stream=" + stream +
+                ", fields=" + fields +
+                ", flushEvery=" + flushEvery +
+                ", saveEvery=" + saveEvery +
+                '}';
+    }
+}
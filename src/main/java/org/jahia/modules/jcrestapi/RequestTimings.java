@@ -0,0 +1,339 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.json.JSONNodeList;
+import org.jahia.modules.jcrestapi.json.JSONSelection;
+import org.jahia.modules.json.JSONChildren;
+import org.jahia.modules.json.JSONNode;
+import org.jahia.modules.json.JSONProperty;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Accounts for the time the request the current thread is answering spends in each phase of its JCR work, along with
+ * how many nodes and properties it represented and how many permission checks it did.
+ *
+ * <p>Phases nest: entering a phase pauses the one in progress, which resumes when the nested phase ends, so that each
+ * phase only accounts for its own time. Re-entering the phase in progress, as building the representation of a tree of
+ * nodes does, is counted once. Code entering a phase does so through {@link #begin(Phase)} and {@link #end(Phase)},
+ * which do nothing when no accounting is going on for the current thread:</p>
+ *
+ * <pre>
+ * final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.LOOKUP);
+ * try {
+ *     ...
+ * } finally {
+ *     RequestTimings.end(previous);
+ * }
+ * </pre>
+ *
+ * <p>The accounting of a request is held by the request itself, under {@link #PROPERTY}, where the filters reporting it
+ * find it whichever thread they run on. It is also bound to the thread doing the JCR work, see {@link #bind}, so that
+ * code with no handle on the request, such as the permission checks of {@link SpringBeansAccess}, can account for its
+ * work; {@link ResourceExecutors} hands it over to the thread running a task. Instances are only used by one thread at a
+ * time, see {@link ServerTimingFilter}.</p>
+ */
+public final class RequestTimings {
+    /**
+     * The name of the request property holding the accounting of the request.
+     */
+    public static final String PROPERTY = RequestTimings.class.getName();
+
+    /**
+     * The phases of the work done to answer a request.
+     */
+    public enum Phase {
+        SESSION("session"),
+        LOOKUP("lookup"),
+        PERMISSIONS("permissions"),
+        REFERENCES("references"),
+        SERIALIZATION("serialization"),
+        SAVE("save"),
+        /**
+         * Writing the response entity, which only happens once the response headers are sent.
+         */
+        OUTPUT("output");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() {
+            return metricName;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private static final ThreadLocal<RequestTimings> bound = new ThreadLocal<RequestTimings>();
+
+    private final long start = System.nanoTime();
+    private final long[] nanos = new long[PHASES.length];
+    private final int[] calls = new int[PHASES.length];
+    private Phase current;
+    private long currentStart;
+    private int nodes;
+    private int properties;
+    private int permissionChecks;
+
+    /**
+     * Retrieves the accounting of the request the current thread does the work of.
+     *
+     * @return the accounting or {@code null} if no accounting is going on
+     */
+    static RequestTimings current() {
+        return bound.get();
+    }
+
+    /**
+     * Binds the given accounting to the current thread, which does the work of its request until unbound.
+     *
+     * @param timings the accounting or {@code null} to stop accounting
+     * @return the accounting bound until this method was called
+     */
+    static RequestTimings bind(RequestTimings timings) {
+        final RequestTimings old = bound.get();
+        if (timings != null) {
+            bound.set(timings);
+        } else {
+            bound.remove();
+        }
+        return old;
+    }
+
+    /**
+     * Retrieves the accounting of the given request.
+     *
+     * @return the accounting or {@code null} if no accounting is going on
+     */
+    static RequestTimings of(ContainerRequestContext requestContext) {
+        return (RequestTimings) requestContext.getProperty(PROPERTY);
+    }
+
+    /**
+     * Enters the given phase, if the current thread accounts for its work.
+     *
+     * @param phase the phase to enter
+     * @return the phase in progress until now, to pass to {@link #end(Phase)}
+     */
+    public static Phase begin(Phase phase) {
+        final RequestTimings timings = bound.get();
+        return timings != null ? timings.enter(phase) : null;
+    }
+
+    /**
+     * Ends the phase entered by the matching {@link #begin(Phase)}, resuming the given one.
+     *
+     * @param previous the phase {@link #begin(Phase)} returned
+     */
+    public static void end(Phase previous) {
+        final RequestTimings timings = bound.get();
+        if (timings != null) {
+            timings.exit(previous);
+        }
+    }
+
+    /**
+     * Counts the given number of permission checks, if the current thread accounts for its work.
+     */
+    public static void countPermissionChecks(int checks) {
+        final RequestTimings timings = bound.get();
+        if (timings != null) {
+            timings.permissionChecks += checks;
+        }
+    }
+
+    /**
+     * Counts the nodes and properties in the given representation, if the current thread accounts for its work.
+     *
+     * @param representation a node or property representation, the children of a node, or a list of them
+     */
+    public static void countRepresentation(Object representation) {
+        final RequestTimings timings = bound.get();
+        if (timings != null) {
+            timings.count(representation);
+        }
+    }
+
+    Phase enter(Phase phase) {
+        final Phase previous = current;
+        if (phase != previous) {
+            final long now = System.nanoTime();
+            if (previous != null) {
+                nanos[previous.ordinal()] += now - currentStart;
+            }
+            calls[phase.ordinal()]++;
+            current = phase;
+            currentStart = now;
+        }
+        return previous;
+    }
+
+    void exit(Phase previous) {
+        if (current != previous) {
+            final long now = System.nanoTime();
+            if (current != null) {
+                nanos[current.ordinal()] += now - currentStart;
+            }
+            current = previous;
+            currentStart = now;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void count(Object representation) {
+        if (representation instanceof JSONNode) {
+            final JSONNode node = (JSONNode) representation;
+            nodes++;
+            final Map properties = node.getProperties();
+            if (properties != null) {
+                this.properties += properties.size();
+            }
+            final Map children = node.getChildren();
+            if (children != null) {
+                count(children.values());
+            }
+        } else if (representation instanceof JSONProperty) {
+            properties++;
+        } else if (representation instanceof JSONChildren) {
+            final Map children = ((JSONChildren) representation).getChildren();
+            if (children != null) {
+                count(children.values());
+            }
+        } else if (representation instanceof JSONSelection) {
+            count(((JSONSelection) representation).getElements().values());
+        } else if (representation instanceof JSONNodeList) {
+            final JSONNodeList list = (JSONNodeList) representation;
+            count(list.getNodes());
+            if (list.getEmbedded() != null) {
+                count(list.getEmbedded().values());
+            }
+        } else if (representation instanceof Collection) {
+            for (Object element : (Collection) representation) {
+                count(element);
+            }
+        }
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public int getCalls(Phase phase) {
+        return calls[phase.ordinal()];
+    }
+
+    /**
+     * @return how long the request has been answered so far, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return System.nanoTime() - start;
+    }
+
+    public int getNodes() {
+        return nodes;
+    }
+
+    public int getProperties() {
+        return properties;
+    }
+
+    public int getPermissionChecks() {
+        return permissionChecks;
+    }
+
+    /**
+     * Formats the phases done so far, but {@link Phase#OUTPUT}, and the counters, as the value of a
+     * {@code Server-Timing} header. Durations are in milliseconds.
+     */
+    String toServerTiming() {
+        final StringBuilder builder = new StringBuilder(256);
+        builder.append("total;dur=").append(toMillis(getTotalNanos()));
+        for (Phase phase : PHASES) {
+            final int phaseCalls = calls[phase.ordinal()];
+            if (phase != Phase.OUTPUT && phaseCalls > 0) {
+                builder.append(", ").append(phase.metricName).append(";dur=").append(toMillis(nanos[phase.ordinal()]))
+                        .append(";desc=\"").append(phaseCalls).append(phaseCalls == 1 ? " call\"" : " calls\"");
+            }
+        }
+        builder.append(", nodes;desc=\"").append(nodes).append('"')
+                .append(", properties;desc=\"").append(properties).append('"')
+                .append(", permissionChecks;desc=\"").append(permissionChecks).append('"');
+        return builder.toString();
+    }
+
+    /**
+     * Formats all the phases and the counters as JSON. Durations are in milliseconds.
+     */
+    String toJSON() {
+        final StringBuilder builder = new StringBuilder(512);
+        builder.append("{\"total\":").append(toMillis(getTotalNanos())).append(",\"phases\":{");
+        boolean first = true;
+        for (Phase phase : PHASES) {
+            final int phaseCalls = calls[phase.ordinal()];
+            if (phaseCalls > 0) {
+                if (!first) {
+                    builder.append(',');
+                }
+                builder.append('"').append(phase.metricName).append("\":{\"duration\":")
+                        .append(toMillis(nanos[phase.ordinal()])).append(",\"calls\":").append(phaseCalls).append('}');
+                first = false;
+            }
+        }
+        builder.append("},\"nodes\":").append(nodes)
+                .append(",\"properties\":").append(properties)
+                .append(",\"permissionChecks\":").append(permissionChecks).append('}');
+        return builder.toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+}
@@ -0,0 +1,604 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.glassfish.jersey.server.ContainerResponse;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.jahia.services.content.JCRSessionFactory;
+import org.jahia.services.securityfilter.PermissionService;
+import org.jahia.services.securityfilter.ScopeDefinition;
+import org.jahia.services.usermanager.JahiaUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Repository;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the JCR work of the resources off the threads of the servlet container, so that a burst of costly requests
+ * cannot exhaust the pool of the container and starve the rest of the platform, page rendering included.
+ *
+ * <p>Resources hand their work over to {@link #execute(Pool, Callable)} and return what it returns. When
+ * {@link APIConfiguration#isAsyncExecution()} is set, that is a {@link CompletableFuture} completed by the executor of
+ * one of the {@link Pool pools}, each operation class having its own so that, say, queries piling up don't hold back
+ * reads, and which the container waits for before answering. Otherwise, the task runs on the calling thread and its
+ * result is returned as is, so that resources keep answering synchronously, as they always did.</p>
+ *
+ * <p>Each executor runs at most {@code threads} tasks at once and keeps at most {@code queueSize} more waiting; a
+ * request arriving at a full executor is shed right away, and one still waiting after {@code timeout} milliseconds is
+ * withdrawn. Both are answered with a {@code 503 Service Unavailable} carrying a {@code Retry-After} header, so that
+ * clients back off. A task which started is never abandoned: it might be saving, and a client told to retry would then
+ * perform the same write twice. Settings are read from {@link APIConfiguration} and applied to running executors when
+ * they change.</p>
+ *
+ * <p>The state the thread of the container holds for the request, the {@link RequestTimings}, the current user of
+ * {@link JCRSessionFactory} and the API scopes the {@link PermissionService} granted to the request, is handed over to the thread running the task, and the sessions that thread opened are
+ * closed once it is done.</p>
+ *
+ * <p>A task may answer with a {@link StreamingOutput}, which owns the session it reads from and is written once the
+ * task is done, by whichever thread Jersey resumes the request on. Closing the sessions of the thread of the task would
+ * then pull that session from under the output, so that thread waits for the output to be written, or for Jersey to
+ * finish the request without writing it, before closing them: a streamed response holds its thread until it is
+ * written, as it does when answered synchronously.</p>
+ */
+public final class ResourceExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(ResourceExecutors.class);
+    private static final ResourceExecutors INSTANCE = new ResourceExecutors();
+    private static final long KEEP_ALIVE = 60;
+    /**
+     * How long, in milliseconds, the thread of a task waits for Jersey to start writing the streamed entity it answered
+     * with, before considering the entity abandoned.
+     */
+    private static final long HAND_OVER_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * The operation classes which work runs on distinct executors, with the settings they have by default.
+     */
+    public enum Pool {
+        READ("read", 16, 64, TimeUnit.SECONDS.toMillis(30)),
+        WRITE("write", 8, 32, TimeUnit.SECONDS.toMillis(60)),
+        QUERY("query", 4, 16, TimeUnit.SECONDS.toMillis(60)),
+        UPLOAD("upload", 4, 16, TimeUnit.MINUTES.toMillis(10));
+
+        private final String name;
+        private final int defaultThreads;
+        private final int defaultQueueSize;
+        private final long defaultTimeout;
+
+        Pool(String name, int defaultThreads, int defaultQueueSize, long defaultTimeout) {
+            this.name = name;
+            this.defaultThreads = defaultThreads;
+            this.defaultQueueSize = defaultQueueSize;
+            this.defaultTimeout = defaultTimeout;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        int getDefaultThreads() {
+            return defaultThreads;
+        }
+
+        int getDefaultQueueSize() {
+            return defaultQueueSize;
+        }
+
+        long getDefaultTimeout() {
+            return defaultTimeout;
+        }
+    }
+
+    private final Map<Pool, BoundedExecutor> executors;
+    private final ScheduledThreadPoolExecutor timeouts;
+
+    private ResourceExecutors() {
+        final Map<Pool, BoundedExecutor> executors = new EnumMap<Pool, BoundedExecutor>(Pool.class);
+        for (Pool pool : Pool.values()) {
+            executors.put(pool, new BoundedExecutor(pool, APIConfiguration.get().getExecutorThreads(pool)));
+        }
+        this.executors = Collections.unmodifiableMap(executors);
+
+        timeouts = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jcrestapi-timeouts");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // tasks mostly start before their timeout, don't keep the cancelled timeouts around until then
+        timeouts.setRemoveOnCancelPolicy(true);
+    }
+
+    public static ResourceExecutors getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the settings of the given configuration, which just replaced the previous one.
+     */
+    void reconfigured(APIConfiguration current) {
+        for (BoundedExecutor executor : executors.values()) {
+            executor.resize(current.getExecutorThreads(executor.pool));
+        }
+    }
+
+    /**
+     * Runs the given task on the executor of the given pool or, when asynchronous execution is disabled, on the calling
+     * thread.
+     *
+     * @param pool the pool of the operation the task performs
+     * @param task the work answering the request, returning a {@link Response} or an entity
+     * @return what the task returns when run on the calling thread, otherwise a {@link CompletableFuture} completed
+     * with what the task returns or throws, or with a {@code 503 Service Unavailable} response when the task is shed
+     */
+    public Object execute(Pool pool, Callable<?> task) {
+        final APIConfiguration configuration = APIConfiguration.get();
+        if (!configuration.isAsyncExecution()) {
+            return call(task);
+        }
+
+        final BoundedExecutor executor = executors.get(pool);
+        final long retryAfter = configuration.getExecutorRetryAfter();
+        final QueuedTask queued = new QueuedTask(executor, task, RequestState.capture(), retryAfter);
+        if (!executor.submit(queued, configuration.getExecutorQueueSize(pool))) {
+            logger.debug("The {} executor is saturated, shedding the request", pool.getName());
+            return unavailable(retryAfter);
+        }
+
+        // from now on, the thread running the task accounts for the request
+        RequestTimings.bind(null);
+
+        final long timeout = configuration.getExecutorTimeout(pool);
+        if (timeout > 0) {
+            queued.expiry = timeouts.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    queued.expire();
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            if (queued.started.get()) {
+                // the task started before its timeout could be recorded
+                queued.expiry.cancel(false);
+            }
+        }
+        return queued.response;
+    }
+
+    private static Object call(Callable<?> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new APIException(e);
+        }
+    }
+
+    private static Response unavailable(long retryAfter) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, retryAfter).build();
+    }
+
+    /**
+     * Stops the executors, interrupting the tasks they run and shedding those waiting.
+     */
+    public void shutdown() {
+        timeouts.shutdownNow();
+        for (BoundedExecutor executor : executors.values()) {
+            for (Runnable waiting : executor.executor.shutdownNow()) {
+                ((QueuedTask) waiting).shed();
+            }
+        }
+    }
+
+    public int getActive(Pool pool) {
+        return executors.get(pool).executor.getActiveCount();
+    }
+
+    public int getQueued(Pool pool) {
+        return executors.get(pool).executor.getQueue().size();
+    }
+
+    public long getCompleted(Pool pool) {
+        return executors.get(pool).executor.getCompletedTaskCount();
+    }
+
+    public long getRejected(Pool pool) {
+        return executors.get(pool).rejected.get();
+    }
+
+    public long getTimedOut(Pool pool) {
+        return executors.get(pool).timedOut.get();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("ResourceExecutors{");
+        for (Pool pool : Pool.values()) {
+            if (pool.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(pool.getName()).append("={active=").append(getActive(pool))
+                    .append(", queued=").append(getQueued(pool))
+                    .append(", rejected=").append(getRejected(pool))
+                    .append(", timedOut=").append(getTimedOut(pool)).append('}');
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * An executor which bounds the number of tasks it holds, running and waiting, rather than the size of its queue,
+     * so that the bound follows the settings without replacing the queue.
+     */
+    private static final class BoundedExecutor {
+        private final Pool pool;
+        private final ThreadPoolExecutor executor;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+
+        private BoundedExecutor(final Pool pool, int threads) {
+            this.pool = pool;
+            final int size = Math.max(1, threads);
+            executor = new ThreadPoolExecutor(size, size, KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            final Thread thread = new Thread(runnable, "jcrestapi-" + pool.getName() + "-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            // idle threads don't outlive the load that needed them
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        private boolean submit(QueuedTask task, int queueSize) {
+            if (pending.incrementAndGet() > executor.getMaximumPoolSize() + Math.max(0, queueSize)) {
+                pending.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+
+            try {
+                executor.execute(task);
+                return true;
+            } catch (RejectedExecutionException e) {
+                // shut down
+                pending.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+
+        /**
+         * Withdraws the given task if it still waits, the task being then never run.
+         */
+        private void withdraw(QueuedTask task) {
+            if (executor.remove(task)) {
+                pending.decrementAndGet();
+            }
+        }
+
+        private void resize(int threads) {
+            final int size = Math.max(1, threads);
+            // the maximum may never be lower than the core size
+            if (size > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            } else {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+    }
+
+    /**
+     * A task waiting for its executor, which either starts or expires, whichever comes first, so that a task which
+     * started is never answered with a {@code 503 Service Unavailable}.
+     */
+    private static final class QueuedTask implements Runnable {
+        private final BoundedExecutor executor;
+        private final Callable<?> task;
+        private final RequestState state;
+        private final long retryAfter;
+        private final CompletableFuture<Object> response = new CompletableFuture<Object>();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private volatile ScheduledFuture<?> expiry;
+
+        private QueuedTask(BoundedExecutor executor, Callable<?> task, RequestState state, long retryAfter) {
+            this.executor = executor;
+            this.task = task;
+            this.state = state;
+            this.retryAfter = retryAfter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!started.compareAndSet(false, true)) {
+                    // expired while being taken from the queue
+                    return;
+                }
+
+                final ScheduledFuture<?> expiry = this.expiry;
+                if (expiry != null) {
+                    expiry.cancel(false);
+                }
+
+                state.attach();
+                HandedOverOutput handedOver = null;
+                try {
+                    final Object result = task.call();
+                    final StreamingOutput streamed = getStreamedEntity(result);
+                    if (streamed != null) {
+                        handedOver = new HandedOverOutput(streamed);
+                        response.complete(result instanceof Response ?
+                                Response.fromResponse((Response) result).entity(handedOver).build() : handedOver);
+                    } else {
+                        response.complete(result);
+                    }
+                } catch (Throwable e) {
+                    response.completeExceptionally(e);
+                } finally {
+                    if (handedOver != null) {
+                        handedOver.awaitWritten();
+                    }
+                    state.detach();
+                }
+            } finally {
+                executor.pending.decrementAndGet();
+            }
+        }
+
+        private void expire() {
+            if (started.compareAndSet(false, true)) {
+                executor.withdraw(this);
+                executor.timedOut.incrementAndGet();
+                response.complete(unavailable(retryAfter));
+            }
+        }
+
+        private void shed() {
+            if (started.compareAndSet(false, true)) {
+                response.complete(unavailable(retryAfter));
+            }
+        }
+    }
+
+    private static StreamingOutput getStreamedEntity(Object result) {
+        final Object entity = result instanceof Response ? ((Response) result).getEntity() : result;
+        return entity instanceof StreamingOutput ? (StreamingOutput) entity : null;
+    }
+
+    /**
+     * A streamed entity a task answered with, which tells the thread of the task when it has been written, so that the
+     * session it owns isn't closed while it is.
+     */
+    private static final class HandedOverOutput implements StreamingOutput {
+        private enum State {PENDING, WRITING, DONE, ABANDONED}
+
+        private final StreamingOutput output;
+        private State state = State.PENDING;
+
+        private HandedOverOutput(StreamingOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+            synchronized (this) {
+                if (state != State.PENDING) {
+                    throw new IOException("The streamed response was abandoned before being written");
+                }
+                state = State.WRITING;
+            }
+            try {
+                output.write(outputStream);
+            } finally {
+                synchronized (this) {
+                    state = State.DONE;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Called once Jersey finished the request, the entity being abandoned if it wasn't written, as for a
+         * {@code HEAD} request.
+         */
+        private synchronized void finished() {
+            if (state == State.PENDING) {
+                state = State.ABANDONED;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Waits for the entity to be written, or abandoned, giving up on it if its writing doesn't start in time.
+         */
+        private synchronized void awaitWritten() {
+            final long deadline = System.currentTimeMillis() + HAND_OVER_TIMEOUT;
+            try {
+                while (state == State.PENDING || state == State.WRITING) {
+                    if (state == State.PENDING) {
+                        final long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            logger.warn("A streamed response wasn't written within {} ms, closing its session", HAND_OVER_TIMEOUT);
+                            state = State.ABANDONED;
+                            return;
+                        }
+                        wait(remaining);
+                    } else {
+                        // a write which started always ends, with the connection if not sooner
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // shutting down, a write which didn't start won't
+                if (state == State.PENDING) {
+                    state = State.ABANDONED;
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Tells the streamed entities handed over by tasks that Jersey finished their requests, so that the threads of
+     * the tasks don't wait for entities which won't be written.
+     */
+    @Provider
+    public static class StreamedEntities implements ApplicationEventListener {
+        private static final RequestEventListener ON_FINISHED = new RequestEventListener() {
+            @Override
+            public void onEvent(RequestEvent event) {
+                if (event.getType() == RequestEvent.Type.FINISHED) {
+                    final ContainerResponse response = event.getContainerResponse();
+                    final Object entity = response != null ? response.getEntity() : null;
+                    if (entity instanceof HandedOverOutput) {
+                        ((HandedOverOutput) entity).finished();
+                    }
+                }
+            }
+        };
+
+        @Override
+        public void onEvent(ApplicationEvent event) {
+            // nothing to do
+        }
+
+        @Override
+        public RequestEventListener onRequest(RequestEvent requestEvent) {
+            return ON_FINISHED;
+        }
+    }
+
+    /**
+     * The state the thread answering a request holds for it, captured on the thread of the container and attached to the
+     * thread running its task.
+     */
+    private static final class RequestState {
+        private final RequestTimings timings;
+        private final JCRSessionFactory sessionFactory;
+        private final JahiaUser user;
+        private final JahiaUser aliasedUser;
+        private final Locale locale;
+        private final PermissionService permissionService;
+        private final Collection<ScopeDefinition> scopes;
+
+        private RequestState(RequestTimings timings, JCRSessionFactory sessionFactory, PermissionService permissionService) {
+            this.timings = timings;
+            this.sessionFactory = sessionFactory;
+            user = sessionFactory != null ? sessionFactory.getCurrentUser() : null;
+            aliasedUser = sessionFactory != null ? sessionFactory.getCurrentAliasedUser() : null;
+            locale = sessionFactory != null ? sessionFactory.getCurrentLocale() : null;
+            this.permissionService = permissionService;
+            scopes = permissionService != null ? permissionService.getCurrentScopes() : null;
+        }
+
+        private static RequestState capture() {
+            final SpringBeansAccess beans = SpringBeansAccess.getInstance();
+            final Repository repository = beans.getRepository();
+            return new RequestState(RequestTimings.current(),
+                    repository instanceof JCRSessionFactory ? (JCRSessionFactory) repository : null,
+                    beans.getPermissionService());
+        }
+
+        private void attach() {
+            RequestTimings.bind(timings);
+            if (sessionFactory != null) {
+                sessionFactory.setCurrentUser(user);
+                sessionFactory.setCurrentAliasedUser(aliasedUser);
+                sessionFactory.setCurrentLocale(locale);
+            }
+            if (permissionService != null) {
+                // without them, the permission service would decide as for a request granted no scope
+                permissionService.setCurrentScopes(scopes);
+            }
+        }
+
+        private void detach() {
+            RequestTimings.bind(null);
+            if (sessionFactory != null) {
+                sessionFactory.closeAllSessions();
+                sessionFactory.setCurrentUser(null);
+                sessionFactory.setCurrentAliasedUser(null);
+                sessionFactory.setCurrentLocale(null);
+            }
+            if (permissionService != null) {
+                permissionService.resetScopes();
+            }
+        }
+    }
+}
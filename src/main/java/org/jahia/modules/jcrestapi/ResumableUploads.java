@@ -0,0 +1,402 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps track of the uploads a client sends in several chunks, see {@link Uploads}, so that an upload interrupted by a
+ * network failure can be resumed from the last byte the server received instead of starting over.
+ *
+ * <p>Each upload spools the chunks it receives to its own file in {@code spoolDirectory}, appending them as they are
+ * read from the request, so that no chunk is held in memory. A chunk is appended while no other is being appended to the
+ * same upload, without preventing the length received so far from being read. An upload neither written to nor completed for
+ * {@code expiry} milliseconds is considered abandoned: it is discarded, along with its spool file, the next time
+ * uploads are looked up, or by the purge running every minute between {@link #startPurging()} and
+ * {@link #stopPurging()}, so that abandoned spool files don't stay on disk while no upload is made. Only the files named
+ * as this class names spool files are ever purged from {@code spoolDirectory}, which may hold other files. At most
+ * {@code maxUploads} uploads can be in progress at once. Both settings are read from {@link APIConfiguration}.</p>
+ */
+public class ResumableUploads {
+    private static final Logger logger = LoggerFactory.getLogger(ResumableUploads.class);
+    private static final ResumableUploads INSTANCE = new ResumableUploads();
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PURGE_PERIOD_SECONDS = 60;
+    private static final String SPOOL_PREFIX = "jcrestapi-upload-";
+    private static final String SPOOL_SUFFIX = ".spool";
+    private static final Pattern SPOOL_NAME = Pattern.compile(Pattern.quote(SPOOL_PREFIX)
+            + "([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12})" + Pattern.quote(SPOOL_SUFFIX));
+
+    public static ResumableUploads getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+
+    private volatile File spoolDirectory = new File(System.getProperty("java.io.tmpdir"), "jcrestapi-uploads");
+    private ScheduledExecutorService purger;
+
+    private ResumableUploads() {
+    }
+
+    /**
+     * Starts purging the abandoned uploads periodically.
+     */
+    public synchronized void startPurging() {
+        if (purger != null) {
+            return;
+        }
+
+        purger = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "jcrestapi-uploads-purge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        purger.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    purge();
+                } catch (RuntimeException e) {
+                    // a failed purge must not cancel the next ones
+                    logger.warn("Could not purge the abandoned uploads", e);
+                }
+            }
+        }, PURGE_PERIOD_SECONDS, PURGE_PERIOD_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops purging the abandoned uploads periodically.
+     */
+    public synchronized void stopPurging() {
+        if (purger != null) {
+            purger.shutdownNow();
+            purger = null;
+        }
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+        if (Utils.exists(spoolDirectory)) {
+            this.spoolDirectory = new File(spoolDirectory.trim());
+        }
+    }
+
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    public long getExpiry() {
+        return APIConfiguration.get().getUploadsExpiry();
+    }
+
+    public int getMaxUploads() {
+        return APIConfiguration.get().getUploadsMaxUploads();
+    }
+
+    /**
+     * Starts an upload, creating its empty spool file.
+     *
+     * @param user       the user starting the upload, the only one allowed to continue it
+     * @param workspace  the workspace the file is uploaded to
+     * @param folderPath the path of the folder the file is uploaded to
+     * @param fileName   the name of the file node
+     * @param mimeType   the mime type of the file
+     * @param size       the size the file will have once complete, {@code -1} if the client does not know it
+     * @return the new upload
+     * @throws IllegalStateException if too many uploads are in progress
+     * @throws IOException           if the spool file cannot be created
+     */
+    public Upload start(String user, String workspace, String folderPath, String fileName, String mimeType, long size) throws IOException {
+        purge();
+        final int maxUploads = getMaxUploads();
+        if (uploads.size() >= maxUploads) {
+            throw new IllegalStateException("Too many uploads in progress, at most " + maxUploads + " are allowed");
+        }
+
+        final File directory = spoolDirectory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the upload spool directory " + directory);
+        }
+
+        final String id = UUID.randomUUID().toString();
+        final File spool = new File(directory, SPOOL_PREFIX + id + SPOOL_SUFFIX);
+        if (!spool.createNewFile()) {
+            throw new IOException("Upload spool file " + spool + " already exists");
+        }
+
+        final Upload upload = new Upload(id, user, workspace, folderPath, fileName, mimeType, size, spool);
+        uploads.put(id, upload);
+        return upload;
+    }
+
+    /**
+     * Retrieves the upload with the given identifier, started by the given user in the given workspace.
+     *
+     * @param id        the identifier of the upload
+     * @param user      the user asking for it
+     * @param workspace the workspace it is asked for in
+     * @return the upload, or {@code null} if there is none for that user in that workspace, or it was abandoned
+     */
+    public Upload get(String id, String user, String workspace) {
+        purgeExpired();
+        final Upload upload = id != null ? uploads.get(id) : null;
+        return upload != null && upload.user.equals(user) && upload.workspace.equals(workspace) ? upload : null;
+    }
+
+    /**
+     * Discards the given upload and its spool file, once completed or cancelled.
+     */
+    public void discard(Upload upload) {
+        if (uploads.remove(upload.id, upload)) {
+            upload.deleteSpool();
+        }
+    }
+
+    /**
+     * Discards the uploads that have been abandoned, as well as the spool files no upload owns any longer.
+     *
+     * @return how many uploads were discarded
+     */
+    public int purge() {
+        final int purged = purgeExpired();
+        purgeOrphanSpoolFiles();
+        return purged;
+    }
+
+    /**
+     * Discards the uploads that have been abandoned.
+     *
+     * @return how many uploads were discarded
+     */
+    public int purgeExpired() {
+        final long now = System.currentTimeMillis();
+        final long expiry = getExpiry();
+        int purged = 0;
+        for (Iterator<Upload> it = uploads.values().iterator(); it.hasNext(); ) {
+            final Upload upload = it.next();
+            if (now - upload.lastAccess > expiry) {
+                it.remove();
+                upload.deleteSpool();
+                purged++;
+                logger.debug("Discarded abandoned upload {} of {}", upload.id, upload.fileName);
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Deletes the spool files no upload owns, left behind when the server stopped during uploads, once they have
+     * expired. Files not named as spool files are left alone.
+     */
+    private void purgeOrphanSpoolFiles() {
+        final File[] files = spoolDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long expiry = getExpiry();
+        for (File file : files) {
+            final Matcher spool = SPOOL_NAME.matcher(file.getName());
+            if (spool.matches() && !uploads.containsKey(spool.group(1)) && now - file.lastModified() > expiry && !file.delete()) {
+                logger.warn("Could not delete orphan upload spool file {}", file);
+            }
+        }
+    }
+
+    /**
+     * @return how many uploads are in progress
+     */
+    public int size() {
+        return uploads.size();
+    }
+
+    /**
+     * An upload in progress.
+     */
+    public static final class Upload {
+        private final String id;
+        private final String user;
+        private final String workspace;
+        private final String folderPath;
+        private final String fileName;
+        private final String mimeType;
+        private final long size;
+        private final File spool;
+        private final AtomicBoolean appending = new AtomicBoolean();
+        private volatile long length;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Upload(String id, String user, String workspace, String folderPath, String fileName, String mimeType, long size, File spool) {
+            this.id = id;
+            this.user = user;
+            this.workspace = workspace;
+            this.folderPath = folderPath;
+            this.fileName = fileName;
+            this.mimeType = mimeType;
+            this.size = size;
+            this.spool = spool;
+        }
+
+        /**
+         * Appends the given chunk to the spool file, provided it starts where the data received so far ends and no other
+         * chunk is being appended. The chunk is copied a fixed-size buffer at a time, the length received so far being
+         * updated as it is.
+         *
+         * @param offset  the offset at which the chunk starts in the file
+         * @param chunk   the chunk
+         * @param maxSize the maximum size of the file, {@code 0} or less if there is none
+         * @return {@code false} if the chunk does not start where the data received so far ends, or if another chunk is
+         * being appended, in which case nothing is appended
+         * @throws IllegalArgumentException if the chunk makes the file larger than its announced size or the maximum
+         *                                  size
+         * @throws IOException              if the chunk cannot be read or appended
+         */
+        public boolean append(long offset, InputStream chunk, long maxSize) throws IOException {
+            lastAccess = System.currentTimeMillis();
+            // the chunk is read from the network: don't block the requests for this upload meanwhile, refuse them
+            if (!appending.compareAndSet(false, true)) {
+                return false;
+            }
+
+            try {
+                if (offset != length) {
+                    return false;
+                }
+
+                final long limit = size >= 0 ? size : (maxSize > 0 ? maxSize : Long.MAX_VALUE);
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                try (OutputStream out = new FileOutputStream(spool, true)) {
+                    int read;
+                    while ((read = chunk.read(buffer)) >= 0) {
+                        if (length + read > limit) {
+                            throw new IllegalArgumentException("The file " + fileName + " exceeds its expected size of " + limit + " bytes");
+                        }
+                        out.write(buffer, 0, read);
+                        length += read;
+                    }
+                }
+                return true;
+            } finally {
+                lastAccess = System.currentTimeMillis();
+                appending.set(false);
+            }
+        }
+
+        /**
+         * @return whether all the data announced when the upload started has been received, always {@code true} if
+         * its size was not announced, as long as no chunk is being appended
+         */
+        public boolean isComplete() {
+            return !appending.get() && (size < 0 || length == size);
+        }
+
+        /**
+         * @return the data received so far
+         * @throws IOException if the spool file cannot be opened
+         */
+        public InputStream openStream() throws IOException {
+            lastAccess = System.currentTimeMillis();
+            return new FileInputStream(spool);
+        }
+
+        private void deleteSpool() {
+            if (spool.exists() && !spool.delete()) {
+                logger.warn("Could not delete upload spool file {}", spool);
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getWorkspace() {
+            return workspace;
+        }
+
+        public String getFolderPath() {
+            return folderPath;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return how many bytes were received so far
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.IOException;
+
+/**
+ * Accounts for the JCR work done to answer each request with {@link RequestTimings}, and reports it in a
+ * {@code Server-Timing} response header when {@link APIConfiguration#isServerTimingEnabled()}.
+ *
+ * <p>The header is sent before the response entity is written, so it cannot account for that part of the work, which
+ * is all of it for streamed responses. With the {@code DEBUG} level enabled for this class, the complete accounting,
+ * including the {@code output} phase, is also logged as JSON once the response has been written, whether or not the
+ * header is enabled. Nothing is accounted for when neither is.</p>
+ *
+ * <p>The accounting is held by the request, and bound to the thread answering it until {@link Cleanup} is told the
+ * request is finished, which Jersey does once it is done with the request whatever its outcome, including requests whose entity
+ * isn't written, such as {@code HEAD} ones, and those failing with an unmapped exception.</p>
+ */
+@Provider
+@PreMatching
+@Priority(Priorities.AUTHENTICATION)
+public class ServerTimingFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerTimingFilter.class);
+    private static final String DESCRIPTION = ServerTimingFilter.class.getName() + ".description";
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if (!APIConfiguration.get().isServerTimingEnabled() && !logger.isDebugEnabled()) {
+            return;
+        }
+
+        final RequestTimings timings = new RequestTimings();
+        requestContext.setProperty(RequestTimings.PROPERTY, timings);
+        RequestTimings.bind(timings);
+        if (logger.isDebugEnabled()) {
+            requestContext.setProperty(DESCRIPTION, requestContext.getMethod() + " " + requestContext.getUriInfo().getPath());
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        final RequestTimings timings = RequestTimings.of(requestContext);
+        if (timings == null) {
+            return;
+        }
+
+        timings.count(responseContext.getEntity());
+        if (APIConfiguration.get().isServerTimingEnabled()) {
+            responseContext.getHeaders().add(SERVER_TIMING_HEADER, timings.toServerTiming());
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        final RequestTimings timings = (RequestTimings) context.getProperty(RequestTimings.PROPERTY);
+        if (timings == null) {
+            context.proceed();
+            return;
+        }
+
+        // the entity may be written by another thread than the one which did the JCR work
+        final RequestTimings.Phase previous = timings.enter(RequestTimings.Phase.OUTPUT);
+        try {
+            context.proceed();
+        } finally {
+            timings.exit(previous);
+        }
+    }
+
+    /**
+     * Unbinds the accounting of a request from its thread once Jersey is finished with the request, logging it if
+     * requested.
+     */
+    @Provider
+    public static class Cleanup implements ApplicationEventListener {
+        private static final RequestEventListener ON_FINISHED = new RequestEventListener() {
+            @Override
+            public void onEvent(RequestEvent event) {
+                if (event.getType() == RequestEvent.Type.FINISHED) {
+                    RequestTimings.bind(null);
+                    final RequestTimings timings = (RequestTimings) event.getContainerRequest().getProperty(RequestTimings.PROPERTY);
+                    final Object description = event.getContainerRequest().getProperty(DESCRIPTION);
+                    if (timings != null && description != null) {
+                        logger.debug("Timings of {}: {}", description, timings.toJSON());
+                    }
+                }
+            }
+        };
+
+        @Override
+        public void onEvent(ApplicationEvent event) {
+            // nothing to do
+        }
+
+        @Override
+        public RequestEventListener onRequest(RequestEvent requestEvent) {
+            return ON_FINISHED;
+        }
+    }
+}
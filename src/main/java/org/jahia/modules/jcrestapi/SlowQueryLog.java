@@ -0,0 +1,453 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs the queries the query and types endpoints run which take longer than {@code threshold} milliseconds, and keeps
+ * statistics about all of them, grouped by fingerprint.
+ *
+ * <p>The fingerprint of a query is its statement, as the repository reports it, with its literals replaced by
+ * {@code ?} and its whitespace collapsed: queries only differing by the values they look for share it. The time a
+ * query takes is split between {@code execute()} and the materialization of the nodes it found, that is loading them
+ * and checking them against the filters of the request. A query answered from the {@link QueryResultCache} is not
+ * executed, so only its materialization is accounted for.</p>
+ *
+ * <p>Fingerprints are remembered by statement key, see {@link API.QueryCreator#getFingerprintKey()}, so that the
+ * statement of a query is only retrieved and fingerprinted the first time it runs: a query answered from the cache is
+ * then not even built. At most {@value #MAX_FINGERPRINT_KEYS} keys are remembered, all of them being forgotten when
+ * there are more, since keys include the values queries look for.</p>
+ *
+ * <p>Statistics are kept for at most {@value #MAX_FINGERPRINTS} fingerprints: when a new one shows up, the one with
+ * the least total time is forgotten. The {@code top} fingerprints by total time are reported by the
+ * {@code /metrics/queries} endpoint. Both settings are read from {@link APIConfiguration}. A negative
+ * {@code threshold} disables logging, not the statistics.</p>
+ */
+public class SlowQueryLog {
+    private static final SlowQueryLog INSTANCE = new SlowQueryLog();
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    static final int MAX_FINGERPRINTS = 1000;
+    static final int MAX_FINGERPRINT_KEYS = 10000;
+
+    public static SlowQueryLog getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+    private final ConcurrentHashMap<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+
+    private SlowQueryLog() {
+    }
+
+    /**
+     * @return the time, in milliseconds, from which a query is logged, negative if none is
+     */
+    public long getThreshold() {
+        return APIConfiguration.get().getSlowQueryThreshold();
+    }
+
+    public int getTop() {
+        return APIConfiguration.get().getSlowQueryTop();
+    }
+
+    /**
+     * Starts measuring a run of the query the given creator builds.
+     *
+     * @param queryCreator builds the query
+     * @param session      the session the query runs in
+     * @return the run, to pass to {@link #finish(Execution)} once its nodes have all been read
+     */
+    Execution start(API.QueryCreator queryCreator, Session session) {
+        return new Execution(queryCreator, session);
+    }
+
+    /**
+     * Records the given run, logging it if it took longer than the threshold.
+     */
+    void finish(Execution execution) {
+        final String fingerprint;
+        try {
+            fingerprint = getFingerprint(execution);
+        } catch (RepositoryException e) {
+            logger.debug("Couldn't retrieve the statement of a query", e);
+            return;
+        }
+
+        final long nanos = execution.executeNanos + execution.materializeNanos;
+        final long threshold = getThreshold();
+        final boolean slow = threshold >= 0 && nanos >= TimeUnit.MILLISECONDS.toNanos(threshold);
+        getStatistics(fingerprint, execution.queryCreator.getPreparedQueryName()).record(nanos, slow);
+
+        if (slow) {
+            logger.info("Slow query: {} ms ({} ms executing, {} ms materializing{}), {} results, {} filtered out, "
+                    + "prepared query: {}, limit: {}, offset: {}, fingerprint: {}", new Object[]{
+                    TimeUnit.NANOSECONDS.toMillis(nanos),
+                    TimeUnit.NANOSECONDS.toMillis(execution.executeNanos),
+                    TimeUnit.NANOSECONDS.toMillis(execution.materializeNanos),
+                    execution.executed ? "" : ", from the query result cache",
+                    execution.results,
+                    execution.results - execution.accepted,
+                    execution.queryCreator.getPreparedQueryName(),
+                    execution.queryCreator.getLimit(),
+                    execution.queryCreator.getOffset(),
+                    fingerprint});
+        }
+    }
+
+    /**
+     * Retrieves the fingerprint of the statement of the given run, computing it only if it is not known for its key.
+     */
+    private String getFingerprint(Execution execution) throws RepositoryException {
+        final String key = execution.queryCreator.getFingerprintKey();
+        String fingerprint = key != null ? fingerprints.get(key) : null;
+        if (fingerprint == null) {
+            fingerprint = fingerprint(execution.getStatement());
+            if (key != null) {
+                if (fingerprints.size() >= MAX_FINGERPRINT_KEYS) {
+                    fingerprints.clear();
+                }
+                fingerprints.put(key, fingerprint);
+            }
+        }
+        return fingerprint;
+    }
+
+    private Statistics getStatistics(String fingerprint, String preparedQueryName) {
+        Statistics result = statistics.get(fingerprint);
+        if (result == null) {
+            if (statistics.size() >= MAX_FINGERPRINTS) {
+                evictLeastCostly();
+            }
+            result = new Statistics(fingerprint, preparedQueryName);
+            final Statistics existing = statistics.putIfAbsent(fingerprint, result);
+            if (existing != null) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    private void evictLeastCostly() {
+        Statistics leastCostly = null;
+        for (Statistics candidate : statistics.values()) {
+            if (leastCostly == null || candidate.getTotalNanos() < leastCostly.getTotalNanos()) {
+                leastCostly = candidate;
+            }
+        }
+        if (leastCostly != null) {
+            statistics.remove(leastCostly.fingerprint, leastCostly);
+        }
+    }
+
+    /**
+     * @return the statistics of the {@code top} fingerprints by total time, the most costly first
+     */
+    public List<Statistics> getTopStatistics() {
+        final List<Statistics> result = new ArrayList<Statistics>(statistics.values());
+        Collections.sort(result, new Comparator<Statistics>() {
+            @Override
+            public int compare(Statistics o1, Statistics o2) {
+                return Long.compare(o2.getTotalNanos(), o1.getTotalNanos());
+            }
+        });
+        final int top = getTop();
+        return result.size() > top ? new ArrayList<Statistics>(result.subList(0, Math.max(top, 0))) : result;
+    }
+
+    /**
+     * Forgets the statistics kept so far.
+     */
+    public void clear() {
+        statistics.clear();
+        fingerprints.clear();
+    }
+
+    /**
+     * Computes the fingerprint of the given statement: its string literals, double or single quoted, and its numeric
+     * literals are replaced by {@code ?}, and its whitespace is collapsed. Bracketed names are left untouched.
+     */
+    static String fingerprint(String statement) {
+        final StringBuilder builder = new StringBuilder(statement.length());
+        final int length = statement.length();
+        int i = 0;
+        while (i < length) {
+            final char c = statement.charAt(i);
+            if (c == '[') {
+                final int end = statement.indexOf(']', i);
+                final int next = end < 0 ? length : end + 1;
+                builder.append(statement, i, next);
+                i = next;
+            } else if (c == '\'' || c == '"') {
+                // a quote is escaped by doubling it
+                i++;
+                while (i < length) {
+                    if (statement.charAt(i) == c) {
+                        if (i + 1 < length && statement.charAt(i + 1) == c) {
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    i++;
+                }
+                builder.append('?');
+            } else if (Character.isDigit(c) && !isPartOfName(builder)) {
+                while (i < length && (Character.isLetterOrDigit(statement.charAt(i)) || statement.charAt(i) == '.')) {
+                    i++;
+                }
+                builder.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(statement.charAt(i))) {
+                    i++;
+                }
+                if (builder.length() > 0 && i < length) {
+                    builder.append(' ');
+                }
+            } else {
+                builder.append(c);
+                i++;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isPartOfName(StringBuilder builder) {
+        if (builder.length() == 0) {
+            return false;
+        }
+        final char previous = builder.charAt(builder.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == ':' || previous == '$';
+    }
+
+    /**
+     * The statistics of the queries sharing a fingerprint.
+     */
+    public static final class Statistics {
+        private final String fingerprint;
+        private final String preparedQueryName;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong slow = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Statistics(String fingerprint, String preparedQueryName) {
+            this.fingerprint = fingerprint;
+            this.preparedQueryName = preparedQueryName;
+        }
+
+        private void record(long nanos, boolean slow) {
+            count.incrementAndGet();
+            if (slow) {
+                this.slow.incrementAndGet();
+            }
+            totalNanos.addAndGet(nanos);
+            long currentMax = maxNanos.get();
+            while (nanos > currentMax && !maxNanos.compareAndSet(currentMax, nanos)) {
+                currentMax = maxNanos.get();
+            }
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the name of the prepared query the fingerprint was first seen for, {@code null} for other queries
+         */
+        public String getPreparedQueryName() {
+            return preparedQueryName;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return how many runs took longer than the threshold in effect when they finished
+         */
+        public long getSlow() {
+            return slow.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+    }
+
+    /**
+     * A run of a query, measured by the thread running it, then by the one reading its nodes.
+     */
+    static final class Execution {
+        private final API.QueryCreator queryCreator;
+        private final Session session;
+        private String statement;
+        private boolean executed;
+        private long executeNanos;
+        private long materializeNanos;
+        private long results;
+        private long accepted;
+
+        private Execution(API.QueryCreator queryCreator, Session session) {
+            this.queryCreator = queryCreator;
+            this.session = session;
+        }
+
+        /**
+         * Records that the query was executed.
+         *
+         * @param statement the statement of the executed query
+         * @param nanos     how long {@code execute()} took
+         */
+        void executed(String statement, long nanos) {
+            this.statement = statement;
+            executed = true;
+            executeNanos += nanos;
+        }
+
+        /**
+         * Records that the nodes or rows the query found were read, when they are not read through
+         * {@link #measure(NodeIterator)}.
+         *
+         * @param results how many were read
+         * @param nanos   how long reading them took
+         */
+        void materialized(long results, long nanos) {
+            this.results += results;
+            this.accepted += results;
+            materializeNanos += nanos;
+        }
+
+        /**
+         * Records that nodes read from the iterator {@link #measure(NodeIterator)} returned were accepted by the
+         * filters of the request.
+         *
+         * @param nodes how many nodes were accepted
+         */
+        void accepted(long nodes) {
+            accepted += nodes;
+        }
+
+        /**
+         * Wraps the given iterator so that the time spent loading the nodes and the number of nodes read are recorded.
+         */
+        NodeIterator measure(final NodeIterator nodes) {
+            return new NodeIterator() {
+                @Override
+                public Node nextNode() {
+                    final long start = System.nanoTime();
+                    try {
+                        final Node node = nodes.nextNode();
+                        results++;
+                        return node;
+                    } finally {
+                        materializeNanos += System.nanoTime() - start;
+                    }
+                }
+
+                @Override
+                public boolean hasNext() {
+                    final long start = System.nanoTime();
+                    try {
+                        return nodes.hasNext();
+                    } finally {
+                        materializeNanos += System.nanoTime() - start;
+                    }
+                }
+
+                @Override
+                public Object next() {
+                    return nextNode();
+                }
+
+                @Override
+                public void skip(long skipNum) {
+                    nodes.skip(skipNum);
+                }
+
+                @Override
+                public long getSize() {
+                    return nodes.getSize();
+                }
+
+                @Override
+                public long getPosition() {
+                    return nodes.getPosition();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private String getStatement() throws RepositoryException {
+            if (statement == null) {
+                // answered from the cache: the query is only built, as it would have been executed
+                statement = queryCreator.create(session).getStatement();
+            }
+            return statement;
+        }
+    }
+}
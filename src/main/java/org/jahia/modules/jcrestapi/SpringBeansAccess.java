@@ -48,7 +48,8 @@ import org.jahia.services.securityfilter.PermissionService;
 import javax.jcr.Node;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -57,11 +58,6 @@ import java.util.Set;
 public final class SpringBeansAccess {
     private final static SpringBeansAccess INSTANCE = new SpringBeansAccess();
     private Repository repository;
-    private boolean disableQuery = true;
-    private Set<String> nodeTypesToSkip = Collections.emptySet();
-    private Set<String> restrictedProperties = Collections.emptySet();
-    private Set<String> restrictedMixins = Collections.emptySet();
-    private Set<String> restrictedNodeTypes = Collections.emptySet();
     private PermissionService permissionService;
     private SpringBeansAccess() {
     }
@@ -78,44 +74,46 @@ public final class SpringBeansAccess {
         this.repository = repository;
     }
 
+    // the settings below are kept in the APIConfiguration snapshot, these accessors only set and read the platform ones
+
     public void setQueryDisabled(String disableQuery) {
-        this.disableQuery = Boolean.parseBoolean(disableQuery);
+        APIConfigurationService.getInstance().setPlatformSetting(APIConfiguration.QUERY_DISABLED, disableQuery);
     }
 
     public boolean isQueryDisabled() {
-        return disableQuery;
+        return APIConfiguration.get().isQueryDisabled();
     }
 
     public void setNodeTypesToSkip(String nodeTypesToSkip) {
-        this.nodeTypesToSkip = Utils.split(nodeTypesToSkip);
+        APIConfigurationService.getInstance().setPlatformSetting(APIConfiguration.NODE_TYPES_TO_SKIP, nodeTypesToSkip);
     }
 
     public Set<String> getNodeTypesToSkip() {
-        return nodeTypesToSkip;
+        return APIConfiguration.get().getNodeTypesToSkip();
     }
 
     public void setRestrictedProperties(String restrictedProperties) {
-        this.restrictedProperties = Utils.split(restrictedProperties);
+        APIConfigurationService.getInstance().setPlatformSetting(APIConfiguration.RESTRICTED_PROPERTIES, restrictedProperties);
     }
 
     public Set<String> getRestrictedProperties() {
-        return restrictedProperties;
+        return APIConfiguration.get().getRestrictedProperties();
     }
 
     public void setRestrictedMixins(String restrictedMixins) {
-        this.restrictedMixins = Utils.split(restrictedMixins);
+        APIConfigurationService.getInstance().setPlatformSetting(APIConfiguration.RESTRICTED_MIXINS, restrictedMixins);
     }
 
     public Set<String> getRestrictedMixins() {
-        return restrictedMixins;
+        return APIConfiguration.get().getRestrictedMixins();
     }
 
     public void setRestrictedNodeTypes(String restrictedNodeTypes) {
-        this.restrictedNodeTypes = Utils.split(restrictedNodeTypes);
+        APIConfigurationService.getInstance().setPlatformSetting(APIConfiguration.RESTRICTED_NODE_TYPES, restrictedNodeTypes);
     }
 
     public Set<String> getRestrictedNodeTypes() {
-        return restrictedNodeTypes;
+        return APIConfiguration.get().getRestrictedNodeTypes();
     }
 
     public PermissionService getPermissionService() {
@@ -126,10 +124,49 @@ public final class SpringBeansAccess {
         this.permissionService = permissionService;
     }
 
+    /**
+     * Retrieves whether {@link #hasPermission(String, Node)} may deny access to a node, so that callers can avoid
+     * loading nodes only to check their permissions.
+     */
+    public boolean isPermissionCheckEnabled() {
+        return permissionService != null;
+    }
+
+    /**
+     * Retrieves whether the given API may be used on the given node, see {@link PermissionDecisionCache} for how decisions
+     * are remembered.
+     */
     public boolean hasPermission(String api, Node node) throws RepositoryException {
         if (permissionService != null) {
-            return permissionService.hasPermission(api, node);
+            RequestTimings.countPermissionChecks(1);
+            final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.PERMISSIONS);
+            try {
+                return PermissionDecisionCache.getInstance().hasPermission(permissionService, api, node);
+            } finally {
+                RequestTimings.end(previous);
+            }
         }
         return true;
     }
+
+    /**
+     * Retrieves whether the given API may be used on each of the given nodes, in one call so that nodes sharing a
+     * decision only require it to be made once.
+     *
+     * @return the decision for each node, in the order of the given nodes
+     */
+    public boolean[] hasPermissions(String api, List<Node> nodes) throws RepositoryException {
+        if (permissionService != null) {
+            RequestTimings.countPermissionChecks(nodes.size());
+            final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.PERMISSIONS);
+            try {
+                return PermissionDecisionCache.getInstance().hasPermissions(permissionService, api, nodes);
+            } finally {
+                RequestTimings.end(previous);
+            }
+        }
+        final boolean[] result = new boolean[nodes.size()];
+        Arrays.fill(result, true);
+        return result;
+    }
 }
@@ -44,20 +44,19 @@
 package org.jahia.modules.jcrestapi;
 
 import org.jahia.api.Constants;
-import org.jahia.modules.json.Filter;
-import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.Names;
 
 import javax.jcr.*;
-import javax.jcr.query.QueryResult;
+import javax.jcr.query.Query;
 import javax.jcr.query.qom.*;
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * @author Christophe Laprun
@@ -72,88 +71,124 @@ public class Types extends API {
         super(workspace, language, repository, context);
     }
 
+    public Types(String workspace, String language, Repository repository, UriInfo context, Request request) {
+        super(workspace, language, repository, context, request);
+    }
+
     @GET
     @Path("/{type}")
     @Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
-    public Object getByType(@PathParam("workspace") String workspace,
-                            @PathParam("language") String language,
+    public Object getByType(@PathParam("workspace") final String workspace,
+                            @PathParam("language") final String language,
                             @PathParam("type") String type,
-                            @QueryParam("nameContains") List<String> nameConstraints,
-                            @QueryParam("orderBy") String orderBy,
-                            @QueryParam("limit") int limit,
-                            @QueryParam("offset") int offset,
-                            @QueryParam("depth") int depth,
-                            @Context UriInfo context) {
+                            @QueryParam("nameContains") final List<String> nameConstraints,
+                            @QueryParam("orderBy") final String orderBy,
+                            @QueryParam("limit") final int limit,
+                            @QueryParam("offset") final int offset,
+                            @QueryParam("cursor") String cursor,
+                            @QueryParam("depth") final int depth,
+                            @Context final UriInfo context) {
+
+        final Response refused = checkQueryable(type);
+        if (refused != null) {
+            return refused;
+        }
+
+        final QueryCreator queryCreator = createQueryCreator(Names.unescape(type), language, nameConstraints, orderBy, limit, offset, cursor);
+        return execute(ResourceExecutors.Pool.QUERY, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return performQuery(workspace, language, context, depth, queryCreator);
+            }
+        });
+    }
+
+    /**
+     * Counts the nodes of the specified type, answering with the {@link API#TOTAL_COUNT_HEADER} header, without
+     * retrieving them. Accepts the same options as {@link #getByType}, {@code depth} excepted.
+     */
+    @HEAD
+    @Path("/{type}")
+    public Object countByType(@PathParam("workspace") final String workspace,
+                              @PathParam("language") final String language,
+                              @PathParam("type") String type,
+                              @QueryParam("nameContains") List<String> nameConstraints,
+                              @QueryParam("orderBy") String orderBy,
+                              @QueryParam("limit") int limit,
+                              @QueryParam("offset") int offset,
+                              @QueryParam("cursor") String cursor,
+                              @Context final UriInfo context) {
+
+        final Response refused = checkQueryable(type);
+        if (refused != null) {
+            return refused;
+        }
+
+        final QueryCreator queryCreator = createQueryCreator(Names.unescape(type), language, nameConstraints, orderBy, limit, offset, cursor);
+        return execute(ResourceExecutors.Pool.QUERY, new Callable<Object>() {
+            @Override
+            public Object call() {
+                final long count = performCount(workspace, language, context, queryCreator);
+                return Response.ok().header(TOTAL_COUNT_HEADER, count).build();
+            }
+        });
+    }
 
+    private Response checkQueryable(String type) {
         if (API.isQueryDisabled()) {
             APIExceptionMapper.LOGGER.debug("Types endpoint is disabled. Attempted query on " + type);
             return Response.status(Response.Status.NOT_FOUND).build();
         }
 
         final String unescapedNodetype = Names.unescape(type);
-        if (API.excludedNodeTypes.contains(unescapedNodetype)) {
+        if (APIConfiguration.get().getNodeTypesToSkip().contains(unescapedNodetype)) {
             return Response.status(Response.Status.FORBIDDEN).entity("'" + unescapedNodetype + "' is not available for querying.").build();
         }
+        return null;
+    }
 
-        Session session = null;
-
-        try {
-
-            session = getSession(workspace, language);
-            final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
-            final ValueFactory valueFactory = session.getValueFactory();
-            final Selector selector = qomFactory.selector(unescapedNodetype, SELECTOR_NAME);
-
-            // language constraint: either jcr:language doesn't exist or jcr:language is current language
-            Constraint constraint = qomFactory.or(
-                    qomFactory.not(qomFactory.propertyExistence(SELECTOR_NAME, Constants.JCR_LANGUAGE)),
-                    stringComparisonConstraint(qomFactory.propertyValue(SELECTOR_NAME, Constants.JCR_LANGUAGE), language, qomFactory, valueFactory)
-            );
-
-            // if we have passed "nameContains" query parameters, only return nodes which name contains the specified terms
-            if (nameConstraints != null && !nameConstraints.isEmpty()) {
-                for (String name : nameConstraints) {
-                    final Comparison likeConstraint = qomFactory.comparison(qomFactory.nodeLocalName(SELECTOR_NAME), QueryObjectModelFactory.JCR_OPERATOR_LIKE,
-                            qomFactory.literal(valueFactory.createValue("%" + name + "%", PropertyType.STRING)));
-                    constraint = qomFactory.and(constraint, likeConstraint);
+    private QueryCreator createQueryCreator(final String unescapedNodetype, final String language, final List<String> nameConstraints,
+                                            final String orderBy, int limit, int offset, String cursor) {
+        return new QueryCreator(limit, offset, cursor) {
+            @Override
+            protected Query createQuery(Session session) throws RepositoryException {
+                final QueryObjectModelFactory qomFactory = session.getWorkspace().getQueryManager().getQOMFactory();
+                final ValueFactory valueFactory = session.getValueFactory();
+                final Selector selector = qomFactory.selector(unescapedNodetype, SELECTOR_NAME);
+
+                // language constraint: either jcr:language doesn't exist or jcr:language is current language
+                Constraint constraint = qomFactory.or(
+                        qomFactory.not(qomFactory.propertyExistence(SELECTOR_NAME, Constants.JCR_LANGUAGE)),
+                        stringComparisonConstraint(qomFactory.propertyValue(SELECTOR_NAME, Constants.JCR_LANGUAGE), language, qomFactory, valueFactory)
+                );
+
+                // if we have passed "nameContains" query parameters, only return nodes which name contains the specified terms
+                if (nameConstraints != null && !nameConstraints.isEmpty()) {
+                    for (String name : nameConstraints) {
+                        final Comparison likeConstraint = qomFactory.comparison(qomFactory.nodeLocalName(SELECTOR_NAME), QueryObjectModelFactory.JCR_OPERATOR_LIKE,
+                                qomFactory.literal(valueFactory.createValue("%" + name + "%", PropertyType.STRING)));
+                        constraint = qomFactory.and(constraint, likeConstraint);
+                    }
                 }
-            }
 
-            Ordering[] orderings = null;
-            // ordering deactivated because it currently doesn't work, probably due to a bug in QueryServiceImpl
-            if (Utils.exists(orderBy)) {
-                if ("desc".equalsIgnoreCase(orderBy)) {
-                    orderings = new Ordering[]{qomFactory.descending(qomFactory.nodeLocalName(SELECTOR_NAME))};
-                } else {
-                    orderings = new Ordering[]{qomFactory.ascending(qomFactory.nodeLocalName(SELECTOR_NAME))};
+                Ordering[] orderings = null;
+                // ordering deactivated because it currently doesn't work, probably due to a bug in QueryServiceImpl
+                if (Utils.exists(orderBy)) {
+                    if ("desc".equalsIgnoreCase(orderBy)) {
+                        orderings = new Ordering[]{qomFactory.descending(qomFactory.nodeLocalName(SELECTOR_NAME))};
+                    } else {
+                        orderings = new Ordering[]{qomFactory.ascending(qomFactory.nodeLocalName(SELECTOR_NAME))};
+                    }
                 }
-            }
 
-            final QueryObjectModel query = qomFactory.createQuery(selector, constraint, orderings, new Column[]{qomFactory.column(SELECTOR_NAME, null, null)});
-            if (limit > 0) {
-                query.setLimit(limit);
-            }
-            query.setOffset(offset);
-
-            final QueryResult queryResult = query.execute();
-
-            final NodeIterator nodes = queryResult.getNodes();
-            final List<JSONNode> result = new LinkedList<JSONNode>();
-            final Filter filter = Utils.getFilter(context);
-            while (nodes.hasNext()) {
-                final Node resultNode = nodes.nextNode();
-                if (filter.acceptChild(resultNode)) {
-                    JSONNode node = getFactory().createNode(resultNode, filter, depth);
-                    result.add(node);
-                }
+                return qomFactory.createQuery(selector, constraint, orderings, new Column[]{qomFactory.column(SELECTOR_NAME, null, null)});
             }
 
-            return Response.ok(result).build();
-        } catch (Exception e) {
-            throw new APIException(e);
-        } finally {
-            closeSession(session);
-        }
+            @Override
+            protected String getStatementKey() {
+                return "type:" + unescapedNodetype + "|nameContains:" + nameConstraints + "|orderBy:" + orderBy;
+            }
+        };
     }
 
     private Comparison stringComparisonConstraint(DynamicOperand operand, String valueOperandShouldBe, QueryObjectModelFactory qomFactory, ValueFactory valueFactory) throws RepositoryException {
@@ -63,9 +63,8 @@ public final class URIUtils {
     private URIUtils() {
     }
 
-    private static String getURIWithWorkspaceAndLanguage() {
-        final SessionAccess.SessionInfo currentSession = SessionAccess.getCurrentSession();
-        return API.API_PATH + "/" + currentSession.workspace + "/" + currentSession.language;
+    private static String getURIWithWorkspaceAndLanguage(String workspace, String language) {
+        return API.API_PATH + "/" + workspace + "/" + language;
     }
 
     public static String getByPathURI(String path) {
@@ -73,15 +72,29 @@ public final class URIUtils {
     }
 
     public static String getByPathURI(String path, boolean removeFirstSlash) {
-        return getURIWithWorkspaceAndLanguage() + (removeFirstSlash ? "/" + Paths.MAPPING : "/" + Paths.MAPPING + "/") + path;
+        final SessionAccess.SessionInfo currentSession = SessionAccess.getCurrentSession();
+        return getByPathURI(currentSession.workspace, currentSession.language, path, removeFirstSlash);
+    }
+
+    public static String getByPathURI(String workspace, String language, String path, boolean removeFirstSlash) {
+        return getURIWithWorkspaceAndLanguage(workspace, language) + (removeFirstSlash ? "/" + Paths.MAPPING : "/" + Paths.MAPPING + "/") + path;
     }
 
     public static String getTypeURI(String typeName) {
         return getByPathURI("jcr__system/jcr__nodeTypes/") + typeName;
     }
 
+    public static String getTypeURI(String workspace, String language, String typeName) {
+        return getByPathURI(workspace, language, "jcr__system/jcr__nodeTypes/", false) + typeName;
+    }
+
     public static String getIdURI(String identifier) {
-        return getURIWithWorkspaceAndLanguage() + "/" + Nodes.MAPPING + "/" + identifier;
+        final SessionAccess.SessionInfo currentSession = SessionAccess.getCurrentSession();
+        return getIdURI(currentSession.workspace, currentSession.language, identifier);
+    }
+
+    public static String getIdURI(String workspace, String language, String identifier) {
+        return getURIWithWorkspaceAndLanguage(workspace, language) + "/" + Nodes.MAPPING + "/" + identifier;
     }
 
     public static String getURIFor(Item item) {
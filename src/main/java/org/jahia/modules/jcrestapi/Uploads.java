@@ -0,0 +1,290 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.api.Constants;
+import org.jahia.modules.jcrestapi.json.APINode;
+import org.jahia.modules.jcrestapi.json.JSONUpload;
+import org.jahia.modules.json.Filter;
+import org.jahia.settings.SettingsBean;
+
+import javax.jcr.*;
+import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.Callable;
+
+/**
+ * Uploads a file in several chunks, so that an interrupted upload can be resumed, see {@link ResumableUploads}. A
+ * client starts an upload by announcing the file, sends its chunks in order, each along with the offset it starts at,
+ * and completes the upload once all chunks have been received, which stores the file the way {@link Paths#upload}
+ * does. After a failure, the client asks how many bytes were received and resumes from there.
+ */
+@Produces({Utils.MEDIA_TYPE_APPLICATION_HAL_PLUS_JSON, MediaType.APPLICATION_JSON})
+public class Uploads extends API {
+
+    static final String MAPPING = "uploads";
+    static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+
+    public Uploads(String workspace, String language, Repository repository, UriInfo context, Request request) {
+        super(workspace, language, repository, context, request);
+    }
+
+    /**
+     * Starts an upload of the file described by the given data to the folder at its {@code path}.
+     *
+     * @param data    the folder, name, mime type and, optionally, size of the file
+     * @param context a UriInfo instance, automatically injected, providing context about the request URI
+     * @return a Response ready to be sent to the client, locating the upload
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Object start(final JSONUpload data, @Context final UriInfo context) {
+        if (data == null || !Utils.exists(data.getPath()) || !Utils.exists(data.getFileName())) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Missing path or fileName").build();
+        }
+
+        return execute(ResourceExecutors.Pool.UPLOAD, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return startUpload(data, context);
+            }
+        });
+    }
+
+    private Response startUpload(JSONUpload data, UriInfo context) {
+        Session session = null;
+        try {
+            session = getSession(workspace, language);
+            final Node folder = NodeAccessor.BY_PATH.getNode(data.getPath(), session);
+            checkNodeIsInScope(folder, UPLOAD);
+            if (!folder.isNodeType(Constants.NT_FOLDER)) {
+                throw new IllegalArgumentException(folder.getPath() + " is not a " + Constants.NT_FOLDER + " node");
+            }
+
+            final long size = data.getSize() != null ? data.getSize() : -1;
+            final long maxFileSize = SettingsBean.getInstance().getJahiaFileUploadMaxSize();
+            final String fileName = Paths.toFileNodeName(data.getFileName());
+            if (maxFileSize > 0 && size > maxFileSize) {
+                throw new IllegalArgumentException("The file " + fileName + " exceeds its maximum permitted size of " + maxFileSize + " bytes");
+            }
+
+            final String mimeType = Utils.exists(data.getMimeType()) ? data.getMimeType() : MediaType.APPLICATION_OCTET_STREAM;
+            final ResumableUploads.Upload upload = ResumableUploads.getInstance()
+                    .start(session.getUserID(), workspace, folder.getPath(), fileName, mimeType, size);
+            return Response.created(new URI(URIUtils.addModulesContextTo(getUploadURI(upload), context)))
+                    .entity(new JSONUpload(upload))
+                    .build();
+        } catch (Exception e) {
+            throw new APIException(e, UPLOAD, NodeAccessor.BY_PATH.getType(), data.getPath(), MAPPING, null, null);
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Answers how many bytes of the file were received so far, in the {@link #UPLOAD_OFFSET_HEADER} header.
+     */
+    @HEAD
+    @Path("/{id}")
+    public Object getOffset(@PathParam("id") final String id) {
+        return execute(ResourceExecutors.Pool.UPLOAD, new Callable<Object>() {
+            @Override
+            public Object call() {
+                final ResumableUploads.Upload upload = getUpload(id);
+                return Response.ok().header(UPLOAD_OFFSET_HEADER, upload.getLength()).build();
+            }
+        });
+    }
+
+    @GET
+    @Path("/{id}")
+    public Object get(@PathParam("id") final String id) {
+        return execute(ResourceExecutors.Pool.UPLOAD, new Callable<Object>() {
+            @Override
+            public Object call() {
+                final ResumableUploads.Upload upload = getUpload(id);
+                return Response.ok(new JSONUpload(upload)).header(UPLOAD_OFFSET_HEADER, upload.getLength()).build();
+            }
+        });
+    }
+
+    /**
+     * Appends a chunk to the file. The chunk is refused with {@code 409 Conflict} unless the offset it starts at is the
+     * number of bytes received so far, so that a chunk is never received twice, or while another chunk of the same
+     * upload is being received.
+     *
+     * @param id     the identifier of the upload
+     * @param offset the offset at which the chunk starts in the file
+     * @param chunk  the chunk
+     * @return a Response ready to be sent to the client, providing the number of bytes received so far
+     */
+    @PUT
+    @Path("/{id}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Object append(@PathParam("id") final String id,
+                         @HeaderParam(UPLOAD_OFFSET_HEADER) final Long offset,
+                         final InputStream chunk) {
+        return execute(ResourceExecutors.Pool.UPLOAD, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return appendChunk(id, offset, chunk);
+            }
+        });
+    }
+
+    private Response appendChunk(String id, Long offset, InputStream chunk) {
+        final ResumableUploads.Upload upload = getUpload(id);
+        if (offset == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Missing " + UPLOAD_OFFSET_HEADER + " header").build();
+        }
+
+        try {
+            final boolean appended = upload.append(offset, chunk, SettingsBean.getInstance().getJahiaFileUploadMaxSize());
+            return Response.status(appended ? Response.Status.NO_CONTENT : Response.Status.CONFLICT)
+                    .header(UPLOAD_OFFSET_HEADER, upload.getLength())
+                    .build();
+        } catch (Exception e) {
+            throw new APIException(e, UPLOAD, NodeAccessor.BY_PATH.getType(), upload.getFolderPath(), MAPPING, null, null);
+        }
+    }
+
+    /**
+     * Completes the upload once all its chunks have been received, storing the file in its folder, creating the file
+     * node or updating it if it already exists.
+     *
+     * @param id      the identifier of the upload
+     * @param context a UriInfo instance, automatically injected, providing context about the request URI
+     * @return a Response ready to be sent to the client, with the representation of the file node
+     */
+    @POST
+    @Path("/{id}")
+    public Object complete(@PathParam("id") final String id, @Context final UriInfo context) {
+        return execute(ResourceExecutors.Pool.UPLOAD, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return completeUpload(id, context);
+            }
+        });
+    }
+
+    private Response completeUpload(String id, UriInfo context) {
+        final ResumableUploads.Upload upload = getUpload(id);
+        if (!upload.isComplete()) {
+            return Response.status(Response.Status.CONFLICT)
+                    .header(UPLOAD_OFFSET_HEADER, upload.getLength())
+                    .entity("Received " + upload.getLength() + " of the " + upload.getSize() + " bytes of " + upload.getFileName())
+                    .build();
+        }
+
+        Session session = null;
+        try {
+            session = getSession(workspace, language);
+            final Node folder = NodeAccessor.BY_PATH.getNode(upload.getFolderPath(), session);
+            checkNodeIsInScope(folder, UPLOAD);
+
+            final boolean isUpdate = folder.hasNode(upload.getFileName());
+            final Node file;
+            try (InputStream stream = upload.openStream()) {
+                file = Paths.storeFile(folder, upload.getFileName(), stream, upload.getMimeType());
+                save(session);
+            }
+            ResumableUploads.getInstance().discard(upload);
+
+            final APINode apiNode = getFactory().createAPINode(file, Filter.OUTPUT_ALL, false, false, true);
+            return isUpdate ? Response.ok(apiNode).build() :
+                    Response.created(new URI(URIUtils.addModulesContextTo(URIUtils.getIdURI(file.getIdentifier()), context))).entity(apiNode).build();
+        } catch (Exception e) {
+            throw new APIException(e, UPLOAD, NodeAccessor.BY_PATH.getType(), upload.getFolderPath(), MAPPING, null, null);
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    /**
+     * Cancels the upload, discarding the chunks received so far.
+     */
+    @DELETE
+    @Path("/{id}")
+    public Object cancel(@PathParam("id") final String id) {
+        return execute(ResourceExecutors.Pool.UPLOAD, new Callable<Object>() {
+            @Override
+            public Object call() {
+                ResumableUploads.getInstance().discard(getUpload(id));
+                return Response.noContent().build();
+            }
+        });
+    }
+
+    /**
+     * Retrieves the upload with the given identifier, which the current user must have started in this workspace.
+     *
+     * @throws NotFoundException if there is no such upload
+     */
+    private ResumableUploads.Upload getUpload(String id) {
+        Session session = null;
+        try {
+            session = getSession(workspace, language);
+            final ResumableUploads.Upload upload = ResumableUploads.getInstance()
+                    .get(id, session.getUserID(), session.getWorkspace().getName());
+            if (upload == null) {
+                throw new NotFoundException("No upload " + id + " in progress");
+            }
+            return upload;
+        } catch (RepositoryException e) {
+            throw new APIException(e);
+        } finally {
+            closeSession(session);
+        }
+    }
+
+    private String getUploadURI(ResumableUploads.Upload upload) {
+        return API_PATH + "/" + workspace + "/" + language + "/" + MAPPING + "/" + upload.getId();
+    }
+}
@@ -103,10 +103,6 @@ public class Utils {
         }
     }
 
-    public static int getDepthFrom(UriInfo context, int defaultDepth) {
-        return getFlagValueFrom(context, API.INCLUDE_FULL_CHILDREN) ? defaultDepth + 1 : defaultDepth;
-    }
-
     public static class ChildrenNodeTypeFilter extends Filter.DefaultFilter {
 
         Set<String> acceptedChildrenNodeTypes;
@@ -117,22 +113,22 @@ public class Utils {
 
         @Override
         public boolean acceptChild(Node child) {
-            for (String acceptedChildrenNodeType : acceptedChildrenNodeTypes) {
-                try {
-                    if (child.isNodeType(acceptedChildrenNodeType)) {
-                        return true;
-                    }
-                } catch (RepositoryException e) {
-                    return false;
-                }
+            try {
+                return NodeTypeHierarchy.getInstance().isAnyNodeType(child, acceptedChildrenNodeTypes);
+            } catch (RepositoryException e) {
+                return false;
             }
-            return false;
         }
     }
 
     public static Filter getFilter(UriInfo context) {
+        return getFilter(context.getQueryParameters());
+    }
 
-        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+    /**
+     * Retrieves the filter the specified query parameters ask for, see {@link API#CHILDREN_NODETYPE_FILTER}.
+     */
+    public static Filter getFilter(MultivaluedMap<String, String> queryParameters) {
         if (queryParameters != null) {
             final List<String> childrenNodeTypeFilterValues = queryParameters.get(API.CHILDREN_NODETYPE_FILTER);
             if (childrenNodeTypeFilterValues != null) {
@@ -161,8 +157,23 @@ public class Utils {
         return API.NODE_FILTER;
     }
 
+    /**
+     * @deprecated use {@link RequestOptions#getDepth(int)} with the options of the request
+     */
+    @Deprecated
+    public static int getDepthFrom(UriInfo context, int defaultDepth) {
+        return RequestOptions.from(context).getDepth(defaultDepth);
+    }
+
     public static boolean getFlagValueFrom(UriInfo context, String flagName) {
-        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        return getFlagValueFrom(context.getQueryParameters(), flagName);
+    }
+
+    /**
+     * Retrieves whether the specified flag is set in the specified query parameters: it is if it is present without a
+     * value or with any value but {@code false}.
+     */
+    public static boolean getFlagValueFrom(MultivaluedMap<String, String> queryParameters, String flagName) {
         if (queryParameters != null && !queryParameters.isEmpty()) {
             final List<String> flagValues = queryParameters.get(flagName);
             if (flagValues != null) {
@@ -173,4 +184,40 @@ public class Utils {
         }
         return false;
     }
+
+    /**
+     * Retrieves the integer value of the specified query parameter.
+     *
+     * @param context      a UriInfo instance providing the query parameters
+     * @param name         the name of the query parameter
+     * @param defaultValue the value to use if the parameter is not provided
+     * @return the value of the first occurrence of the parameter, or the default value if the parameter is not provided
+     * @throws IllegalArgumentException if the parameter is not a valid integer
+     */
+    public static int getIntValueFrom(UriInfo context, String name, int defaultValue) {
+        return getIntValueFrom(context.getQueryParameters(), name, defaultValue);
+    }
+
+    /**
+     * Retrieves the integer value of the specified query parameter.
+     *
+     * @param queryParameters the query parameters, may be {@code null}
+     * @param name            the name of the query parameter
+     * @param defaultValue    the value to use if the parameter is not provided
+     * @return the value of the first occurrence of the parameter, or the default value if the parameter is not provided
+     * @throws IllegalArgumentException if the parameter is not a valid integer
+     */
+    public static int getIntValueFrom(MultivaluedMap<String, String> queryParameters, String name, int defaultValue) {
+        if (queryParameters != null) {
+            final String value = queryParameters.getFirst(name);
+            if (exists(value)) {
+                try {
+                    return Integer.parseInt(value.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid integer value for " + name + ": '" + value + "'", e);
+                }
+            }
+        }
+        return defaultValue;
+    }
 }
@@ -43,33 +43,51 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import com.fasterxml.jackson.core.JsonParser;
 import org.jahia.api.Constants;
+import org.jahia.modules.jcrestapi.RequestOptions;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.Utils;
+import org.jahia.modules.jcrestapi.json.FieldSelection;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.JSONChildren;
 import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.JSONProperty;
+import org.jahia.modules.json.Names;
 import org.jahia.services.content.JCRContentUtils;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
 
 /**
  * @author Christophe Laprun
  */
 public class ChildrenElementAccessor extends ElementAccessor<JSONChildren<APIDecorator>, JSONNode<APIDecorator>, JSONNode> {
     @Override
-    protected JSONChildren<APIDecorator> getSubElementContainer(Node node, UriInfo context) throws RepositoryException {
-        int depth = Utils.getDepthFrom(context, 1);
+    protected Object getElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
+        final FieldSelection fields = options.getFields();
+        if (fields != null && !Utils.exists(subElement)) {
+            // each child only includes the selected sub-elements
+            return options.getFactory().createChildren(getParentFrom(node, options), node, options.getFilter(), options.getDepth(1), fields);
+        }
+        return super.getElement(node, subElement, options);
+    }
+
+    @Override
+    protected JSONChildren<APIDecorator> getSubElementContainer(Node node, RequestOptions options) throws RepositoryException {
+        int depth = options.getDepth(1);
 
-        return getFactory().createChildren(getParentFrom(node), node, Utils.getFilter(context), depth);
+        return options.getFactory().createChildren(getParentFrom(node, options), node, options.getFilter(), depth);
     }
 
     @Override
-    protected JSONNode<APIDecorator> getSubElement(Node node, String subElement, UriInfo context) throws RepositoryException {
-        return getFactory().createNode(node.getNode(subElement), Utils.getFilter(context), 1);
+    protected JSONNode<APIDecorator> getSubElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
+        return options.getFactory().createNode(node.getNode(subElement), options.getFilter(), 1, options.getFields());
     }
 
     @Override
@@ -79,46 +97,78 @@ public class ChildrenElementAccessor extends ElementAccessor<JSONChildren<APIDec
     }
 
     @Override
-    protected CreateOrUpdateResult<JSONNode<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode nodeData) throws RepositoryException {
-        final Node newOrToUpdate;
-
+    protected CreateOrUpdateResult<JSONNode<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode nodeData, RequestOptions options) throws RepositoryException {
         // is the child already existing? // todo: deal with same name siblings
-        final boolean hasSubElement = subElement != null && !subElement.isEmpty();
-        final boolean isUpdate = hasSubElement && node.hasNode(subElement);
-        if (isUpdate) {
-            // in which case, we just want to update it
-            newOrToUpdate = node.getNode(subElement);
-        } else {
-            // otherwise, we add the new node
-            final String type = nodeData.getTypeName();
-
-            // if we didn't get a subElement name, generate one
-            if (!hasSubElement) {
-                final JSONProperty title = nodeData.getProperty(Constants.JCR_TITLE);
-                if (title != null) {
-                    // if we have a jcr:title in the node data, use it as basis
-                    subElement = JCRContentUtils.generateNodeName(title.getValueAsString());
-                } else {
-                    // otherwise generate node name from node type
-                    subElement = JCRContentUtils.generateNodeName(type);
+        final boolean isUpdate = isUpdate(node, subElement);
+        final Node newOrToUpdate = isUpdate ? node.getNode(subElement) :
+                addChild(node, subElement, nodeData.getTypeName(), nodeData.getProperty(Constants.JCR_TITLE));
+
+        NodeElementAccessor.initNodeFrom(newOrToUpdate, nodeData, options.getChunkedSave());
+
+        return new CreateOrUpdateResult<JSONNode<APIDecorator>>(isUpdate, options.getFactory().createNode(newOrToUpdate, 1));
+    }
+
+    @Override
+    public Response createOrUpdate(final Node node, final String subElement, InputStream body, UriInfo context, RequestOptions options) throws RepositoryException, IOException {
+        final JsonParser parser = JSONNodeStreamReader.open(body);
+        if (parser == null) {
+            return getMissingBodyResponse();
+        }
+
+        final boolean isUpdate = isUpdate(node, subElement);
+        final Node newOrToUpdate;
+        try {
+            newOrToUpdate = JSONNodeStreamReader.read(parser, new JSONNodeStreamReader.NodeResolver() {
+                @Override
+                public Node resolve(String name, String typeName, Map<String, JSONProperty<APIDecorator>> properties) throws RepositoryException {
+                    if (isUpdate) {
+                        return node.getNode(subElement);
+                    }
+                    JSONProperty title = properties.get(Names.escape(Constants.JCR_TITLE));
+                    if (title == null) {
+                        title = properties.get(Constants.JCR_TITLE);
+                    }
+                    return addChild(node, subElement, typeName, title);
                 }
+            }, options.getChunkedSave());
+        } finally {
+            parser.close();
+        }
 
-                // then make sure we get an available name from the basis we used
-                subElement = JCRContentUtils.findAvailableNodeName(node, subElement);
-            }
+        return toResponse(new CreateOrUpdateResult<JSONNode<APIDecorator>>(isUpdate, options.getFactory().createNode(newOrToUpdate, 1)), context);
+    }
+
+    private static boolean isUpdate(Node node, String subElement) throws RepositoryException {
+        return subElement != null && !subElement.isEmpty() && node.hasNode(subElement);
+    }
 
-            if (type == null) {
-                newOrToUpdate = node.addNode(subElement);
+    /**
+     * Adds a child of the given type, generating its name from its title, or else from its type, if none was provided.
+     */
+    private static Node addChild(Node node, String subElement, String type, JSONProperty title) throws RepositoryException {
+        // if we didn't get a subElement name, generate one
+        if (subElement == null || subElement.isEmpty()) {
+            if (title != null) {
+                // if we have a jcr:title in the node data, use it as basis
+                subElement = JCRContentUtils.generateNodeName(title.getValueAsString());
             } else {
-                newOrToUpdate = node.addNode(subElement, type);
+                // otherwise generate node name from node type
+                subElement = JCRContentUtils.generateNodeName(type);
             }
 
-            NodeElementAccessor.checkNodeIsWritable(newOrToUpdate);
+            // then make sure we get an available name from the basis we used
+            subElement = JCRContentUtils.findAvailableNodeName(node, subElement);
         }
 
-        NodeElementAccessor.initNodeFrom(newOrToUpdate, nodeData);
+        final Node child;
+        if (type == null) {
+            child = node.addNode(subElement);
+        } else {
+            child = node.addNode(subElement, type);
+        }
 
-        return new CreateOrUpdateResult<JSONNode<APIDecorator>>(isUpdate, getFactory().createNode(newOrToUpdate, 1));
+        NodeElementAccessor.checkNodeIsWritable(child);
+        return child;
     }
 
     @Override
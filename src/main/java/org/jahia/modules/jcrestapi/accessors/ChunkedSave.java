@@ -0,0 +1,149 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.accessors;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import org.jahia.modules.jcrestapi.RequestTimings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the session every given number of nodes while a representation creates children recursively, so that importing
+ * a large tree does not keep all of its nodes in the transient space until the request ends.
+ *
+ * <p>The nodes saved by a chunk stay in the repository if a later node fails: this instance then records the path of
+ * the node that failed, and is reported along with the error so that the client knows where to resume.</p>
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class ChunkedSave {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedSave.class);
+
+    private final Session session;
+    private final int saveEvery;
+
+    @XmlElement
+    private int created;
+
+    @XmlElement
+    private int saved;
+
+    @XmlElement
+    private String failedPath;
+
+    public ChunkedSave(Session session, int saveEvery) {
+        if (saveEvery <= 0) {
+            throw new IllegalArgumentException("Nodes must be saved every 1 or more nodes, was asked " + saveEvery);
+        }
+        this.session = session;
+        this.saveEvery = saveEvery;
+    }
+
+    /**
+     * Records that the given node and its own children were created, saving the session if this completes a chunk.
+     *
+     * @param node the node that was just created
+     * @throws RepositoryException if the session cannot be saved
+     */
+    void nodeCreated(Node node) throws RepositoryException {
+        created++;
+        if (created - saved >= saveEvery) {
+            final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.SAVE);
+            try {
+                session.save();
+            } catch (RepositoryException e) {
+                failedOn(node.getPath());
+                throw e;
+            } finally {
+                RequestTimings.end(previous);
+            }
+            saved = created;
+            logger.debug("Saved {} created nodes, up to {}", saved, node.getPath());
+        }
+    }
+
+    /**
+     * Records the path of the node that could not be created, unless a node below it has already been recorded.
+     */
+    void failedOn(String path) {
+        if (failedPath == null) {
+            failedPath = path;
+        }
+    }
+
+    /**
+     * Records that the session was saved along with all the nodes created so far.
+     */
+    public void allSaved() {
+        saved = created;
+    }
+
+    /**
+     * @return how many nodes were created so far
+     */
+    public int getCreated() {
+        return created;
+    }
+
+    /**
+     * @return how many of the created nodes were saved
+     */
+    public int getSaved() {
+        return saved;
+    }
+
+    /**
+     * @return the path of the node that could not be created, {@code null} if none failed
+     */
+    public String getFailedPath() {
+        return failedPath;
+    }
+}
@@ -43,6 +43,8 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -53,10 +55,13 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
 import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.RequestOptions;
+import org.jahia.modules.jcrestapi.RequestTimings;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.Utils;
 import org.jahia.modules.jcrestapi.json.APIObjectFactory;
@@ -78,54 +83,115 @@ public abstract class ElementAccessor<C extends JSONSubElementContainer<APIDecor
         return APIObjectFactory.getInstance();
     }
 
-    protected Object getElement(Node node, String subElement, UriInfo context) throws RepositoryException {
+    protected Object getElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
         if (!Utils.exists(subElement)) {
-            return getSubElementContainer(node, context);
+            return getSubElementContainer(node, options);
         } else {
-            return getSubElement(node, subElement, context);
+            return getSubElement(node, subElement, options);
         }
     }
 
-    protected JSONNode<APIDecorator> getParentFrom(Node node) throws RepositoryException {
-        return getFactory().createNode(node, 0);
+    protected JSONNode<APIDecorator> getParentFrom(Node node, RequestOptions options) throws RepositoryException {
+        return options.getFactory().createNode(node, 0);
     }
 
-    protected abstract C getSubElementContainer(Node node, UriInfo context) throws RepositoryException;
+    protected abstract C getSubElementContainer(Node node, RequestOptions options) throws RepositoryException;
 
-    protected abstract T getSubElement(Node node, String subElement, UriInfo context) throws RepositoryException;
+    protected abstract T getSubElement(Node node, String subElement, RequestOptions options) throws RepositoryException;
 
     protected abstract void delete(Node node, String subElement) throws RepositoryException;
 
-    protected abstract CreateOrUpdateResult<T> createOrUpdate(Node node, String subElement, U childData) throws RepositoryException;
+    protected abstract CreateOrUpdateResult<T> createOrUpdate(Node node, String subElement, U childData, RequestOptions options) throws RepositoryException;
 
     public JSONItem convertFrom(String rawJSONData) throws Exception {
         return reader.readValue(rawJSONData);
     }
 
+    /**
+     * Converts the given request body without first reading it into a string.
+     */
+    public JSONItem convertFrom(InputStream body) throws IOException {
+        return reader.readValue(body);
+    }
+
+    /**
+     * Converts data that has already been parsed, such as the payload of one operation of a batch.
+     */
+    public JSONItem convertFrom(JsonNode jsonData) throws Exception {
+        return reader.readValue(jsonData);
+    }
+
     public Response perform(Node node, String subElement, String operation, U childData, UriInfo context) throws RepositoryException {
+        return perform(node, subElement, operation, childData, context, RequestOptions.from(context));
+    }
+
+    /**
+     * Performs the given operation on the specified sub-element.
+     *
+     * @param node       the node the request resolved to
+     * @param subElement the name of the sub-element, may be empty to target all the sub-elements of this type
+     * @param operation  the operation to perform
+     * @param childData  the data to create or update the sub-element with, {@code null} for other operations
+     * @param context    a UriInfo instance providing context about the request URI
+     * @param options    the options of the request, deciding how the answered representation is built
+     * @return a Response ready to be sent to the client
+     * @throws RepositoryException if the operation cannot be performed
+     */
+    public Response perform(Node node, String subElement, String operation, U childData, UriInfo context, RequestOptions options) throws RepositoryException {
         if (API.DELETE.equals(operation)) {
             delete(node, subElement);
             return Response.noContent().build();
         } else if (API.CREATE_OR_UPDATE.equals(operation)) {
             if (childData == null) {
-                return Response.status(Response.Status.BAD_REQUEST).entity("Missing body").build();
-            }
-            final CreateOrUpdateResult<T> result = createOrUpdate(node, subElement, childData);
-            final T entity = result.item;
-            if (result.isUpdate) {
-                return Response.ok(entity).build();
-            } else {
-                return Response.created(context.getAbsolutePath()).entity(entity).build();
+                return getMissingBodyResponse();
             }
+            return toResponse(createOrUpdate(node, subElement, childData, options), context);
         } else if (API.READ.equals(operation)) {
-            final Object element = getElement(node, subElement, context);
+            final Object element;
+            final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.SERIALIZATION);
+            try {
+                element = getElement(node, subElement, options);
+            } finally {
+                RequestTimings.end(previous);
+            }
             return element == null ? Response.status(Response.Status.NOT_FOUND).build() : Response.ok(element).build();
         }
 
         throw new UnsupportedOperationException("Unsupported operation: " + operation);
     }
 
-    public Response perform(Node node, List<String> subElements, String operation, List<U> childData, UriInfo context) throws RepositoryException {
+    /**
+     * Creates or updates the specified sub-element from the given request body. Accessors able to apply the body while
+     * reading it override this method, the others bind the whole body first.
+     *
+     * @param node       the node the request resolved to
+     * @param subElement the name of the sub-element to create or update, may be empty
+     * @param body       the request body
+     * @param context    a UriInfo instance providing context about the request URI
+     * @param options    the options of the request, deciding how the answered representation is built
+     * @return a Response ready to be sent to the client
+     * @throws RepositoryException if the sub-element cannot be created or updated
+     * @throws IOException         if the body cannot be read
+     */
+    @SuppressWarnings("unchecked")
+    public Response createOrUpdate(Node node, String subElement, InputStream body, UriInfo context, RequestOptions options) throws RepositoryException, IOException {
+        return perform(node, subElement, API.CREATE_OR_UPDATE, (U) convertFrom(body), context, options);
+    }
+
+    protected Response toResponse(CreateOrUpdateResult<T> result, UriInfo context) {
+        final T entity = result.item;
+        if (result.isUpdate) {
+            return Response.ok(entity).build();
+        } else {
+            return Response.created(context.getAbsolutePath()).entity(entity).build();
+        }
+    }
+
+    protected static Response getMissingBodyResponse() {
+        return Response.status(Response.Status.BAD_REQUEST).entity("Missing body").build();
+    }
+
+    public Response perform(Node node, List<String> subElements, String operation, List<U> childData, UriInfo context, RequestOptions options) throws RepositoryException {
         if (API.DELETE.equals(operation)) {
             for (String subElement : subElements) {
                 delete(node, subElement);
@@ -133,16 +199,21 @@ public abstract class ElementAccessor<C extends JSONSubElementContainer<APIDecor
             return getSeeOtherResponse(node, context);
         } else if (API.CREATE_OR_UPDATE.equals(operation)) {
             for (U child : childData) {
-                createOrUpdate(node, null, child);
+                createOrUpdate(node, null, child, options);
             }
             return getSeeOtherResponse(node, context);
         } else if (API.READ.equals(operation)) {
             List<T> result = new ArrayList<T>(subElements.size());
-            for (String subElement : subElements) {
-                final T element = getSubElement(node, subElement, context);
-                if (element != null) {
-                    result.add(element);
+            final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.SERIALIZATION);
+            try {
+                for (String subElement : subElements) {
+                    final T element = getSubElement(node, subElement, options);
+                    if (element != null) {
+                        result.add(element);
+                    }
                 }
+            } finally {
+                RequestTimings.end(previous);
             }
             return Response.ok(result).build();
         }
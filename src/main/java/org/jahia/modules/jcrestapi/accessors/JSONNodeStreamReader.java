@@ -0,0 +1,243 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.accessors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.json.JSONConstants;
+import org.jahia.modules.json.JSONProperty;
+import org.jahia.modules.json.Names;
+
+/**
+ * Applies a node representation to the repository while it is read from the request body, the way
+ * {@link NodeElementAccessor#initNodeFrom} applies a bound one. The body is never held in memory as a whole: only the
+ * mixins and properties of the nodes between the top node and the one being read are, so that memory use depends on
+ * how deep the representation is rather than on how large it is.
+ *
+ * <p>A node is created once its fields preceding its children have been read, so its {@code name} and {@code type}
+ * must come before its {@code children}, which is the order representations are output in. A representation providing
+ * them after its children is refused as invalid, rather than having them silently ignored. Its mixins, then its
+ * properties, are applied before its children are read.</p>
+ */
+final class JSONNodeStreamReader {
+    private static final ObjectReader propertyReader = ElementAccessor.mapper.reader(JSONProperty.class);
+
+    private static final String NAME = "name";
+
+    /**
+     * Resolves the node a representation applies to, once the fields preceding its children have been read.
+     */
+    interface NodeResolver {
+        /**
+         * @param name       the name the representation provides, {@code null} if it provides none
+         * @param typeName   the primary type the representation provides, {@code null} if it provides none
+         * @param properties the properties read so far, keyed by escaped name
+         * @return the node the representation applies to
+         * @throws RepositoryException if the node cannot be resolved or created
+         */
+        Node resolve(String name, String typeName, Map<String, JSONProperty<APIDecorator>> properties) throws RepositoryException;
+    }
+
+    private JSONNodeStreamReader() {
+    }
+
+    /**
+     * Opens the given request body, positioned on the object it must hold.
+     *
+     * @param body the request body
+     * @return a parser positioned on the start of the representation, or {@code null} if the body is empty
+     * @throws IOException              if the body cannot be read
+     * @throws IllegalArgumentException if the body does not hold a JSON object
+     */
+    static JsonParser open(InputStream body) throws IOException {
+        final JsonParser parser = ElementAccessor.mapper.getFactory().createParser(body);
+        final JsonToken first = parser.nextToken();
+        if (first == null) {
+            parser.close();
+            return null;
+        }
+        if (first != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new IllegalArgumentException("Expected a JSON object, got " + first);
+        }
+        return parser;
+    }
+
+    /**
+     * Reads the representation the parser is positioned on, up to its end, and applies it.
+     *
+     * @param parser   a parser positioned on the start of the representation
+     * @param resolver resolves the node the representation applies to
+     * @param chunks   how the children the representation creates are saved, {@code null} to save them along with the
+     *                 rest of the request
+     * @return the node the representation was applied to
+     * @throws RepositoryException      if the representation cannot be applied
+     * @throws IOException              if the representation cannot be read
+     * @throws IllegalArgumentException if the representation provides its name or type after its children
+     */
+    static Node read(JsonParser parser, NodeResolver resolver, ChunkedSave chunks) throws RepositoryException, IOException {
+        final PendingNode pending = new PendingNode(resolver);
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+
+            if (NAME.equals(field) || API.TYPE.equals(field)) {
+                if (pending.node != null) {
+                    // the node was resolved when its children were reached, the value would be ignored
+                    throw new IllegalArgumentException("The '" + field + "' of a node must precede its '" + JSONConstants.CHILDREN + "'");
+                }
+                if (NAME.equals(field)) {
+                    pending.name = parser.getValueAsString();
+                } else {
+                    pending.typeName = parser.getValueAsString();
+                }
+            } else if (JSONConstants.MIXINS.equals(field) && value == JsonToken.START_OBJECT) {
+                readMixins(parser, pending.mixins);
+            } else if (JSONConstants.PROPERTIES.equals(field) && value == JsonToken.START_OBJECT) {
+                readProperties(parser, pending.properties);
+            } else if (JSONConstants.CHILDREN.equals(field) && value == JsonToken.START_OBJECT) {
+                readChildren(parser, pending.apply(), chunks);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        return pending.apply();
+    }
+
+    private static void readMixins(JsonParser parser, List<String> mixins) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            mixins.add(parser.getCurrentName());
+            // only the name of a mixin is used
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void readProperties(JsonParser parser, Map<String, JSONProperty<APIDecorator>> properties) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String escapedName = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                properties.put(escapedName, (JSONProperty<APIDecorator>) propertyReader.readValue(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readChildren(JsonParser parser, final Node node, ChunkedSave chunks) throws RepositoryException, IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String escapedName = parser.getCurrentName();
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+
+            try {
+                final Node child = read(parser, new NodeResolver() {
+                    @Override
+                    public Node resolve(String name, String typeName, Map<String, JSONProperty<APIDecorator>> properties) throws RepositoryException {
+                        final Node child = node.addNode(name != null ? name : Names.unescape(escapedName), typeName);
+                        NodeElementAccessor.checkNodeIsWritable(child);
+                        return child;
+                    }
+                }, chunks);
+                if (chunks != null) {
+                    chunks.nodeCreated(child);
+                }
+            } catch (RepositoryException | IOException | RuntimeException e) {
+                if (chunks != null) {
+                    chunks.failedOn(NodeElementAccessor.getChildPath(node, Names.unescape(escapedName)));
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The fields of a representation read so far and not applied yet.
+     */
+    private static class PendingNode {
+        private final NodeResolver resolver;
+        private final List<String> mixins = new ArrayList<String>();
+        private final Map<String, JSONProperty<APIDecorator>> properties = new LinkedHashMap<String, JSONProperty<APIDecorator>>();
+        private String name;
+        private String typeName;
+        private Node node;
+
+        private PendingNode(NodeResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        /**
+         * Resolves the node if it has not been yet, then applies the mixins and properties read since last called.
+         */
+        private Node apply() throws RepositoryException {
+            if (node == null) {
+                node = resolver.resolve(name, typeName, properties);
+            }
+
+            NodeElementAccessor.addMixinsTo(node, mixins);
+            NodeElementAccessor.setPropertiesOn(node, properties);
+            mixins.clear();
+            properties.clear();
+
+            return node;
+        }
+    }
+}
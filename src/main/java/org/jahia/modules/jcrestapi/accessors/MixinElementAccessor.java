@@ -47,8 +47,8 @@ import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.nodetype.NodeType;
-import javax.ws.rs.core.UriInfo;
 
+import org.jahia.modules.jcrestapi.RequestOptions;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.JSONMixin;
@@ -60,18 +60,18 @@ import org.jahia.modules.json.JSONNode;
  */
 public class MixinElementAccessor extends ElementAccessor<JSONMixins<APIDecorator>, JSONMixin<APIDecorator>, JSONNode> {
     @Override
-    protected JSONMixins<APIDecorator> getSubElementContainer(Node node, UriInfo context) throws RepositoryException {
-        return getFactory().createMixins(getParentFrom(node), node);
+    protected JSONMixins<APIDecorator> getSubElementContainer(Node node, RequestOptions options) throws RepositoryException {
+        return options.getFactory().createMixins(getParentFrom(node, options), node);
     }
 
     @Override
-    protected JSONMixin<APIDecorator> getSubElement(Node node, String subElement, UriInfo context) throws RepositoryException {
+    protected JSONMixin<APIDecorator> getSubElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
         final NodeType mixin = getMixin(node, subElement);
         if (mixin == null) {
             return null;
         }
 
-        return getFactory().createMixin(node, mixin);
+        return options.getFactory().createMixin(node, mixin);
     }
 
     @Override
@@ -81,7 +81,7 @@ public class MixinElementAccessor extends ElementAccessor<JSONMixins<APIDecorato
     }
 
     @Override
-    protected CreateOrUpdateResult<JSONMixin<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode childData) throws RepositoryException {
+    protected CreateOrUpdateResult<JSONMixin<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode childData, RequestOptions options) throws RepositoryException {
         if(subElement == null || subElement.isEmpty()) {
             throw new UnsupportedOperationException("Cannot create an automatically named mixin");
         }
@@ -100,7 +100,7 @@ public class MixinElementAccessor extends ElementAccessor<JSONMixins<APIDecorato
         // we now need to use the rest of the given child data to add / update the parent node content
         NodeElementAccessor.initNodeFrom(node, childData);
 
-        return new CreateOrUpdateResult<JSONMixin<APIDecorator>>(!isCreation, getFactory().createMixin(node, mixin));
+        return new CreateOrUpdateResult<JSONMixin<APIDecorator>>(!isCreation, options.getFactory().createMixin(node, mixin));
     }
 
     @Override
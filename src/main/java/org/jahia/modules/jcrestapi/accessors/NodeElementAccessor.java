@@ -43,13 +43,19 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
 import java.util.Map;
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
-import org.jahia.modules.jcrestapi.Utils;
+import com.fasterxml.jackson.core.JsonParser;
+
+import org.jahia.modules.jcrestapi.RequestOptions;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.JSONMixin;
 import org.jahia.modules.json.JSONNode;
@@ -67,17 +73,17 @@ public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer
     private static final Logger logger = LoggerFactory.getLogger(NodeElementAccessor.class);
 
     @Override
-    protected Object getElement(Node node, String subElement, UriInfo context) throws RepositoryException {
-        return getFactory().createNode(node, Utils.getFilter(context), Utils.getDepthFrom(context, 1));
+    protected Object getElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
+        return options.getFactory().createNode(node, options.getFilter(), options.getDepth(1), options.getFields());
     }
 
     @Override
-    protected JSONSubElementContainer<APIDecorator> getSubElementContainer(Node node, UriInfo context) throws RepositoryException {
+    protected JSONSubElementContainer<APIDecorator> getSubElementContainer(Node node, RequestOptions options) throws RepositoryException {
         throw new UnsupportedOperationException("Cannot call getSubElementContainer on NodeElementAccessor");
     }
 
     @Override
-    protected JSONNode<APIDecorator> getSubElement(Node node, String subElement, UriInfo context) throws RepositoryException {
+    protected JSONNode<APIDecorator> getSubElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
         throw new UnsupportedOperationException("Cannot call getSubElement on NodeElementAccessor");
     }
 
@@ -87,11 +93,33 @@ public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer
     }
 
     @Override
-    protected CreateOrUpdateResult<JSONNode<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode nodeData) throws RepositoryException {
-        initNodeFrom(node, nodeData);
+    protected CreateOrUpdateResult<JSONNode<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode nodeData, RequestOptions options) throws RepositoryException {
+        initNodeFrom(node, nodeData, options.getChunkedSave());
 
         // update only scenario at the moment
-        return new CreateOrUpdateResult<JSONNode<APIDecorator>>(true, getFactory().createNode(node, 1));
+        return new CreateOrUpdateResult<JSONNode<APIDecorator>>(true, options.getFactory().createNode(node, 1));
+    }
+
+    @Override
+    public Response createOrUpdate(final Node node, String subElement, InputStream body, UriInfo context, RequestOptions options) throws RepositoryException, IOException {
+        final JsonParser parser = JSONNodeStreamReader.open(body);
+        if (parser == null) {
+            return getMissingBodyResponse();
+        }
+
+        try {
+            JSONNodeStreamReader.read(parser, new JSONNodeStreamReader.NodeResolver() {
+                @Override
+                public Node resolve(String name, String typeName, Map<String, JSONProperty<APIDecorator>> properties) {
+                    // update only scenario at the moment
+                    return node;
+                }
+            }, options.getChunkedSave());
+        } finally {
+            parser.close();
+        }
+
+        return Response.ok(options.getFactory().createNode(node, 1)).build();
     }
 
     @Override
@@ -112,21 +140,36 @@ public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer
      * @throws RepositoryException if the node cannot be written
      */
     public static void initNodeFrom(Node node, JSONNode<APIDecorator> jsonNode) throws RepositoryException {
+        initNodeFrom(node, jsonNode, null);
+    }
+
+    /**
+     * Applies the given representation to the given node, saving the children it creates as the given chunked save
+     * specifies.
+     *
+     * @param node     the node to apply the representation to
+     * @param jsonNode the representation, may be {@code null}
+     * @param chunks   how the children the representation creates are saved, {@code null} to save them along with the
+     *                 rest of the request
+     * @throws RepositoryException if the node cannot be written
+     */
+    public static void initNodeFrom(Node node, JSONNode<APIDecorator> jsonNode, ChunkedSave chunks) throws RepositoryException {
         if (jsonNode == null) {
             return;
         }
 
-        addMixinsTo(node, jsonNode.getMixins());
+        final Map<String, JSONMixin<APIDecorator>> mixins = jsonNode.getMixins();
+        addMixinsTo(node, mixins != null ? mixins.keySet() : null);
         setPropertiesOn(node, jsonNode.getProperties());
-        addChildrenTo(node, jsonNode.getChildren());
+        addChildrenTo(node, jsonNode.getChildren(), chunks);
     }
 
-    private static void addMixinsTo(Node node, Map<String, JSONMixin<APIDecorator>> mixins) throws RepositoryException {
-        if (mixins == null) {
+    static void addMixinsTo(Node node, Collection<String> escapedNames) throws RepositoryException {
+        if (escapedNames == null) {
             return;
         }
 
-        for (String escapedName : mixins.keySet()) {
+        for (String escapedName : escapedNames) {
             final String mixinName = Names.unescape(escapedName);
             if (WriteRestrictions.isRestrictedMixin(mixinName)) {
                 logger.info("Ignoring mixin {} requested on {} (see jahia.api.jcr.restrictedMixins)", mixinName, node.getPath());
@@ -136,17 +179,19 @@ public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer
         }
     }
 
-    private static void setPropertiesOn(Node node, Map<String, JSONProperty<APIDecorator>> jsonProperties) throws RepositoryException {
+    static void setPropertiesOn(Node node, Map<String, JSONProperty<APIDecorator>> jsonProperties) throws RepositoryException {
         if (jsonProperties == null) {
             return;
         }
 
         for (Map.Entry<String, JSONProperty<APIDecorator>> entry : jsonProperties.entrySet()) {
             final String propName = Names.unescape(entry.getKey());
-            if (isPropertyOutOfScope(node, propName)) {
+            // looked up once, for both the scope check and the write
+            final PropertyDefinition definition = PropertyElementAccessor.getPropertyDefinitionOnNode(propName, node);
+            if (isPropertyOutOfScope(node, propName, definition)) {
                 continue;
             }
-            PropertyElementAccessor.setPropertyOnNode(entry.getKey(), entry.getValue(), node);
+            PropertyElementAccessor.setPropertyOnNode(entry.getKey(), entry.getValue(), node, definition);
         }
     }
 
@@ -159,18 +204,18 @@ public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer
      * configured list does not govern them. The whole-node route resends names the client read back rather than
      * chose, so neither reason is logged at {@code WARN} here.</p>
      *
-     * @param node     the node the representation is applied to
-     * @param propName the unescaped property name the representation carries
+     * @param node       the node the representation is applied to
+     * @param propName   the unescaped property name the representation carries
+     * @param definition the applicable property definition, {@code null} if there is none
      * @return {@code true} if the property is left out of the write
-     * @throws RepositoryException if the node's definitions or path cannot be read
+     * @throws RepositoryException if the node's path cannot be read
      */
-    private static boolean isPropertyOutOfScope(Node node, String propName) throws RepositoryException {
+    private static boolean isPropertyOutOfScope(Node node, String propName, PropertyDefinition definition) throws RepositoryException {
         if (WriteRestrictions.isRestrictedPropertyName(propName)) {
             logger.info("Ignoring property {} requested on {} (see jahia.api.jcr.restrictedProperties)", propName, node.getPath());
             return true;
         }
 
-        final PropertyDefinition definition = PropertyElementAccessor.getPropertyDefinitionOnNode(propName, node);
         if (definition != null && definition.isProtected()) {
             logger.debug("Ignoring property {} requested on {}: its node type maintains it", propName, node.getPath());
             return true;
@@ -195,15 +240,38 @@ public class NodeElementAccessor extends ElementAccessor<JSONSubElementContainer
         }
     }
 
-    private static void addChildrenTo(Node node, Map<String, JSONNode<APIDecorator>> children) throws RepositoryException {
+    private static void addChildrenTo(Node node, Map<String, JSONNode<APIDecorator>> children, ChunkedSave chunks) throws RepositoryException {
         if (children == null) {
             return;
         }
 
         for (JSONNode<APIDecorator> jsonChild : children.values()) {
-            final Node child = node.addNode(jsonChild.getName(), jsonChild.getTypeName());
-            checkNodeIsWritable(child);
-            initNodeFrom(child, jsonChild);
+            if (chunks == null) {
+                addChildTo(node, jsonChild, null);
+                continue;
+            }
+
+            try {
+                chunks.nodeCreated(addChildTo(node, jsonChild, chunks));
+            } catch (RepositoryException | RuntimeException e) {
+                chunks.failedOn(getChildPath(node, jsonChild.getName()));
+                throw e;
+            }
         }
     }
+
+    /**
+     * Builds the path of the given node's child with the given name, without the child having to exist.
+     */
+    static String getChildPath(Node node, String childName) throws RepositoryException {
+        final String path = node.getPath();
+        return ("/".equals(path) ? "" : path) + "/" + childName;
+    }
+
+    private static Node addChildTo(Node node, JSONNode<APIDecorator> jsonChild, ChunkedSave chunks) throws RepositoryException {
+        final Node child = node.addNode(jsonChild.getName(), jsonChild.getTypeName());
+        checkNodeIsWritable(child);
+        initNodeFrom(child, jsonChild, chunks);
+        return child;
+    }
 }
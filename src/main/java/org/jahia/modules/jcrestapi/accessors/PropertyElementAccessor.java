@@ -43,6 +43,8 @@
  */
 package org.jahia.modules.jcrestapi.accessors;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
@@ -51,9 +53,11 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Value;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.PropertyDefinition;
-import javax.ws.rs.core.UriInfo;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectReader;
+import org.jahia.modules.jcrestapi.PropertyDefinitionIndex;
+import org.jahia.modules.jcrestapi.RequestOptions;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.JSONItem;
@@ -69,9 +73,15 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
     private static final ObjectReader reader = mapper.reader(JSONProperty.class);
 
     static Property setPropertyOnNode(String escapedName, JSONProperty jsonProperty, Node node) throws RepositoryException {
-        final String propName = Names.unescape(escapedName);
+        return setPropertyOnNode(escapedName, jsonProperty, node, getPropertyDefinitionOnNode(Names.unescape(escapedName), node));
+    }
 
-        final PropertyDefinition definition = getPropertyDefinitionOnNode(propName, node);
+    /**
+     * Same as {@link #setPropertyOnNode(String, JSONProperty, Node)}, for callers which already looked up the applicable
+     * property definition.
+     */
+    static Property setPropertyOnNode(String escapedName, JSONProperty jsonProperty, Node node, PropertyDefinition definition) throws RepositoryException {
+        final String propName = Names.unescape(escapedName);
 
         // ahead of the null-definition return, so a restricted name is answered the same way on every node type
         checkPropertyIsWritable(propName, definition);
@@ -106,15 +116,28 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
         }
     }
 
+    /**
+     * Retrieves the definition applying to the given property of the given node, from the {@link PropertyDefinitionIndex}
+     * of its primary type. For a Jahia node, the indexes of its mixins are then looked up, in the order
+     * {@link JCRNodeWrapper#getApplicablePropertyDefinition(String)} does, which is only called for the properties
+     * matching none of their named definitions, such as the ones matching residual definitions.
+     *
+     * @return the definition or {@code null} if there is none
+     */
     static PropertyDefinition getPropertyDefinitionOnNode(String propName, Node node) throws RepositoryException {
-        if (node instanceof JCRNodeWrapper) {
-            JCRNodeWrapper wrapper = (JCRNodeWrapper) node;
-            return wrapper.getApplicablePropertyDefinition(propName);
+        final PropertyDefinitionIndex definitions = PropertyDefinitionIndex.getInstance();
+        final PropertyDefinition definition = definitions.getDefinition(node.getPrimaryNodeType(), propName);
+        if (definition != null || !(node instanceof JCRNodeWrapper)) {
+            return definition;
         }
 
-        final NodeType type = node.getPrimaryNodeType();
-        final PropertyDefinition[] propertyDefinitions = type.getPropertyDefinitions();
-        return getPropertyDefinitionFrom(propName, propertyDefinitions);
+        for (NodeType mixin : node.getMixinNodeTypes()) {
+            final PropertyDefinition mixinDefinition = definitions.getDefinition(mixin, propName);
+            if (mixinDefinition != null) {
+                return mixinDefinition;
+            }
+        }
+        return ((JCRNodeWrapper) node).getApplicablePropertyDefinition(propName);
     }
 
     public static PropertyDefinition getPropertyDefinitionFrom(String propName, PropertyDefinition[] propertyDefinitions) {
@@ -129,13 +152,13 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
     }
 
     @Override
-    protected JSONProperties<APIDecorator> getSubElementContainer(Node node, UriInfo context) throws RepositoryException {
-        return getFactory().createProperties(getParentFrom(node), node);
+    protected JSONProperties<APIDecorator> getSubElementContainer(Node node, RequestOptions options) throws RepositoryException {
+        return options.getFactory().createProperties(getParentFrom(node, options), node);
     }
 
     @Override
-    protected JSONProperty<APIDecorator> getSubElement(Node node, String subElement, UriInfo context) throws RepositoryException {
-        return getFactory().createProperty(node.getProperty(subElement));
+    protected JSONProperty<APIDecorator> getSubElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
+        return options.getFactory().createProperty(node.getProperty(subElement));
     }
 
     @Override
@@ -146,13 +169,13 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
     }
 
     @Override
-    protected CreateOrUpdateResult<JSONProperty<APIDecorator>> createOrUpdate(Node node, String subElement, JSONProperty childData) throws RepositoryException {
+    protected CreateOrUpdateResult<JSONProperty<APIDecorator>> createOrUpdate(Node node, String subElement, JSONProperty childData, RequestOptions options) throws RepositoryException {
         if(subElement == null || subElement.isEmpty()) {
             throw new UnsupportedOperationException("Cannot create automatically named properties");
         }
         final boolean isUpdate = node.hasProperty(subElement);
         final Property property = setPropertyOnNode(subElement, childData, node);
-        return new CreateOrUpdateResult<JSONProperty<APIDecorator>>(isUpdate, getFactory().createProperty(property));
+        return new CreateOrUpdateResult<JSONProperty<APIDecorator>>(isUpdate, options.getFactory().createProperty(property));
     }
 
     @Override
@@ -164,4 +187,14 @@ public class PropertyElementAccessor extends ElementAccessor<JSONProperties<APID
     public JSONItem convertFrom(String rawJSONData) throws Exception {
         return reader.readValue(rawJSONData);
     }
+
+    @Override
+    public JSONItem convertFrom(InputStream body) throws IOException {
+        return reader.readValue(body);
+    }
+
+    @Override
+    public JSONItem convertFrom(JsonNode jsonData) throws Exception {
+        return reader.readValue(jsonData);
+    }
 }
@@ -47,8 +47,8 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.version.Version;
 import javax.jcr.version.VersionHistory;
-import javax.ws.rs.core.UriInfo;
 
+import org.jahia.modules.jcrestapi.RequestOptions;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
 import org.jahia.modules.json.JSONNode;
@@ -60,16 +60,16 @@ import org.jahia.modules.json.JSONVersions;
  */
 public class VersionElementAccessor extends ElementAccessor<JSONVersions<APIDecorator>, JSONVersion<APIDecorator>, JSONNode> {
     @Override
-    protected JSONVersions getSubElementContainer(Node node, UriInfo context) throws RepositoryException {
-        return getFactory().createVersions(getParentFrom(node), node);
+    protected JSONVersions getSubElementContainer(Node node, RequestOptions options) throws RepositoryException {
+        return options.getFactory().createVersions(getParentFrom(node, options), node);
     }
 
     @Override
-    protected JSONVersion getSubElement(Node node, String subElement, UriInfo context) throws RepositoryException {
+    protected JSONVersion getSubElement(Node node, String subElement, RequestOptions options) throws RepositoryException {
         final VersionHistory versionHistory = JSONVersions.getVersionHistoryFor(node);
         if (versionHistory != null) {
             final Version version = versionHistory.getVersion(subElement);
-            return version != null ? getFactory().createVersion(node, version) : null;
+            return version != null ? options.getFactory().createVersion(node, version) : null;
         } else {
             return null;
         }
@@ -81,7 +81,7 @@ public class VersionElementAccessor extends ElementAccessor<JSONVersions<APIDeco
     }
 
     @Override
-    protected CreateOrUpdateResult<JSONVersion<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode childData) throws RepositoryException {
+    protected CreateOrUpdateResult<JSONVersion<APIDecorator>> createOrUpdate(Node node, String subElement, JSONNode childData, RequestOptions options) throws RepositoryException {
         throw new UnsupportedOperationException("Cannot create or update versions");
     }
 
@@ -4,7 +4,8 @@ import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.nodetype.PropertyDefinition;
 
-import org.jahia.modules.jcrestapi.SpringBeansAccess;
+import org.jahia.modules.jcrestapi.APIConfiguration;
+import org.jahia.modules.jcrestapi.NodeTypeHierarchy;
 
 /**
  * Defines which JCR properties and mixins the accessors may write.
@@ -52,7 +53,7 @@ public final class WriteRestrictions {
      */
     public static boolean isRestrictedPropertyName(String propertyName) {
         return propertyName != null
-                && SpringBeansAccess.getInstance().getRestrictedProperties().contains(propertyName);
+                && APIConfiguration.get().getRestrictedProperties().contains(propertyName);
     }
 
     /**
@@ -69,7 +70,7 @@ public final class WriteRestrictions {
      */
     public static boolean isRestrictedMixin(String mixinName) {
         return mixinName != null
-                && SpringBeansAccess.getInstance().getRestrictedMixins().contains(mixinName);
+                && APIConfiguration.get().getRestrictedMixins().contains(mixinName);
     }
 
     /**
@@ -89,11 +90,6 @@ public final class WriteRestrictions {
             return false;
         }
 
-        for (String restricted : SpringBeansAccess.getInstance().getRestrictedNodeTypes()) {
-            if (node.isNodeType(restricted)) {
-                return true;
-            }
-        }
-        return false;
+        return NodeTypeHierarchy.getInstance().isAnyNodeType(node, APIConfiguration.get().getRestrictedNodeTypes());
     }
 }
@@ -45,15 +45,35 @@ package org.jahia.modules.jcrestapi.api;
 
 import org.jahia.services.content.JCRContentUtils;
 
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 /**
  * Predefined queries which can be used by the query endpoint.
+ *
+ * <p>The source is parsed once, when it is set, into a template which records where its placeholders are. Values are
+ * then either bound to the query as JCR bind variables, see {@link #createQuery(Session, List)}, or interpolated into
+ * the source, see {@link #getQuery(List)}, without the source being scanned again.</p>
  */
 public class PreparedQuery {
+    private static final Pattern PARAMETER_NAME = Pattern.compile("[a-zA-Z0-9_]+");
+
     private String name;
     private String source;
+    private Template template;
 
     public PreparedQuery() {
     }
@@ -82,6 +102,7 @@ public class PreparedQuery {
 
     public void setSource(String source) {
         this.source = source;
+        this.template = source != null ? Template.parse(source) : null;
     }
 
     /**
@@ -91,16 +112,7 @@ public class PreparedQuery {
      * @return
      */
     public String getQuery(List<Object> params) {
-        String res = source;
-        for (Object param : params) {
-            if (param instanceof Number) {
-                res = res.replaceFirst("\\?", param.toString());
-            } else {
-                res = res.replaceFirst("\\?", "'" + JCRContentUtils.sqlEncode(param.toString()) + "'");
-            }
-
-        }
-        return res;
+        return template.interpolate(params, null);
     }
 
     /**
@@ -110,20 +122,291 @@ public class PreparedQuery {
      * @return
      */
     public String getQuery(Map<String, Object> params) {
-        String res = source;
-        for (Map.Entry<String, Object> entry : params.entrySet()) {
-            final String key = entry.getKey();
-            if (key.matches("[a-zA-Z0-9_]+")) {
-                final Object value = entry.getValue();
-                if (value instanceof Number) {
-                    res = res.replaceFirst("(\\s):" + key, "$1" + value.toString());
+        checkParameterNames(params);
+        return template.interpolate(null, params);
+    }
+
+    /**
+     * Creates the JCR-SQL2 query for this prepared query, as is.
+     *
+     * @param session the session in which the query will run
+     * @return the query, ready to be executed
+     * @throws RepositoryException if the query cannot be created
+     */
+    public Query createQuery(Session session) throws RepositoryException {
+        return session.getWorkspace().getQueryManager().createQuery(source, Query.JCR_SQL2);
+    }
+
+    /**
+     * Creates the JCR-SQL2 query for this prepared query, with the given values bound to its positional placeholders,
+     * in order.
+     *
+     * @param session the session in which the query will run
+     * @param params  the values of the positional placeholders
+     * @return the query, ready to be executed
+     * @throws RepositoryException if the query cannot be created
+     * @see #getQuery(List)
+     */
+    public Query createQuery(Session session, List<Object> params) throws RepositoryException {
+        return createQuery(session, params, null);
+    }
+
+    /**
+     * Creates the JCR-SQL2 query for this prepared query, with the given values bound to its named placeholders.
+     *
+     * @param session the session in which the query will run
+     * @param params  the values of the named placeholders
+     * @return the query, ready to be executed
+     * @throws RepositoryException if the query cannot be created
+     * @see #getQuery(Map)
+     */
+    public Query createQuery(Session session, Map<String, Object> params) throws RepositoryException {
+        checkParameterNames(params);
+        return createQuery(session, null, params);
+    }
+
+    /**
+     * Binds the values as JCR bind variables when the template allows it, so the statement the repository parses is the
+     * same whatever the values. A query object itself cannot be kept across requests since it belongs to the session
+     * that created it.
+     *
+     * <p>JCR-SQL2 only accepts a bind variable where it accepts a literal value, while a placeholder was historically
+     * replaced by text wherever it stood, in a path argument for instance. The first time the repository refuses the
+     * bound statement, the query falls back to interpolation, and keeps to it from then on.</p>
+     */
+    private Query createQuery(Session session, List<Object> positionalParams, Map<String, Object> namedParams) throws RepositoryException {
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final Template current = template;
+        if (current.isBindable()) {
+            final Query query;
+            try {
+                query = queryManager.createQuery(current.getBoundStatement(), Query.JCR_SQL2);
+            } catch (InvalidQueryException e) {
+                current.markNotBindable();
+                return queryManager.createQuery(current.interpolate(positionalParams, namedParams), Query.JCR_SQL2);
+            }
+
+            bindValues(query, session.getValueFactory(), current, positionalParams, namedParams);
+            return query;
+        }
+
+        return queryManager.createQuery(current.interpolate(positionalParams, namedParams), Query.JCR_SQL2);
+    }
+
+    /**
+     * Binds the given values to the positional placeholders of a query created from this prepared query, typically a
+     * copy of the query returned by {@link #createQuery(Session, List)} with additional constraints. Placeholders the
+     * query has no bind variable for, for example because the query was interpolated, are ignored.
+     *
+     * @param session the session in which the query will run
+     * @param query   the query to bind the values to
+     * @param params  the values of the positional placeholders
+     * @throws RepositoryException if a value cannot be bound
+     */
+    public void bindValues(Session session, Query query, List<Object> params) throws RepositoryException {
+        bindValues(query, session.getValueFactory(), template, params, null);
+    }
+
+    /**
+     * Binds the given values to the named placeholders of a query created from this prepared query.
+     *
+     * @param session the session in which the query will run
+     * @param query   the query to bind the values to
+     * @param params  the values of the named placeholders
+     * @throws RepositoryException if a value cannot be bound
+     * @see #bindValues(Session, Query, List)
+     */
+    public void bindValues(Session session, Query query, Map<String, Object> params) throws RepositoryException {
+        checkParameterNames(params);
+        bindValues(query, session.getValueFactory(), template, null, params);
+    }
+
+    private static void bindValues(Query query, ValueFactory valueFactory, Template template, List<Object> positionalParams,
+                                   Map<String, Object> namedParams) throws RepositoryException {
+        final List<String> variables = Arrays.asList(query.getBindVariableNames());
+        for (Placeholder placeholder : template.placeholders) {
+            final Object value = placeholder.valueFrom(positionalParams, namedParams);
+            final String variable = placeholder.getBindVariableName();
+            if (value != null && variables.contains(variable)) {
+                query.bindValue(variable, toValue(value, valueFactory));
+            }
+        }
+    }
+
+    private static void checkParameterNames(Map<String, Object> params) {
+        for (String key : params.keySet()) {
+            if (!PARAMETER_NAME.matcher(key).matches()) {
+                throw new IllegalArgumentException("Invalid parameter name '" + key + "'");
+            }
+        }
+    }
+
+    private static Value toValue(Object param, ValueFactory valueFactory) {
+        if (param instanceof Long || param instanceof Integer || param instanceof Short || param instanceof Byte || param instanceof BigInteger) {
+            return valueFactory.createValue(((Number) param).longValue());
+        } else if (param instanceof BigDecimal) {
+            return valueFactory.createValue((BigDecimal) param);
+        } else if (param instanceof Number) {
+            return valueFactory.createValue(((Number) param).doubleValue());
+        } else {
+            return valueFactory.createValue(param.toString());
+        }
+    }
+
+    private static String toLiteral(Object param) {
+        if (param instanceof Number) {
+            return param.toString();
+        } else {
+            return "'" + JCRContentUtils.sqlEncode(param.toString()) + "'";
+        }
+    }
+
+    /**
+     * A placeholder found in the source: either the {@code index}-th {@code ?} or a {@code :name} preceded by a
+     * whitespace.
+     */
+    private static final class Placeholder {
+        private final int index;
+        private final String name;
+        private final String text;
+
+        private Placeholder(int index, String name, String text) {
+            this.index = index;
+            this.name = name;
+            this.text = text;
+        }
+
+        private Object valueFrom(List<Object> positionalParams, Map<String, Object> namedParams) {
+            if (name == null) {
+                return positionalParams != null && index < positionalParams.size() ? positionalParams.get(index) : null;
+            } else {
+                return namedParams != null ? namedParams.get(name) : null;
+            }
+        }
+
+        private String getBindVariableName() {
+            // bind variable names must be valid JCR prefixes, which a parameter name starting with a digit is not
+            return name == null ? "p_" + index : "n_" + name;
+        }
+    }
+
+    /**
+     * The source split around its placeholders: {@code fragments} has one more element than {@code placeholders},
+     * and the query is the fragments with the placeholders in-between.
+     */
+    private static final class Template {
+        private final List<String> fragments;
+        private final List<Placeholder> placeholders;
+        private final String boundStatement;
+        private volatile boolean bindable;
+
+        private Template(List<String> fragments, List<Placeholder> placeholders) {
+            this.fragments = fragments;
+            this.placeholders = placeholders;
+
+            final StringBuilder bound = new StringBuilder(length());
+            for (int i = 0; i < placeholders.size(); i++) {
+                // surrounded by spaces so that the variable is a token of its own whatever the source put around the placeholder
+                bound.append(fragments.get(i)).append(" $").append(placeholders.get(i).getBindVariableName()).append(' ');
+            }
+            this.boundStatement = bound.append(fragments.get(placeholders.size())).toString();
+            this.bindable = !placeholders.isEmpty();
+        }
+
+        /**
+         * Placeholders within quoted literals and bracketed names are left alone: they are part of the value or name.
+         */
+        private static Template parse(String source) {
+            final List<String> fragments = new ArrayList<String>();
+            final List<Placeholder> placeholders = new ArrayList<Placeholder>();
+            final int length = source.length();
+            int fragmentStart = 0;
+            int positional = 0;
+            int i = 0;
+            while (i < length) {
+                final char c = source.charAt(i);
+                if (c == '\'' || c == '"') {
+                    i = skipQuoted(source, i, c);
+                } else if (c == '[') {
+                    final int closing = source.indexOf(']', i);
+                    i = closing < 0 ? length : closing + 1;
+                } else if (c == '?') {
+                    fragments.add(source.substring(fragmentStart, i));
+                    placeholders.add(new Placeholder(positional++, null, "?"));
+                    fragmentStart = ++i;
+                } else if (c == ':' && i > 0 && Character.isWhitespace(source.charAt(i - 1))) {
+                    int end = i + 1;
+                    while (end < length && isParameterNameChar(source.charAt(end))) {
+                        end++;
+                    }
+                    if (end > i + 1) {
+                        fragments.add(source.substring(fragmentStart, i));
+                        placeholders.add(new Placeholder(-1, source.substring(i + 1, end), source.substring(i, end)));
+                        fragmentStart = end;
+                    }
+                    i = end;
                 } else {
-                    res = res.replaceFirst("(\\s):" + key, "$1'" + JCRContentUtils.sqlEncode(value.toString()) + "'");
+                    i++;
                 }
-            } else {
-                throw new IllegalArgumentException("Invalid parameter name '" + key + "'");
             }
+            fragments.add(source.substring(fragmentStart));
+
+            return new Template(Collections.unmodifiableList(fragments), Collections.unmodifiableList(placeholders));
+        }
+
+        private static int skipQuoted(String source, int opening, char quote) {
+            int i = opening + 1;
+            final int length = source.length();
+            while (i < length) {
+                if (source.charAt(i) == quote) {
+                    // a doubled quote is an escaped quote within the literal
+                    if (i + 1 < length && source.charAt(i + 1) == quote) {
+                        i += 2;
+                        continue;
+                    }
+                    return i + 1;
+                }
+                i++;
+            }
+            return length;
+        }
+
+        private static boolean isParameterNameChar(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+        }
+
+        private int length() {
+            int length = 0;
+            for (String fragment : fragments) {
+                length += fragment.length();
+            }
+            return length + 8 * placeholders.size();
+        }
+
+        /**
+         * Placeholders without a value are left as they are in the source.
+         */
+        private String interpolate(List<Object> positionalParams, Map<String, Object> namedParams) {
+            final StringBuilder query = new StringBuilder(length());
+            for (int i = 0; i < placeholders.size(); i++) {
+                query.append(fragments.get(i));
+                final Placeholder placeholder = placeholders.get(i);
+                final Object value = placeholder.valueFrom(positionalParams, namedParams);
+                query.append(value != null ? toLiteral(value) : placeholder.text);
+            }
+            return query.append(fragments.get(placeholders.size())).toString();
+        }
+
+        private boolean isBindable() {
+            return bindable;
+        }
+
+        private void markNotBindable() {
+            bindable = false;
+        }
+
+        private String getBoundStatement() {
+            return boundStatement;
         }
-        return res;
     }
 }
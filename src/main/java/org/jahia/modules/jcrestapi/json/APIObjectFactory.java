@@ -44,46 +44,160 @@
 package org.jahia.modules.jcrestapi.json;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
 import javax.jcr.RepositoryException;
 
-import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.RequestOptions;
 import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.jcrestapi.links.ReferenceResolver;
 import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.JSONConstants;
+import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.JSONObjectFactory;
+import org.jahia.modules.json.Names;
 
 /**
+ * Builds the representations of nodes and of their sub-elements. A factory is bound to the rendering options of the
+ * request the representations are built for, and to the resolver of its references, which the decorators it creates
+ * carry down to the representations of the sub-elements, see {@link #getInstance(RequestOptions)}.
+ *
  * @author Christophe Laprun
  */
 public class APIObjectFactory extends JSONObjectFactory<APIDecorator> {
+    // one factory per combination of the options decorators depend on, so that none is created per request
+    private static final APIObjectFactory[] INSTANCES = new APIObjectFactory[8];
+    // mix:versionable extends it, versions are only read from nodes of this type
+    private static final String MIX_SIMPLE_VERSIONABLE = "mix:simpleVersionable";
+
+    static {
+        for (int i = 0; i < INSTANCES.length; i++) {
+            INSTANCES[i] = new APIObjectFactory((i & 1) != 0, (i & 2) != 0, (i & 4) != 0);
+        }
+    }
+
+    private final boolean resolveReferences;
+    private final boolean outputLinks;
+    private final boolean includeFullChildren;
+    private final ReferenceResolver resolver;
+
+    private APIObjectFactory(boolean resolveReferences, boolean outputLinks, boolean includeFullChildren) {
+        this(resolveReferences, outputLinks, includeFullChildren, null);
+    }
+
+    private APIObjectFactory(boolean resolveReferences, boolean outputLinks, boolean includeFullChildren, ReferenceResolver resolver) {
+        this.resolveReferences = resolveReferences;
+        this.outputLinks = outputLinks;
+        this.includeFullChildren = includeFullChildren;
+        this.resolver = resolver;
+    }
+
     @Override
     public APIDecorator createDecorator() {
-        return createDecorator(API.shouldResolveReferences(), API.shouldOutputLinks());
+        return createDecorator(resolveReferences, outputLinks, includeFullChildren, resolver);
     }
 
-
-    private APIDecorator createDecorator(boolean resolveReferences, boolean outputLinks) {
+    private static APIDecorator createDecorator(boolean resolveReferences, boolean outputLinks, boolean includeFullChildren,
+                                                ReferenceResolver resolver) {
         if (outputLinks || resolveReferences) {
-            return new APIDecorator(outputLinks, resolveReferences);
+            return new APIDecorator(outputLinks, resolveReferences, includeFullChildren, resolver);
         } else {
             return null;
         }
     }
 
-    public APINode createAPINode(Node node, Filter filter, boolean includeFullChildren, boolean resolveReferences, boolean outputLinks) throws RepositoryException {
-        return new APINode(createDecorator(resolveReferences, outputLinks), node, filter, includeFullChildren ? 1 : 0);
-    }
+    /**
+     * Creates the representation of the specified node, only including the selected sub-elements, which are the only
+     * ones read from the repository, see {@link SparseNode}.
+     *
+     * @param node   the node to represent
+     * @param filter the filter to apply to the children of the node
+     * @param depth  the depth at which the node is represented
+     * @param fields the sub-elements to include or {@code null} to include them all
+     * @return the representation of the node
+     * @throws RepositoryException if the node cannot be read
+     */
+    public JSONNode<APIDecorator> createNode(Node node, Filter filter, int depth, FieldSelection fields) throws RepositoryException {
+        if (fields == null || depth <= 0) {
+            // sub-elements are only read from the repository when the node is represented with them
+            return createNode(node, filter, depth);
+        }
 
-    // Initialization on demand holder idiom: thread-safe singleton initialization
-    private static class Holder {
-        static final APIObjectFactory INSTANCE = new APIObjectFactory();
+        final SparseNode sparse = new SparseNode(createDecorator(), node, filter);
+        if (fields.includesAllProperties()) {
+            sparse.add(JSONConstants.PROPERTIES, createProperties(sparse, node));
+        } else if (fields.getPropertyNameGlobs().length > 0) {
+            final JSONSelection properties = new JSONSelection(sparse, JSONConstants.PROPERTIES);
+            final PropertyIterator selected = node.getProperties(fields.getPropertyNameGlobs());
+            while (selected.hasNext()) {
+                final Property property = selected.nextProperty();
+                properties.add(Names.escape(property.getName()), createProperty(property));
+            }
+            sparse.add(JSONConstants.PROPERTIES, properties);
+        }
+        if (fields.includesMixins()) {
+            sparse.add(JSONConstants.MIXINS, createMixins(sparse, node));
+        }
+        if (fields.includesChildren()) {
+            sparse.add(JSONConstants.CHILDREN, createChildren(sparse, node, filter, depth, fields));
+        }
+        if (fields.includesVersions() && node.isNodeType(MIX_SIMPLE_VERSIONABLE)) {
+            sparse.add(JSONConstants.VERSIONS, createVersions(sparse, node));
+        }
+        return sparse;
+    }
 
-        private Holder() {
+    /**
+     * Creates the representation of the children of the specified node, only including the selected sub-elements in
+     * the representations of the children.
+     *
+     * @param parent the representation of the node which children are represented
+     * @param node   the node which children are represented
+     * @param filter the filter to apply to the children
+     * @param depth  the depth at which the node which children are represented is, its children being one level deeper
+     * @param fields the sub-elements to include in the representations of the children
+     * @return the representation of the children
+     * @throws RepositoryException if the children cannot be read
+     */
+    public JSONSelection createChildren(JSONNode<APIDecorator> parent, Node node, Filter filter, int depth, FieldSelection fields) throws RepositoryException {
+        final JSONSelection children = new JSONSelection(parent, JSONConstants.CHILDREN);
+        final NodeIterator nodes = node.getNodes();
+        while (nodes.hasNext()) {
+            final Node child = nodes.nextNode();
+            if (filter.acceptChild(child)) {
+                children.add(Names.escape(child.getName()), createNode(child, filter, depth - 1, fields));
+            }
         }
+        return children;
     }
 
+    public APINode createAPINode(Node node, Filter filter, boolean includeFullChildren, boolean resolveReferences, boolean outputLinks) throws RepositoryException {
+        return new APINode(createDecorator(resolveReferences, outputLinks, includeFullChildren, null), node, filter, includeFullChildren ? 1 : 0);
+    }
+
+    /**
+     * @return the factory building representations with the default options: links, but neither resolved references
+     * nor full children
+     */
     public static APIObjectFactory getInstance() {
-        return Holder.INSTANCE;
+        return getInstance(false, true, false);
     }
 
+    /**
+     * @param options the rendering options of the request representations are built for
+     * @return the factory building representations according to the given options, created for the request if the
+     * options are bound to the resolver of its references
+     */
+    public static APIObjectFactory getInstance(RequestOptions options) {
+        final ReferenceResolver resolver = options.getReferenceResolver();
+        if (resolver != null) {
+            return new APIObjectFactory(options.isResolveReferences(), options.isOutputLinks(), options.isIncludeFullChildren(), resolver);
+        }
+        return getInstance(options.isResolveReferences(), options.isOutputLinks(), options.isIncludeFullChildren());
+    }
 
+    private static APIObjectFactory getInstance(boolean resolveReferences, boolean outputLinks, boolean includeFullChildren) {
+        return INSTANCES[(resolveReferences ? 1 : 0) | (outputLinks ? 2 : 0) | (includeFullChildren ? 4 : 0)];
+    }
 }
@@ -0,0 +1,197 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.Utils;
+import org.jahia.modules.json.JSONConstants;
+import org.jahia.modules.json.Names;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The sub-elements a client asked to be included in node representations, using the {@link API#FIELDS} query
+ * parameter, for example {@code fields=properties(jcr:title,j:lastPublished),children}.
+ *
+ * <p>The value is a comma-separated list of sub-element names among {@code properties}, {@code mixins},
+ * {@code children} and {@code versions}. {@code properties} can be followed by a parenthesized, comma-separated list
+ * of property names, escaped or not, possibly using the {@code *} wildcard, to only include these properties.
+ * Sub-elements which are not listed are neither included nor read from the repository, see {@link SparseNode}.</p>
+ */
+public final class FieldSelection {
+    private final boolean properties;
+    private final String[] propertyNameGlobs;
+    private final boolean mixins;
+    private final boolean children;
+    private final boolean versions;
+
+    private FieldSelection(boolean properties, String[] propertyNameGlobs, boolean mixins, boolean children, boolean versions) {
+        this.properties = properties;
+        this.propertyNameGlobs = propertyNameGlobs;
+        this.mixins = mixins;
+        this.children = children;
+        this.versions = versions;
+    }
+
+    /**
+     * Retrieves the selection requested by the {@link API#FIELDS} query parameter of the request.
+     *
+     * @param context provides the query parameters of the request
+     * @return the requested selection or {@code null} if the request doesn't restrict the sub-elements
+     * @throws IllegalArgumentException if the parameter value is not a valid selection
+     */
+    public static FieldSelection from(UriInfo context) {
+        final MultivaluedMap<String, String> queryParameters = context.getQueryParameters();
+        return queryParameters != null ? parse(queryParameters.getFirst(API.FIELDS)) : null;
+    }
+
+    /**
+     * Parses the specified selection.
+     *
+     * @param fields the selection, e.g. {@code properties(jcr:title),children}
+     * @return the parsed selection or {@code null} if no selection was given
+     * @throws IllegalArgumentException if the specified value is not a valid selection
+     */
+    public static FieldSelection parse(String fields) {
+        if (fields == null) {
+            return null;
+        }
+
+        boolean properties = false;
+        List<String> globs = null;
+        boolean mixins = false;
+        boolean children = false;
+        boolean versions = false;
+
+        final int length = fields.length();
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            while (end < length && fields.charAt(end) != ',' && fields.charAt(end) != '(') {
+                end++;
+            }
+            final String name = fields.substring(start, end).trim();
+
+            List<String> arguments = null;
+            if (end < length && fields.charAt(end) == '(') {
+                final int closing = fields.indexOf(')', end);
+                if (closing < 0) {
+                    throw new IllegalArgumentException("Missing closing parenthesis in fields '" + fields + "'");
+                }
+                arguments = new ArrayList<String>();
+                for (String argument : fields.substring(end + 1, closing).split(",")) {
+                    final String trimmed = argument.trim();
+                    if (!trimmed.isEmpty()) {
+                        arguments.add(Names.unescape(trimmed));
+                    }
+                }
+                end = closing + 1;
+                while (end < length && fields.charAt(end) != ',') {
+                    if (!Character.isWhitespace(fields.charAt(end))) {
+                        throw new IllegalArgumentException("Unexpected character after ')' in fields '" + fields + "'");
+                    }
+                    end++;
+                }
+            }
+
+            if (JSONConstants.PROPERTIES.equals(name)) {
+                if (arguments == null) {
+                    properties = true;
+                } else if (!properties) {
+                    if (globs == null) {
+                        globs = new ArrayList<String>();
+                    }
+                    globs.addAll(arguments);
+                }
+            } else if (arguments != null) {
+                throw new IllegalArgumentException("Only properties can be selected by name in fields '" + fields + "'");
+            } else if (JSONConstants.MIXINS.equals(name)) {
+                mixins = true;
+            } else if (JSONConstants.CHILDREN.equals(name)) {
+                children = true;
+            } else if (JSONConstants.VERSIONS.equals(name)) {
+                versions = true;
+            } else if (Utils.exists(name)) {
+                throw new IllegalArgumentException("Unknown field '" + name + "' in fields '" + fields + "'");
+            }
+
+            start = end + 1;
+        }
+
+        return new FieldSelection(properties, properties || globs == null ? null : globs.toArray(new String[globs.size()]),
+                mixins, children, versions);
+    }
+
+    /**
+     * @return whether all the properties are included
+     */
+    public boolean includesAllProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the name globs of the included properties, empty if none are, {@code null} if all are
+     */
+    public String[] getPropertyNameGlobs() {
+        if (properties) {
+            return null;
+        }
+        return propertyNameGlobs != null ? propertyNameGlobs.clone() : new String[0];
+    }
+
+    public boolean includesMixins() {
+        return mixins;
+    }
+
+    public boolean includesChildren() {
+        return children;
+    }
+
+    public boolean includesVersions() {
+        return versions;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
+
+/**
+ * An ordered list of operations to perform in one session, as sent to the batch endpoint.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONBatch {
+    @XmlElement
+    private List<Operation> operations;
+
+    @XmlElement
+    private int saveEvery;
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return after how many operations the session is saved, {@code 0} to only save it once all operations succeeded
+     */
+    public int getSaveEvery() {
+        return saveEvery;
+    }
+
+    /**
+     * One operation of a batch, addressing a node either by identifier or by path, along with an optional sub-element,
+     * the same way the nodes and paths endpoints do.
+     */
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class Operation {
+        @XmlElement
+        private String operation;
+
+        @XmlElement
+        private String id;
+
+        @XmlElement
+        private String path;
+
+        @XmlElement
+        private String subElementType;
+
+        @XmlElement
+        private String subElement;
+
+        @XmlElement
+        private JsonNode data;
+
+        @XmlElement
+        private String newName;
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getSubElementType() {
+            return subElementType;
+        }
+
+        public String getSubElement() {
+            return subElement;
+        }
+
+        /**
+         * @return the representation to create or update, as it would be sent to the nodes or paths endpoints
+         */
+        public JsonNode getData() {
+            return data;
+        }
+
+        /**
+         * @return the name a moved node takes, resolved relative to its parent
+         */
+        public String getNewName() {
+            return newName;
+        }
+    }
+}
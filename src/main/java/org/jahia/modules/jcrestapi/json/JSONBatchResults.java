@@ -0,0 +1,119 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of a batch: the result of each operation performed, in order, and how many of them were saved. The
+ * operations following a failed one are not performed, so they have no result.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONBatchResults {
+    @XmlElement
+    private final List<Result> results = new ArrayList<Result>();
+
+    @XmlElement
+    private int saved;
+
+    public void add(Result result) {
+        results.add(result);
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Records that all the operations performed so far were saved.
+     */
+    public void markSaved() {
+        saved = results.size();
+    }
+
+    public int getSaved() {
+        return saved;
+    }
+
+    /**
+     * The result of one operation: the status and entity of the response the operation would have had, had it been
+     * sent on its own.
+     */
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class Result {
+        @XmlElement
+        private final int status;
+
+        @XmlElement
+        private final String location;
+
+        @XmlElement
+        private final Object entity;
+
+        public Result(int status, String location, Object entity) {
+            this.status = status;
+            this.location = location;
+            this.entity = entity;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public Object getEntity() {
+            return entity;
+        }
+    }
+}
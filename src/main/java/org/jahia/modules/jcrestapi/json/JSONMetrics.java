@@ -0,0 +1,146 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.APIMetrics;
+import org.jahia.modules.jcrestapi.LatencyHistogram;
+import org.jahia.modules.jcrestapi.PermissionDecisionCache;
+import org.jahia.modules.jcrestapi.QueryResultCache;
+import org.jahia.modules.jcrestapi.ResourceExecutors;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A snapshot of the {@link APIMetrics}, along with the counters of the caches the API maintains and of the executors
+ * running its resources. Latencies are in microseconds.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONMetrics {
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class JSONEndpoint {
+        @XmlElement
+        private final long count;
+        @XmlElement
+        private final int inFlight;
+        @XmlElement
+        private final Map<Integer, Long> statuses;
+        @XmlElement
+        private final Map<String, Number> latency = new LinkedHashMap<String, Number>();
+
+        public JSONEndpoint(APIMetrics.Endpoint endpoint) {
+            final LatencyHistogram latencies = endpoint.getLatencies();
+            count = latencies.getCount();
+            inFlight = endpoint.getInFlight();
+            statuses = endpoint.getStatuses();
+            latency.put("mean", Math.round(latencies.getMean()));
+            latency.put("p50", latencies.getPercentile(50));
+            latency.put("p90", latencies.getPercentile(90));
+            latency.put("p99", latencies.getPercentile(99));
+            latency.put("p999", latencies.getPercentile(99.9));
+            latency.put("max", latencies.getMax());
+        }
+    }
+
+    @XmlElement
+    private final long since;
+    @XmlElement
+    private final JSONEndpoint all;
+    @XmlElement
+    private final Map<String, JSONEndpoint> operations = new LinkedHashMap<String, JSONEndpoint>();
+    @XmlElement
+    private final Map<String, JSONEndpoint> endpoints = new LinkedHashMap<String, JSONEndpoint>();
+    @XmlElement
+    private final Map<String, Map<String, Number>> caches = new LinkedHashMap<String, Map<String, Number>>();
+    @XmlElement
+    private final Map<String, Map<String, Number>> executors = new LinkedHashMap<String, Map<String, Number>>();
+
+    public JSONMetrics(APIMetrics metrics) {
+        since = metrics.getSince();
+        all = new JSONEndpoint(metrics.getAll());
+        for (Map.Entry<String, APIMetrics.Endpoint> entry : metrics.getOperations().entrySet()) {
+            operations.put(entry.getKey(), new JSONEndpoint(entry.getValue()));
+        }
+        for (Map.Entry<String, APIMetrics.Endpoint> entry : metrics.getEndpoints().entrySet()) {
+            endpoints.put(entry.getKey(), new JSONEndpoint(entry.getValue()));
+        }
+
+        final QueryResultCache queryResults = QueryResultCache.getInstance();
+        final Map<String, Number> queryResultsCounters = new LinkedHashMap<String, Number>();
+        queryResultsCounters.put("size", queryResults.getSize());
+        queryResultsCounters.put("hits", queryResults.getHits());
+        queryResultsCounters.put("misses", queryResults.getMisses());
+        queryResultsCounters.put("evictions", queryResults.getEvictions());
+        queryResultsCounters.put("invalidations", queryResults.getInvalidations());
+        caches.put("queryResults", queryResultsCounters);
+
+        final PermissionDecisionCache permissionDecisions = PermissionDecisionCache.getInstance();
+        final Map<String, Number> permissionDecisionsCounters = new LinkedHashMap<String, Number>();
+        permissionDecisionsCounters.put("size", permissionDecisions.getSize());
+        permissionDecisionsCounters.put("decisions", permissionDecisions.getDecisions());
+        permissionDecisionsCounters.put("requestHits", permissionDecisions.getRequestHits());
+        permissionDecisionsCounters.put("sharedHits", permissionDecisions.getSharedHits());
+        permissionDecisionsCounters.put("evictions", permissionDecisions.getEvictions());
+        permissionDecisionsCounters.put("invalidations", permissionDecisions.getInvalidations());
+        caches.put("permissionDecisions", permissionDecisionsCounters);
+
+        final ResourceExecutors resourceExecutors = ResourceExecutors.getInstance();
+        for (ResourceExecutors.Pool pool : ResourceExecutors.Pool.values()) {
+            final Map<String, Number> executorCounters = new LinkedHashMap<String, Number>();
+            executorCounters.put("active", resourceExecutors.getActive(pool));
+            executorCounters.put("queued", resourceExecutors.getQueued(pool));
+            executorCounters.put("completed", resourceExecutors.getCompleted(pool));
+            executorCounters.put("rejected", resourceExecutors.getRejected(pool));
+            executorCounters.put("timedOut", resourceExecutors.getTimedOut(pool));
+            executors.put(pool.getName(), executorCounters);
+        }
+    }
+}
@@ -72,6 +72,12 @@ public class JSONQuery {
     @XmlElement
     private Map<String,Object> namedParameters;
 
+    @XmlElement
+    private String cursor;
+
+    @XmlElement
+    private boolean countOnly;
+
 
     public String getQuery() {
         return query;
@@ -96,4 +102,12 @@ public class JSONQuery {
     public Map<String,Object> getNamedParameters() {
         return namedParameters;
     }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public boolean isCountOnly() {
+        return countOnly;
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.SlowQueryLog;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The most costly query fingerprints the {@link SlowQueryLog} kept statistics for, the most costly first. Times are
+ * in milliseconds.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONQueryStatistics {
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.NONE)
+    public static class JSONFingerprint {
+        @XmlElement
+        private final String fingerprint;
+        @XmlElement
+        private final String preparedQuery;
+        @XmlElement
+        private final long count;
+        @XmlElement
+        private final long slow;
+        @XmlElement
+        private final long total;
+        @XmlElement
+        private final long mean;
+        @XmlElement
+        private final long max;
+
+        public JSONFingerprint(SlowQueryLog.Statistics statistics) {
+            fingerprint = statistics.getFingerprint();
+            preparedQuery = statistics.getPreparedQueryName();
+            count = statistics.getCount();
+            slow = statistics.getSlow();
+            total = TimeUnit.NANOSECONDS.toMillis(statistics.getTotalNanos());
+            mean = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(statistics.getTotalNanos() / count);
+            max = TimeUnit.NANOSECONDS.toMillis(statistics.getMaxNanos());
+        }
+    }
+
+    @XmlElement
+    private final long threshold;
+    @XmlElement
+    private final List<JSONFingerprint> queries = new ArrayList<JSONFingerprint>();
+
+    public JSONQueryStatistics(SlowQueryLog log) {
+        threshold = log.getThreshold();
+        for (SlowQueryLog.Statistics statistics : log.getTopStatistics()) {
+            queries.add(new JSONFingerprint(statistics));
+        }
+    }
+}
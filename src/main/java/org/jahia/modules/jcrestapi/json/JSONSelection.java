@@ -0,0 +1,103 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.jcrestapi.links.JSONLink;
+import org.jahia.modules.json.JSONItem;
+import org.jahia.modules.json.JSONNode;
+
+import javax.jcr.Item;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A sub-element container holding only some of the sub-elements of a node, as selected by a {@link FieldSelection}:
+ * the properties matching the selected names, or the children of a node represented with the selection. It is
+ * represented as the containers of the JSON library are, each element keyed by its escaped name, along with the
+ * links of the container.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public final class JSONSelection {
+    private final Map<String, Object> elements = new LinkedHashMap<String, Object>();
+    private final APIDecorator decorator;
+
+    JSONSelection(JSONNode<APIDecorator> parent, String name) {
+        final APIDecorator parentDecorator = parent.getDecorator();
+        decorator = parentDecorator != null ? parentDecorator.newInstance() : null;
+        if (decorator != null) {
+            decorator.initFrom(parentDecorator, name);
+        }
+    }
+
+    void add(String escapedName, Object element) {
+        elements.put(escapedName, element);
+    }
+
+    @JsonAnyGetter
+    public Map<String, Object> getElements() {
+        return Collections.unmodifiableMap(elements);
+    }
+
+    @XmlElement(name = "_links")
+    public Map<String, JSONLink> getLinks() {
+        return decorator != null ? decorator.getLinks() : null;
+    }
+
+    @XmlElement(name = "_embedded")
+    public Map<String, ? extends JSONItem<? extends Item, APIDecorator>> getEmbedded() {
+        return decorator != null ? decorator.getEmbedded() : null;
+    }
+
+    public APIDecorator getDecorator() {
+        return decorator;
+    }
+}
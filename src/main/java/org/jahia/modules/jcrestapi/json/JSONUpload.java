@@ -0,0 +1,122 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.jahia.modules.jcrestapi.ResumableUploads;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * An upload sent in several chunks: the file a client announces when starting it, and how much of that file the server
+ * received so far.
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+public class JSONUpload {
+    @XmlElement
+    private String id;
+
+    @XmlElement
+    private String path;
+
+    @XmlElement
+    private String fileName;
+
+    @XmlElement
+    private String mimeType;
+
+    @XmlElement
+    private Long size;
+
+    @XmlElement
+    private Long offset;
+
+    public JSONUpload() {
+    }
+
+    public JSONUpload(ResumableUploads.Upload upload) {
+        this.id = upload.getId();
+        this.path = upload.getFolderPath();
+        this.fileName = upload.getFileName();
+        this.mimeType = upload.getMimeType();
+        this.size = upload.getSize() >= 0 ? upload.getSize() : null;
+        this.offset = upload.getLength();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the path of the folder the file is uploaded to
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * @return the size the file will have once complete, {@code null} if the client does not know it
+     */
+    public Long getSize() {
+        return size;
+    }
+
+    /**
+     * @return how many bytes of the file the server received so far
+     */
+    public Long getOffset() {
+        return offset;
+    }
+}
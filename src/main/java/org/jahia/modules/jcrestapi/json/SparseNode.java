@@ -0,0 +1,102 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import org.jahia.modules.jcrestapi.links.APIDecorator;
+import org.jahia.modules.json.Filter;
+import org.jahia.modules.json.JSONSubElementContainer;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The representation of a node only including the sub-elements a {@link FieldSelection} selects, which are the only
+ * ones read from the repository.
+ *
+ * <p>The node itself is represented as it is at depth {@code 0}, which doesn't read any of its sub-elements, then
+ * {@link APIObjectFactory} creates each selected sub-element container and adds it to the representation. Properties
+ * selected by name, as well as children, which are represented with the same selection, are held by a
+ * {@link JSONSelection}.</p>
+ */
+@XmlRootElement
+@XmlAccessorType(XmlAccessType.NONE)
+final class SparseNode extends APINode {
+    private final Map<String, Object> selected = new LinkedHashMap<String, Object>(7);
+
+    SparseNode(APIDecorator decorator, Node node, Filter filter) throws RepositoryException {
+        super(decorator, node, filter, 0);
+    }
+
+    void add(String name, JSONSubElementContainer<APIDecorator> container) {
+        selected.put(name, container);
+        linkTo(container.getDecorator(), name);
+    }
+
+    void add(String name, JSONSelection selection) {
+        selected.put(name, selection);
+        linkTo(selection.getDecorator(), name);
+    }
+
+    private void linkTo(APIDecorator container, String name) {
+        final APIDecorator decorator = getDecorator();
+        if (decorator != null) {
+            decorator.addSubElementLink(container, name);
+        }
+    }
+
+    /**
+     * @return the selected sub-element containers, keyed by their name, e.g. {@code properties}
+     */
+    @JsonAnyGetter
+    public Map<String, Object> getSelected() {
+        return Collections.unmodifiableMap(selected);
+    }
+}
@@ -44,6 +44,7 @@
 package org.jahia.modules.jcrestapi.links;
 
 import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.PropertyDefinitionIndex;
 import org.jahia.modules.jcrestapi.SpringBeansAccess;
 import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.json.APIObjectFactory;
@@ -52,7 +53,6 @@ import org.jahia.modules.json.jcr.SessionAccess;
 
 import javax.jcr.*;
 import javax.jcr.nodetype.NodeType;
-import javax.jcr.nodetype.PropertyDefinition;
 import javax.jcr.version.Version;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -71,19 +71,47 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
 
     public static final String JCR_PROPERTY_DEFINITION = "jcr__propertyDefinition";
 
-    private Map<String, JSONLink> links;
+    private LinkMap links;
     private Map<String, JSONItem<? extends Item, APIDecorator>> references;
+    private Map<String, ? extends JSONItem<? extends Item, APIDecorator>> embedded;
 
     private final boolean resolveReferences;
     private final boolean outputLinks;
+    private final boolean includeFullChildren;
+    private final ReferenceResolver resolver;
 
+    /**
+     * Creates a decorator with the default options: links, but neither resolved references nor full children.
+     */
     public APIDecorator() {
-        this(API.shouldOutputLinks(), API.shouldResolveReferences());
+        this(true, false, false);
     }
 
     public APIDecorator(boolean outputLinks, boolean resolveReferences) {
+        this(outputLinks, resolveReferences, false);
+    }
+
+    /**
+     * @param outputLinks         whether the decorated representation carries links
+     * @param resolveReferences   whether the nodes referenced by the decorated properties are resolved
+     * @param includeFullChildren whether the representations of these nodes include their full children
+     */
+    public APIDecorator(boolean outputLinks, boolean resolveReferences, boolean includeFullChildren) {
+        this(outputLinks, resolveReferences, includeFullChildren, null);
+    }
+
+    /**
+     * @param outputLinks         whether the decorated representation carries links
+     * @param resolveReferences   whether the nodes referenced by the decorated properties are resolved
+     * @param includeFullChildren whether the representations of these nodes include their full children
+     * @param resolver            the resolver of the references of the request the representation is built for,
+     *                            {@code null} to resolve each reference on its own
+     */
+    public APIDecorator(boolean outputLinks, boolean resolveReferences, boolean includeFullChildren, ReferenceResolver resolver) {
         this.outputLinks = outputLinks;
         this.resolveReferences = resolveReferences;
+        this.includeFullChildren = includeFullChildren;
+        this.resolver = resolver;
     }
 
     public APIDecorator(String uri) {
@@ -97,9 +125,22 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
         return references != null ? Collections.unmodifiableMap(references) : null;
     }
 
-    private Map<String, JSONLink> getLinks(boolean createIfNeeded) {
+    /**
+     * The nodes referenced from anywhere in the response, when references are embedded, see {@link ReferenceResolver}.
+     * Only set on the decorator of the outermost element of the response.
+     */
+    @XmlElement(name = "_embedded")
+    public Map<String, ? extends JSONItem<? extends Item, APIDecorator>> getEmbedded() {
+        return embedded != null ? Collections.unmodifiableMap(embedded) : null;
+    }
+
+    public void setEmbedded(Map<String, ? extends JSONItem<? extends Item, APIDecorator>> embedded) {
+        this.embedded = embedded;
+    }
+
+    private LinkMap getLinks(boolean createIfNeeded) {
         if (links == null && createIfNeeded) {
-            links = new HashMap<String, JSONLink>(7);
+            links = new LinkMap();
         }
 
         return links;
@@ -111,12 +152,16 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
     }
 
     private void initWith(String uri) {
-        addLink(JSONLink.createLink(API.ABSOLUTE, URIUtils.getAbsoluteURI(uri)));
-        addLink(JSONLink.createLink(API.SELF, uri));
+        initWith(JSONLink.createLink(API.SELF, uri));
+    }
+
+    private void initWith(JSONLink self) {
+        addLink(JSONLink.createAbsoluteLink(API.ABSOLUTE, self));
+        addLink(self);
     }
 
     public void addLink(JSONLink link) {
-        getLinks(true).put(link.getRel(), link);
+        getLinks(true).add(link);
     }
 
     protected JSONLink getLink(String relation) {
@@ -125,32 +170,63 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
 
     @XmlElement(name = "_links")
     public Map<String, JSONLink> getLinks() {
-        return outputLinks ? Collections.unmodifiableMap(getLinks(false)) : null;
+        return outputLinks && links != null ? Collections.unmodifiableMap(links) : null;
     }
 
     public void initFrom(JSONSubElementContainer<APIDecorator> container) {
         if (outputLinks) {
-            final String uri = container.getParent().getDecorator().getURI();
-            initWith(URIUtils.getChildURI(uri, container.getSubElementContainerName(), false));
-            addLink(JSONLink.createLink(API.PARENT, uri));
+            initFrom(container.getParent().getDecorator(), container.getSubElementContainerName());
+        }
+    }
+
+    /**
+     * Initializes the links of a sub-element container which is not built by the JSON library, such as the selected
+     * properties of a node, see {@link org.jahia.modules.jcrestapi.json.JSONSelection}.
+     *
+     * @param parent        the decorator of the node the container belongs to
+     * @param containerName the name of the container, e.g. {@code properties}
+     */
+    public void initFrom(APIDecorator parent, String containerName) {
+        if (outputLinks) {
+            final JSONLink parentSelf = parent.getLink(API.SELF);
+            initWith(JSONLink.createChildLink(API.SELF, parentSelf, containerName));
+            addLink(JSONLink.createAlias(API.PARENT, parentSelf));
         }
     }
 
     public <T extends Item> void initFrom(JSONItem<T, APIDecorator> jsonItem, T item) throws RepositoryException {
         if (outputLinks) {
-            initWith(URIUtils.getURIFor(item));
-            addLink(JSONLink.createLink(API.TYPE, URIUtils.getTypeURI(getTypeChildPath(jsonItem, item))));
-
-            Node parent;
-            try {
-                parent = item.getParent();
-            } catch (ItemNotFoundException e) {
-                // expected when the item is root node, specify that parent is itself
-                parent = (Node) item;
+            // links only capture what they need here, URIs are built if and when the links are written
+            final SessionAccess.SessionInfo currentSession = SessionAccess.getCurrentSession();
+            final String workspace = currentSession.workspace;
+            final String language = currentSession.language;
+
+            final String parentId;
+            if (item instanceof Node) {
+                final Node node = (Node) item;
+                final String id = node.getIdentifier();
+                initWith(JSONLink.createLink(API.SELF, LinkTemplate.NODE, workspace, language, id));
+                addLink(JSONLink.createLink(API.PATH, LinkTemplate.NODE_BY_PATH, workspace, language, node.getPath()));
+
+                String nodeParentId;
+                try {
+                    nodeParentId = node.getParent().getIdentifier();
+                } catch (ItemNotFoundException e) {
+                    // expected when the item is root node, specify that parent is itself
+                    nodeParentId = id;
+                }
+                parentId = nodeParentId;
+            } else {
+                // a property's links all derive from its node, only retrieve it once
+                final Node parent = item.getParent();
+                parentId = parent.getIdentifier();
+                final String name = item.getName();
+                initWith(JSONLink.createLink(API.SELF, LinkTemplate.PROPERTY, workspace, language, parentId, name));
+                addLink(JSONLink.createLink(API.PATH, LinkTemplate.PROPERTY_BY_PATH, workspace, language, parent.getPath(), name));
             }
-            addLink(JSONLink.createLink(API.PARENT, URIUtils.getIdURI(parent.getIdentifier())));
 
-            addLink(JSONLink.createLink(API.PATH, URIUtils.getURIFor(item, true)));
+            addLink(JSONLink.createLink(API.TYPE, LinkTemplate.TYPE, workspace, language, getTypeChildPath(jsonItem, item)));
+            addLink(JSONLink.createLink(API.PARENT, LinkTemplate.NODE, workspace, language, parentId));
         }
     }
 
@@ -164,23 +240,13 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
             // get its name and escape it
             final String parentName = Names.escape(declaringNodeType.getName());
 
-            // get its property definitions
-            final PropertyDefinition[] parentPropDefs = declaringNodeType.getDeclaredPropertyDefinitions();
-            final int numberOfPropertyDefinitions = parentPropDefs.length;
-
             // if we only have one property definition, we're done
-            if (numberOfPropertyDefinitions == 1) {
+            final PropertyDefinitionIndex definitions = PropertyDefinitionIndex.getInstance();
+            if (definitions.getDeclaredCount(declaringNodeType) == 1) {
                 return URIUtils.getChildURI(parentName, JCR_PROPERTY_DEFINITION, false);
             } else {
-                // we need to figure out which property definition matches ours in the array
-                int index = 1; // JCR indexes start at 1
-                for (int i = 0; i < numberOfPropertyDefinitions; i++) {
-                    PropertyDefinition propDef = parentPropDefs[i];
-                    if (propDef.getName().equals(item.getName())) {
-                        index = i + 1; // adjust for start at 1 in JCR
-                        break;
-                    }
-                }
+                // figure out which property definition matches ours
+                final int index = definitions.getDeclaredPosition(declaringNodeType, item.getName());
                 // create the indexed escaped link, if index = 1, no need for an index
                 return URIUtils.getChildURI(parentName, Names.escape(JCR_PROPERTY_DEFINITION, index), false);
             }
@@ -197,15 +263,28 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
     }
 
     private void createAndAddLinkIfNeeded(JSONSubElementContainer<APIDecorator> container, String rel) {
-        final String uri = container != null ? container.getDecorator().getURI() : null;
-        if (uri != null) {
-            addLink(JSONLink.createLink(rel, uri));
+        if (container != null) {
+            addSubElementLink(container.getDecorator(), rel);
+        }
+    }
+
+    /**
+     * Links the decorated node to one of its sub-element containers, for containers added to its representation once
+     * it is built.
+     *
+     * @param container the decorator of the container, possibly {@code null}
+     * @param rel       the relation of the link, i.e. the name of the container
+     */
+    public void addSubElementLink(APIDecorator container, String rel) {
+        final JSONLink self = outputLinks && container != null ? container.getLink(API.SELF) : null;
+        if (self != null) {
+            addLink(JSONLink.createAlias(rel, self));
         }
     }
 
     @Override
     public APIDecorator newInstance() {
-        return new APIDecorator(outputLinks, resolveReferences);
+        return new APIDecorator(outputLinks, resolveReferences, includeFullChildren, resolver);
     }
 
     public void initFrom(JSONProperty jsonProperty) throws RepositoryException {
@@ -226,7 +305,7 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
                             if (outputLinks) {
                                 links[i] = getTargetLink(val, jsonProperty.isPath());
                             }
-                            addReferencesIfNeeded(val);
+                            addReferencesIfNeeded(val, jsonProperty.isPath());
                         }
 
                         if (outputLinks) {
@@ -238,15 +317,32 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
                     if (outputLinks) {
                         addLink(JSONLink.createLink(API.TARGET, getTargetLink(value, jsonProperty.isPath())));
                     }
-                    addReferencesIfNeeded(value);
+                    addReferencesIfNeeded(value, jsonProperty.isPath());
                 }
 
             }
         }
     }
 
-    private void addReferencesIfNeeded(String value) throws RepositoryException {
+    private void addReferencesIfNeeded(String value, boolean path) throws RepositoryException {
         if (resolveReferences) {
+            if (resolver != null) {
+                if (resolver.isEmbedded()) {
+                    // resolved once the whole response is built
+                    resolver.register(value);
+                } else {
+                    final ReferenceResolver.Resolved resolved = resolver.resolve(value, path);
+                    if (resolved != null) {
+                        if (references == null) {
+                            references = new HashMap<String, JSONItem<? extends Item, APIDecorator>>(7);
+                        }
+                        references.put(resolved.identifier, resolved.node);
+                    }
+                }
+                return;
+            }
+
+            // no resolver when representations are built outside of a request
             final Session session = SessionAccess.getCurrentSession().session;
             final Node node = session.getNodeByIdentifier(value);
             if (!SpringBeansAccess.getInstance().hasPermission("jcrestapi.references",node)) {
@@ -257,7 +353,7 @@ public class APIDecorator implements JSONDecorator<APIDecorator> {
                 references = new HashMap<String, JSONItem<? extends Item, APIDecorator>>(7);
             }
 
-            references.put(node.getIdentifier(), APIObjectFactory.getInstance().createAPINode(node, Filter.OUTPUT_ALL, API.shouldIncludeFullChildren(), false, outputLinks));
+            references.put(node.getIdentifier(), APIObjectFactory.getInstance().createAPINode(node, Filter.OUTPUT_ALL, includeFullChildren, false, outputLinks));
         }
     }
 
@@ -44,11 +44,13 @@
 package org.jahia.modules.jcrestapi.links;
 
 import java.util.Arrays;
+import java.util.Objects;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.jahia.modules.jcrestapi.URIUtils;
 import org.jahia.modules.jcrestapi.Utils;
 
 /**
@@ -93,6 +95,35 @@ public abstract class JSONLink {
 
     }
 
+    /**
+     * Creates a link which URI is only expanded from the specified template and arguments when first needed, usually
+     * while the link is being written.
+     */
+    static JSONLink createLink(String rel, LinkTemplate template, String... arguments) {
+        return new TemplatedJSONLink(rel, template, arguments);
+    }
+
+    /**
+     * Creates a link to the specified child of the resource the specified link points to.
+     */
+    static JSONLink createChildLink(String rel, JSONLink parent, String childName) {
+        return new ChildJSONLink(rel, parent, childName);
+    }
+
+    /**
+     * Creates a link with the specified relation to the same URI as the specified link.
+     */
+    static JSONLink createAlias(String rel, JSONLink link) {
+        return new ChildJSONLink(rel, link, null);
+    }
+
+    /**
+     * Creates a link which URI is the absolute version of the URI of the specified link.
+     */
+    static JSONLink createAbsoluteLink(String rel, JSONLink relative) {
+        return new AbsoluteJSONLink(rel, relative);
+    }
+
     String getRel() {
         return rel;
     }
@@ -108,18 +139,19 @@ public abstract class JSONLink {
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        // lazy and eager links to the same URI are equal
+        if (!(o instanceof JSONLink)) return false;
 
         JSONLink jsonLink = (JSONLink) o;
 
-        return rel.equals(jsonLink.rel) && getURI().equals(jsonLink.getURI());
+        return rel.equals(jsonLink.rel) && Objects.deepEquals(getURI(), jsonLink.getURI());
 
     }
 
     @Override
     public int hashCode() {
         int result = rel.hashCode();
-        result = 31 * result + getURI().hashCode();
+        result = 31 * result + Arrays.deepHashCode(new Object[]{getURI()});
         return result;
     }
 
@@ -151,6 +183,77 @@ public abstract class JSONLink {
         }
     }
 
+    private abstract static class LazyJSONLink extends JSONLink {
+        private String link;
+
+        private LazyJSONLink(String rel) {
+            super(rel);
+        }
+
+        @Override
+        @XmlElement(name = "href")
+        public Object getURI() {
+            return getURIAsString();
+        }
+
+        @Override
+        public String getURIAsString() {
+            if (link == null) {
+                link = expand();
+            }
+            return link;
+        }
+
+        protected abstract String expand();
+    }
+
+    private static class TemplatedJSONLink extends LazyJSONLink {
+        private final LinkTemplate template;
+        private final String[] arguments;
+
+        private TemplatedJSONLink(String rel, LinkTemplate template, String[] arguments) {
+            super(rel);
+            this.template = template;
+            this.arguments = arguments;
+        }
+
+        @Override
+        protected String expand() {
+            return template.expand(arguments);
+        }
+    }
+
+    private static class ChildJSONLink extends LazyJSONLink {
+        private final JSONLink parent;
+        private final String childName;
+
+        private ChildJSONLink(String rel, JSONLink parent, String childName) {
+            super(rel);
+            this.parent = parent;
+            this.childName = childName;
+        }
+
+        @Override
+        protected String expand() {
+            final String parentURI = parent.getURIAsString();
+            return childName != null ? URIUtils.getChildURI(parentURI, childName, false) : parentURI;
+        }
+    }
+
+    private static class AbsoluteJSONLink extends LazyJSONLink {
+        private final JSONLink relative;
+
+        private AbsoluteJSONLink(String rel, JSONLink relative) {
+            super(rel);
+            this.relative = relative;
+        }
+
+        @Override
+        protected String expand() {
+            return URIUtils.getAbsoluteURI(relative.getURIAsString());
+        }
+    }
+
     private static class MultipleJSONLink extends JSONLink {
         private final String[] links;
 
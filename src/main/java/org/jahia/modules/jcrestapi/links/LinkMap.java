@@ -0,0 +1,139 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The links of an element, keyed by relation. Elements only carry a handful of links, so they are kept in an array,
+ * in insertion order, which is looked up linearly: this is cheaper to build than a hash map for every element.
+ */
+final class LinkMap extends AbstractMap<String, JSONLink> {
+    // self, absolute, type, parent and path for all items
+    private static final int DEFAULT_CAPACITY = 5;
+
+    private JSONLink[] links = new JSONLink[DEFAULT_CAPACITY];
+    private int size;
+
+    private int indexOf(Object relation) {
+        for (int i = 0; i < size; i++) {
+            if (links[i].getRel().equals(relation)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adds the specified link, replacing any link with the same relation.
+     */
+    void add(JSONLink link) {
+        final int index = indexOf(link.getRel());
+        if (index >= 0) {
+            links[index] = link;
+        } else {
+            if (size == links.length) {
+                links = Arrays.copyOf(links, size * 2);
+            }
+            links[size++] = link;
+        }
+    }
+
+    @Override
+    public JSONLink get(Object relation) {
+        final int index = indexOf(relation);
+        return index >= 0 ? links[index] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object relation) {
+        return indexOf(relation) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, JSONLink>> entrySet() {
+        return new AbstractSet<Entry<String, JSONLink>>() {
+            @Override
+            public Iterator<Entry<String, JSONLink>> iterator() {
+                return new Iterator<Entry<String, JSONLink>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, JSONLink> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        final JSONLink link = links[next++];
+                        return new SimpleImmutableEntry<String, JSONLink>(link.getRel(), link);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import org.jahia.modules.jcrestapi.URIUtils;
+import org.jahia.modules.json.JSONConstants;
+
+/**
+ * The shapes of the URIs found in links, expanded from the arguments captured when the link was created. Each template
+ * expects the workspace and language as its first two arguments.
+ */
+enum LinkTemplate {
+    /**
+     * A node by identifier, expects the node identifier.
+     */
+    NODE {
+        @Override
+        String expand(String[] arguments) {
+            return URIUtils.getIdURI(arguments[0], arguments[1], arguments[2]);
+        }
+    },
+    /**
+     * A node by path, expects the node path.
+     */
+    NODE_BY_PATH {
+        @Override
+        String expand(String[] arguments) {
+            return URIUtils.getByPathURI(arguments[0], arguments[1], arguments[2], true);
+        }
+    },
+    /**
+     * A property accessed through its node identifier, expects the node identifier and the property name.
+     */
+    PROPERTY {
+        @Override
+        String expand(String[] arguments) {
+            return getPropertyURI(NODE.expand(arguments), arguments[3]);
+        }
+    },
+    /**
+     * A property accessed through its node path, expects the node path and the property name.
+     */
+    PROPERTY_BY_PATH {
+        @Override
+        String expand(String[] arguments) {
+            return getPropertyURI(NODE_BY_PATH.expand(arguments), arguments[3]);
+        }
+    },
+    /**
+     * A node type or property definition, expects its escaped path below the node types node.
+     */
+    TYPE {
+        @Override
+        String expand(String[] arguments) {
+            return URIUtils.getTypeURI(arguments[0], arguments[1], arguments[2]);
+        }
+    };
+
+    abstract String expand(String[] arguments);
+
+    private static String getPropertyURI(String nodeURI, String propertyName) {
+        return URIUtils.getChildURI(URIUtils.getChildURI(nodeURI, JSONConstants.PROPERTIES, false), propertyName, true);
+    }
+}
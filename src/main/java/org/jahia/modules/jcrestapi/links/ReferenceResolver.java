@@ -0,0 +1,243 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.links;
+
+import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.RequestOptions;
+import org.jahia.modules.jcrestapi.RequestTimings;
+import org.jahia.modules.jcrestapi.SpringBeansAccess;
+import org.jahia.modules.jcrestapi.json.APINode;
+import org.jahia.modules.jcrestapi.json.APIObjectFactory;
+import org.jahia.modules.json.Filter;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Resolves the nodes referenced by the properties of the nodes output in a response, each node only once per response
+ * however many properties reference it.
+ *
+ * <p>By default, the representation of a referenced node is still output in the {@code references} section of each
+ * property referencing it, but it is only looked up and built once. When references are requested to be
+ * {@link API#EMBEDDED_REFERENCES embedded}, properties only record the values they reference while the response is
+ * built. The distinct values are then resolved once the whole response is built, see {@link #resolvePending()}, and
+ * each resolved node is output once in the {@code _embedded} section of the response, where properties point to using
+ * their value. Identifiers are then looked up by batches of {@link #BATCH_SIZE}, using one query per batch, instead of
+ * one lookup per node.</p>
+ *
+ * <p>An instance is created for a request and carried by its options, see
+ * {@link RequestOptions#withReferenceResolver(ReferenceResolver)}, down to the decorators of the representations. It
+ * is not thread-safe: only one thread at a time builds or writes a response.</p>
+ */
+public class ReferenceResolver {
+    /**
+     * The maximum number of identifiers looked up by a single query, keeping statements to a reasonable size.
+     */
+    static final int BATCH_SIZE = 100;
+
+    private final Session session;
+    private final boolean embedded;
+    private final boolean includeFullChildren;
+    private final boolean outputLinks;
+
+    private final Map<String, Resolved> resolved = new HashMap<String, Resolved>();
+    private final Set<String> pending = new LinkedHashSet<String>();
+
+    public ReferenceResolver(Session session, boolean embedded, boolean includeFullChildren, boolean outputLinks) {
+        this.session = session;
+        this.embedded = embedded;
+        this.includeFullChildren = includeFullChildren;
+        this.outputLinks = outputLinks;
+    }
+
+    /**
+     * Creates the resolver for a request, if it asks for references to be resolved.
+     *
+     * @param session the session of the request
+     * @param options the options of the request
+     * @return the resolver or {@code null} if references are not resolved
+     */
+    public static ReferenceResolver from(Session session, RequestOptions options) {
+        if (!options.isResolveReferences()) {
+            return null;
+        }
+
+        return new ReferenceResolver(session, options.isEmbeddedReferences(), options.isIncludeFullChildren(), options.isOutputLinks());
+    }
+
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * Records that the specified value is referenced, so that the referenced node is resolved by
+     * {@link #resolvePending()}.
+     *
+     * @param value the value of the reference, an identifier or a path
+     */
+    void register(String value) {
+        if (!resolved.containsKey(value)) {
+            pending.add(value);
+        }
+    }
+
+    /**
+     * Retrieves the representation of the node referenced by the specified value, resolving it if it hasn't been
+     * already.
+     *
+     * @param value the value of the reference, an identifier or a path
+     * @param path  whether the value is a path
+     * @return the resolved node or {@code null} if the node cannot be accessed
+     * @throws RepositoryException if the node cannot be resolved
+     */
+    Resolved resolve(String value, boolean path) throws RepositoryException {
+        Resolved result = resolved.get(value);
+        if (result == null && !resolved.containsKey(value)) {
+            final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.REFERENCES);
+            try {
+                final Node node = path ? session.getNode(value) : session.getNodeByIdentifier(value);
+                result = SpringBeansAccess.getInstance().hasPermission("jcrestapi.references", node) ? new Resolved(node.getIdentifier(), createRepresentation(node)) : null;
+            } finally {
+                RequestTimings.end(previous);
+            }
+            resolved.put(value, result);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves all the values recorded using {@link #register(String)}, each only once. Values referencing
+     * nodes which don't exist anymore or cannot be accessed are left out.
+     *
+     * @return the resolved nodes, by identifier, in the order they were first referenced
+     * @throws RepositoryException if a node cannot be resolved
+     */
+    public Map<String, APINode> resolvePending() throws RepositoryException {
+        final List<String> identifiers = new ArrayList<String>(pending.size());
+        for (String value : pending) {
+            // identifiers never start with a slash, paths always do
+            if (!value.startsWith("/") && !resolved.containsKey(value)) {
+                identifiers.add(value);
+            }
+        }
+        for (int start = 0; start < identifiers.size(); start += BATCH_SIZE) {
+            resolveBatch(identifiers.subList(start, Math.min(start + BATCH_SIZE, identifiers.size())));
+        }
+
+        final Map<String, APINode> result = new LinkedHashMap<String, APINode>();
+        for (String value : pending) {
+            Resolved resolvedValue;
+            try {
+                // paths, and identifiers the batches didn't find, are looked up one by one
+                resolvedValue = resolve(value, value.startsWith("/"));
+            } catch (ItemNotFoundException | PathNotFoundException e) {
+                // dangling weak reference
+                resolved.put(value, null);
+                resolvedValue = null;
+            }
+            if (resolvedValue != null) {
+                result.put(resolvedValue.identifier, resolvedValue.node);
+            }
+        }
+        pending.clear();
+        return result.isEmpty() ? Collections.<String, APINode>emptyMap() : result;
+    }
+
+    /**
+     * Resolves the nodes with the specified identifiers using a single query. Identifiers which are not found, for
+     * instance because the node was removed or its changes are not saved yet, are left to {@link #resolve(String, boolean)}.
+     */
+    private void resolveBatch(List<String> identifiers) throws RepositoryException {
+        // JCR-SQL2 has no IN operator
+        final StringBuilder statement = new StringBuilder("SELECT * FROM [nt:base] WHERE ");
+        for (int i = 0; i < identifiers.size(); i++) {
+            if (i > 0) {
+                statement.append(" OR ");
+            }
+            statement.append("[jcr:uuid] = '").append(identifiers.get(i).replace("'", "''")).append('\'');
+        }
+
+        final RequestTimings.Phase previous = RequestTimings.begin(RequestTimings.Phase.REFERENCES);
+        try {
+            final Query query = session.getWorkspace().getQueryManager().createQuery(statement.toString(), Query.JCR_SQL2);
+            final NodeIterator nodes = query.execute().getNodes();
+            while (nodes.hasNext()) {
+                final Node node = nodes.nextNode();
+                final String identifier = node.getIdentifier();
+                if (!resolved.containsKey(identifier)) {
+                    resolved.put(identifier, SpringBeansAccess.getInstance().hasPermission("jcrestapi.references", node) ? new Resolved(identifier, createRepresentation(node)) : null);
+                }
+            }
+        } finally {
+            RequestTimings.end(previous);
+        }
+    }
+
+    private APINode createRepresentation(Node node) throws RepositoryException {
+        return APIObjectFactory.getInstance().createAPINode(node, Filter.OUTPUT_ALL, includeFullChildren, false, outputLinks);
+    }
+
+    static final class Resolved {
+        final String identifier;
+        final APINode node;
+
+        private Resolved(String identifier, APINode node) {
+            this.identifier = identifier;
+            this.node = node;
+        }
+    }
+}
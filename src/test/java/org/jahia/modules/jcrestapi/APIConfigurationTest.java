@@ -0,0 +1,109 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class APIConfigurationTest {
+
+    @After
+    public void reset() {
+        APIConfigurationService.getInstance().updated(null);
+    }
+
+    @Test
+    public void parseShouldKeepFallbackForMissingAndInvalidSettings() {
+        final Map<String, String> settings = new HashMap<String, String>();
+        settings.put(APIConfiguration.SLOW_QUERY_THRESHOLD, " 250 ");
+        final APIConfiguration first = APIConfiguration.parse(settings, APIConfiguration.DEFAULTS);
+        assertThat(first.getSlowQueryThreshold()).isEqualTo(250);
+        assertThat(first.getSlowQueryTop()).isEqualTo(APIConfiguration.DEFAULTS.getSlowQueryTop());
+
+        settings.put(APIConfiguration.SLOW_QUERY_THRESHOLD, "soon");
+        assertThat(APIConfiguration.parse(settings, first).getSlowQueryThreshold()).isEqualTo(250);
+        assertThat(APIConfiguration.parse(null, first).getSlowQueryThreshold()).isEqualTo(250);
+    }
+
+    @Test
+    public void parseShouldConfigureEmptySets() {
+        final APIConfiguration restricted = APIConfiguration.parse(
+                Collections.singletonMap(APIConfiguration.RESTRICTED_MIXINS, "jmix:foo, jmix:bar"), APIConfiguration.DEFAULTS);
+        assertThat(restricted.getRestrictedMixins()).containsOnly("jmix:foo", "jmix:bar");
+
+        assertThat(APIConfiguration.parse(Collections.<String, Object>emptyMap(), restricted).getRestrictedMixins())
+                .containsOnly("jmix:foo", "jmix:bar");
+        assertThat(APIConfiguration.parse(Collections.singletonMap(APIConfiguration.RESTRICTED_MIXINS, ""), restricted)
+                .getRestrictedMixins()).isEmpty();
+    }
+
+    @Test
+    public void moduleSettingsShouldTakePrecedence() {
+        final APIConfigurationService service = APIConfigurationService.getInstance();
+        final boolean previous = APIConfiguration.get().isPermissionCacheShareBetweenSiblings();
+        service.setPlatformSetting(APIConfiguration.PERMISSION_CACHE_MAX_ENTRIES, "500");
+        try {
+            assertThat(APIConfiguration.get().getPermissionCacheMaxEntries()).isEqualTo(500);
+
+            final Hashtable<String, String> settings = new Hashtable<String, String>();
+            settings.put(APIConfiguration.PERMISSION_CACHE_MAX_ENTRIES, "50");
+            service.updated(settings);
+            assertThat(APIConfiguration.get().getPermissionCacheMaxEntries()).isEqualTo(50);
+            assertThat(APIConfiguration.get().isPermissionCacheShareBetweenSiblings()).isEqualTo(previous);
+
+            // deleting the configuration brings the platform settings back
+            service.updated(null);
+            assertThat(APIConfiguration.get().getPermissionCacheMaxEntries()).isEqualTo(500);
+        } finally {
+            service.setPlatformSetting(APIConfiguration.PERMISSION_CACHE_MAX_ENTRIES, null);
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.TransientRepository;
+import org.apache.jackrabbit.core.config.ConfigurationException;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.glassfish.hk2.api.Factory;
+import org.glassfish.jersey.test.JerseyTest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.Application;
+import javax.ws.rs.core.Response;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.jahia.modules.jcrestapi.APIApplication.SYS_PROP_DEPRECATION_FILTER_DISABLED;
+
+/**
+ * Replays a mixed workload against the API, served by the Jersey test container, on content generated by
+ * {@link ContentGenerator}, and reports the throughput and latency percentiles of each endpoint as JSON.
+ *
+ * <p>Not run by the build, its name not ending with {@code Test}: run it with {@code mvn test -Dtest=APILoad}. It is
+ * configured with the following system properties, all prefixed with {@code jcrestapi.load.}:</p>
+ * <ul>
+ * <li>{@code nodes}, {@code fanOut}, {@code depth}, {@code wideChildren}, {@code properties}, {@code references},
+ * {@code languages} (comma separated) and {@code seed}: the shape of the content, see {@link ContentGenerator},</li>
+ * <li>{@code concurrency}: the number of clients sending requests at the same time, 8 by default,</li>
+ * <li>{@code warmup} and {@code duration}: how long, in seconds, the workload runs before and while being measured,
+ * 10 and 30 by default,</li>
+ * <li>{@code mix}: the relative weights of the operations, {@value #DEFAULT_MIX} by default, see
+ * {@link Operation},</li>
+ * <li>{@code report}: where the report is written, {@value #DEFAULT_REPORT} by default,</li>
+ * <li>{@code baseline}: a report of a previous run to compare with. The run fails if the throughput of an endpoint
+ * dropped, or its 99th percentile rose, by more than {@code tolerance}, 0.2 by default, relative to the
+ * baseline.</li>
+ * </ul>
+ */
+public class APILoad extends JerseyTest {
+    private static final Logger logger = LoggerFactory.getLogger(APILoad.class);
+
+    private static final String PREFIX = "jcrestapi.load.";
+    private static final String DEFAULT_MIX = "get=50,path=15,children=5,put=15,delete=5,query=10";
+    private static final String DEFAULT_REPORT = "target/load-report.json";
+    private static final String API_DEFAULT_EN = API.API_PATH + "/default/en/";
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static TransientRepository repository;
+    private static File repositoryLocation;
+    private static ContentGenerator generator;
+    private static String scratchId;
+
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+    private volatile boolean recording;
+
+    @BeforeClass
+    public static void beforeAll() throws IOException, ConfigurationException, RepositoryException {
+        repositoryLocation = Files.createTempDirectory("jcrestapi-load-dir_").toFile();
+        final InputStream configStream = APILoad.class.getResourceAsStream("/repository.xml");
+        repository = new NoLoggingTransientRepository(RepositoryConfig.create(configStream, repositoryLocation.getAbsolutePath()));
+        System.setProperty(SYS_PROP_DEPRECATION_FILTER_DISABLED, "true");
+
+        generator = new ContentGenerator()
+                .nodes(Integer.getInteger(PREFIX + "nodes", 10000))
+                .fanOut(Integer.getInteger(PREFIX + "fanOut", 10))
+                .depth(Integer.getInteger(PREFIX + "depth", 0))
+                .wideChildren(Integer.getInteger(PREFIX + "wideChildren", 1000))
+                .properties(Integer.getInteger(PREFIX + "properties", 5))
+                .references(Integer.getInteger(PREFIX + "references", 2))
+                .languages(split(System.getProperty(PREFIX + "languages", "en,fr,de")))
+                .seed(Long.getLong(PREFIX + "seed", 42));
+
+        final Session session = repository.login();
+        try {
+            final long start = System.nanoTime();
+            generator.generate(session);
+            scratchId = session.getRootNode().addNode("scratch", "nt:unstructured").getIdentifier();
+            session.save();
+            logger.info("Generated {} nodes in {} s", generator.getIdentifiers().size(),
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start));
+        } finally {
+            session.logout();
+        }
+    }
+
+    @AfterClass
+    public static void destroyRepository() throws IOException {
+        if (repository != null) {
+            repository.shutdown();
+            repository = null;
+        }
+        FileUtils.deleteDirectory(repositoryLocation);
+        System.clearProperty(SYS_PROP_DEPRECATION_FILTER_DISABLED);
+    }
+
+    @Override
+    protected Application configure() {
+        return new APIApplication(LoadRepositoryFactory.class);
+    }
+
+    @Test
+    public void replayWorkload() throws Exception {
+        final boolean queryDisabled = API.isQueryDisabled();
+        API.setQueryDisabled(false);
+
+        final int concurrency = Integer.getInteger(PREFIX + "concurrency", 8);
+        final long warmup = TimeUnit.SECONDS.toNanos(Long.getLong(PREFIX + "warmup", 10));
+        final long duration = TimeUnit.SECONDS.toNanos(Long.getLong(PREFIX + "duration", 30));
+        final Mix mix = new Mix(System.getProperty(PREFIX + "mix", DEFAULT_MIX));
+
+        final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        try {
+            final long start = System.nanoTime();
+            final long measureFrom = start + warmup;
+            final long end = measureFrom + duration;
+            final List<Future<Void>> running = new ArrayList<Future<Void>>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                final Random random = new Random(i);
+                running.add(clients.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long now;
+                        while ((now = System.nanoTime()) < end) {
+                            if (!recording && now >= measureFrom) {
+                                recording = true;
+                            }
+                            mix.pick(random).perform(APILoad.this, random);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> client : running) {
+                client.get();
+            }
+        } finally {
+            clients.shutdownNow();
+            API.setQueryDisabled(queryDisabled);
+        }
+
+        final Map<String, Object> report = createReport(concurrency, TimeUnit.NANOSECONDS.toSeconds(duration), mix);
+        final File reportFile = new File(System.getProperty(PREFIX + "report", DEFAULT_REPORT));
+        final File reportDirectory = reportFile.getAbsoluteFile().getParentFile();
+        if (!reportDirectory.isDirectory() && !reportDirectory.mkdirs()) {
+            throw new IOException("Couldn't create " + reportDirectory);
+        }
+        MAPPER.writeValue(reportFile, report);
+        logger.info("Load report written to {}", reportFile.getAbsolutePath());
+
+        final String baseline = System.getProperty(PREFIX + "baseline");
+        if (baseline != null) {
+            final double tolerance = Double.parseDouble(System.getProperty(PREFIX + "tolerance", "0.2"));
+            assertThat(compare(MAPPER.readTree(new File(baseline)), MAPPER.valueToTree(report), tolerance)).isEmpty();
+        }
+    }
+
+    private Map<String, Object> createReport(int concurrency, long durationSeconds, Mix mix) {
+        final Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("shape", generator.getShape());
+        report.put("concurrency", concurrency);
+        report.put("durationSeconds", durationSeconds);
+        report.put("mix", mix.weights);
+
+        final Map<String, Object> byEndpoint = new TreeMap<String, Object>();
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            final LatencyHistogram latencies = entry.getValue().latencies;
+            final Map<String, Object> endpoint = new LinkedHashMap<String, Object>();
+            endpoint.put("requests", latencies.getCount());
+            endpoint.put("errors", entry.getValue().errors.get());
+            endpoint.put("throughput", round((double) latencies.getCount() / durationSeconds));
+            endpoint.put("p50", toMillis(latencies.getPercentile(50)));
+            endpoint.put("p99", toMillis(latencies.getPercentile(99)));
+            endpoint.put("p999", toMillis(latencies.getPercentile(99.9)));
+            endpoint.put("max", toMillis(latencies.getMax()));
+            byEndpoint.put(entry.getKey(), endpoint);
+        }
+        report.put("endpoints", byEndpoint);
+        return report;
+    }
+
+    /**
+     * Compares the endpoints of the given reports.
+     *
+     * @return the regressions found, empty if none
+     */
+    static List<String> compare(JsonNode baseline, JsonNode current, double tolerance) {
+        final List<String> regressions = new ArrayList<String>();
+        final JsonNode currentEndpoints = current.path("endpoints");
+        for (Iterator<Map.Entry<String, JsonNode>> fields = baseline.path("endpoints").fields(); fields.hasNext(); ) {
+            final Map.Entry<String, JsonNode> field = fields.next();
+            final JsonNode before = field.getValue();
+            final JsonNode after = currentEndpoints.path(field.getKey());
+            if (after.isMissingNode()) {
+                continue;
+            }
+
+            final double throughputBefore = before.path("throughput").asDouble();
+            final double throughputAfter = after.path("throughput").asDouble();
+            final double p99Before = before.path("p99").asDouble();
+            final double p99After = after.path("p99").asDouble();
+            logger.info("{}: throughput {} -> {} requests/s, p99 {} -> {} ms", new Object[]{field.getKey(),
+                    throughputBefore, throughputAfter, p99Before, p99After});
+
+            if (throughputAfter < throughputBefore * (1 - tolerance)) {
+                regressions.add(field.getKey() + ": throughput dropped from " + throughputBefore + " to " + throughputAfter + " requests/s");
+            }
+            if (p99After > p99Before * (1 + tolerance)) {
+                regressions.add(field.getKey() + ": p99 rose from " + p99Before + " to " + p99After + " ms");
+            }
+        }
+        return regressions;
+    }
+
+    private static double toMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    /**
+     * Sends the given request, recording its latency under the given endpoint once the warm-up is over.
+     *
+     * @return the body of the response, {@code null} if the request failed
+     */
+    private String call(String endpoint, Invocation invocation) {
+        final long start = System.nanoTime();
+        String body = null;
+        boolean failed;
+        try {
+            final Response response = invocation.invoke();
+            try {
+                body = response.readEntity(String.class);
+                failed = response.getStatus() >= 400;
+            } finally {
+                response.close();
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Request to " + endpoint + " failed", e);
+            failed = true;
+        }
+
+        if (recording) {
+            getEndpoint(endpoint).record(System.nanoTime() - start, failed);
+        }
+        return failed ? null : body;
+    }
+
+    private Endpoint getEndpoint(String name) {
+        Endpoint endpoint = endpoints.get(name);
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            final Endpoint existing = endpoints.putIfAbsent(name, endpoint);
+            if (existing != null) {
+                endpoint = existing;
+            }
+        }
+        return endpoint;
+    }
+
+    private static List<String> split(String values) {
+        final List<String> result = new ArrayList<String>();
+        for (String value : values.split(",")) {
+            if (!value.trim().isEmpty()) {
+                result.add(value.trim());
+            }
+        }
+        return result;
+    }
+
+    private static <T> T pick(List<T> values, Random random) {
+        return values.get(random.nextInt(values.size()));
+    }
+
+    /**
+     * The operations of the workload, each sending one or two requests to nodes picked at random.
+     */
+    enum Operation {
+        /**
+         * Reads a node by identifier.
+         */
+        GET("get") {
+            @Override
+            void perform(APILoad load, Random random) {
+                load.call("GET nodes/{id}", load.target(API_DEFAULT_EN + Nodes.MAPPING + "/"
+                        + pick(generator.getIdentifiers(), random)).request().buildGet());
+            }
+        },
+        /**
+         * Reads a node by path.
+         */
+        PATH("path") {
+            @Override
+            void perform(APILoad load, Random random) {
+                load.call("GET paths/{path}", load.target(API_DEFAULT_EN + Paths.MAPPING
+                        + pick(generator.getPaths(), random)).request().buildGet());
+            }
+        },
+        /**
+         * Reads the children of the wide folder, with their content.
+         */
+        CHILDREN("children") {
+            @Override
+            void perform(APILoad load, Random random) {
+                load.call("GET paths/{wide}/children", load.target(API_DEFAULT_EN + Paths.MAPPING + "/"
+                        + ContentGenerator.ROOT + "/" + ContentGenerator.WIDE + "/children")
+                        .queryParam(API.INCLUDE_FULL_CHILDREN, true).request().buildGet());
+            }
+        },
+        /**
+         * Updates a property of a node.
+         */
+        PUT("put") {
+            @Override
+            void perform(APILoad load, Random random) {
+                load.call("PUT nodes/{id}/properties/{name}", load.target(API_DEFAULT_EN + Nodes.MAPPING + "/"
+                        + pick(generator.getIdentifiers(), random) + "/properties/" + ContentGenerator.PROPERTY + "0")
+                        .request().buildPut(Entity.json("{\"value\": \"value " + random.nextInt(100) + "\"}")));
+            }
+        },
+        /**
+         * Creates a node, then deletes it.
+         */
+        DELETE("delete") {
+            @Override
+            void perform(APILoad load, Random random) throws IOException {
+                final String created = load.call("PUT nodes/{id}/children/{name}", load.target(API_DEFAULT_EN
+                        + Nodes.MAPPING + "/" + scratchId + "/children/node" + random.nextLong())
+                        .request().buildPut(Entity.json("{\"type\": \"nt:unstructured\"}")));
+                if (created != null) {
+                    load.call("DELETE nodes/{id}", load.target(API_DEFAULT_EN + Nodes.MAPPING + "/"
+                            + MAPPER.readTree(created).path("id").asText()).request().buildDelete());
+                }
+            }
+        },
+        /**
+         * Queries the nodes with a given property value.
+         */
+        QUERY("query") {
+            @Override
+            void perform(APILoad load, Random random) {
+                load.call("POST query", load.target(API_DEFAULT_EN + "query").request().buildPost(Entity.json(
+                        "{\"query\": \"SELECT * FROM [nt:unstructured] AS n WHERE n.[" + ContentGenerator.PROPERTY
+                                + "0] = 'value " + random.nextInt(100) + "'\", \"limit\": 20}")));
+            }
+        };
+
+        private final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+
+        abstract void perform(APILoad load, Random random) throws IOException;
+    }
+
+    /**
+     * The operations of the workload, picked at random according to their weights.
+     */
+    static final class Mix {
+        private final Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        private final List<Operation> operations = new ArrayList<Operation>();
+
+        Mix(String mix) {
+            for (String entry : split(mix)) {
+                final String[] keyAndWeight = entry.split("=");
+                final Operation operation = getOperation(keyAndWeight[0].trim());
+                final int weight = Integer.parseInt(keyAndWeight[1].trim());
+                weights.put(operation.key, weight);
+                for (int i = 0; i < weight; i++) {
+                    operations.add(operation);
+                }
+            }
+            if (operations.isEmpty()) {
+                throw new IllegalArgumentException("No operation in mix " + mix);
+            }
+        }
+
+        private static Operation getOperation(String key) {
+            for (Operation operation : Operation.values()) {
+                if (operation.key.equals(key)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation '" + key + "', expected one of " + Arrays.toString(Operation.values()));
+        }
+
+        Operation pick(Random random) {
+            return APILoad.pick(operations, random);
+        }
+    }
+
+    private static final class Endpoint {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        private void record(long nanos, boolean failed) {
+            latencies.recordNanos(nanos);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    private static class LoadRepositoryFactory implements Factory<Repository> {
+
+        @Override
+        public Repository provide() {
+            return repository;
+        }
+
+        @Override
+        public void dispose(Repository instance) {
+            // nothing
+        }
+    }
+}
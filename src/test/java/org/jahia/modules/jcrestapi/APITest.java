@@ -44,6 +44,8 @@
 package org.jahia.modules.jcrestapi;
 
 import com.jayway.restassured.http.ContentType;
+import com.jayway.restassured.response.ValidatableResponse;
+import com.jayway.restassured.specification.RequestSpecification;
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.TransientRepository;
 import org.apache.jackrabbit.core.config.ConfigurationException;
@@ -51,6 +53,7 @@ import org.apache.jackrabbit.core.config.RepositoryConfig;
 import org.glassfish.hk2.api.Factory;
 import org.glassfish.jersey.test.JerseyTest;
 import org.jahia.modules.jcrestapi.api.PreparedQuery;
+import org.jahia.modules.jcrestapi.json.JSONNodeList;
 import org.jahia.modules.json.Names;
 import org.jahia.services.content.JCRContentUtils;
 import org.jahia.services.securityfilter.PermissionService;
@@ -60,24 +63,42 @@ import org.jahia.settings.SettingsBean;
 import org.junit.*;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.Repository;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.observation.ObservationManager;
+import javax.jcr.query.Query;
 import javax.ws.rs.core.Application;
 import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import static com.jayway.restassured.RestAssured.expect;
 import static com.jayway.restassured.RestAssured.given;
 import static org.apache.http.HttpStatus.*;
 import static org.hamcrest.Matchers.*;
 import static org.jahia.modules.jcrestapi.APIApplication.SYS_PROP_DEPRECATION_FILTER_DISABLED;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -207,6 +228,60 @@ public class APITest extends JerseyTest {
                 );
     }
 
+    @Test
+    public void metricsShouldCountAnsweredRequests() throws Exception {
+        expect().statusCode(SC_OK).when().get(generateURL(API.API_PATH + "/version"));
+
+        given().accept(ContentType.JSON)
+                .when()
+                .get(generateURL(API.API_PATH + "/metrics"))
+                .then()
+                .assertThat()
+                .statusCode(SC_OK)
+                .contentType(ContentType.JSON)
+                .body(
+                        "endpoints.'API.version'.count", greaterThanOrEqualTo(1),
+                        "endpoints.'API.version'.statuses.'200'", greaterThanOrEqualTo(1),
+                        "endpoints.'API.metrics'.inFlight", equalTo(1),
+                        "operations.read.count", greaterThanOrEqualTo(1),
+                        "caches.queryResults", notNullValue()
+                );
+    }
+
+    @Test
+    public void responsesShouldReportServerTimingWhenEnabled() throws Exception {
+        expect()
+                .statusCode(SC_OK)
+                .header("Server-Timing", is(nullValue()))
+                .header("Timing-Allow-Origin", is(nullValue()))
+                .header("Access-Control-Expose-Headers", not(containsString("Server-Timing")))
+                .when()
+                .get(generateURL(API_DEFAULT_EN + "/nodes/"));
+
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.SERVER_TIMING_ENABLED, "true");
+        APIConfigurationService.getInstance().updated(settings);
+        try {
+            expect()
+                    .statusCode(SC_OK)
+                    .header("Server-Timing", allOf(startsWith("total;dur="), containsString("session;dur="),
+                            containsString("lookup;dur="), containsString("nodes;desc=")))
+                    .header("Timing-Allow-Origin", equalTo("*"))
+                    .header("Access-Control-Expose-Headers", containsString("Server-Timing"))
+                    .when()
+                    .get(generateURL(API_DEFAULT_EN + "/nodes/"));
+
+            // the entity of a HEAD response is never written, its timings are still reported
+            expect()
+                    .statusCode(SC_OK)
+                    .header("Server-Timing", startsWith("total;dur="))
+                    .when()
+                    .head(generateURL(API_DEFAULT_EN + "/nodes/"));
+        } finally {
+            APIConfigurationService.getInstance().updated(null);
+        }
+    }
+
     @Test
     public void checkAutomaticallyNamedChildren() throws Exception {
         new SettingsBean(null, new Properties(), null) {
@@ -753,6 +828,666 @@ public class APITest extends JerseyTest {
         assertTrue("the node should carry its new name", hasGrandChild(parent, newName));
     }
 
+    @Test
+    public void batchShouldPerformAllOperationsWithOneSave() throws Exception {
+
+        given().body("{\"operations\": ["
+                + "{\"operation\": \"createOrUpdate\", \"path\": \"/\", \"subElementType\": \"children\", \"subElement\": \"batchFirst\", \"data\": {\"type\": \"nt:unstructured\"}},"
+                + "{\"operation\": \"createOrUpdate\", \"path\": \"/batchFirst\", \"subElementType\": \"children\", \"subElement\": \"batchSecond\", \"data\": {\"type\": \"nt:unstructured\"}}"
+                + "]}")
+                .contentType(ContentType.JSON)
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "batch"))
+                .then()
+                .assertThat()
+                .statusCode(SC_OK)
+                .body(
+                        "saved", equalTo(2),
+                        "results.status", contains(SC_CREATED, SC_CREATED),
+                        "results[1].entity.name", equalTo("batchSecond")
+                );
+        assertTrue("both operations should have been saved", hasGrandChild("batchFirst", "batchSecond"));
+    }
+
+    /**
+     * An operation that fails stops the batch and discards what the operations before it changed, since the session was
+     * not saved yet.
+     */
+    @Test
+    public void batchShouldStopAtTheFirstFailureAndDiscardUnsavedChanges() throws Exception {
+
+        given().body("{\"operations\": ["
+                + "{\"operation\": \"createOrUpdate\", \"path\": \"/\", \"subElementType\": \"children\", \"subElement\": \"batchDiscarded\", \"data\": {\"type\": \"nt:unstructured\"}},"
+                + "{\"operation\": \"delete\", \"path\": \"/batchDoesNotExist\"},"
+                + "{\"operation\": \"createOrUpdate\", \"path\": \"/\", \"subElementType\": \"children\", \"subElement\": \"batchNotPerformed\", \"data\": {\"type\": \"nt:unstructured\"}}"
+                + "]}")
+                .contentType(ContentType.JSON)
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "batch"))
+                .then()
+                .assertThat()
+                .statusCode(SC_OK)
+                .body(
+                        "saved", equalTo(0),
+                        "results.status", contains(SC_CREATED, SC_NOT_FOUND)
+                );
+        assertFalse("the change made before the failure should have been discarded", rootHasChild("batchDiscarded"));
+        assertFalse("the operation after the failure should not have been performed", rootHasChild("batchNotPerformed"));
+    }
+
+    @Test
+    public void streamedRepresentationShouldCreateNestedChildren() throws Exception {
+
+        given().body("{\"type\": \"nt:unstructured\", \"children\": {"
+                + "\"first\": {\"type\": \"nt:unstructured\", \"children\": {"
+                + "\"second\": {\"type\": \"nt:unstructured\", \"children\": {\"third\": {\"type\": \"nt:unstructured\"}}}}},"
+                + "\"sibling\": {\"name\": \"renamedSibling\", \"type\": \"nt:unstructured\"}}}")
+                .contentType(ContentType.JSON)
+                .when()
+                .post(getURLByPath("children/streamed"))
+                .then()
+                .assertThat()
+                .statusCode(SC_CREATED)
+                .body("name", equalTo("streamed"));
+
+        session.refresh(false);
+        assertTrue("nested children should have been created", session.nodeExists("/streamed/first/second/third"));
+        assertTrue("a child should take the name its representation provides", session.nodeExists("/streamed/renamedSibling"));
+        assertFalse(session.nodeExists("/streamed/sibling"));
+    }
+
+    /**
+     * A node is created when its children are reached, so a name or type coming after them could not be taken into
+     * account anymore.
+     */
+    @Test
+    public void streamedRepresentationShouldRefuseNameOrTypeAfterChildren() throws Exception {
+
+        given().body("{\"type\": \"nt:unstructured\", \"children\": {\"child\": {\"type\": \"nt:unstructured\"}}, \"name\": \"late\"}")
+                .contentType(ContentType.JSON)
+                .when()
+                .post(getURLByPath("children/nameAfterChildren"))
+                .then()
+                .assertThat()
+                .statusCode(SC_BAD_REQUEST)
+                .body("message", containsString("must precede"));
+        assertFalse("nothing should have been saved", rootHasChild("nameAfterChildren"));
+
+        given().body("{\"type\": \"nt:unstructured\", \"children\": {\"child\": {\"name\": \"child\", \"children\": {"
+                + "\"grandChild\": {\"type\": \"nt:unstructured\"}}, \"type\": \"nt:unstructured\"}}}")
+                .contentType(ContentType.JSON)
+                .when()
+                .post(getURLByPath("children/typeAfterChildren"))
+                .then()
+                .assertThat()
+                .statusCode(SC_BAD_REQUEST);
+        assertFalse("nothing should have been saved", rootHasChild("typeAfterChildren"));
+    }
+
+    @Test
+    public void streamedRepresentationWithInvalidJSONShouldBeABadRequest() throws Exception {
+
+        given().body("{\"type\": \"nt:unstructured\", \"children\": {\"child\": {\"type\": \"nt:unstructured\"}")
+                .contentType(ContentType.JSON)
+                .when()
+                .post(getURLByPath("children/truncated"))
+                .then()
+                .assertThat()
+                .statusCode(SC_BAD_REQUEST);
+        assertFalse("nothing should have been saved", rootHasChild("truncated"));
+
+        given().body("[\"not\", \"an\", \"object\"]")
+                .contentType(ContentType.JSON)
+                .when()
+                .post(getURLByPath("children/notAnObject"))
+                .then()
+                .assertThat()
+                .statusCode(SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void streamedRepresentationShouldBeSavedInChunks() throws Exception {
+
+        final StringBuilder children = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            children.append(i > 0 ? "," : "").append("\"chunk").append(i).append("\": {\"type\": \"nt:unstructured\"}");
+        }
+
+        given().body("{\"type\": \"nt:unstructured\", \"children\": {" + children + "}}")
+                .contentType(ContentType.JSON)
+                .queryParam(API.SAVE_EVERY, 2)
+                .when()
+                .post(getURLByPath("children/streamedChunks"))
+                .then()
+                .assertThat()
+                .statusCode(SC_CREATED)
+                .header(API.CREATED_NODES_HEADER, "5");
+
+        session.refresh(false);
+        for (int i = 0; i < 5; i++) {
+            assertTrue("chunk" + i + " should have been saved", session.nodeExists("/streamedChunks/chunk" + i));
+        }
+    }
+
+    @Test
+    public void failedChunkedSaveShouldReportItsProgress() throws Exception {
+        final StringBuilder children = new StringBuilder();
+        for (int i = 0; i < 3; i++) {
+            children.append("\"chunk").append(i).append("\": {\"type\": \"nt:unstructured\"}, ");
+        }
+        children.append("\"broken\": {\"type\": \"nt:doesNotExist\"}");
+
+        try {
+            given().body("{\"type\": \"nt:unstructured\", \"children\": {" + children + "}}")
+                    .contentType(ContentType.JSON)
+                    .queryParam(API.SAVE_EVERY, 2)
+                    .when()
+                    .post(getURLByPath("children/failedChunks"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_INTERNAL_SERVER_ERROR)
+                    .body("progress.created", equalTo(3),
+                            "progress.saved", equalTo(2),
+                            "progress.failedPath", equalTo("/failedChunks/broken"));
+
+            // the first chunk stays in the repository, the rest was discarded
+            session.refresh(false);
+            assertTrue(session.nodeExists("/failedChunks/chunk0"));
+            assertTrue(session.nodeExists("/failedChunks/chunk1"));
+            assertFalse(session.nodeExists("/failedChunks/chunk2"));
+        } finally {
+            session.refresh(false);
+            if (session.nodeExists("/failedChunks")) {
+                session.getNode("/failedChunks").remove();
+                session.save();
+            }
+        }
+    }
+
+    @Test
+    public void rangeOfAStoredBinaryShouldBeSentWithoutTheBytesBeforeIt() throws Exception {
+        final byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        final byte[] inlined = "too small for a file of its own".getBytes("UTF-8");
+
+        session.refresh(false);
+        final Node stored = session.getRootNode().addNode("storedBinary", "nt:unstructured");
+        stored.setProperty("jcr:data", session.getValueFactory().createBinary(new ByteArrayInputStream(content)));
+        final Node small = session.getRootNode().addNode("inlinedBinary", "nt:unstructured");
+        small.setProperty("jcr:data", session.getValueFactory().createBinary(new ByteArrayInputStream(inlined)));
+        session.save();
+
+        try {
+            final byte[] range = given().header("Range", "bytes=1000-1999")
+                    .when()
+                    .get(getURLByPath("storedBinary/binary"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_PARTIAL_CONTENT)
+                    .header("Content-Range", "bytes 1000-1999/" + content.length)
+                    .extract().asByteArray();
+            assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), range);
+
+            final byte[] whole = given().when()
+                    .get(getURLByPath("inlinedBinary/binary"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .extract().asByteArray();
+            assertArrayEquals(inlined, whole);
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("storedBinary").remove();
+            session.getRootNode().getNode("inlinedBinary").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void childNodeNamedBinaryShouldBeAnsweredWithItsRepresentation() throws Exception {
+        session.refresh(false);
+        final Node parent = session.getRootNode().addNode("binaryParent", "nt:unstructured");
+        parent.addNode("binary", "nt:unstructured").setProperty("value", "child");
+        session.save();
+
+        try {
+            given().when()
+                    .get(getURLByPath("binaryParent/binary"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .body("name", equalTo("binary"))
+                    .body("properties.value.value", equalTo("child"));
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("binaryParent").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void unchangedNodeShouldBeAnsweredWithNotModified() throws Exception {
+        session.refresh(false);
+        session.getRootNode().addNode("taggedNode", "nt:unstructured").setProperty("value", "first");
+        session.save();
+
+        try {
+            final String tag = given().when()
+                    .get(getURLByPath("taggedNode"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .header("ETag", notNullValue())
+                    .extract().header("ETag");
+
+            given().header("If-None-Match", tag)
+                    .when()
+                    .get(getURLByPath("taggedNode"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_NOT_MODIFIED)
+                    .header("ETag", equalTo(tag));
+
+            session.getNode("/taggedNode").setProperty("value", "second");
+            session.save();
+
+            given().header("If-None-Match", tag)
+                    .when()
+                    .get(getURLByPath("taggedNode"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .header("ETag", not(equalTo(tag)))
+                    .body("properties.value.value", equalTo("second"));
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("taggedNode").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void tagShouldChangeWhenAFullyIncludedChildChanges() throws Exception {
+        makeParentAndChild("taggedParent", "taggedChild");
+        session.getNode("/taggedParent/taggedChild").setProperty("value", "first");
+        session.save();
+
+        try {
+            final String tag = given().queryParam(API.INCLUDE_FULL_CHILDREN, "true")
+                    .when()
+                    .get(getURLByPath("taggedParent"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .extract().header("ETag");
+            assertNotNull(tag);
+
+            given().queryParam(API.INCLUDE_FULL_CHILDREN, "true")
+                    .header("If-None-Match", tag)
+                    .when()
+                    .get(getURLByPath("taggedParent"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_NOT_MODIFIED);
+
+            // neither the parent nor the list of its children change, only what the representation includes of a child
+            session.getNode("/taggedParent/taggedChild").setProperty("value", "second");
+            session.save();
+
+            given().queryParam(API.INCLUDE_FULL_CHILDREN, "true")
+                    .header("If-None-Match", tag)
+                    .when()
+                    .get(getURLByPath("taggedParent"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .header("ETag", not(equalTo(tag)));
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("taggedParent").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void nodeWithALastModifiedDateShouldBeValidatedFromIt() throws Exception {
+        session.refresh(false);
+        final Node tagged = session.getRootNode().addNode("datedNode", "nt:unstructured");
+        tagged.addMixin("mix:lastModified");
+        tagged.setProperty("value", "first");
+        tagged.setProperty("jcr:lastModified", Calendar.getInstance());
+        session.save();
+
+        try {
+            final String tag = given().when()
+                    .get(getURLByPath("datedNode"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .extract().header("ETag");
+            assertNotNull(tag);
+
+            // the tag is computed before the representation is built, from the last modification date of the node
+            session.getNode("/datedNode").setProperty("value", "ignored");
+            session.save();
+
+            given().header("If-None-Match", tag)
+                    .when()
+                    .get(getURLByPath("datedNode"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_NOT_MODIFIED);
+
+            given().queryParam(API.FIELDS, "properties")
+                    .header("If-None-Match", tag)
+                    .when()
+                    .get(getURLByPath("datedNode"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .header("ETag", not(equalTo(tag)));
+
+            final Calendar later = Calendar.getInstance();
+            later.add(Calendar.MINUTE, 1);
+            session.getNode("/datedNode").setProperty("jcr:lastModified", later);
+            session.save();
+
+            given().header("If-None-Match", tag)
+                    .when()
+                    .get(getURLByPath("datedNode"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .header("ETag", not(equalTo(tag)))
+                    .body("properties.value.value", equalTo("ignored"));
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("datedNode").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void fieldsShouldOnlyIncludeTheSelectedSubElements() throws Exception {
+        makeParentAndChild("sparseParent", "sparseChild");
+        final Node parent = session.getNode("/sparseParent");
+        parent.setProperty("title", "parent title");
+        parent.setProperty("other", "parent other");
+        final Node child = parent.getNode("sparseChild");
+        child.setProperty("title", "child title");
+        child.setProperty("other", "child other");
+        session.save();
+
+        try {
+            given().queryParam(API.FIELDS, "properties(title),children")
+                    .when()
+                    .get(getURLByPath("sparseParent"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .body("properties.title.value", equalTo("parent title"),
+                            "properties.other", is(nullValue()),
+                            "mixins", is(nullValue()),
+                            "children.sparseChild.name", equalTo("sparseChild"),
+                            "children.sparseChild.properties", is(nullValue()));
+
+            // children rendered with their sub-elements include the same selection
+            given().queryParam(API.FIELDS, "properties(title),children")
+                    .queryParam(API.INCLUDE_FULL_CHILDREN, "true")
+                    .when()
+                    .get(getURLByPath("sparseParent"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .body("children.sparseChild.properties.title.value", equalTo("child title"),
+                            "children.sparseChild.properties.other", is(nullValue()),
+                            "children.sparseChild.mixins", is(nullValue()));
+
+            given().queryParam(API.FIELDS, "mixins")
+                    .when()
+                    .get(getURLByPath("sparseParent"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .body("mixins", is(notNullValue()),
+                            "properties", is(nullValue()),
+                            "children", is(nullValue()));
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("sparseParent").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void preparedQueryShouldBindPositionalValues() throws Exception {
+        makePreparedQueryNodes();
+        try {
+            final PreparedQuery preparedQuery = new PreparedQuery();
+            preparedQuery.setSource("select * from [nt:unstructured] where [kind] = ?");
+
+            final Query query = preparedQuery.createQuery(session, Arrays.<Object>asList("o'brien"));
+            assertEquals(Collections.singletonList("p_0"), Arrays.asList(query.getBindVariableNames()));
+            assertFalse("values should not be written into the statement", query.getStatement().contains("o'brien"));
+            assertEquals(Collections.singletonList("/preparedQueries/quoted"), pathsFoundBy(query));
+
+            // binding other values to the same statement
+            preparedQuery.bindValues(session, query, Arrays.<Object>asList("alpha"));
+            assertEquals(Collections.singletonList("/preparedQueries/alpha"), pathsFoundBy(query));
+        } finally {
+            removePreparedQueryNodes();
+        }
+    }
+
+    @Test
+    public void preparedQueryShouldBindNamedValues() throws Exception {
+        makePreparedQueryNodes();
+        try {
+            final PreparedQuery preparedQuery = new PreparedQuery();
+            preparedQuery.setSource("select * from [nt:unstructured] where [kind] = :kind or [kind] = :other");
+
+            final Map<String, Object> params = new HashMap<String, Object>();
+            params.put("kind", "alpha");
+            params.put("other", "beta");
+            final Query query = preparedQuery.createQuery(session, params);
+            assertEquals(new HashSet<String>(Arrays.asList("n_kind", "n_other")), new HashSet<String>(Arrays.asList(query.getBindVariableNames())));
+            assertEquals(Arrays.asList("/preparedQueries/alpha", "/preparedQueries/beta"), pathsFoundBy(query));
+
+            params.put("other", "o'brien");
+            preparedQuery.bindValues(session, query, params);
+            assertEquals(Arrays.asList("/preparedQueries/alpha", "/preparedQueries/quoted"), pathsFoundBy(query));
+        } finally {
+            removePreparedQueryNodes();
+        }
+    }
+
+    @Test
+    public void preparedQueryShouldBeInterpolatedWhenTheRepositoryRefusesTheBoundStatement() throws Exception {
+        makePreparedQueryNodes();
+        try {
+            // JCR-SQL2 only accepts a literal path, not a bind variable
+            final PreparedQuery preparedQuery = new PreparedQuery();
+            preparedQuery.setSource("select * from [nt:unstructured] where isdescendantnode(?) and [kind] = ?");
+
+            final List<Object> params = Arrays.<Object>asList("/preparedQueries", "beta");
+            final Query query = preparedQuery.createQuery(session, params);
+            assertEquals(0, query.getBindVariableNames().length);
+            assertTrue(query.getStatement().contains("'/preparedQueries'"));
+            assertEquals(Collections.singletonList("/preparedQueries/beta"), pathsFoundBy(query));
+
+            // the statement is not attempted again
+            assertEquals(0, preparedQuery.createQuery(session, params).getBindVariableNames().length);
+        } finally {
+            removePreparedQueryNodes();
+        }
+    }
+
+    private void makePreparedQueryNodes() throws RepositoryException {
+        session.refresh(false);
+        final Node parent = session.getRootNode().addNode("preparedQueries", "nt:unstructured");
+        parent.addNode("alpha", "nt:unstructured").setProperty("kind", "alpha");
+        parent.addNode("beta", "nt:unstructured").setProperty("kind", "beta");
+        parent.addNode("quoted", "nt:unstructured").setProperty("kind", "o'brien");
+        session.save();
+    }
+
+    private void removePreparedQueryNodes() throws RepositoryException {
+        session.refresh(false);
+        session.getRootNode().getNode("preparedQueries").remove();
+        session.save();
+    }
+
+    private static List<String> pathsFoundBy(Query query) throws RepositoryException {
+        final List<String> paths = new ArrayList<String>();
+        final NodeIterator nodes = query.execute().getNodes();
+        while (nodes.hasNext()) {
+            paths.add(nodes.nextNode().getPath());
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    @Test
+    public void resumableUploadShouldOnlyAcceptChunksAtTheReceivedOffset() throws Exception {
+        new SettingsBean(null, new Properties(), null) {
+            @Override
+            public long getJahiaFileUploadMaxSize() {
+                return 100;
+            }
+        };
+        session.refresh(false);
+        session.getRootNode().addNode("resumableUploads", "nt:folder");
+        session.save();
+
+        try {
+            // larger than the maximum size of uploaded files
+            given().body("{\"path\": \"/resumableUploads\", \"fileName\": \"big.txt\", \"size\": 101}")
+                    .contentType(ContentType.JSON)
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + Uploads.MAPPING))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_BAD_REQUEST);
+
+            final String id = given().body("{\"path\": \"/resumableUploads\", \"fileName\": \"file.txt\", \"size\": 10}")
+                    .contentType(ContentType.JSON)
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + Uploads.MAPPING))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_CREATED)
+                    .extract().path("id");
+            final String uploadURL = generateURL(API_DEFAULT_EN + Uploads.MAPPING + "/" + id);
+
+            sendChunk(uploadURL, 0, "01234")
+                    .statusCode(SC_NO_CONTENT)
+                    .header(Uploads.UPLOAD_OFFSET_HEADER, "5");
+
+            // the same chunk sent again
+            sendChunk(uploadURL, 0, "01234")
+                    .statusCode(SC_CONFLICT)
+                    .header(Uploads.UPLOAD_OFFSET_HEADER, "5");
+
+            // completing before all the announced bytes were received
+            given().when()
+                    .post(uploadURL)
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_CONFLICT)
+                    .header(Uploads.UPLOAD_OFFSET_HEADER, "5");
+
+            // resuming from the offset the server reports
+            final String offset = given().when()
+                    .head(uploadURL)
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .extract().header(Uploads.UPLOAD_OFFSET_HEADER);
+            sendChunk(uploadURL, Long.parseLong(offset), "56789")
+                    .statusCode(SC_NO_CONTENT)
+                    .header(Uploads.UPLOAD_OFFSET_HEADER, "10");
+
+            given().when()
+                    .get(uploadURL)
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .body("offset", equalTo(10), "size", equalTo(10));
+
+            // storing the file needs the Jahia file node types, which the test repository lacks: cancel it instead
+            given().when()
+                    .delete(uploadURL)
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_NO_CONTENT);
+
+            // a cancelled upload is gone
+            given().when()
+                    .head(uploadURL)
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_NOT_FOUND);
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("resumableUploads").remove();
+            session.save();
+        }
+    }
+
+    private ValidatableResponse sendChunk(String uploadURL, long offset, String chunk) {
+        return given().body(chunk.getBytes())
+                .contentType(ContentType.BINARY)
+                .header(Uploads.UPLOAD_OFFSET_HEADER, offset)
+                .when()
+                .put(uploadURL)
+                .then()
+                .assertThat();
+    }
+
+    @Test
+    public void embeddedReferencesShouldBeResolvedByBatches() throws Exception {
+        final Node referencing = session.getRootNode().addNode("referencing", "nt:unstructured");
+        final Node targets = session.getRootNode().addNode("referenced", "nt:unstructured");
+        // more than a batch of ReferenceResolver, so that several queries are needed
+        final int count = 101;
+        final List<Value> values = new ArrayList<Value>(count + 1);
+        final Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < count; i++) {
+            final Node target = targets.addNode("target" + i, "nt:unstructured");
+            target.addMixin("mix:referenceable");
+            values.add(session.getValueFactory().createValue(target, true));
+            expected.add(target.getIdentifier());
+        }
+        final Node removed = targets.addNode("removed", "nt:unstructured");
+        removed.addMixin("mix:referenceable");
+        values.add(session.getValueFactory().createValue(removed, true));
+        referencing.setProperty("targets", values.toArray(new Value[values.size()]));
+        session.save();
+        removed.remove();
+        session.save();
+
+        try {
+            final Map<String, Object> embedded = given().queryParam(API.RESOLVE_REFERENCES, API.EMBEDDED_REFERENCES)
+                    .when()
+                    .get(getURLByPath("referencing"))
+                    .then()
+                    .assertThat()
+                    .statusCode(SC_OK)
+                    .body("properties.targets.references", is(nullValue()))
+                    .extract().jsonPath().getMap("_embedded");
+
+            // the dangling reference is left out
+            assertEquals(expected, embedded.keySet());
+        } finally {
+            session.refresh(false);
+            session.getRootNode().getNode("referencing").remove();
+            session.getRootNode().getNode("referenced").remove();
+            session.save();
+        }
+    }
+
     private void makeParentAndChild(String parent, String child) throws RepositoryException {
         session.refresh(false);
         session.getRootNode().addNode(parent, "nt:unstructured").addNode(child, "nt:unstructured");
@@ -1052,6 +1787,455 @@ public class APITest extends JerseyTest {
                 .post(generateURL(API_DEFAULT_EN + "query"));
     }
 
+    @Test
+    public void testQueryCursor() throws RepositoryException {
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 5; i++) {
+            createNode(nodeType, "cursor" + i);
+        }
+
+        API.setQueryDisabled(false);
+        try {
+            final String query = "\"query\": \"SELECT * FROM [" + nodeType + "] as node where localname(node) like 'cursor%' order by name(node)\", \"limit\": 2";
+
+            final String firstCursor = given()
+                    .contentType("application/json")
+                    .body("{" + query + "}")
+                    .queryParam("noLinks", "true")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(2))
+                    .body("[0].path", equalTo("/cursor0"))
+                    .body("[1].path", equalTo("/cursor1"))
+                    .header(API.NEXT_CURSOR_HEADER, notNullValue())
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"))
+                    .header(API.NEXT_CURSOR_HEADER);
+
+            final String secondCursor = given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"cursor\": \"" + firstCursor + "\"}")
+                    .queryParam("noLinks", "true")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(2))
+                    .body("[0].path", equalTo("/cursor2"))
+                    .body("[1].path", equalTo("/cursor3"))
+                    .header(API.NEXT_CURSOR_HEADER, notNullValue())
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"))
+                    .header(API.NEXT_CURSOR_HEADER);
+
+            given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"cursor\": \"" + secondCursor + "\"}")
+                    .queryParam("noLinks", "true")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(1))
+                    .body("[0].path", equalTo("/cursor4"))
+                    .header(API.NEXT_CURSOR_HEADER, nullValue())
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+
+            given()
+                    .contentType("application/json")
+                    .body("{" + query + ", \"cursor\": \"not a cursor\"}")
+                    .expect()
+                    .statusCode(SC_BAD_REQUEST)
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+        } finally {
+            API.setQueryDisabled(true);
+
+            // remove the created nodes so that they don't show up in the results of other queries
+            session.refresh(false);
+            for (int i = 0; i < 5; i++) {
+                session.getRootNode().getNode("cursor" + i).remove();
+            }
+            session.save();
+        }
+    }
+
+    @Test
+    public void streamedQueryResultsShouldMatchTheBufferedOnes() throws RepositoryException {
+        for (int i = 0; i < 3; i++) {
+            createNode("nt:address", "piped" + i);
+        }
+        createNode("nt:unstructured", "piped3");
+
+        API.setQueryDisabled(false);
+        try {
+            final String query = "{\"query\": \"SELECT * FROM [nt:base] as node where localname(node) like 'piped%' order by name(node)\"}";
+
+            final List<Object> buffered = postQueryFor(query, false);
+            assertEquals(4, buffered.size());
+            assertEquals(buffered, postQueryFor(query, true));
+            // flushing doesn't change what is written
+            assertEquals(buffered, postQueryFor(query, true, API.FLUSH_EVERY, "1"));
+
+            // filtered out nodes are skipped while the array is written, without leaving a hole in it
+            final List<Object> filtered = postQueryFor(query, false, API.CHILDREN_NODETYPE_FILTER, "nt:address");
+            assertEquals(3, filtered.size());
+            assertEquals(filtered, postQueryFor(query, true, API.CHILDREN_NODETYPE_FILTER, "nt:address"));
+            given()
+                    .contentType("application/json")
+                    .body(query)
+                    .queryParam(API.STREAM, "true")
+                    .queryParam(API.FLUSH_EVERY, "2")
+                    .queryParam(API.CHILDREN_NODETYPE_FILTER, "nt:address")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(".", hasSize(3))
+                    .body("path", contains("/piped0", "/piped1", "/piped2"))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+        } finally {
+            API.setQueryDisabled(true);
+
+            session.refresh(false);
+            for (int i = 0; i < 4; i++) {
+                session.getRootNode().getNode("piped" + i).remove();
+            }
+            session.save();
+        }
+    }
+
+    @Test
+    public void streamedTypesResultsShouldMatchTheBufferedOnes() throws RepositoryException {
+        for (int i = 0; i < 3; i++) {
+            createNode("nt:address", "typed" + i);
+        }
+
+        API.setQueryDisabled(false);
+        try {
+            final String url = generateURL(API_DEFAULT_EN + Types.MAPPING + "/" + Names.escape("nt:address"));
+
+            final List<Object> buffered = given()
+                    .queryParam("nameContains", "typed")
+                    .queryParam("orderBy", "asc")
+                    .queryParam("noLinks", "true")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body("path", containsInAnyOrder("/typed0", "/typed1", "/typed2"))
+                    .when()
+                    .get(url)
+                    .jsonPath().get();
+
+            final List<Object> streamed = given()
+                    .queryParam("nameContains", "typed")
+                    .queryParam("orderBy", "asc")
+                    .queryParam("noLinks", "true")
+                    .queryParam(API.STREAM, "true")
+                    .queryParam(API.FLUSH_EVERY, "1")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .when()
+                    .get(url)
+                    .jsonPath().get();
+
+            assertEquals(buffered, streamed);
+        } finally {
+            API.setQueryDisabled(true);
+
+            session.refresh(false);
+            for (int i = 0; i < 3; i++) {
+                session.getRootNode().getNode("typed" + i).remove();
+            }
+            session.save();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void streamedQueryWithEmbeddedReferencesShouldWriteThemAfterTheNodes() throws RepositoryException {
+        session.refresh(false);
+        final Node target = session.getRootNode().addNode("pipedTarget", "nt:unstructured");
+        target.addMixin("mix:referenceable");
+        session.getRootNode().addNode("pipedReferencing", "nt:unstructured").setProperty("target", target);
+        session.save();
+
+        API.setQueryDisabled(false);
+        try {
+            final String query = "{\"query\": \"SELECT * FROM [nt:unstructured] as node where localname(node) = 'pipedReferencing'\"}";
+
+            final Map<String, Object> streamed = given()
+                    .contentType("application/json")
+                    .body(query)
+                    .queryParam(API.RESOLVE_REFERENCES, API.EMBEDDED_REFERENCES)
+                    .queryParam(API.STREAM, "true")
+                    .queryParam("noLinks", "true")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body(JSONNodeList.NODES, hasSize(1))
+                    .body(JSONNodeList.NODES + "[0].path", equalTo("/pipedReferencing"))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"))
+                    .jsonPath().get();
+
+            final Map<String, Object> buffered = given()
+                    .contentType("application/json")
+                    .body(query)
+                    .queryParam(API.RESOLVE_REFERENCES, API.EMBEDDED_REFERENCES)
+                    .queryParam("noLinks", "true")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"))
+                    .jsonPath().get();
+
+            // the referenced nodes are only known once all the nodes are written, so they come last
+            final Map<String, Map<String, Object>> embedded = (Map<String, Map<String, Object>>) streamed.get(JSONNodeList.EMBEDDED);
+            assertEquals(Collections.singleton(target.getIdentifier()), embedded.keySet());
+            assertEquals("/pipedTarget", embedded.get(target.getIdentifier()).get("path"));
+            assertEquals(buffered, streamed);
+        } finally {
+            API.setQueryDisabled(true);
+
+            session.refresh(false);
+            session.getRootNode().getNode("pipedReferencing").remove();
+            session.getRootNode().getNode("pipedTarget").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void queryResultsShouldBeCachedUntilRelatedContentChanges() throws Exception {
+        session.refresh(false);
+        session.getRootNode().addNode("cachedQueries", "nt:unstructured").addNode("first", "nt:unstructured");
+        session.getRootNode().addNode("otherContent", "nt:unstructured");
+        session.save();
+
+        final QueryResultCache cache = QueryResultCache.getInstance();
+        final QueryResultCacheInvalidator invalidator = new QueryResultCacheInvalidator();
+        invalidator.setWorkspace("default");
+        final ObservationManager observation = session.getWorkspace().getObservationManager();
+        observation.addEventListener(invalidator, invalidator.getEventTypes(), "/", true, null, null, false);
+        configureQueryCache(10, 100);
+        API.setQueryDisabled(false);
+        try {
+            final String query = "{\"query\": \"SELECT * FROM [nt:unstructured] AS node WHERE ISCHILDNODE(node, '/cachedQueries')\"}";
+            final long misses = cache.getMisses();
+            final long hits = cache.getHits();
+            postQuery(query, 1);
+            postQuery(query, 1);
+            assertEquals(misses + 1, cache.getMisses());
+            assertEquals(hits + 1, cache.getHits());
+
+            // a change outside of the paths the query is restricted to leaves its entry alone
+            long invalidations = cache.getInvalidations();
+            session.getNode("/otherContent").setProperty("value", "changed");
+            session.save();
+            awaitInvalidation(cache, invalidations);
+            postQuery(query, 1);
+            assertEquals(hits + 2, cache.getHits());
+
+            invalidations = cache.getInvalidations();
+            session.getNode("/cachedQueries").addNode("second", "nt:unstructured");
+            session.save();
+            awaitInvalidation(cache, invalidations);
+            postQuery(query, 2);
+            assertEquals(misses + 2, cache.getMisses());
+        } finally {
+            API.setQueryDisabled(true);
+            APIConfigurationService.getInstance().updated(null);
+            observation.removeEventListener(invalidator);
+
+            session.refresh(false);
+            session.getRootNode().getNode("cachedQueries").remove();
+            session.getRootNode().getNode("otherContent").remove();
+            session.save();
+        }
+    }
+
+    @Test
+    public void queryCacheShouldEvictTheLeastRecentlyUsedEntryAndSkipLargeResults() throws Exception {
+        session.refresh(false);
+        final Node parent = session.getRootNode().addNode("evictedQueries", "nt:unstructured");
+        parent.addNode("a", "nt:unstructured");
+        parent.addNode("b", "nt:unstructured");
+        session.save();
+
+        final QueryResultCache cache = QueryResultCache.getInstance();
+        configureQueryCache(1, 1);
+        API.setQueryDisabled(false);
+        try {
+            final String children = "SELECT * FROM [nt:unstructured] AS node WHERE ISCHILDNODE(node, '/evictedQueries')";
+            final String queryA = "{\"query\": \"" + children + " AND localname(node) = 'a'\"}";
+            final String queryB = "{\"query\": \"" + children + " AND localname(node) = 'b'\"}";
+
+            postQuery(queryA, 1);
+            assertEquals(1, cache.getSize());
+            final long evictions = cache.getEvictions();
+            postQuery(queryB, 1);
+            assertEquals(evictions + 1, cache.getEvictions());
+            assertEquals(1, cache.getSize());
+
+            final long misses = cache.getMisses();
+            postQuery(queryA, 1);
+            assertEquals(misses + 1, cache.getMisses());
+
+            // more nodes than an entry may hold: all are still found, none is cached
+            postQuery("{\"query\": \"" + children + "\"}", 2);
+            postQuery("{\"query\": \"" + children + "\"}", 2);
+            assertEquals(misses + 3, cache.getMisses());
+        } finally {
+            API.setQueryDisabled(true);
+            APIConfigurationService.getInstance().updated(null);
+
+            session.refresh(false);
+            session.getRootNode().getNode("evictedQueries").remove();
+            session.save();
+        }
+    }
+
+    private void postQuery(String query, int expectedSize) {
+        given()
+                .contentType("application/json")
+                .body(query)
+                .queryParam("noLinks", "true")
+                .expect()
+                .statusCode(SC_OK)
+                .body(".", hasSize(expectedSize))
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"));
+    }
+
+    private static void configureQueryCache(int maxEntries, int maxEntrySize) {
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.QUERY_CACHE_MAX_ENTRIES, Integer.toString(maxEntries));
+        settings.put(APIConfiguration.QUERY_CACHE_MAX_ENTRY_SIZE, Integer.toString(maxEntrySize));
+        APIConfigurationService.getInstance().updated(settings);
+    }
+
+    /**
+     * Waits for the repository to notify the cache of the changes just saved, which it does asynchronously.
+     */
+    private static void awaitInvalidation(QueryResultCache cache, long invalidations) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getInvalidations() == invalidations && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("the cache should have been notified of the changes", cache.getInvalidations() > invalidations);
+    }
+
+    @Test
+    public void testQueryCountOnly() throws RepositoryException {
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 3; i++) {
+            createNode(nodeType, "count" + i);
+        }
+
+        API.setQueryDisabled(false);
+        try {
+            given()
+                    .contentType("application/json")
+                    .body("{\"query\": \"SELECT * FROM [" + nodeType + "] as node where localname(node) like 'count%'\", \"countOnly\": true}")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body("count", equalTo(3))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+
+            given()
+                    .contentType("application/json")
+                    .body("{\"query\": \"SELECT * FROM [" + nodeType + "] as node where localname(node) like 'count%'\", \"countOnly\": true, \"limit\": 2}")
+                    .expect()
+                    .statusCode(SC_OK)
+                    .body("count", equalTo(2))
+                    .when()
+                    .post(generateURL(API_DEFAULT_EN + "query"));
+        } finally {
+            API.setQueryDisabled(true);
+
+            session.refresh(false);
+            for (int i = 0; i < 3; i++) {
+                session.getRootNode().getNode("count" + i).remove();
+            }
+            session.save();
+        }
+    }
+
+    @Test
+    public void streamedResponsesShouldBeWrittenWhenAnsweredAsynchronously() throws Exception {
+        final String nodeType = "nt:address";
+        for (int i = 0; i < 3; i++) {
+            createNode(nodeType, "async" + i);
+        }
+        final byte[] content = new byte[16 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        session.refresh(false);
+        session.getRootNode().addNode("asyncBinary", "nt:unstructured")
+                .setProperty("jcr:data", session.getValueFactory().createBinary(new ByteArrayInputStream(content)));
+        session.save();
+
+        // the streamed entities own their session, which the thread of the task must not close before they are written
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.ASYNC_EXECUTION, "true");
+        APIConfigurationService.getInstance().updated(settings);
+        API.setQueryDisabled(false);
+        try {
+            for (int attempt = 0; attempt < 10; attempt++) {
+                given()
+                        .contentType("application/json")
+                        .body("{\"query\": \"SELECT * FROM [" + nodeType + "] as node where localname(node) like 'async%' order by name(node)\"}")
+                        .queryParam(API.STREAM, "true")
+                        .queryParam("noLinks", "true")
+                        .expect()
+                        .statusCode(SC_OK)
+                        .body(".", hasSize(3))
+                        .body("[0].path", equalTo("/async0"))
+                        .body("[2].path", equalTo("/async2"))
+                        .when()
+                        .post(generateURL(API_DEFAULT_EN + "query"));
+
+                final byte[] range = given().header("Range", "bytes=1000-1999")
+                        .when()
+                        .get(getURLByPath("asyncBinary/binary"))
+                        .then()
+                        .assertThat()
+                        .statusCode(SC_PARTIAL_CONTENT)
+                        .header("Content-Range", "bytes 1000-1999/" + content.length)
+                        .extract().asByteArray();
+                assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), range);
+            }
+        } finally {
+            API.setQueryDisabled(true);
+            APIConfigurationService.getInstance().updated(null);
+
+            session.refresh(false);
+            for (int i = 0; i < 3; i++) {
+                session.getRootNode().getNode("async" + i).remove();
+            }
+            session.getRootNode().getNode("asyncBinary").remove();
+            session.save();
+        }
+    }
+
+    /**
+     * Posts the given query to the query endpoint, with the given query parameters as name and value pairs, and returns
+     * the found nodes.
+     */
+    private List<Object> postQueryFor(String query, boolean stream, String... parameters) {
+        final RequestSpecification request = given()
+                .contentType("application/json")
+                .body(query)
+                .queryParam("noLinks", "true");
+        if (stream) {
+            request.queryParam(API.STREAM, "true");
+        }
+        for (int i = 0; i < parameters.length; i += 2) {
+            request.queryParam(parameters[i], parameters[i + 1]);
+        }
+        return request.expect()
+                .statusCode(SC_OK)
+                .when()
+                .post(generateURL(API_DEFAULT_EN + "query"))
+                .jsonPath().get();
+    }
+
     private String generateURL(String path) {
         return target(path).getUri().toASCIIString();
     }
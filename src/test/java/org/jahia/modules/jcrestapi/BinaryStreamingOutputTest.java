@@ -0,0 +1,111 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.Binary;
+import javax.jcr.Session;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BinaryStreamingOutputTest {
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[200 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        file = File.createTempFile("jcrestapi-binary", ".bin");
+        Files.write(file.toPath(), content);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void rangeOfAFileStreamShouldBeSentFromItsChannel() throws Exception {
+        final Binary binary = mock(Binary.class);
+        when(binary.getStream()).thenReturn(new FileInputStream(file));
+
+        assertThat(write(binary, 100000, 70000)).isEqualTo(Arrays.copyOfRange(content, 100000, 170000));
+    }
+
+    @Test
+    public void rangeOfAnyOtherStreamShouldBeSkippedTo() throws Exception {
+        final Binary binary = mock(Binary.class);
+        when(binary.getStream()).thenReturn(new BufferedInputStream(new ByteArrayInputStream(content)));
+
+        assertThat(write(binary, 100000, 70000)).isEqualTo(Arrays.copyOfRange(content, 100000, 170000));
+    }
+
+    private byte[] write(Binary binary, long start, long length) throws Exception {
+        final API api = mock(API.class);
+        final Session session = mock(Session.class);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new BinaryStreamingOutput(api, session, binary, start, length).write(output);
+
+        verify(binary).dispose();
+        verify(api).closeSession(session);
+        return output.toByteArray();
+    }
+}
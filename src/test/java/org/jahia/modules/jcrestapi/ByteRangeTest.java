@@ -0,0 +1,91 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ByteRangeTest {
+
+    @Test
+    public void boundedRangeShouldBeClampedToTheBinary() {
+        final ByteRange range = ByteRange.parse("bytes=10-19", 100);
+        assertThat(range.getStart()).isEqualTo(10);
+        assertThat(range.getLength()).isEqualTo(10);
+        assertThat(range.toContentRange(100)).isEqualTo("bytes 10-19/100");
+
+        final ByteRange pastTheEnd = ByteRange.parse("bytes=90-199", 100);
+        assertThat(pastTheEnd.getLength()).isEqualTo(10);
+        assertThat(pastTheEnd.toContentRange(100)).isEqualTo("bytes 90-99/100");
+    }
+
+    @Test
+    public void openAndSuffixRangesShouldReachTheEndOfTheBinary() {
+        final ByteRange open = ByteRange.parse("bytes=40-", 100);
+        assertThat(open.getStart()).isEqualTo(40);
+        assertThat(open.getLength()).isEqualTo(60);
+
+        final ByteRange suffix = ByteRange.parse("bytes=-30", 100);
+        assertThat(suffix.getStart()).isEqualTo(70);
+        assertThat(suffix.getLength()).isEqualTo(30);
+
+        assertThat(ByteRange.parse("bytes=-300", 100).getStart()).isEqualTo(0);
+    }
+
+    @Test
+    public void rangeStartingPastTheEndShouldBeUnsatisfiable() {
+        assertThat(ByteRange.parse("bytes=100-", 100)).isSameAs(ByteRange.UNSATISFIABLE);
+        assertThat(ByteRange.UNSATISFIABLE.toContentRange(100)).isEqualTo("bytes */100");
+    }
+
+    @Test
+    public void unsupportedRangesShouldBeIgnored() {
+        assertThat(ByteRange.parse(null, 100)).isNull();
+        assertThat(ByteRange.parse("items=0-1", 100)).isNull();
+        assertThat(ByteRange.parse("bytes=0-1,5-6", 100)).isNull();
+        assertThat(ByteRange.parse("bytes=5-1", 100)).isNull();
+        assertThat(ByteRange.parse("bytes=a-b", 100)).isNull();
+    }
+}
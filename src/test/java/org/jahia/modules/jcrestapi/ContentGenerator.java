@@ -0,0 +1,287 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fills a repository with synthetic content of a parameterized shape, to exercise the API with realistic trees.
+ *
+ * <p>Content is created under {@code /generated}, in two parts:</p>
+ * <ul>
+ * <li>a tree of {@code nodes} {@code nt:unstructured} nodes, each with up to {@code fanOut} children, filled breadth
+ * first unless {@code depth} is set, in which case it is filled depth first down to {@code depth} levels, giving deep
+ * hierarchies,</li>
+ * <li>a wide folder, {@code /generated/wide}, with {@code wideChildren} children.</li>
+ * </ul>
+ * <p>Each node has {@code properties} string properties, a long and a date. With {@code references} set, nodes are
+ * referenceable and each one references as many nodes created before it, picked at random, which builds a reference
+ * graph. With {@code languages} set, each node has a translation child per language, named and structured like the
+ * ones of Jahia, holding a title in that language.</p>
+ *
+ * <p>The same seed always generates the same content. The session is saved every {@code saveEvery} nodes, so that
+ * large trees don't have to fit in the transient space.</p>
+ */
+public class ContentGenerator {
+    public static final String ROOT = "generated";
+    public static final String WIDE = "wide";
+    public static final String PROPERTY = "property";
+    private static final String JAHIA_PREFIX = "j";
+    private static final String JAHIA_URI = "http://www.jahia.org/jahia/1.0";
+    private static final String TRANSLATION = JAHIA_PREFIX + ":translation_";
+
+    private int nodes = 1000;
+    private int fanOut = 10;
+    private int depth = 0;
+    private int wideChildren = 0;
+    private int properties = 5;
+    private int references = 0;
+    private List<String> languages = Collections.emptyList();
+    private int saveEvery = 1000;
+    private long seed = 42;
+
+    private Random random;
+    private Session session;
+    private int created;
+    private int unsaved;
+    private final List<String> identifiers = new ArrayList<String>();
+    private final List<String> paths = new ArrayList<String>();
+
+    public ContentGenerator nodes(int nodes) {
+        this.nodes = nodes;
+        return this;
+    }
+
+    public ContentGenerator fanOut(int fanOut) {
+        this.fanOut = fanOut;
+        return this;
+    }
+
+    public ContentGenerator depth(int depth) {
+        this.depth = depth;
+        return this;
+    }
+
+    public ContentGenerator wideChildren(int wideChildren) {
+        this.wideChildren = wideChildren;
+        return this;
+    }
+
+    public ContentGenerator properties(int properties) {
+        this.properties = properties;
+        return this;
+    }
+
+    public ContentGenerator references(int references) {
+        this.references = references;
+        return this;
+    }
+
+    public ContentGenerator languages(List<String> languages) {
+        this.languages = languages;
+        return this;
+    }
+
+    public ContentGenerator saveEvery(int saveEvery) {
+        this.saveEvery = saveEvery;
+        return this;
+    }
+
+    public ContentGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Generates the content in the given session, replacing the one previously generated, if any.
+     *
+     * @param session the session to create the content with, saved when done
+     * @throws RepositoryException if the content cannot be created
+     */
+    public void generate(Session session) throws RepositoryException {
+        this.session = session;
+        random = new Random(seed);
+        created = 0;
+        unsaved = 0;
+        identifiers.clear();
+        paths.clear();
+
+        if (!languages.isEmpty()) {
+            registerJahiaNamespace(session);
+        }
+
+        final Node rootNode = session.getRootNode();
+        if (rootNode.hasNode(ROOT)) {
+            rootNode.getNode(ROOT).remove();
+            session.save();
+        }
+        final Node root = rootNode.addNode(ROOT, "nt:unstructured");
+
+        if (depth > 0) {
+            generateDepthFirst(root, depth);
+        } else {
+            generateBreadthFirst(root);
+        }
+
+        if (wideChildren > 0) {
+            final Node wide = root.addNode(WIDE, "nt:unstructured");
+            for (int i = 0; i < wideChildren; i++) {
+                createNode(wide, "item" + i);
+            }
+        }
+
+        session.save();
+    }
+
+    private void generateBreadthFirst(Node root) throws RepositoryException {
+        final List<Node> parents = new ArrayList<Node>();
+        parents.add(root);
+        int parent = 0;
+        while (created < nodes && parent < parents.size()) {
+            final Node node = parents.get(parent);
+            for (int i = 0; i < fanOut && created < nodes; i++) {
+                parents.add(createNode(node, "node" + i));
+            }
+            // not needed anymore once its children are created
+            parents.set(parent++, null);
+        }
+    }
+
+    private void generateDepthFirst(Node parent, int levels) throws RepositoryException {
+        for (int i = 0; i < fanOut && created < nodes; i++) {
+            final Node node = createNode(parent, "node" + i);
+            if (levels > 1) {
+                generateDepthFirst(node, levels - 1);
+            }
+        }
+    }
+
+    private Node createNode(Node parent, String name) throws RepositoryException {
+        final Node node = parent.addNode(name, "nt:unstructured");
+        if (references > 0) {
+            node.addMixin("mix:referenceable");
+        }
+
+        for (int i = 0; i < properties; i++) {
+            node.setProperty(PROPERTY + i, "value " + random.nextInt(100));
+        }
+        node.setProperty("count", (long) created);
+        node.setProperty("date", Calendar.getInstance());
+
+        if (references > 0 && !identifiers.isEmpty()) {
+            final Value[] targets = new Value[Math.min(references, identifiers.size())];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = session.getValueFactory().createValue(session.getNodeByIdentifier(identifiers.get(random.nextInt(identifiers.size()))));
+            }
+            node.setProperty("references", targets);
+        }
+
+        for (String language : languages) {
+            final Node translation = node.addNode(TRANSLATION + language, "nt:unstructured");
+            translation.setProperty("jcr:language", language);
+            translation.setProperty("jcr:title", name + " (" + language + ")");
+        }
+
+        created++;
+        identifiers.add(node.getIdentifier());
+        paths.add(node.getPath());
+
+        if (++unsaved >= saveEvery) {
+            session.save();
+            unsaved = 0;
+        }
+        return node;
+    }
+
+    private static void registerJahiaNamespace(Session session) throws RepositoryException {
+        final NamespaceRegistry registry = session.getWorkspace().getNamespaceRegistry();
+        try {
+            registry.getURI(JAHIA_PREFIX);
+        } catch (NamespaceException e) {
+            registry.registerNamespace(JAHIA_PREFIX, JAHIA_URI);
+        }
+    }
+
+    /**
+     * @return the identifiers of the generated nodes, in creation order, translations excepted
+     */
+    public List<String> getIdentifiers() {
+        return Collections.unmodifiableList(identifiers);
+    }
+
+    /**
+     * @return the paths of the generated nodes, in creation order, translations excepted
+     */
+    public List<String> getPaths() {
+        return Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * @return the parameters of the generated content, for reports
+     */
+    public Map<String, Object> getShape() {
+        final Map<String, Object> shape = new LinkedHashMap<String, Object>();
+        shape.put("nodes", nodes);
+        shape.put("fanOut", fanOut);
+        shape.put("depth", depth);
+        shape.put("wideChildren", wideChildren);
+        shape.put("properties", properties);
+        shape.put("references", references);
+        shape.put("languages", languages);
+        shape.put("seed", seed);
+        return shape;
+    }
+}
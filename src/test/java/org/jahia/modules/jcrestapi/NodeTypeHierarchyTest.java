@@ -0,0 +1,127 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.nodetype.NodeType;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class NodeTypeHierarchyTest {
+
+    @Test
+    public void supertypesOfThePrimaryTypeAndMixinsShouldMatch() throws RepositoryException {
+        final Node node = node(nodeType("jnt:article", "jnt:content", "nt:base"), nodeType("jmix:tagged"));
+
+        final NodeTypeHierarchy hierarchy = NodeTypeHierarchy.getInstance();
+        assertThat(hierarchy.isNodeType(node, "jnt:article")).isTrue();
+        assertThat(hierarchy.isNodeType(node, "jnt:content")).isTrue();
+        assertThat(hierarchy.isNodeType(node, "jmix:tagged")).isTrue();
+        assertThat(hierarchy.isNodeType(node, "jnt:page")).isFalse();
+        assertThat(hierarchy.isAnyNodeType(node, Arrays.asList("jnt:page", "nt:base"))).isTrue();
+        assertThat(hierarchy.isAnyNodeType(node, Arrays.asList("jnt:page", "jnt:file"))).isFalse();
+
+        // answered from the computed closure, not by the node
+        verify(node, never()).isNodeType(anyString());
+    }
+
+    @Test
+    public void closuresShouldBeSharedByNodesOfTheSameTypes() throws RepositoryException {
+        final NodeType article = nodeType("jnt:sharedArticle", "jnt:content");
+        assertThat(NodeTypeHierarchy.getInstance().isNodeType(node(article), "jnt:content")).isTrue();
+        assertThat(NodeTypeHierarchy.getInstance().isNodeType(node(article), "jnt:content")).isTrue();
+
+        verify(article, times(1)).getSupertypes();
+    }
+
+    @Test
+    public void invalidatingShouldRecomputeClosures() throws RepositoryException {
+        final NodeType type = nodeType("jnt:redefined", "jnt:content");
+        final Node node = node(type);
+        assertThat(NodeTypeHierarchy.getInstance().isNodeType(node, "jnt:content")).isTrue();
+
+        final NodeType content = mock(NodeType.class);
+        when(content.getName()).thenReturn("jnt:otherContent");
+        when(type.getSupertypes()).thenReturn(new NodeType[]{content});
+        NodeTypeHierarchy.getInstance().invalidate();
+
+        assertThat(NodeTypeHierarchy.getInstance().isNodeType(node, "jnt:content")).isFalse();
+        assertThat(NodeTypeHierarchy.getInstance().isNodeType(node, "jnt:otherContent")).isTrue();
+    }
+
+    @Test
+    public void typesNotListingTheirSupertypesShouldBeAskedToTheNode() throws RepositoryException {
+        final NodeType type = mock(NodeType.class);
+        when(type.getName()).thenReturn("jnt:opaque");
+        final Node node = node(type);
+        when(node.isNodeType("jnt:content")).thenReturn(true);
+
+        assertThat(NodeTypeHierarchy.getInstance().isNodeType(node, "jnt:content")).isTrue();
+        verify(node).isNodeType("jnt:content");
+    }
+
+    private static NodeType nodeType(String name, String... supertypeNames) {
+        final NodeType nodeType = mock(NodeType.class);
+        when(nodeType.getName()).thenReturn(name);
+        final NodeType[] supertypes = new NodeType[supertypeNames.length];
+        for (int i = 0; i < supertypeNames.length; i++) {
+            supertypes[i] = mock(NodeType.class);
+            when(supertypes[i].getName()).thenReturn(supertypeNames[i]);
+        }
+        when(nodeType.getSupertypes()).thenReturn(supertypes);
+        return nodeType;
+    }
+
+    private static Node node(NodeType primaryType, NodeType... mixins) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPrimaryNodeType()).thenReturn(primaryType);
+        when(node.getMixinNodeTypes()).thenReturn(mixins);
+        return node;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.services.securityfilter.PermissionService;
+import org.jahia.services.securityfilter.ScopeDefinition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.nodetype.NodeType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Hashtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PermissionDecisionCacheTest {
+    private static final String API = "jcrestapi.read";
+
+    private final PermissionDecisionCache cache = PermissionDecisionCache.getInstance();
+
+    @Before
+    public void setUp() {
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.PERMISSION_CACHE_TTL, "60000");
+        settings.put(APIConfiguration.PERMISSION_CACHE_MAX_ENTRIES, "2");
+        APIConfigurationService.getInstance().updated(settings);
+        cache.clear();
+    }
+
+    @After
+    public void reset() {
+        APIConfigurationService.getInstance().updated(null);
+        cache.clear();
+    }
+
+    @Test
+    public void sharedDecisionsShouldBeReusedForSameScopes() throws RepositoryException {
+        final PermissionService permissionService = createPermissionService(true, "token-a");
+        final Node node = createNode("/sites/a", "guest");
+
+        assertThat(cache.hasPermission(permissionService, API, node)).isTrue();
+        assertThat(cache.hasPermission(permissionService, API, node)).isTrue();
+
+        verify(permissionService, times(1)).hasPermission(API, node);
+    }
+
+    @Test
+    public void sharedDecisionsShouldNotLeakAcrossScopes() throws RepositoryException {
+        final Node node = createNode("/sites/a", "guest");
+
+        // a token granting a scope to a guest
+        final PermissionService granted = createPermissionService(true, "token-a");
+        assertThat(cache.hasPermission(granted, API, node)).isTrue();
+
+        // another guest request, without that token, must be asked about again
+        final PermissionService denied = createPermissionService(false);
+        assertThat(cache.hasPermission(denied, API, node)).isFalse();
+        verify(denied).hasPermission(API, node);
+
+        // scopes are compared regardless of their order
+        final PermissionService reordered = createPermissionService(false, "origin-b", "token-a");
+        final PermissionService same = createPermissionService(true, "token-a", "origin-b");
+        assertThat(cache.hasPermission(reordered, API, node)).isFalse();
+        assertThat(cache.hasPermission(same, API, node)).isFalse();
+        verify(same, times(0)).hasPermission(anyString(), any(Node.class));
+    }
+
+    @Test
+    public void fullSharedTierShouldEvictLeastRecentlyUsedDecision() throws RepositoryException {
+        final PermissionService permissionService = createPermissionService(true, "token-a");
+        final Node first = createNode("/sites/first", "john");
+        final Node second = createNode("/sites/second", "john");
+        final Node third = createNode("/sites/third", "john");
+
+        cache.hasPermission(permissionService, API, first);
+        cache.hasPermission(permissionService, API, second);
+        // first becomes the most recently used
+        cache.hasPermission(permissionService, API, first);
+
+        final long evictions = cache.getEvictions();
+        cache.hasPermission(permissionService, API, third);
+        assertThat(cache.getSize()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(evictions + 1);
+
+        // first is still shared, second was evicted
+        cache.hasPermission(permissionService, API, first);
+        verify(permissionService, times(1)).hasPermission(API, first);
+        cache.hasPermission(permissionService, API, second);
+        verify(permissionService, times(2)).hasPermission(API, second);
+    }
+
+    @Test
+    public void loweredMaximumShouldEvictDecisions() throws RepositoryException {
+        final PermissionService permissionService = createPermissionService(true, "token-a");
+        cache.hasPermission(permissionService, API, createNode("/sites/first", "john"));
+        cache.hasPermission(permissionService, API, createNode("/sites/second", "john"));
+        assertThat(cache.getSize()).isEqualTo(2);
+
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.PERMISSION_CACHE_TTL, "60000");
+        settings.put(APIConfiguration.PERMISSION_CACHE_MAX_ENTRIES, "1");
+        APIConfigurationService.getInstance().updated(settings);
+
+        assertThat(cache.getSize()).isEqualTo(1);
+    }
+
+    private static PermissionService createPermissionService(boolean permitted, String... scopeNames) throws RepositoryException {
+        final PermissionService permissionService = mock(PermissionService.class);
+        final Collection<ScopeDefinition> scopes = new ArrayList<ScopeDefinition>();
+        for (String scopeName : scopeNames) {
+            final ScopeDefinition scope = mock(ScopeDefinition.class);
+            when(scope.getScopeName()).thenReturn(scopeName);
+            scopes.add(scope);
+        }
+        when(permissionService.getCurrentScopes()).thenReturn(scopes);
+        when(permissionService.hasPermission(anyString(), any(Node.class))).thenReturn(permitted);
+        return permissionService;
+    }
+
+    private static Node createNode(String path, String user) throws RepositoryException {
+        final Workspace workspace = mock(Workspace.class);
+        when(workspace.getName()).thenReturn("default");
+        final Session session = mock(Session.class);
+        when(session.getUserID()).thenReturn(user);
+        when(session.getWorkspace()).thenReturn(workspace);
+        final NodeType type = mock(NodeType.class);
+        when(type.getName()).thenReturn("jnt:contentList");
+
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+        when(node.getSession()).thenReturn(session);
+        when(node.getPrimaryNodeType()).thenReturn(type);
+        return node;
+    }
+}
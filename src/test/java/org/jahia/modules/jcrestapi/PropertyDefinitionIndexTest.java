@@ -0,0 +1,83 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.Test;
+
+import javax.jcr.PropertyType;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PropertyDefinitionIndexTest {
+
+    @Test
+    public void definitionsShouldBeFoundByName() {
+        final NodeType nodeType = Mocks.createNodeType("jnt:indexed");
+        final PropertyDefinition title = Mocks.createPropertyDefinition("jcr:title", nodeType, PropertyType.STRING, false, null);
+        final PropertyDefinition tags = Mocks.createPropertyDefinition("j:tags", nodeType, PropertyType.STRING, true, nodeType.getPropertyDefinitions());
+
+        final PropertyDefinitionIndex index = PropertyDefinitionIndex.getInstance();
+        assertThat(index.getDefinition(nodeType, "jcr:title")).isSameAs(title);
+        assertThat(index.getDefinition(nodeType, "j:tags")).isSameAs(tags);
+        assertThat(index.getDefinition(nodeType, "j:unknown")).isNull();
+        assertThat(index.getDeclaredCount(nodeType)).isEqualTo(2);
+        assertThat(index.getDeclaredPosition(nodeType, "jcr:title")).isEqualTo(1);
+        assertThat(index.getDeclaredPosition(nodeType, "j:tags")).isEqualTo(2);
+        assertThat(index.getDeclaredPosition(nodeType, "j:unknown")).isEqualTo(1);
+    }
+
+    @Test
+    public void definitionsAddedAfterTheIndexWasBuiltShouldBeFound() {
+        final NodeType nodeType = Mocks.createNodeType("jnt:growing");
+        Mocks.createPropertyDefinition("jcr:title", nodeType, PropertyType.STRING, false, null);
+        assertThat(PropertyDefinitionIndex.getInstance().getDefinition(nodeType, "jcr:description")).isNull();
+
+        final PropertyDefinition description = Mocks.createPropertyDefinition("jcr:description", nodeType, PropertyType.STRING, false, nodeType.getPropertyDefinitions());
+
+        assertThat(PropertyDefinitionIndex.getInstance().getDefinition(nodeType, "jcr:description")).isSameAs(description);
+        assertThat(PropertyDefinitionIndex.getInstance().getDeclaredPosition(nodeType, "jcr:description")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.qom.And;
+import javax.jcr.query.qom.Comparison;
+import javax.jcr.query.qom.Constraint;
+import javax.jcr.query.qom.DescendantNode;
+import javax.jcr.query.qom.Join;
+import javax.jcr.query.qom.Or;
+import javax.jcr.query.qom.QueryObjectModel;
+import javax.jcr.query.qom.Selector;
+import javax.jcr.query.qom.Source;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class QueryResultCacheTest {
+    private static final String WORKSPACE = "default";
+
+    private final QueryResultCache cache = QueryResultCache.getInstance();
+    private Session session;
+
+    @Before
+    public void setUp() throws RepositoryException {
+        configureCache(2, 2);
+        cache.clear();
+
+        session = mock(Session.class);
+        final Workspace workspace = mock(Workspace.class);
+        when(workspace.getName()).thenReturn(WORKSPACE);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(session.getUserID()).thenReturn("john");
+        when(session.getNodeByIdentifier(anyString())).thenAnswer(new Answer<Node>() {
+            @Override
+            public Node answer(InvocationOnMock invocation) {
+                final Node node = mock(Node.class);
+                try {
+                    when(node.getIdentifier()).thenReturn((String) invocation.getArguments()[0]);
+                } catch (RepositoryException e) {
+                    throw new AssertionError(e);
+                }
+                return node;
+            }
+        });
+    }
+
+    @After
+    public void reset() {
+        APIConfigurationService.getInstance().updated(null);
+        cache.clear();
+    }
+
+    @Test
+    public void scopeShouldOnlyComeFromPathConstraintsAllNodesSatisfy() throws RepositoryException {
+        final DescendantNode underA = descendantNode("/sites/a");
+        final DescendantNode underB = descendantNode("/sites/b");
+
+        final And and = mock(And.class);
+        when(and.getConstraint1()).thenReturn(underA);
+        when(and.getConstraint2()).thenReturn(mock(Comparison.class));
+        assertThat(QueryResultCache.getScope(model(mock(Selector.class), and))).containsOnly("/sites/a");
+
+        final Or or = mock(Or.class);
+        when(or.getConstraint1()).thenReturn(underA);
+        when(or.getConstraint2()).thenReturn(underB);
+        assertThat(QueryResultCache.getScope(model(mock(Selector.class), or))).isNull();
+
+        assertThat(QueryResultCache.getScope(model(mock(Join.class), underA))).isNull();
+        assertThat(QueryResultCache.getScope(model(mock(Selector.class), null))).isNull();
+        assertThat(QueryResultCache.getScope(mock(Query.class))).isNull();
+    }
+
+    @Test
+    public void entriesShouldOnlyBeInvalidatedByRelatedChanges() throws RepositoryException {
+        final StubQueryCreator scoped = new StubQueryCreator("scoped", model(mock(Selector.class), descendantNode("/sites/a")), "a1");
+        final StubQueryCreator unscoped = new StubQueryCreator("unscoped", model(mock(Selector.class), null), "b1");
+        read(scoped);
+        read(unscoped);
+        assertThat(cache.getSize()).isEqualTo(2);
+
+        cache.invalidate(WORKSPACE, Collections.singleton("/sites/b/home/jcr:title"));
+        assertThat(cache.getSize()).isEqualTo(1);
+        final long hits = cache.getHits();
+        assertThat(read(scoped)).containsExactly("a1");
+        assertThat(cache.getHits()).isEqualTo(hits + 1);
+
+        // moving or removing an ancestor affects the nodes under it
+        cache.invalidate("live", Collections.singleton("/sites"));
+        assertThat(cache.getSize()).isEqualTo(1);
+        cache.invalidate(WORKSPACE, Collections.singleton("/sites"));
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryShouldBeEvicted() throws RepositoryException {
+        final StubQueryCreator first = new StubQueryCreator("first", mock(Query.class), "1");
+        final StubQueryCreator second = new StubQueryCreator("second", mock(Query.class), "2");
+        final StubQueryCreator third = new StubQueryCreator("third", mock(Query.class), "3");
+        read(first);
+        read(second);
+        read(first);
+        final long evictions = cache.getEvictions();
+
+        read(third);
+        assertThat(cache.getEvictions()).isEqualTo(evictions + 1);
+
+        final long misses = cache.getMisses();
+        read(first);
+        assertThat(cache.getMisses()).isEqualTo(misses);
+        read(second);
+        assertThat(cache.getMisses()).isEqualTo(misses + 1);
+    }
+
+    @Test
+    public void queryFindingTooManyNodesShouldNotBeCached() throws RepositoryException {
+        final StubQueryCreator large = new StubQueryCreator("large", mock(Query.class), "1", "2", "3");
+        assertThat(read(large)).containsExactly("1", "2", "3");
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void queryRunWhileContentChangesShouldNotBeCached() throws RepositoryException {
+        final StubQueryCreator changing = new StubQueryCreator("changing", mock(Query.class), "1") {
+            @Override
+            protected void executed() {
+                cache.invalidate(WORKSPACE, Collections.singleton("/elsewhere"));
+            }
+        };
+        assertThat(read(changing)).containsExactly("1");
+        assertThat(cache.getSize()).isEqualTo(0);
+    }
+
+    private List<String> read(API.QueryCreator queryCreator) throws RepositoryException {
+        final List<String> identifiers = new ArrayList<String>();
+        for (NodeIterator nodes = cache.getNodes(session, queryCreator); nodes.hasNext(); ) {
+            identifiers.add(nodes.nextNode().getIdentifier());
+        }
+        return identifiers;
+    }
+
+    private static QueryObjectModel model(Source source, Constraint constraint) {
+        final QueryObjectModel model = mock(QueryObjectModel.class);
+        when(model.getSource()).thenReturn(source);
+        when(model.getConstraint()).thenReturn(constraint);
+        return model;
+    }
+
+    private static DescendantNode descendantNode(String path) {
+        final DescendantNode constraint = mock(DescendantNode.class);
+        when(constraint.getAncestorPath()).thenReturn(path);
+        return constraint;
+    }
+
+    private static void configureCache(int maxEntries, int maxEntrySize) {
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.QUERY_CACHE_MAX_ENTRIES, Integer.toString(maxEntries));
+        settings.put(APIConfiguration.QUERY_CACHE_MAX_ENTRY_SIZE, Integer.toString(maxEntrySize));
+        APIConfigurationService.getInstance().updated(settings);
+    }
+
+    /**
+     * Builds a query finding the nodes with the given identifiers.
+     */
+    private class StubQueryCreator extends API.QueryCreator {
+        private final String key;
+        private final Query query;
+
+        private StubQueryCreator(String key, Query query, final String... identifiers) throws RepositoryException {
+            super(0, 0, null);
+            this.key = key;
+            this.query = query;
+            final QueryResult result = mock(QueryResult.class);
+            when(result.getNodes()).thenAnswer(new Answer<NodeIterator>() {
+                @Override
+                public NodeIterator answer(InvocationOnMock invocation) {
+                    return new QueryResultCache.IdentifierNodeIterator(session, Arrays.asList(identifiers), null);
+                }
+            });
+            when(query.execute()).thenAnswer(new Answer<QueryResult>() {
+                @Override
+                public QueryResult answer(InvocationOnMock invocation) {
+                    executed();
+                    return result;
+                }
+            });
+        }
+
+        protected void executed() {
+        }
+
+        @Override
+        protected Query createQuery(Session session) {
+            return query;
+        }
+
+        @Override
+        protected String getStatementKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.jahia.modules.jcrestapi.accessors.ChunkedSave;
+import org.jahia.modules.jcrestapi.links.ReferenceResolver;
+import org.junit.Test;
+
+import javax.jcr.Session;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RequestOptionsTest {
+
+    @Test
+    public void requestWithoutQueryParametersShouldUseDefaults() {
+        assertThat(RequestOptions.from((MultivaluedMap<String, String>) null)).isSameAs(RequestOptions.DEFAULT);
+        assertThat(RequestOptions.from(new MultivaluedHashMap<String, String>())).isSameAs(RequestOptions.DEFAULT);
+
+        assertThat(RequestOptions.DEFAULT.isOutputLinks()).isTrue();
+        assertThat(RequestOptions.DEFAULT.isResolveReferences()).isFalse();
+        assertThat(RequestOptions.DEFAULT.isIncludeFullChildren()).isFalse();
+        assertThat(RequestOptions.DEFAULT.getFilter()).isSameAs(API.NODE_FILTER);
+        assertThat(RequestOptions.DEFAULT.getDepth(1)).isEqualTo(1);
+    }
+
+    @Test
+    public void flagsShouldBeParsedFromQueryParameters() {
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<String, String>();
+        queryParameters.putSingle(API.NO_LINKS, "");
+        queryParameters.putSingle(API.RESOLVE_REFERENCES, API.EMBEDDED_REFERENCES);
+        queryParameters.putSingle(API.INCLUDE_FULL_CHILDREN, "false");
+
+        final RequestOptions options = RequestOptions.from(queryParameters);
+        assertThat(options.isOutputLinks()).isFalse();
+        assertThat(options.isResolveReferences()).isTrue();
+        assertThat(options.isEmbeddedReferences()).isTrue();
+        assertThat(options.isIncludeFullChildren()).isFalse();
+        assertThat(options.getDepth(1)).isEqualTo(1);
+    }
+
+    @Test
+    public void optionsShouldShareFactoryWhenTheyRenderAlike() {
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<String, String>();
+        queryParameters.putSingle(API.STREAM, "");
+
+        assertThat(RequestOptions.from(queryParameters).getFactory()).isSameAs(RequestOptions.DEFAULT.getFactory());
+
+        queryParameters.putSingle(API.NO_LINKS, "");
+        assertThat(RequestOptions.from(queryParameters).getFactory()).isNotSameAs(RequestOptions.DEFAULT.getFactory());
+    }
+
+    @Test
+    public void pacingOfOperationsShouldBeParsedFromQueryParameters() {
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<String, String>();
+        queryParameters.putSingle(API.FLUSH_EVERY, "10");
+        queryParameters.putSingle(API.SAVE_EVERY, " 50 ");
+
+        final RequestOptions options = RequestOptions.from(queryParameters);
+        assertThat(options.getFlushEvery()).isEqualTo(10);
+        assertThat(options.getSaveEvery()).isEqualTo(50);
+        assertThat(RequestOptions.DEFAULT.getFlushEvery()).isEqualTo(0);
+        assertThat(RequestOptions.DEFAULT.getSaveEvery()).isEqualTo(0);
+    }
+
+    @Test
+    public void optionsBoundToARequestShouldCarryItsResolverAndChunkedSave() {
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<String, String>();
+        queryParameters.putSingle(API.RESOLVE_REFERENCES, "");
+        final RequestOptions parsed = RequestOptions.from(queryParameters);
+        assertThat(parsed.getReferenceResolver()).isNull();
+        assertThat(parsed.withReferenceResolver(null)).isSameAs(parsed);
+
+        final ReferenceResolver resolver = ReferenceResolver.from(mock(Session.class), parsed);
+        final RequestOptions bound = parsed.withReferenceResolver(resolver);
+        assertThat(bound.getReferenceResolver()).isSameAs(resolver);
+        assertThat(bound.isResolveReferences()).isTrue();
+        assertThat(bound.getFactory()).isNotSameAs(parsed.getFactory());
+        assertThat(bound.getFactory().createDecorator()).isNotNull();
+
+        final ChunkedSave chunks = new ChunkedSave(mock(Session.class), 10);
+        final RequestOptions saving = bound.withChunkedSave(chunks);
+        assertThat(saving.getChunkedSave()).isSameAs(chunks);
+        assertThat(saving.getReferenceResolver()).isSameAs(resolver);
+        assertThat(bound.getChunkedSave()).isNull();
+        assertThat(bound.withChunkedSave(null)).isSameAs(bound);
+    }
+
+    @Test
+    public void requestPropertyShouldBePreferredToQueryParameters() {
+        final MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<String, String>();
+        queryParameters.putSingle(API.NO_LINKS, "");
+        final RequestOptions parsed = RequestOptions.from(queryParameters);
+
+        final ContainerRequestContext requestContext = mock(ContainerRequestContext.class);
+        when(requestContext.getProperty(RequestOptions.PROPERTY)).thenReturn(parsed);
+
+        assertThat(RequestOptions.of(requestContext, Mocks.createMockUriInfo(false, null))).isSameAs(parsed);
+        assertThat(RequestOptions.of(null, Mocks.createMockUriInfo(true, null)).isIncludeFullChildren()).isTrue();
+    }
+}
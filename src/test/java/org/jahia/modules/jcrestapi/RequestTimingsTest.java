@@ -0,0 +1,114 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestTimingsTest {
+
+    @After
+    public void stopAccounting() {
+        RequestTimings.bind(null);
+    }
+
+    @Test
+    public void nestedPhasesShouldOnlyAccountForTheirOwnTime() throws Exception {
+        final RequestTimings timings = new RequestTimings();
+        RequestTimings.bind(timings);
+
+        final RequestTimings.Phase outer = RequestTimings.begin(RequestTimings.Phase.SERIALIZATION);
+        assertThat(outer).isNull();
+        final RequestTimings.Phase inner = RequestTimings.begin(RequestTimings.Phase.PERMISSIONS);
+        assertThat(inner).isEqualTo(RequestTimings.Phase.SERIALIZATION);
+        Thread.sleep(20);
+        RequestTimings.end(inner);
+        RequestTimings.end(outer);
+
+        assertThat(timings.getNanos(RequestTimings.Phase.PERMISSIONS)).isGreaterThanOrEqualTo(20000000L);
+        assertThat(timings.getNanos(RequestTimings.Phase.SERIALIZATION)).isLessThan(20000000L);
+        assertThat(timings.getCalls(RequestTimings.Phase.SERIALIZATION)).isEqualTo(1);
+        assertThat(timings.getCalls(RequestTimings.Phase.PERMISSIONS)).isEqualTo(1);
+    }
+
+    @Test
+    public void reenteringThePhaseInProgressShouldBeCountedOnce() {
+        final RequestTimings timings = new RequestTimings();
+        RequestTimings.bind(timings);
+
+        final RequestTimings.Phase outer = RequestTimings.begin(RequestTimings.Phase.SERIALIZATION);
+        final RequestTimings.Phase inner = RequestTimings.begin(RequestTimings.Phase.SERIALIZATION);
+        RequestTimings.end(inner);
+        RequestTimings.end(outer);
+
+        assertThat(timings.getCalls(RequestTimings.Phase.SERIALIZATION)).isEqualTo(1);
+    }
+
+    @Test
+    public void serverTimingShouldListPhasesDoneAndCounters() {
+        final RequestTimings timings = new RequestTimings();
+        RequestTimings.bind(timings);
+
+        RequestTimings.end(RequestTimings.begin(RequestTimings.Phase.LOOKUP));
+        RequestTimings.end(RequestTimings.begin(RequestTimings.Phase.LOOKUP));
+        RequestTimings.countPermissionChecks(3);
+
+        final String header = timings.toServerTiming();
+        assertThat(header).startsWith("total;dur=");
+        assertThat(header).contains(", lookup;dur=").contains(";desc=\"2 calls\"");
+        assertThat(header).doesNotContain("session").doesNotContain("output");
+        assertThat(header).endsWith("nodes;desc=\"0\", properties;desc=\"0\", permissionChecks;desc=\"3\"");
+        assertThat(timings.toJSON()).contains("\"lookup\":{\"duration\":").contains("\"permissionChecks\":3}");
+    }
+
+    @Test
+    public void helpersShouldDoNothingWithoutAccounting() {
+        assertThat(RequestTimings.begin(RequestTimings.Phase.SAVE)).isNull();
+        RequestTimings.end(null);
+        RequestTimings.countPermissionChecks(1);
+        assertThat(RequestTimings.current()).isNull();
+    }
+}
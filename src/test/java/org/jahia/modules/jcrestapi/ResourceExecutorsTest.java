@@ -0,0 +1,243 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class ResourceExecutorsTest {
+
+    @After
+    public void reset() {
+        APIConfigurationService.getInstance().updated(null);
+    }
+
+    @Test
+    public void tasksShouldRunOnCallingThreadByDefault() {
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+
+        final Object result = ResourceExecutors.getInstance().execute(ResourceExecutors.Pool.READ, new Callable<Object>() {
+            @Override
+            public Object call() {
+                thread.set(Thread.currentThread());
+                return "done";
+            }
+        });
+
+        assertThat(thread.get()).isSameAs(Thread.currentThread());
+        assertThat(result).isEqualTo("done");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failuresShouldPropagateByDefault() {
+        ResourceExecutors.getInstance().execute(ResourceExecutors.Pool.WRITE, new Callable<Object>() {
+            @Override
+            public Object call() {
+                throw new IllegalArgumentException("invalid");
+            }
+        });
+    }
+
+    @Test
+    public void asyncTasksShouldCompleteFuture() throws Exception {
+        configure(ResourceExecutors.Pool.READ, 1, 1, 0);
+        final IllegalArgumentException failure = new IllegalArgumentException("invalid");
+
+        final Object result = ResourceExecutors.getInstance().execute(ResourceExecutors.Pool.READ, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return Thread.currentThread().getName();
+            }
+        });
+        assertThat(result).isInstanceOf(CompletableFuture.class);
+        assertThat((String) ((CompletableFuture<?>) result).get(5, TimeUnit.SECONDS)).startsWith("jcrestapi-read-");
+
+        final Object failed = ResourceExecutors.getInstance().execute(ResourceExecutors.Pool.READ, new Callable<Object>() {
+            @Override
+            public Object call() {
+                throw failure;
+            }
+        });
+        try {
+            ((CompletableFuture<?>) failed).get(5, TimeUnit.SECONDS);
+            fail("Should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isSameAs(failure);
+        }
+    }
+
+    @Test
+    public void saturatedExecutorShouldShedRequests() throws Exception {
+        configure(ResourceExecutors.Pool.QUERY, 1, 0, 0);
+
+        final ResourceExecutors executors = ResourceExecutors.getInstance();
+        final long rejected = executors.getRejected(ResourceExecutors.Pool.QUERY);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object running = executors.execute(ResourceExecutors.Pool.QUERY, new Callable<Object>() {
+            @Override
+            public Object call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return "done";
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final Object shed = executors.execute(ResourceExecutors.Pool.QUERY, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return "not run";
+            }
+        });
+        assertUnavailable(shed);
+        assertThat(executors.getRejected(ResourceExecutors.Pool.QUERY)).isEqualTo(rejected + 1);
+
+        release.countDown();
+        assertThat(((CompletableFuture<?>) running).get(5, TimeUnit.SECONDS)).isEqualTo("done");
+    }
+
+    @Test
+    public void onlyQueuedTasksShouldTimeOut() throws Exception {
+        configure(ResourceExecutors.Pool.WRITE, 1, 1, 100);
+
+        final ResourceExecutors executors = ResourceExecutors.getInstance();
+        final long timedOut = executors.getTimedOut(ResourceExecutors.Pool.WRITE);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object running = executors.execute(ResourceExecutors.Pool.WRITE, new Callable<Object>() {
+            @Override
+            public Object call() throws InterruptedException {
+                started.countDown();
+                release.await();
+                return "saved";
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        final AtomicBoolean run = new AtomicBoolean();
+        final Object queued = executors.execute(ResourceExecutors.Pool.WRITE, new Callable<Object>() {
+            @Override
+            public Object call() {
+                run.set(true);
+                return "not run";
+            }
+        });
+
+        // the queued task is withdrawn once its timeout elapsed
+        assertUnavailable(((CompletableFuture<?>) queued).get(5, TimeUnit.SECONDS));
+        assertThat(executors.getTimedOut(ResourceExecutors.Pool.WRITE)).isEqualTo(timedOut + 1);
+
+        // while the running one, well past its timeout, is still answered with its result
+        release.countDown();
+        assertThat(((CompletableFuture<?>) running).get(5, TimeUnit.SECONDS)).isEqualTo("saved");
+        assertThat(run.get()).isFalse();
+    }
+
+    @Test
+    public void threadOfATaskShouldWaitForItsStreamedEntityToBeWritten() throws Exception {
+        configure(ResourceExecutors.Pool.READ, 1, 1, 0);
+
+        final ResourceExecutors executors = ResourceExecutors.getInstance();
+        final Object result = executors.execute(ResourceExecutors.Pool.READ, new Callable<Object>() {
+            @Override
+            public Object call() {
+                return Response.ok(new StreamingOutput() {
+                    @Override
+                    public void write(OutputStream output) throws IOException {
+                        output.write("streamed".getBytes("UTF-8"));
+                    }
+                }).build();
+            }
+        });
+
+        final Object completed = ((CompletableFuture<?>) result).get(5, TimeUnit.SECONDS);
+        assertThat(completed).isInstanceOf(Response.class);
+        // the thread of the task, holding the session of the entity, is still waiting for it to be written
+        Thread.sleep(100);
+        assertThat(executors.getActive(ResourceExecutors.Pool.READ)).isEqualTo(1);
+
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        ((StreamingOutput) ((Response) completed).getEntity()).write(written);
+        assertThat(written.toString("UTF-8")).isEqualTo("streamed");
+        for (int i = 0; i < 50 && executors.getActive(ResourceExecutors.Pool.READ) > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertThat(executors.getActive(ResourceExecutors.Pool.READ)).isEqualTo(0);
+    }
+
+    private static void configure(ResourceExecutors.Pool pool, int threads, int queueSize, long timeout) {
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.ASYNC_EXECUTION, "true");
+        settings.put(APIConfiguration.EXECUTOR_RETRY_AFTER, "7");
+        settings.put(APIConfiguration.getExecutorKey(pool, APIConfiguration.EXECUTOR_THREADS), String.valueOf(threads));
+        settings.put(APIConfiguration.getExecutorKey(pool, APIConfiguration.EXECUTOR_QUEUE_SIZE), String.valueOf(queueSize));
+        settings.put(APIConfiguration.getExecutorKey(pool, APIConfiguration.EXECUTOR_TIMEOUT), String.valueOf(timeout));
+        APIConfigurationService.getInstance().updated(settings);
+    }
+
+    private static void assertUnavailable(Object response) {
+        assertThat(response).isInstanceOf(Response.class);
+        assertThat(((Response) response).getStatus()).isEqualTo(Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+        assertThat(((Response) response).getHeaderString(HttpHeaders.RETRY_AFTER)).isEqualTo("7");
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Hashtable;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class ResumableUploadsTest {
+    private static final String USER = "john";
+    private static final String WORKSPACE = "default";
+
+    private final ResumableUploads uploads = ResumableUploads.getInstance();
+    private String previousSpoolDirectory;
+    private File spoolDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        previousSpoolDirectory = uploads.getSpoolDirectory().getPath();
+        spoolDirectory = Files.createTempDirectory("jcrestapi-uploads-test_").toFile();
+        uploads.setSpoolDirectory(spoolDirectory.getPath());
+    }
+
+    @After
+    public void reset() throws IOException {
+        APIConfigurationService.getInstance().updated(null);
+        uploads.purge();
+        uploads.setSpoolDirectory(previousSpoolDirectory);
+        FileUtils.deleteDirectory(spoolDirectory);
+    }
+
+    @Test
+    public void chunkNotStartingWhereTheReceivedDataEndsShouldBeRefused() throws IOException {
+        final ResumableUploads.Upload upload = start(10);
+        try {
+            assertThat(upload.append(0, chunk("01234"), 0)).isTrue();
+
+            // the same chunk sent again, and a chunk leaving a gap
+            assertThat(upload.append(0, chunk("01234"), 0)).isFalse();
+            assertThat(upload.append(7, chunk("789"), 0)).isFalse();
+            assertThat(upload.getLength()).isEqualTo(5);
+            assertThat(upload.isComplete()).isFalse();
+        } finally {
+            uploads.discard(upload);
+        }
+    }
+
+    @Test
+    public void uploadShouldResumeAfterAPartialChunk() throws IOException {
+        final ResumableUploads.Upload upload = start(10);
+        try {
+            // the connection breaks after 3 bytes of the chunk
+            try {
+                upload.append(0, new BrokenStream("012"), 0);
+                fail("the failure to read the chunk should be reported");
+            } catch (IOException expected) {
+                // expected
+            }
+            assertThat(upload.getLength()).isEqualTo(3);
+
+            assertThat(upload.append(3, chunk("3456789"), 0)).isTrue();
+            assertThat(upload.isComplete()).isTrue();
+            assertThat(read(upload)).isEqualTo("0123456789");
+        } finally {
+            uploads.discard(upload);
+        }
+    }
+
+    @Test
+    public void chunksShouldNotExceedTheAnnouncedSize() throws IOException {
+        final ResumableUploads.Upload upload = start(4);
+        try {
+            upload.append(0, chunk("01234"), 0);
+            fail("a file larger than announced should be refused");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        } finally {
+            uploads.discard(upload);
+        }
+    }
+
+    @Test
+    public void chunksShouldNotExceedTheMaximumSizeWhenNoneWasAnnounced() throws IOException {
+        final ResumableUploads.Upload upload = start(-1);
+        try {
+            assertThat(upload.append(0, chunk("0123"), 6)).isTrue();
+            assertThat(upload.isComplete()).isTrue();
+            upload.append(4, chunk("456"), 6);
+            fail("a file larger than the maximum size should be refused");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        } finally {
+            uploads.discard(upload);
+        }
+    }
+
+    @Test
+    public void uploadShouldOnlyBeFoundByItsUserInItsWorkspace() throws IOException {
+        final ResumableUploads.Upload upload = start(10);
+        try {
+            assertThat(uploads.get(upload.getId(), USER, WORKSPACE)).isSameAs(upload);
+            assertThat(uploads.get(upload.getId(), "jane", WORKSPACE)).isNull();
+            assertThat(uploads.get(upload.getId(), USER, "live")).isNull();
+            assertThat(uploads.get("unknown", USER, WORKSPACE)).isNull();
+        } finally {
+            uploads.discard(upload);
+        }
+    }
+
+    @Test
+    public void tooManyUploadsShouldBeRefused() throws IOException {
+        configureUploads(60000, 1);
+        final ResumableUploads.Upload upload = start(10);
+        try {
+            start(10);
+            fail("only one upload should be allowed");
+        } catch (IllegalStateException expected) {
+            // expected
+        } finally {
+            uploads.discard(upload);
+        }
+    }
+
+    @Test
+    public void purgeShouldDiscardAbandonedUploadsAndOrphanSpoolFiles() throws Exception {
+        final ResumableUploads.Upload upload = start(10);
+        upload.append(0, chunk("01234"), 0);
+        final File orphan = new File(spoolDirectory, "jcrestapi-upload-" + UUID.randomUUID() + ".spool");
+        assertThat(orphan.createNewFile()).isTrue();
+        assertThat(spoolDirectory.list()).hasSize(2);
+
+        // nothing has expired yet
+        assertThat(uploads.purge()).isEqualTo(0);
+        assertThat(spoolDirectory.list()).hasSize(2);
+
+        configureUploads(1, 100);
+        Thread.sleep(20);
+        assertThat(orphan.setLastModified(System.currentTimeMillis() - 1000)).isTrue();
+
+        assertThat(uploads.purge()).isEqualTo(1);
+        assertThat(uploads.get(upload.getId(), USER, WORKSPACE)).isNull();
+        assertThat(spoolDirectory.list()).isEmpty();
+    }
+
+    @Test
+    public void purgeShouldLeaveFilesItDidNotCreateAlone() throws Exception {
+        final File other = new File(spoolDirectory, "not-an-upload");
+        final File lookalike = new File(spoolDirectory, "jcrestapi-upload-not-a-uuid.spool");
+        assertThat(other.createNewFile()).isTrue();
+        assertThat(lookalike.createNewFile()).isTrue();
+
+        configureUploads(1, 100);
+        assertThat(other.setLastModified(System.currentTimeMillis() - 1000)).isTrue();
+        assertThat(lookalike.setLastModified(System.currentTimeMillis() - 1000)).isTrue();
+
+        uploads.purge();
+        assertThat(spoolDirectory.list()).hasSize(2);
+    }
+
+    @Test
+    public void chunkShouldBeRefusedWhileAnotherIsAppended() throws Exception {
+        final ResumableUploads.Upload upload = start(10);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final InputStream slow = new InputStream() {
+            private boolean sent;
+
+            @Override
+            public int read() throws IOException {
+                if (sent) {
+                    return -1;
+                }
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                sent = true;
+                return '0';
+            }
+        };
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Boolean> first = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return upload.append(0, slow, 0);
+                }
+            });
+            assertThat(reading.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // the length is read without waiting for the chunk being received
+            assertThat(upload.getLength()).isEqualTo(0);
+            assertThat(upload.isComplete()).isFalse();
+            assertThat(upload.append(0, chunk("0123456789"), 0)).isFalse();
+
+            release.countDown();
+            assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+            assertThat(upload.getLength()).isEqualTo(1);
+            assertThat(upload.append(1, chunk("123456789"), 0)).isTrue();
+            assertThat(read(upload)).isEqualTo("0123456789");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            uploads.discard(upload);
+        }
+    }
+
+    private ResumableUploads.Upload start(long size) throws IOException {
+        return uploads.start(USER, WORKSPACE, "/sites/mySite/files", "file.txt", "text/plain", size);
+    }
+
+    private static void configureUploads(long expiry, int maxUploads) {
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.UPLOADS_EXPIRY, Long.toString(expiry));
+        settings.put(APIConfiguration.UPLOADS_MAX_UPLOADS, Integer.toString(maxUploads));
+        APIConfigurationService.getInstance().updated(settings);
+    }
+
+    private static InputStream chunk(String data) {
+        return new ByteArrayInputStream(data.getBytes());
+    }
+
+    private static String read(ResumableUploads.Upload upload) throws IOException {
+        try (InputStream stream = upload.openStream()) {
+            final byte[] data = new byte[(int) upload.getLength()];
+            int read = 0;
+            while (read < data.length) {
+                read += stream.read(data, read, data.length - read);
+            }
+            return new String(data);
+        }
+    }
+
+    /**
+     * Delivers some data, then fails as a broken connection would.
+     */
+    private static final class BrokenStream extends InputStream {
+        private final InputStream data;
+
+        private BrokenStream(String data) {
+            this.data = chunk(data);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = data.read();
+            if (read < 0) {
+                throw new IOException("Connection reset");
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            final int read = data.read(buffer, offset, length);
+            if (read < 0) {
+                throw new IOException("Connection reset");
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SlowQueryLogTest {
+
+    @After
+    public void reset() {
+        final SlowQueryLog log = SlowQueryLog.getInstance();
+        log.clear();
+        APIConfigurationService.getInstance().updated(null);
+    }
+
+    @Test
+    public void fingerprintShouldReplaceLiterals() {
+        assertThat(SlowQueryLog.fingerprint("SELECT * FROM [nt:base] WHERE [jcr:title] = 'foo' AND [size] > 42"))
+                .isEqualTo("SELECT * FROM [nt:base] WHERE [jcr:title] = ? AND [size] > ?");
+        assertThat(SlowQueryLog.fingerprint("SELECT * FROM [nt:base] WHERE [jcr:title] = \"it\"\"s\" OR [jcr:title] = 'it''s'"))
+                .isEqualTo("SELECT * FROM [nt:base] WHERE [jcr:title] = ? OR [jcr:title] = ?");
+        assertThat(SlowQueryLog.fingerprint("SELECT * FROM [nt:base] WHERE [price] < 1.5e3"))
+                .isEqualTo("SELECT * FROM [nt:base] WHERE [price] < ?");
+    }
+
+    @Test
+    public void fingerprintShouldKeepNames() {
+        assertThat(SlowQueryLog.fingerprint("SELECT * FROM [jnt:content2] AS n2 WHERE ISDESCENDANTNODE(n2, '/sites/site1')"))
+                .isEqualTo("SELECT * FROM [jnt:content2] AS n2 WHERE ISDESCENDANTNODE(n2, ?)");
+        assertThat(SlowQueryLog.fingerprint("SELECT * FROM [nt:base] WHERE [name] = '[not a name]'"))
+                .isEqualTo("SELECT * FROM [nt:base] WHERE [name] = ?");
+    }
+
+    @Test
+    public void fingerprintShouldCollapseWhitespace() {
+        assertThat(SlowQueryLog.fingerprint("  SELECT *\n\tFROM   [nt:base]  "))
+                .isEqualTo("SELECT * FROM [nt:base]");
+    }
+
+    @Test
+    public void topStatisticsShouldBeTheMostCostly() {
+        final SlowQueryLog log = SlowQueryLog.getInstance();
+        final Hashtable<String, String> settings = new Hashtable<String, String>();
+        settings.put(APIConfiguration.SLOW_QUERY_THRESHOLD, "-1");
+        settings.put(APIConfiguration.SLOW_QUERY_TOP, "2");
+        APIConfigurationService.getInstance().updated(settings);
+
+        run("SELECT * FROM [nt:base] WHERE [a] = 'x'", 10);
+        run("SELECT * FROM [nt:base] WHERE [a] = 'y'", 20);
+        run("SELECT * FROM [nt:base] WHERE [b] = 'x'", 5);
+        run("SELECT * FROM [nt:base] WHERE [c] = 1", 40);
+
+        final List<SlowQueryLog.Statistics> top = log.getTopStatistics();
+        assertThat(top).hasSize(2);
+        assertThat(top.get(0).getFingerprint()).isEqualTo("SELECT * FROM [nt:base] WHERE [c] = ?");
+        assertThat(top.get(0).getSlow()).isZero();
+        assertThat(top.get(1).getFingerprint()).isEqualTo("SELECT * FROM [nt:base] WHERE [a] = ?");
+        assertThat(top.get(1).getCount()).isEqualTo(2);
+        assertThat(top.get(1).getTotalNanos()).isEqualTo(30);
+        assertThat(top.get(1).getMaxNanos()).isEqualTo(20);
+    }
+
+    @Test
+    public void queryAnsweredFromTheCacheShouldOnlyBeBuiltTheFirstTime() throws RepositoryException {
+        final SlowQueryLog log = SlowQueryLog.getInstance();
+        final Query query = mock(Query.class);
+        when(query.getStatement()).thenReturn("SELECT * FROM [nt:base] WHERE [a] = 'x'");
+        final AtomicInteger built = new AtomicInteger();
+        final API.QueryCreator queryCreator = new API.QueryCreator(0, 0, null) {
+            @Override
+            protected Query createQuery(Session session) throws RepositoryException {
+                built.incrementAndGet();
+                return query;
+            }
+
+            @Override
+            protected String getStatementKey() {
+                return "sql2:cached";
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            // never executed, as when the nodes come from the cache
+            log.finish(log.start(queryCreator, null));
+        }
+
+        assertThat(built.get()).isEqualTo(1);
+        final List<SlowQueryLog.Statistics> top = log.getTopStatistics();
+        assertThat(top).hasSize(1);
+        assertThat(top.get(0).getFingerprint()).isEqualTo("SELECT * FROM [nt:base] WHERE [a] = ?");
+        assertThat(top.get(0).getCount()).isEqualTo(3);
+    }
+
+    private static void run(String statement, long nanos) {
+        final SlowQueryLog log = SlowQueryLog.getInstance();
+        final SlowQueryLog.Execution execution = log.start(new API.QueryCreator(0, 0, null) {
+            @Override
+            protected Query createQuery(Session session) throws RepositoryException {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected String getStatementKey() {
+                return null;
+            }
+        }, null);
+        execution.executed(statement, nanos);
+        log.finish(execution);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.accessors;
+
+import org.junit.Test;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChunkedSaveTest {
+
+    @Test
+    public void sessionShouldBeSavedEveryGivenNumberOfNodes() throws RepositoryException {
+        final Session session = mock(Session.class);
+        final ChunkedSave chunkedSave = new ChunkedSave(session, 3);
+
+        for (int i = 1; i <= 7; i++) {
+            chunkedSave.nodeCreated(node("/parent/child" + i));
+            verify(session, times(i / 3)).save();
+            assertThat(chunkedSave.getSaved()).isEqualTo(i / 3 * 3);
+        }
+        assertThat(chunkedSave.getCreated()).isEqualTo(7);
+        assertThat(chunkedSave.getFailedPath()).isNull();
+
+        // the request saves the rest
+        chunkedSave.allSaved();
+        assertThat(chunkedSave.getSaved()).isEqualTo(7);
+    }
+
+    @Test
+    public void failedSaveShouldRecordTheNodeCompletingTheChunk() throws RepositoryException {
+        final Session session = mock(Session.class);
+        final ChunkedSave chunkedSave = new ChunkedSave(session, 2);
+        chunkedSave.nodeCreated(node("/parent/child1"));
+        chunkedSave.nodeCreated(node("/parent/child2"));
+
+        doThrow(new InvalidItemStateException("conflict")).when(session).save();
+        chunkedSave.nodeCreated(node("/parent/child3"));
+        try {
+            chunkedSave.nodeCreated(node("/parent/child4"));
+            fail("the failure to save should be reported");
+        } catch (InvalidItemStateException expected) {
+            // expected
+        }
+
+        assertThat(chunkedSave.getSaved()).isEqualTo(2);
+        assertThat(chunkedSave.getCreated()).isEqualTo(4);
+        assertThat(chunkedSave.getFailedPath()).isEqualTo("/parent/child4");
+    }
+
+    @Test
+    public void deepestFailureShouldBeKept() {
+        final ChunkedSave chunkedSave = new ChunkedSave(mock(Session.class), 2);
+
+        // a failing grandchild makes its parent fail too
+        chunkedSave.failedOn("/parent/child/grandchild");
+        chunkedSave.failedOn("/parent/child");
+
+        assertThat(chunkedSave.getFailedPath()).isEqualTo("/parent/child/grandchild");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void savingEveryZeroNodesShouldBeRefused() {
+        new ChunkedSave(mock(Session.class), 0);
+    }
+
+    @Test
+    public void nothingShouldBeSavedBeforeAChunkIsComplete() throws RepositoryException {
+        final Session session = mock(Session.class);
+        final ChunkedSave chunkedSave = new ChunkedSave(session, 5);
+        chunkedSave.nodeCreated(node("/parent/child1"));
+
+        verify(session, never()).save();
+        assertThat(chunkedSave.getSaved()).isEqualTo(0);
+    }
+
+    private static Node node(String path) throws RepositoryException {
+        final Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+        return node;
+    }
+}
@@ -118,99 +118,89 @@ public class NodeElementAccessorTest extends ElementAccessorTest<JSONSubElementC
 
 
     private void testReferenceResolving(boolean withFullChildren) throws RepositoryException {
-        // we save the old value to make sure we don't mess it up for other tests.
-        boolean oldResolveReferencesValue = API.setResolveReferences(true);
-        boolean oldIncludeChildren = API.setIncludeFullChildren(withFullChildren);
-
-        try {
-            context = Mocks.createMockUriInfo(withFullChildren, null);
-
-            final Node node = Mocks.createMockNode(Mocks.NODE_NAME, Mocks.NODE_ID, Mocks.PATH_TO_NODE, 2, 2, 2);
-            final Node secondNode = Mocks.createMockNode(Mocks.NODE_NAME + "2", Mocks.NODE_ID + "2", Mocks.PATH_TO_NODE + "2", 2, 2, 2);
-            final Node thirdNode = Mocks.createMockNode(Mocks.NODE_NAME + "3", Mocks.NODE_ID + "3", Mocks.PATH_TO_NODE + "3", 2, 2, 2);
-
-            Value[] referenceValues = new Value[]{
-                    new ReferenceValue(secondNode),
-                    new ReferenceValue(thirdNode)
-            };
-
-            node.setProperty(Mocks.REF_PROPERTY + "1", secondNode);
-            node.setProperty(Mocks.REF_PROPERTY + "2", referenceValues);
-
-            final Response response = accessor.perform(node, (String) null, API.READ, null, context);
-
-            assertThat(response.getStatusInfo()).isEqualTo(Response.Status.OK);
-            final Object entity = response.getEntity();
-            assertThat(entity instanceof JSONNode).isTrue();
-
-            JSONNode jsonNode = (JSONNode) entity;
-            // check that the return JSONNode is the same as the one we called perform on
-            assertThat(jsonNode.getId()).isEqualTo(node.getIdentifier());
-
-            assertThat(jsonNode.getDecorator() instanceof APIDecorator).isTrue();
-
-            JSONProperty jsonProperty = jsonNode.getProperty(Mocks.REF_PROPERTY + "1");
-            assertThat(jsonProperty).isNotNull();
-            assertThat(jsonProperty.isMultiValued()).isFalse();
-            assertThat(jsonProperty.getValue()).isEqualTo(Mocks.NODE_ID + "2");
-            assertThat(jsonProperty.getDecorator()).isNotNull();
-            assertThat(jsonProperty.getDecorator() instanceof APIDecorator).isTrue();
-            APIDecorator propertyAPIDecorator = (APIDecorator) jsonProperty.getDecorator();
-            assertThat(propertyAPIDecorator.getReferences()).isNotNull();
-            Map<String, JSONItem<? extends Item, APIDecorator>> references = propertyAPIDecorator.getReferences();
-            assertThat(references).hasSize(1);
-            assertThat(references).containsKey(Mocks.NODE_ID + "2");
-            assertThat(references.get(Mocks.NODE_ID + "2") instanceof JSONNode).isTrue();
-            JSONNode referencedNode = (JSONNode) references.get(Mocks.NODE_ID + "2");
-            assertThat(referencedNode.getId()).isEqualTo(Mocks.NODE_ID + "2");
-            assertThat(referencedNode.getName()).isEqualTo(Mocks.NODE_NAME + "2");
-
-            final Map<String, JSONNode> children = referencedNode.getChildren();
-            if (withFullChildren) {
-                assertThat(children).isNotNull();
-                assertThat(children.size()).isEqualTo(2);
-                JSONNode child = children.get(Mocks.CHILD + '0');
-                assertThat(child).isNotNull();
-                assertThat(child.getId()).isEqualTo(Mocks.CHILD_ID + '0');
-
-                child = children.get(Mocks.CHILD + '1');
-                assertThat(child).isNotNull();
-                assertThat(child.getId()).isEqualTo(Mocks.CHILD_ID + '1');
-
-                // check that we only resolve at one-level depth
-                final Map greatChildren = child.getChildren();
-                assertThat(greatChildren).isNull();
-            } else {
-                assertThat(children).isNull();
-            }
-
-            // now let's validate the multi-valued reference case
-            jsonProperty = jsonNode.getProperty(Mocks.REF_PROPERTY + "2");
-            assertThat(jsonProperty).isNotNull();
-            assertThat(jsonProperty.isMultiValued()).isTrue();
-            assertThat(jsonProperty.getValue() instanceof Object[]).isTrue();
-            assertThat(jsonProperty.getDecorator()).isNotNull();
-            assertThat(jsonProperty.getDecorator() instanceof APIDecorator).isTrue();
-            propertyAPIDecorator = (APIDecorator) jsonProperty.getDecorator();
-            assertThat(propertyAPIDecorator.getReferences()).isNotNull();
-            references = propertyAPIDecorator.getReferences();
-            assertThat(references).hasSize(2);
-            assertThat(references).containsKey(Mocks.NODE_ID + "2");
-            assertThat(references.get(Mocks.NODE_ID + "2") instanceof JSONNode).isTrue();
-            assertThat(references).containsKey(Mocks.NODE_ID + "3");
-            assertThat(references.get(Mocks.NODE_ID + "3") instanceof JSONNode).isTrue();
-            referencedNode = (JSONNode) references.get(Mocks.NODE_ID + "2");
-            assertThat(referencedNode.getId()).isEqualTo(Mocks.NODE_ID + "2");
-            assertThat(referencedNode.getName()).isEqualTo(Mocks.NODE_NAME + "2");
-            referencedNode = (JSONNode) references.get(Mocks.NODE_ID + "3");
-            assertThat(referencedNode.getId()).isEqualTo(Mocks.NODE_ID + "3");
-            assertThat(referencedNode.getName()).isEqualTo(Mocks.NODE_NAME + "3");
-
-        } finally {
-            // we restore the saved value to make sure we don't mess it up for other tests.
-            API.setResolveReferences(oldResolveReferencesValue);
-            API.setIncludeFullChildren(oldIncludeChildren);
+        context = Mocks.createMockUriInfo(withFullChildren, null);
+        context.getQueryParameters().putSingle(API.RESOLVE_REFERENCES, "");
+
+        final Node node = Mocks.createMockNode(Mocks.NODE_NAME, Mocks.NODE_ID, Mocks.PATH_TO_NODE, 2, 2, 2);
+        final Node secondNode = Mocks.createMockNode(Mocks.NODE_NAME + "2", Mocks.NODE_ID + "2", Mocks.PATH_TO_NODE + "2", 2, 2, 2);
+        final Node thirdNode = Mocks.createMockNode(Mocks.NODE_NAME + "3", Mocks.NODE_ID + "3", Mocks.PATH_TO_NODE + "3", 2, 2, 2);
+
+        Value[] referenceValues = new Value[]{
+                new ReferenceValue(secondNode),
+                new ReferenceValue(thirdNode)
+        };
+
+        node.setProperty(Mocks.REF_PROPERTY + "1", secondNode);
+        node.setProperty(Mocks.REF_PROPERTY + "2", referenceValues);
+
+        final Response response = accessor.perform(node, (String) null, API.READ, null, context);
+
+        assertThat(response.getStatusInfo()).isEqualTo(Response.Status.OK);
+        final Object entity = response.getEntity();
+        assertThat(entity instanceof JSONNode).isTrue();
+
+        JSONNode jsonNode = (JSONNode) entity;
+        // check that the return JSONNode is the same as the one we called perform on
+        assertThat(jsonNode.getId()).isEqualTo(node.getIdentifier());
+
+        assertThat(jsonNode.getDecorator() instanceof APIDecorator).isTrue();
+
+        JSONProperty jsonProperty = jsonNode.getProperty(Mocks.REF_PROPERTY + "1");
+        assertThat(jsonProperty).isNotNull();
+        assertThat(jsonProperty.isMultiValued()).isFalse();
+        assertThat(jsonProperty.getValue()).isEqualTo(Mocks.NODE_ID + "2");
+        assertThat(jsonProperty.getDecorator()).isNotNull();
+        assertThat(jsonProperty.getDecorator() instanceof APIDecorator).isTrue();
+        APIDecorator propertyAPIDecorator = (APIDecorator) jsonProperty.getDecorator();
+        assertThat(propertyAPIDecorator.getReferences()).isNotNull();
+        Map<String, JSONItem<? extends Item, APIDecorator>> references = propertyAPIDecorator.getReferences();
+        assertThat(references).hasSize(1);
+        assertThat(references).containsKey(Mocks.NODE_ID + "2");
+        assertThat(references.get(Mocks.NODE_ID + "2") instanceof JSONNode).isTrue();
+        JSONNode referencedNode = (JSONNode) references.get(Mocks.NODE_ID + "2");
+        assertThat(referencedNode.getId()).isEqualTo(Mocks.NODE_ID + "2");
+        assertThat(referencedNode.getName()).isEqualTo(Mocks.NODE_NAME + "2");
+
+        final Map<String, JSONNode> children = referencedNode.getChildren();
+        if (withFullChildren) {
+            assertThat(children).isNotNull();
+            assertThat(children.size()).isEqualTo(2);
+            JSONNode child = children.get(Mocks.CHILD + '0');
+            assertThat(child).isNotNull();
+            assertThat(child.getId()).isEqualTo(Mocks.CHILD_ID + '0');
+
+            child = children.get(Mocks.CHILD + '1');
+            assertThat(child).isNotNull();
+            assertThat(child.getId()).isEqualTo(Mocks.CHILD_ID + '1');
+
+            // check that we only resolve at one-level depth
+            final Map greatChildren = child.getChildren();
+            assertThat(greatChildren).isNull();
+        } else {
+            assertThat(children).isNull();
         }
+
+        // now let's validate the multi-valued reference case
+        jsonProperty = jsonNode.getProperty(Mocks.REF_PROPERTY + "2");
+        assertThat(jsonProperty).isNotNull();
+        assertThat(jsonProperty.isMultiValued()).isTrue();
+        assertThat(jsonProperty.getValue() instanceof Object[]).isTrue();
+        assertThat(jsonProperty.getDecorator()).isNotNull();
+        assertThat(jsonProperty.getDecorator() instanceof APIDecorator).isTrue();
+        propertyAPIDecorator = (APIDecorator) jsonProperty.getDecorator();
+        assertThat(propertyAPIDecorator.getReferences()).isNotNull();
+        references = propertyAPIDecorator.getReferences();
+        assertThat(references).hasSize(2);
+        assertThat(references).containsKey(Mocks.NODE_ID + "2");
+        assertThat(references.get(Mocks.NODE_ID + "2") instanceof JSONNode).isTrue();
+        assertThat(references).containsKey(Mocks.NODE_ID + "3");
+        assertThat(references.get(Mocks.NODE_ID + "3") instanceof JSONNode).isTrue();
+        referencedNode = (JSONNode) references.get(Mocks.NODE_ID + "2");
+        assertThat(referencedNode.getId()).isEqualTo(Mocks.NODE_ID + "2");
+        assertThat(referencedNode.getName()).isEqualTo(Mocks.NODE_NAME + "2");
+        referencedNode = (JSONNode) references.get(Mocks.NODE_ID + "3");
+        assertThat(referencedNode.getId()).isEqualTo(Mocks.NODE_ID + "3");
+        assertThat(referencedNode.getName()).isEqualTo(Mocks.NODE_NAME + "3");
     }
 
     @Test
@@ -220,28 +210,18 @@ public class NodeElementAccessorTest extends ElementAccessorTest<JSONSubElementC
 
     @Test
     public void testNoLinks() throws RepositoryException {
+        context = Mocks.createMockUriInfo(true, null);
+        context.getQueryParameters().putSingle(API.NO_LINKS, "");
 
-        // we save the old value to make sure we don't mess it up for other tests.
-        Boolean oldOutputLinks = API.setOutputLinks(false);
-
-        try {
-            context = Mocks.createMockUriInfo(true, null);
-
-            final Node node = Mocks.createMockNode(Mocks.NODE_NAME, Mocks.NODE_ID, Mocks.PATH_TO_NODE, 2, 2, 2);
-            final Response response = accessor.perform(node, (String) null, API.READ, null, context);
-
-            assertThat(response.getStatusInfo()).isEqualTo(Response.Status.OK);
-            final Object entity = response.getEntity();
-            assertThat(entity instanceof JSONNode).isTrue();
-            JSONNode jsonNode = (JSONNode) entity;
-
-            assertThat(jsonNode.getDecorator()).isNull();
+        final Node node = Mocks.createMockNode(Mocks.NODE_NAME, Mocks.NODE_ID, Mocks.PATH_TO_NODE, 2, 2, 2);
+        final Response response = accessor.perform(node, (String) null, API.READ, null, context);
 
-        } finally {
-            // we restore the saved value to make sure we don't mess it up for other tests.
-            API.setOutputLinks(oldOutputLinks);
-        }
+        assertThat(response.getStatusInfo()).isEqualTo(Response.Status.OK);
+        final Object entity = response.getEntity();
+        assertThat(entity instanceof JSONNode).isTrue();
+        JSONNode jsonNode = (JSONNode) entity;
 
+        assertThat(jsonNode.getDecorator()).isNull();
     }
 
     @Test
@@ -21,6 +21,7 @@ import org.jahia.modules.json.JSONNode;
 import org.jahia.modules.json.JSONProperty;
 import org.jahia.modules.json.jcr.SessionAccess;
 import org.jahia.services.content.JCRNodeWrapper;
+import org.jahia.services.content.nodetypes.ExtendedNodeType;
 import org.jahia.services.content.nodetypes.ExtendedPropertyDefinition;
 import org.junit.After;
 import org.junit.Before;
@@ -322,9 +323,23 @@ public class WriteRestrictionsTest {
     }
 
     @Test
-    public void theDefinitionLookupUsesTheWrapperOnARealNode() throws RepositoryException {
-        // a real Jahia node is a JCRNodeWrapper, so production resolves the definition through the wrapper
-        final JCRNodeWrapper wrapper = mock(JCRNodeWrapper.class);
+    public void theDefinitionLookupUsesTheIndexOnARealNode() throws RepositoryException {
+        // a real Jahia node is a JCRNodeWrapper, its named definitions are still found in the index of its types
+        final ExtendedPropertyDefinition mixinDefinition = mock(ExtendedPropertyDefinition.class);
+        when(mixinDefinition.getName()).thenReturn(PROTECTED_PROPERTY);
+        when(mixinDefinition.isProtected()).thenReturn(true);
+        final JCRNodeWrapper wrapper = wrapperOfTypes(typeDefining("jnt:indexedPrimary"), typeDefining("jmix:indexedMixin", mixinDefinition));
+
+        final PropertyDefinition resolved = PropertyElementAccessor.getPropertyDefinitionOnNode(PROTECTED_PROPERTY, wrapper);
+
+        assertThat(resolved).isSameAs(mixinDefinition);
+        assertThat(WriteRestrictions.isRestrictedProperty(PROTECTED_PROPERTY, resolved)).isTrue();
+        verify(wrapper, never()).getApplicablePropertyDefinition(anyString());
+    }
+
+    @Test
+    public void theDefinitionLookupFallsBackToTheWrapperForResidualProperties() throws RepositoryException {
+        final JCRNodeWrapper wrapper = wrapperOfTypes(typeDefining("jnt:residualPrimary"), typeDefining("jmix:residualMixin"));
         final ExtendedPropertyDefinition wrapperDefinition = mock(ExtendedPropertyDefinition.class);
         when(wrapperDefinition.isProtected()).thenReturn(true);
         when(wrapper.getApplicablePropertyDefinition(PROTECTED_PROPERTY)).thenReturn(wrapperDefinition);
@@ -387,6 +402,24 @@ public class WriteRestrictionsTest {
         return node;
     }
 
+    /**
+     * A Jahia node type defining, and declaring, the given definitions.
+     */
+    private static ExtendedNodeType typeDefining(String typeName, ExtendedPropertyDefinition... definitions) {
+        final ExtendedNodeType type = mock(ExtendedNodeType.class);
+        when(type.getName()).thenReturn(typeName);
+        when(type.getPropertyDefinitions()).thenReturn(definitions);
+        when(type.getDeclaredPropertyDefinitions()).thenReturn(definitions);
+        return type;
+    }
+
+    private static JCRNodeWrapper wrapperOfTypes(ExtendedNodeType primaryType, ExtendedNodeType... mixins) throws RepositoryException {
+        final JCRNodeWrapper wrapper = mock(JCRNodeWrapper.class);
+        when(wrapper.getPrimaryNodeType()).thenReturn(primaryType);
+        when(wrapper.getMixinNodeTypes()).thenReturn(mixins);
+        return wrapper;
+    }
+
     private static JSONNode<APIDecorator> representationSetting(String... propertyNames) throws IOException {
         final StringBuilder json = new StringBuilder("{\"properties\": {");
         for (int i = 0; i < propertyNames.length; i++) {
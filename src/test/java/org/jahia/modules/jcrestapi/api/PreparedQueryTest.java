@@ -0,0 +1,119 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.api;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PreparedQueryTest {
+
+    private static PreparedQuery create(String source) {
+        final PreparedQuery query = new PreparedQuery();
+        query.setName("test");
+        query.setSource(source);
+        return query;
+    }
+
+    @Test
+    public void positionalParametersShouldBeReplacedInOrder() {
+        final PreparedQuery query = create("select * from [nt:base] where [foo] = ? and [bar] > ?");
+
+        assertThat(query.getQuery(Arrays.<Object>asList("value", 42)))
+                .isEqualTo("select * from [nt:base] where [foo] = 'value' and [bar] > 42");
+    }
+
+    @Test
+    public void positionalPlaceholdersWithoutValueShouldBeLeftAsIs() {
+        final PreparedQuery query = create("select * from [nt:base] where [foo] = ? and [bar] > ?");
+
+        assertThat(query.getQuery(Collections.<Object>singletonList("value")))
+                .isEqualTo("select * from [nt:base] where [foo] = 'value' and [bar] > ?");
+    }
+
+    @Test
+    public void namedParametersShouldBeReplacedWherever() {
+        final PreparedQuery query = create("select * from [nt:base] where [foo] = :value or [bar] = :value and [baz] like :other");
+        final Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put("value", "it's");
+        params.put("other", 3);
+
+        assertThat(query.getQuery(params))
+                .isEqualTo("select * from [nt:base] where [foo] = 'it''s' or [bar] = 'it''s' and [baz] like 3");
+    }
+
+    @Test
+    public void aNamedParameterShouldNotMatchALongerName() {
+        final PreparedQuery query = create("select * from [nt:nodeType] where [jcr:nodeTypeName] like :nodeTypeName");
+
+        assertThat(query.getQuery(Collections.<String, Object>singletonMap("nodeType", "nt:%")))
+                .isEqualTo("select * from [nt:nodeType] where [jcr:nodeTypeName] like :nodeTypeName");
+    }
+
+    @Test
+    public void placeholdersInLiteralsAndNamesShouldBeIgnored() {
+        final PreparedQuery query = create("select * from [nt:base] as n where n.[a?b] = 'what?' and n.[c] = ':x' and n.[d] = ?");
+
+        assertThat(query.getQuery(Collections.<Object>singletonList("value")))
+                .isEqualTo("select * from [nt:base] as n where n.[a?b] = 'what?' and n.[c] = ':x' and n.[d] = 'value'");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidParameterNamesShouldBeRefused() {
+        create("select * from [nt:base] where [foo] = :value").getQuery(Collections.<String, Object>singletonMap("va lue", "x"));
+    }
+
+    @Test
+    public void changingTheSourceShouldChangeTheTemplate() {
+        final PreparedQuery query = create("select * from [nt:base] where [foo] = ?");
+        query.setSource("select * from [nt:base] where [bar] = ?");
+
+        assertThat(query.getQuery(Collections.<Object>singletonList(1))).isEqualTo("select * from [nt:base] where [bar] = 1");
+    }
+}
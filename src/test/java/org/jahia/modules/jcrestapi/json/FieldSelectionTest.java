@@ -0,0 +1,100 @@
+/*
+ * ==========================================================================================
+ * =                   JAHIA'S DUAL LICENSING - IMPORTANT INFORMATION                       =
+ * ==========================================================================================
+ *
+ *                                 http://www.jahia.com
+ *
+ *     Copyright (C) 2002-2020 Jahia Solutions Group SA. All rights reserved.
+ *
+ *     THIS FILE IS AVAILABLE UNDER TWO DIFFERENT LICENSES:
+ *     1/GPL OR 2/JSEL
+ *
+ *     1/ GPL
+ *     ==================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE GPL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ *     2/ JSEL - Commercial and Supported Versions of the program
+ *     ===================================================================================
+ *
+ *     IF YOU DECIDE TO CHOOSE THE JSEL LICENSE, YOU MUST COMPLY WITH THE FOLLOWING TERMS:
+ *
+ *     Alternatively, commercial and supported versions of the program - also known as
+ *     Enterprise Distributions - must be used in accordance with the terms and conditions
+ *     contained in a separate written agreement between you and Jahia Solutions Group SA.
+ *
+ *     If you are unsure which license is appropriate for your use,
+ *     please contact the sales department at sales@jahia.com.
+ */
+package org.jahia.modules.jcrestapi.json;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FieldSelectionTest {
+
+    @Test
+    public void noValueShouldNotRestrictAnything() {
+        assertThat(FieldSelection.parse(null)).isNull();
+    }
+
+    @Test
+    public void emptyValueShouldExcludeAllSubElements() {
+        final FieldSelection selection = FieldSelection.parse("");
+        assertThat(selection.includesAllProperties()).isFalse();
+        assertThat(selection.getPropertyNameGlobs()).isEmpty();
+        assertThat(selection.includesMixins()).isFalse();
+        assertThat(selection.includesChildren()).isFalse();
+        assertThat(selection.includesVersions()).isFalse();
+    }
+
+    @Test
+    public void namedPropertiesShouldBeSelected() {
+        final FieldSelection selection = FieldSelection.parse("properties(jcr__title, j:lastPublished),children");
+        assertThat(selection.includesAllProperties()).isFalse();
+        assertThat(selection.getPropertyNameGlobs()).containsExactly("jcr:title", "j:lastPublished");
+        assertThat(selection.includesChildren()).isTrue();
+        assertThat(selection.includesMixins()).isFalse();
+        assertThat(selection.includesVersions()).isFalse();
+    }
+
+    @Test
+    public void allPropertiesShouldWinOverNamedOnes() {
+        final FieldSelection selection = FieldSelection.parse("properties(jcr:title),mixins,properties,versions");
+        assertThat(selection.includesAllProperties()).isTrue();
+        assertThat(selection.getPropertyNameGlobs()).isNull();
+        assertThat(selection.includesMixins()).isTrue();
+        assertThat(selection.includesVersions()).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownFieldShouldBeRejected() {
+        FieldSelection.parse("properties,foo");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void argumentsShouldOnlyBeAcceptedForProperties() {
+        FieldSelection.parse("children(foo)");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unclosedParenthesisShouldBeRejected() {
+        FieldSelection.parse("properties(jcr:title");
+    }
+}
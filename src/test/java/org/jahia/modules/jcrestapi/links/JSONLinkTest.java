@@ -44,6 +44,7 @@
 package org.jahia.modules.jcrestapi.links;
 
 import org.jahia.modules.jcrestapi.API;
+import org.jahia.modules.jcrestapi.URIUtils;
 import org.junit.Test;
 
 import java.util.Arrays;
@@ -140,4 +141,31 @@ public class JSONLinkTest {
         assertThat(jsonLink.getURIAsString()).isEqualTo(Arrays.toString(links));
         assertThat(jsonLink.isMultiple()).isTrue();
     }
+
+    @Test
+    public void templatedLinksShouldExpandToTheSameURIsAsEagerOnes() {
+        final JSONLink node = JSONLink.createLink(API.SELF, LinkTemplate.NODE, "default", "en", "id");
+        assertThat(node.getURIAsString()).isEqualTo(URIUtils.getIdURI("default", "en", "id"));
+        assertThat(node).isEqualTo(JSONLink.createLink(API.SELF, URIUtils.getIdURI("default", "en", "id")));
+        assertThat(node.isMultiple()).isFalse();
+
+        final JSONLink property = JSONLink.createLink(API.SELF, LinkTemplate.PROPERTY_BY_PATH, "live", "fr", "/foo", "jcr:title");
+        assertThat(property.getURIAsString()).isEqualTo(URIUtils.getByPathURI("live", "fr", "/foo", true) + "/properties/jcr__title");
+
+        final JSONLink rootProperty = JSONLink.createLink(API.SELF, LinkTemplate.PROPERTY_BY_PATH, "live", "fr", "/", "jcr:uuid");
+        assertThat(rootProperty.getURIAsString()).isEqualTo(URIUtils.getByPathURI("live", "fr", "/", true) + "properties/jcr__uuid");
+    }
+
+    @Test
+    public void derivedLinksShouldFollowTheLinkTheyDeriveFrom() {
+        final JSONLink node = JSONLink.createLink(API.SELF, LinkTemplate.NODE, "default", "en", "id");
+        final String nodeURI = URIUtils.getIdURI("default", "en", "id");
+
+        final JSONLink children = JSONLink.createChildLink(API.SELF, node, "children");
+        assertThat(children.getURIAsString()).isEqualTo(nodeURI + "/children");
+
+        final JSONLink alias = JSONLink.createAlias(API.PARENT, children);
+        assertThat(alias.getRel()).isEqualTo(API.PARENT);
+        assertThat(alias.getURI()).isEqualTo(nodeURI + "/children");
+    }
 }